@@ -7,7 +7,8 @@
 // Java core packages
 import java.awt.*;
 import java.awt.event.*;
-import java.util.ArrayList;
+import java.lang.management.ManagementFactory;
+import java.util.*;
 
 // Java extension packages
 import javax.swing.*;
@@ -21,8 +22,28 @@ public class AddressBook extends JFrame {
 
     private int addAddressCount = 0;
 
-    // reference to database access object
-    private AddressBookDataAccess database;
+    // reference to database access object; stands in for the real
+    // data source until the background connection is made
+    private DeferredDataAccess database = new DeferredDataAccess();
+
+    // shows whether the database is connected
+    private JLabel connectionStatus = new JLabel( "Connecting..." );
+
+    // retries a failed connection; delay doubles up to a minute
+    private javax.swing.Timer reconnectTimer;
+    private int reconnectSeconds = 1;
+
+    // as-you-type suggestions for the search field
+    private TypeaheadService typeahead = new TypeaheadService();
+
+    // search box listing matches as the user types
+    private LiveSearchPanel liveSearch;
+
+    // removes soft-deleted entries in the background, if enabled
+    private PurgeWorker purgeWorker;
+
+    // applies schema changes at startup and backfills them, if enabled
+    private volatile SchemaMigrator schemaMigrator;
 
     // references to Actions
     Action newAction, saveAction, deleteAction,
@@ -34,18 +55,7 @@ public class AddressBook extends JFrame {
     {
         super( "Address Book" );
 
-        // create database connection
-        try {
-            database = new CloudscapeDataAccess();
-        }
-
-        // detect problems with database connection
-        catch ( Exception exception ) {
-            exception.printStackTrace();
-            System.exit( 1 );
-        }
-
-        // database connection successful, create GUI
+        // create GUI; the database is connected once it is shown
         JToolBar toolBar = new JToolBar();
         JMenu fileMenu = new JMenu( "File" );
         fileMenu.setMnemonic( 'F' );
@@ -94,10 +104,22 @@ public class AddressBook extends JFrame {
         // set up desktop
         desktop = new JDesktopPane();
 
+        // set up search box; opening a result shows its details
+        liveSearch = new LiveSearchPanel( database, typeahead,
+                new LiveSearchPanel.OpenListener() {
+                    public void open( AddressBookEntry person )
+                    {
+                        openEntryFrame( person );
+                    }
+                }
+        );
+
         // get the content pane to set up GUI
         Container c = getContentPane();
         c.add( toolBar, BorderLayout.NORTH );
         c.add( desktop, BorderLayout.CENTER );
+        c.add( liveSearch, BorderLayout.WEST );
+        c.add( connectionStatus, BorderLayout.SOUTH );
 
         // register for windowClosing event in case user
         // does not select Exit from File menu to terminate
@@ -120,11 +142,227 @@ public class AddressBook extends JFrame {
                 dimension.height - 200 );
 
         setVisible( true );
+        recordStartupTime( "startup.windowShownMillis" );
+
+        // icons and the connection arrive after the window appears
+        loadIcons();
+        connect();
     }  // end AddressBook constructor
 
+    // Open the database in the background: connect, prepare the
+    // statements and wrap the data source as configured. Transient
+    // failures are retried by ResilientDataAccess and a failing
+    // database is not hammered; if the database cannot be reached
+    // at all the address book stays open, offline, and tries again.
+    private void connect()
+    {
+        connectionStatus.setText( "Connecting to database..." );
+
+        new SwingWorker<AddressBookDataAccess, Void>() {
+
+            protected AddressBookDataAccess doInBackground()
+                    throws Exception
+            {
+                DataAccessConfig config = DataAccessConfig.current();
+
+                // bring the schema up to date before preparing
+                // statements that use it; backfills run once connected
+                if ( config.get( DataAccessConfig.MIGRATE ) ) {
+                    SchemaMigrator migrator = new SchemaMigrator(
+                            "AddressBook",
+                            config.get( DataAccessConfig.MIGRATE_CHUNK_SIZE ),
+                            config.get( DataAccessConfig
+                                    .MIGRATE_CHUNKS_PER_SECOND ) );
+                    migrator.migrate();
+                    schemaMigrator = migrator;
+                }
+
+                CloudscapeDataAccess cloudscape = new CloudscapeDataAccess();
+                AddressBookDataAccess opened = cloudscape;
+
+                try {
+                    cloudscape.prepareAll();
+
+                    // optional near and shared caches of search results
+                    if ( config.get( DataAccessConfig.CACHE ) )
+                        opened = new TieredCacheDataAccess( opened );
+
+                    opened = new ResilientDataAccess( opened );
+
+                    // optional in-memory index for lookups by phone
+                    if ( config.get( DataAccessConfig.PHONE_INDEX ) ) {
+                        ReverseLookupDataAccess lookup =
+                                new ReverseLookupDataAccess( opened, 10000,
+                                        config.get( DataAccessConfig
+                                                .PHONE_INDEX_MAX_STALE_SECONDS ) );
+                        lookup.loadInBackground( "AddressBook" );
+                        opened = lookup;
+                    }
+
+                    // optional audit trail of every change
+                    String auditDir =
+                            config.get( DataAccessConfig.AUDIT_DIR );
+
+                    if ( !auditDir.isEmpty() )
+                        opened = new AuditingDataAccess( opened, cloudscape,
+                                new AuditLog( new java.io.File( auditDir ) ),
+                                System.getProperty( "user.name" ) );
+
+                    // outermost, so that spans include every layer
+                    if ( Tracer.isEnabled() )
+                        opened = new TracingDataAccess( opened );
+
+                    return opened;
+                }
+                catch ( Exception exception ) {
+                    opened.close();
+                    throw exception;
+                }
+            }
+
+            protected void done()
+            {
+                try {
+                    connected( get() );
+                }
+                catch ( InterruptedException exception ) {
+                    Thread.currentThread().interrupt();
+                }
+
+                // detect problems with database connection
+                catch ( java.util.concurrent.ExecutionException exception ) {
+                    exception.getCause().printStackTrace();
+                    offline( exception.getCause() );
+                }
+
+                if ( DataAccessConfig.current().get(
+                        DataAccessConfig.STARTUP_TRAINING ) )
+                    shutDown();
+            }
+        }.execute();
+    }
+
+    // start the work that needs the database
+    private void connected( AddressBookDataAccess opened )
+    {
+        if ( !database.setDatabase( opened ) )
+            return;     // closed while connecting
+
+        recordStartupTime( "startup.connectedMillis" );
+        reconnectSeconds = 1;
+        connectionStatus.setText( "Connected" );
+
+        // index names and email addresses for suggestions
+        typeahead.loadInBackground( "AddressBook" );
+
+        // deletes only mark entries; purge them in throttled batches
+        DataAccessConfig config = DataAccessConfig.current();
+
+        if ( config.get( DataAccessConfig.SOFT_DELETE ) ) {
+            purgeWorker = new PurgeWorker( "AddressBook",
+                    config.get( DataAccessConfig.PURGE_BATCH_SIZE ),
+                    config.get( DataAccessConfig.PURGE_BATCHES_PER_SECOND ) );
+            purgeWorker.setCompactAfter(
+                    config.get( DataAccessConfig.PURGE_COMPACT_AFTER ) );
+            purgeWorker.start();
+        }
+
+        // fill new columns for existing rows in throttled chunks
+        if ( schemaMigrator != null )
+            schemaMigrator.start();
+
+        liveSearch.refresh();
+    }
+
+    // show that the database is unreachable and try again later
+    private void offline( Throwable cause )
+    {
+        String reason = cause.getMessage() != null ? cause.getMessage() :
+                cause.getClass().getSimpleName();
+
+        connectionStatus.setText( "Offline: " + reason +
+                " (retrying in " + reconnectSeconds + " s)" );
+
+        reconnectTimer = new javax.swing.Timer( reconnectSeconds * 1000,
+                new ActionListener() {
+                    public void actionPerformed( ActionEvent event )
+                    {
+                        connect();
+                    }
+                }
+        );
+        reconnectTimer.setRepeats( false );
+        reconnectTimer.start();
+
+        reconnectSeconds = Math.min( 60, reconnectSeconds * 2 );
+    }
+
+    // load the tool bar and menu icons in the background; each
+    // appears as soon as the batch is read
+    private void loadIcons()
+    {
+        final Map<Action, String> icons = new LinkedHashMap<Action, String>();
+        icons.put( newAction, "images/New24.png" );
+        icons.put( saveAction, "images/Save24.png" );
+        icons.put( deleteAction, "images/Delete24.png" );
+        icons.put( searchAction, "images/Find24.png" );
+        icons.put( addAddressAction, "images/books_06.png" );
+        icons.put( addEmailAction, "images/email_envelope.png" );
+        icons.put( addPhoneAction, "images/phone_buttons_2.png" );
+
+        new SwingWorker<Map<Action, Icon>, Void>() {
+
+            protected Map<Action, Icon> doInBackground()
+            {
+                Map<Action, Icon> loaded = new LinkedHashMap<Action, Icon>();
+
+                for ( Map.Entry<Action, String> icon : icons.entrySet() )
+                    loaded.put( icon.getKey(), new ImageIcon(
+                            AddressBook.class.getResource( icon.getValue() ) ) );
+
+                return loaded;
+            }
+
+            protected void done()
+            {
+                try {
+                    for ( Map.Entry<Action, Icon> icon : get().entrySet() )
+                        icon.getKey().putValue( Action.SMALL_ICON,
+                                icon.getValue() );
+                }
+                catch ( Exception exception ) {
+                    exception.printStackTrace();   // text-only tool bar
+                }
+            }
+        }.execute();
+    }
+
+    // record time since the JVM started as a startup metric
+    private static void recordStartupTime( String name )
+    {
+        final long millis = System.currentTimeMillis() -
+                ManagementFactory.getRuntimeMXBean().getStartTime();
+
+        Metrics.gauge( name, new Metrics.Gauge() {
+            public Object value()
+            {
+                return millis;
+            }
+        } );
+    }
+
     // close database connection and terminate program
     private void shutDown()
     {
+        if ( reconnectTimer != null )
+            reconnectTimer.stop();
+
+        if ( purgeWorker != null )
+            purgeWorker.stop();
+
+        if ( schemaMigrator != null )
+            schemaMigrator.stop();
+
         database.close();   // close database connection
         System.exit( 0 );   // terminate program
     }
@@ -162,6 +400,36 @@ public class AddressBook extends JFrame {
     // method to launch program execution
     public static void main( String args[] )
     {
+        // refuse to start with settings that do not validate
+        try {
+            DataAccessConfig.watch( DataAccessConfig.load().get(
+                    DataAccessConfig.RELOAD_SECONDS ) );
+        }
+        catch ( IllegalArgumentException exception ) {
+            System.err.println( exception.getMessage() );
+            System.exit( 1 );
+        }
+
+        // optional span tracing to standard output or a file
+        String tracing = DataAccessConfig.current().get(
+                DataAccessConfig.TRACING );
+
+        try {
+            if ( tracing.equals( "stdout" ) )
+                Tracer.setExporter( new LogSpanExporter() );
+            else if ( !tracing.isEmpty() )
+                Tracer.setExporter(
+                        new LogSpanExporter( new java.io.File( tracing ) ) );
+        }
+        catch ( java.io.IOException exception ) {
+            System.err.println( "Cannot write spans to " + tracing + ": " +
+                    exception.getMessage() );
+            System.exit( 1 );
+        }
+
+        // load classes in parallel with building the window
+        StartupPreloader.start();
+
         SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run() {
@@ -184,8 +452,6 @@ public class AddressBook extends JFrame {
         // set up action's name, icon, descriptions and mnemonic
         public NewAction() {
             putValue(NAME, "New");
-            putValue(SMALL_ICON, new ImageIcon(
-                    getClass().getResource("images/New24.png")));
             putValue(SHORT_DESCRIPTION, "New");
             putValue(LONG_DESCRIPTION,
                     "Add a new address book entry");
@@ -221,8 +487,6 @@ public class AddressBook extends JFrame {
         public SaveAction()
         {
             putValue( NAME, "Save" );
-            putValue( SMALL_ICON, new ImageIcon(
-                    getClass().getResource( "images/Save24.png" ) ) );
             putValue( SHORT_DESCRIPTION, "Save" );
             putValue( LONG_DESCRIPTION,
                     "Save an address book entry" );
@@ -232,61 +496,98 @@ public class AddressBook extends JFrame {
         // save new entry or update existing entry
         public void actionPerformed( ActionEvent e )
         {
+            final long clicked = System.nanoTime();
+
             SwingUtilities.invokeLater(new Runnable() {
                 @Override
                 public void run() {
-                    // get currently active window
-                    AddressBookEntryFrame currentFrame =
-                            (AddressBookEntryFrame) desktop.getSelectedFrame();
-
-                    // obtain AddressBookEntry from window
-                    AddressBookEntry person =
-                            currentFrame.getAddressBookEntry();
-
-                    //Checking if EirCode is valid
-                    boolean isEircodeValid = false;
-                    if (addAddressCount == 0)
-                        isEircodeValid = isValid(person.getEircode());
-
-                    if (isEircodeValid) {
-
-                        // insert person in address book
-                        try {
-
-                            // Get personID. If 0, this is a new entry;
-                            // otherwise an update must be performed.
-                            int personID = person.getPersonID();
+                    // trace the save, including its wait for the EDT
+                    Span span = Tracer.start("ui.SaveAction").setAttribute(
+                            "queuedMicros", (System.nanoTime() - clicked) / 1000);
 
-                            // determine string for message dialogs
-                            String operation =
-                                    (personID == 0) ? "Insertion" : "Update";
+                    try {
+                        // get currently active window
+                        AddressBookEntryFrame currentFrame =
+                                (AddressBookEntryFrame) desktop.getSelectedFrame();
+
+                        // obtain AddressBookEntry from window
+                        AddressBookEntry person =
+                                currentFrame.getAddressBookEntry();
+
+                        //Checking if EirCode is valid
+                        boolean isEircodeValid = false;
+                        if (addAddressCount == 0) {
+                            Span check = Tracer.start("ui.validateEircode");
+                            isEircodeValid = isValid(person.getEircode());
+                            check.setAttribute("valid", isEircodeValid).end();
+                        }
 
-                            // insert or update entry
-                            if (personID == 0)
-                                database.newPerson(person);
-                            else
-                                database.savePerson(person);
+                        if (isEircodeValid) {
+
+                            // insert person in address book
+                            try {
+
+                                // Get personID. If 0, this is a new entry;
+                                // otherwise an update must be performed.
+                                int personID = person.getPersonID();
+
+                                // determine string for message dialogs
+                                String operation =
+                                        (personID == 0) ? "Insertion" : "Update";
+
+                                // insert or update entry
+                                span.setAttribute("operation", operation);
+
+                                boolean saved = (personID == 0) ?
+                                        database.newPerson(person) :
+                                        database.savePerson(person);
+
+                                span.setAttribute("saved", saved);
+
+                                // false if, e.g., another user deleted
+                                // the entry; nothing was changed
+                                if (saved) {
+                                    typeahead.entrySaved(person);
+                                    liveSearch.refresh();
+                                }
+
+                                // display result; the span ends first
+                                // so that it does not include the time
+                                // the dialog is open
+                                span.end();
+
+                                if (saved)
+                                    JOptionPane.showMessageDialog(desktop,
+                                            operation + " successful");
+                                else
+                                    JOptionPane.showMessageDialog(desktop,
+                                            operation + " failed: the entry " +
+                                                    "no longer exists",
+                                            operation + " failed",
+                                            JOptionPane.ERROR_MESSAGE);
+                            }  // end try
+
+                            // detect database errors
+                            catch (DataAccessException exception) {
+                                span.setError(exception).end();
+                                JOptionPane.showMessageDialog(desktop, exception,
+                                        "DataAccessException",
+                                        JOptionPane.ERROR_MESSAGE);
+                                exception.printStackTrace();
+                            }
 
-                            // display success message
-                            JOptionPane.showMessageDialog(desktop,
-                                    operation + " successful");
-                        }  // end try
+                            // close current window and dispose of resources
+                            currentFrame.dispose();
 
-                        // detect database errors
-                        catch (DataAccessException exception) {
-                            JOptionPane.showMessageDialog(desktop, exception,
-                                    "DataAccessException",
+                        } else {
+                            span.end();
+                            JOptionPane.showMessageDialog(desktop, "Eircode Format Is Wrong\nShould contain 2 part code with 7 characters\nExample: A65 F4E2",
+                                    "Wrong format",
                                     JOptionPane.ERROR_MESSAGE);
-                            exception.printStackTrace();
                         }
-
-                        // close current window and dispose of resources
-                        currentFrame.dispose();
-
-                    } else {
-                        JOptionPane.showMessageDialog(desktop, "Eircode Format Is Wrong\nShould contain 2 part code with 7 characters\nExample: A65 F4E2",
-                                "Wrong format",
-                                JOptionPane.ERROR_MESSAGE);
+                    }
+                    finally {
+                        span.end();
                     }
 
                 }  // end method actionPerformed
@@ -301,8 +602,6 @@ public class AddressBook extends JFrame {
         public DeleteAction()
         {
             putValue( NAME, "Delete" );
-            putValue( SMALL_ICON, new ImageIcon(
-                    getClass().getResource( "images/Delete24.png" ) ) );
             putValue( SHORT_DESCRIPTION, "Delete" );
             putValue( LONG_DESCRIPTION,
                     "Delete an address book entry" );
@@ -314,43 +613,69 @@ public class AddressBook extends JFrame {
             SwingUtilities.invokeLater(new Runnable() {
                 @Override
                 public void run() {
-                    // get currently active window
-                    AddressBookEntryFrame currentFrame =
-                            (AddressBookEntryFrame) desktop.getSelectedFrame();
-
-                    // get AddressBookEntry from window
-                    AddressBookEntry person =
-                            currentFrame.getAddressBookEntry();
-
-                    // If personID is 0, this is new entry that has not
-                    // been inserted. Therefore, delete is not necessary.
-                    // Display message and return.
-                    if (person.getPersonID() == 0) {
-                        JOptionPane.showMessageDialog(desktop,
-                                "New entries must be saved before they can be " +
-                                        "deleted. \nTo cancel a new entry, simply " +
-                                        "close the window containing the entry");
-                        return;
-                    }
+                    Span span = Tracer.start("ui.DeleteAction");
 
-                    // delete person
                     try {
-                        database.deletePerson(person);
+                        // get currently active window
+                        AddressBookEntryFrame currentFrame =
+                                (AddressBookEntryFrame) desktop.getSelectedFrame();
+
+                        // get AddressBookEntry from window
+                        AddressBookEntry person =
+                                currentFrame.getAddressBookEntry();
+
+                        // If personID is 0, this is new entry that has not
+                        // been inserted. Therefore, delete is not necessary.
+                        // Display message and return.
+                        if (person.getPersonID() == 0) {
+                            span.end();
+                            JOptionPane.showMessageDialog(desktop,
+                                    "New entries must be saved before they can be " +
+                                            "deleted. \nTo cancel a new entry, simply " +
+                                            "close the window containing the entry");
+                            return;
+                        }
 
-                        // display message indicating success
-                        JOptionPane.showMessageDialog(desktop,
-                                "Deletion successful");
-                    }
+                        // delete person
+                        try {
+                            boolean deleted = database.deletePerson(person);
 
-                    // detect problems deleting person
-                    catch (DataAccessException exception) {
-                        JOptionPane.showMessageDialog(desktop, exception,
-                                "Deletion failed", JOptionPane.ERROR_MESSAGE);
-                        exception.printStackTrace();
-                    }
+                            span.setAttribute("deleted", deleted);
+
+                            // false if the entry was already deleted
+                            if (deleted) {
+                                typeahead.entryDeleted(person.getPersonID());
+                                liveSearch.refresh();
+                            }
+
+                            // display message indicating the result
+                            span.end();
+
+                            if (deleted)
+                                JOptionPane.showMessageDialog(desktop,
+                                        "Deletion successful");
+                            else
+                                JOptionPane.showMessageDialog(desktop,
+                                        "Deletion failed: the entry no " +
+                                                "longer exists",
+                                        "Deletion failed",
+                                        JOptionPane.ERROR_MESSAGE);
+                        }
+
+                        // detect problems deleting person
+                        catch (DataAccessException exception) {
+                            span.setError(exception).end();
+                            JOptionPane.showMessageDialog(desktop, exception,
+                                    "Deletion failed", JOptionPane.ERROR_MESSAGE);
+                            exception.printStackTrace();
+                        }
 
-                    // close current window and dispose of resources
-                    currentFrame.dispose();
+                        // close current window and dispose of resources
+                        currentFrame.dispose();
+                    }
+                    finally {
+                        span.end();
+                    }
 
                 }  // end method actionPerformed
             });
@@ -363,63 +688,68 @@ public class AddressBook extends JFrame {
         // set up action's name, icon, descriptions and mnemonic
         public SearchAction() {
             putValue(NAME, "Search");
-            putValue(SMALL_ICON, new ImageIcon(
-                    getClass().getResource("images/Find24.png")));
             putValue(SHORT_DESCRIPTION, "Search");
             putValue(LONG_DESCRIPTION,
                     "Search for an address book entry");
             putValue(MNEMONIC_KEY, new Integer('r'));
         }
 
-        // locate existing entry
+        // move to the search box, which searches as the user types
         public void actionPerformed(ActionEvent e) {
-            SwingUtilities.invokeLater(new Runnable() {
-                @Override
-                public void run() {
-
-                    String lastName =
-                            JOptionPane.showInputDialog(desktop,
-                                    "Enter last name");
-
-                    // if last name was input, search for it; otherwise,
-                    // do nothing
-
-                    if (lastName != null) {
+            liveSearch.focusSearch();
+        }
+    }  // end inner class SearchAction
 
-                        // Execute search. If found, AddressBookEntry
-                        // is returned containing data.
-                        ArrayList<AddressBookEntry> person = database.findPerson(lastName);
+    // Load details of an entry found by a search and display them.
+    // A person with several addresses, phones or emails (e.g. after a
+    // merge) gets a window for each combination, as the search did
+    // before details were loaded lazily.
+    private void openEntryFrame(AddressBookEntry person)
+    {
+        Span span = Tracer.start("ui.openEntry");
 
-                        if (person != null) {
+        try {
+            ArrayList<AddressBookEntry> details;
 
-                            // create window to display AddressBookEntry
+            try {
+                details = database.findDetails(person);
+            }
 
-                            // set AddressBookEntry to display
-                            for (int i = 0; i < person.size(); i++) {
-                                AddressBookEntryFrame entryFrame =
-                                        createAddressBookEntryFrame();
-                                entryFrame.setAddressBookEntry(person.get(i));
-                                desktop.add(entryFrame);
-                                entryFrame.setVisible(true);
-                            }
-                        } else {
-                            JOptionPane.showMessageDialog(desktop,
-                                    "Entry with last name \"" + lastName +
-                                            "\" not found in address book");
+            // detect problems loading details
+            catch (DataAccessException exception) {
+                span.setError(exception).end();
+                JOptionPane.showMessageDialog(desktop, exception,
+                        "Search failed", JOptionPane.ERROR_MESSAGE);
+                exception.printStackTrace();
+                return;
+            }
 
-                        }  // end "if ( lastName == null )"
+            span.setAttribute("rows", details.size());
 
-                    }  // end method actionPerformed
+            if (details.isEmpty()) {
+                span.end();
+                JOptionPane.showMessageDialog(desktop,
+                        "Details of " + person.getFirstName() + " " +
+                                person.getLastName() + " not found");
+                return;
+            }
 
-                }  // end inner class SearchAction
-            });
+            for (int i = 0; i < details.size(); i++) {
+                AddressBookEntryFrame entryFrame =
+                        createAddressBookEntryFrame();
+                entryFrame.setAddressBookEntry(details.get(i));
+                desktop.add(entryFrame);
+                entryFrame.setVisible(true);
+            }
+        }
+        finally {
+            span.end();
         }
     }
+
     private class addAddressAction extends AbstractAction {
         public addAddressAction() {
             putValue(NAME, "Address");
-            putValue(SMALL_ICON, new ImageIcon(
-                    getClass().getResource("images/books_06.png")));
             putValue(SHORT_DESCRIPTION, "Add Address");
             putValue(LONG_DESCRIPTION,
                     "Add a new address book entry");
@@ -462,8 +792,6 @@ public class AddressBook extends JFrame {
     private class addEmailAction extends AbstractAction {
         public addEmailAction() {
             putValue(NAME, "Email");
-            putValue(SMALL_ICON, new ImageIcon(
-                    getClass().getResource("images/email_envelope.png")));
             putValue(SHORT_DESCRIPTION, "Add Email");
             putValue(LONG_DESCRIPTION,
                     "Add a new address book entry");
@@ -507,8 +835,6 @@ public class AddressBook extends JFrame {
     private class addPhoneAction extends AbstractAction {
         public addPhoneAction() {
             putValue(NAME, "Phone");
-            putValue(SMALL_ICON, new ImageIcon(
-                    getClass().getResource("images/phone_buttons_2.png")));
             putValue(SHORT_DESCRIPTION, "Add Phone Number");
             putValue(LONG_DESCRIPTION,
                     "Add a new address book entry");
@@ -5,12 +5,61 @@
 // Java core packages
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 
 public interface AddressBookDataAccess {
 
     // Locate specified person by last name. Return
     // AddressBookEntry containing information.
-    public ArrayList<AddressBookEntry> findPerson(String lastName );
+    public ArrayList<AddressBookEntry> findPerson( String lastName )
+            throws DataAccessException;
+
+    // Locate people by last name for list views. Return entries
+    // holding only personID, first name and last name.
+    public ArrayList<AddressBookEntry> findPersonSummaries(
+            String lastName ) throws DataAccessException;
+
+    // Locate up to limit people whose last name starts with prefix,
+    // ordered by name, for as-you-type searching. Return summaries
+    // as findPersonSummaries does.
+    public ArrayList<AddressBookEntry> findPersonSummariesByPrefix(
+            String prefix, int limit ) throws DataAccessException;
+
+    // Locate people by phone number, written in any common format;
+    // the number is normalized as PhoneNumbers does. Return
+    // AddressBookEntries containing information, as findPerson does.
+    public ArrayList<AddressBookEntry> findByPhone( String phoneNumber )
+            throws DataAccessException;
+
+    // Locate people by email address, in any case; the address is
+    // normalized as EmailAddresses does. Return AddressBookEntries
+    // containing information, as findPerson does.
+    public ArrayList<AddressBookEntry> findByEmail( String emailAddress )
+            throws DataAccessException;
+
+    // Count the people with an email address in each domain. Return
+    // up to limit domains with the most people, most first, mapped
+    // to their number of people.
+    public LinkedHashMap<String, Integer> countByEmailDomain( int limit )
+            throws DataAccessException;
+
+    // Ask the server to stop the search currently running for this
+    // data source, if any; that search fails with a
+    // DataAccessException. May be called from any thread.
+    public void cancelSearch();
+
+    // Load address, phone and email details into an entry returned
+    // by findPersonSummaries. Return boolean indicating whether the
+    // details were found.
+    public boolean loadDetails( AddressBookEntry person )
+            throws DataAccessException;
+
+    // Locate every address, phone and email combination of the
+    // person of an entry returned by findPersonSummaries, e.g. after
+    // a merge gave them more than one of each. Return full entries,
+    // one per combination, in the order loadDetails prefers them.
+    public ArrayList<AddressBookEntry> findDetails( AddressBookEntry person )
+            throws DataAccessException;
 
 
     // Update information for specified person.
@@ -27,6 +27,24 @@ public class AddressBookEntry {
         personID = id;
     }
 
+    // copy another entry, e.g. one held in a cache
+    public AddressBookEntry( AddressBookEntry other )
+    {
+        firstName = other.firstName;
+        lastName = other.lastName;
+        address1 = other.address1;
+        address2 = other.address2;
+        city = other.city;
+        state = other.state;
+        EirCode = other.EirCode;
+        phoneNumber = other.phoneNumber;
+        emailAddress = other.emailAddress;
+        personID = other.personID;
+        addressID = other.addressID;
+        phoneID = other.phoneID;
+        emailID = other.emailID;
+    }
+
     // set person's first name
     public void setFirstName( String first )
     {
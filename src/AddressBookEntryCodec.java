@@ -0,0 +1,361 @@
+// AddressBookEntryCodec.java
+// Compact, versioned binary format for AddressBookEntry, used
+// wherever entries leave the Java heap: caches, snapshots,
+// replication and network transport.
+//
+// A list is encoded as
+//     version byte, varint count, count entries
+// and each entry as
+//     varint length of the rest of the entry
+//     varint field bitmap: bit i set if string i is non-empty,
+//                          bit 9 + i set if string i is null
+//     varint personID, addressID, phoneID, emailID
+//     for each non-empty string: varint byte length, UTF-8 bytes
+// Strings are in the order firstName, lastName, address1, address2,
+// city, state, eircode, phoneNumber, emailAddress. Empty and null
+// strings take no bytes beyond their bitmap bit. The length prefix
+// lets readers skip entries and lets later versions append fields
+// that older readers ignore: a later version must keep every field
+// above in place and add new ones only after the last string,
+// inside the entry's length, and must raise VERSION. Readers accept
+// any version from 1 up, read the fields they know and skip the
+// rest of each entry.
+//
+// View reads an encoded entry in place, decoding only the fields
+// that are asked for.
+
+// Java core packages
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class AddressBookEntryCodec {
+
+    // current format version
+    public static final byte VERSION = 1;
+
+    // number of string fields in an entry
+    static final int STRING_FIELDS = 9;
+
+    // indexes of the string fields
+    public static final int FIRST_NAME = 0, LAST_NAME = 1, ADDRESS1 = 2,
+            ADDRESS2 = 3, CITY = 4, STATE = 5, EIRCODE = 6, PHONE = 7,
+            EMAIL = 8;
+
+    // no instances; all methods are static
+    private AddressBookEntryCodec()
+    {
+    }
+
+    // encode a list of entries into a new byte array
+    public static byte[] encode( List<AddressBookEntry> people )
+    {
+        byte[][][] strings = new byte[ people.size() ][][];
+        int size = 1 + varintSize( people.size() );
+
+        for ( int i = 0; i < people.size(); i++ ) {
+            strings[ i ] = utf8( people.get( i ) );
+            int entrySize = entrySize( people.get( i ), strings[ i ] );
+            size += varintSize( entrySize ) + entrySize;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate( size );
+        buffer.put( VERSION );
+        putVarint( buffer, people.size() );
+
+        for ( int i = 0; i < people.size(); i++ )
+            putEntry( buffer, people.get( i ), strings[ i ] );
+
+        return buffer.array();
+    }
+
+    // encode one entry, with version byte, into a new byte array
+    public static byte[] encode( AddressBookEntry person )
+    {
+        byte[][] strings = utf8( person );
+        int entrySize = entrySize( person, strings );
+
+        ByteBuffer buffer = ByteBuffer.allocate(
+                1 + varintSize( entrySize ) + entrySize );
+        buffer.put( VERSION );
+        putEntry( buffer, person, strings );
+
+        return buffer.array();
+    }
+
+    // decode a list of entries from the buffer's current position
+    public static ArrayList<AddressBookEntry> decode( ByteBuffer buffer )
+    {
+        checkVersion( buffer.get() );
+
+        int count = getVarint( buffer );
+        ArrayList<AddressBookEntry> people =
+                new ArrayList<AddressBookEntry>( count );
+        View view = new View();
+
+        for ( int i = 0; i < count; i++ ) {
+            view.wrap( buffer, buffer.position() );
+            people.add( view.toEntry() );
+            buffer.position( view.end() );
+        }
+
+        return people;
+    }
+
+    // decode one entry written by encode(AddressBookEntry)
+    public static AddressBookEntry decodeEntry( ByteBuffer buffer )
+    {
+        checkVersion( buffer.get() );
+
+        View view = new View();
+        view.wrap( buffer, buffer.position() );
+        buffer.position( view.end() );
+
+        return view.toEntry();
+    }
+
+    // Read-only view of one encoded entry (without version byte)
+    // inside a buffer. A view can be re-pointed at other entries
+    // with wrap, so one view can scan many entries without
+    // allocating.
+    public static class View {
+        private ByteBuffer buffer;
+        private int end;
+        private int bitmap;
+        private int personID, addressID, phoneID, emailID;
+        private int[] offsets = new int[ STRING_FIELDS ];
+        private int[] lengths = new int[ STRING_FIELDS ];
+
+        // point view at the entry starting at offset; the buffer's
+        // position is not changed
+        public View wrap( ByteBuffer source, int offset )
+        {
+            ByteBuffer in = source.duplicate();
+            in.position( offset );
+
+            int length = getVarint( in );
+            end = in.position() + length;
+            bitmap = getVarint( in );
+            personID = getVarint( in );
+            addressID = getVarint( in );
+            phoneID = getVarint( in );
+            emailID = getVarint( in );
+
+            for ( int i = 0; i < STRING_FIELDS; i++ ) {
+                if ( ( bitmap & ( 1 << i ) ) != 0 ) {
+                    lengths[ i ] = getVarint( in );
+                    offsets[ i ] = in.position();
+                    in.position( in.position() + lengths[ i ] );
+                }
+                else
+                    lengths[ i ] = 0;
+            }
+
+            buffer = source;
+            return this;
+        }
+
+        // offset just past this entry, where the next one starts
+        public int end()
+        {
+            return end;
+        }
+
+        public int getPersonID()
+        {
+            return personID;
+        }
+
+        public int getAddressID()
+        {
+            return addressID;
+        }
+
+        public int getPhoneID()
+        {
+            return phoneID;
+        }
+
+        public int getEmailID()
+        {
+            return emailID;
+        }
+
+        // decode one string field, e.g. getString( LAST_NAME )
+        public String getString( int field )
+        {
+            if ( ( bitmap & ( 1 << ( STRING_FIELDS + field ) ) ) != 0 )
+                return null;
+
+            if ( lengths[ field ] == 0 )
+                return "";
+
+            if ( buffer.hasArray() )
+                return new String( buffer.array(),
+                        buffer.arrayOffset() + offsets[ field ],
+                        lengths[ field ], StandardCharsets.UTF_8 );
+
+            byte[] bytes = new byte[ lengths[ field ] ];
+            ByteBuffer in = buffer.duplicate();
+            in.position( offsets[ field ] );
+            in.get( bytes );
+
+            return new String( bytes, StandardCharsets.UTF_8 );
+        }
+
+        // compare a string field with an ASCII value without decoding
+        public boolean asciiEquals( int field, String value )
+        {
+            if ( value == null || lengths[ field ] != value.length() )
+                return false;
+
+            for ( int i = 0; i < lengths[ field ]; i++ )
+                if ( buffer.get( offsets[ field ] + i ) != value.charAt( i ) )
+                    return false;
+
+            return true;
+        }
+
+        // copy every field into an existing entry
+        public void copyTo( AddressBookEntry person )
+        {
+            person.setPersonID( personID );
+            person.setAddressID( addressID );
+            person.setPhoneID( phoneID );
+            person.setEmailID( emailID );
+            person.setFirstName( getString( FIRST_NAME ) );
+            person.setLastName( getString( LAST_NAME ) );
+            person.setAddress1( getString( ADDRESS1 ) );
+            person.setAddress2( getString( ADDRESS2 ) );
+            person.setCity( getString( CITY ) );
+            person.setState( getString( STATE ) );
+            person.setEircode( getString( EIRCODE ) );
+            person.setPhoneNumber( getString( PHONE ) );
+            person.setEmailAddress( getString( EMAIL ) );
+        }
+
+        // decode into a new entry
+        public AddressBookEntry toEntry()
+        {
+            AddressBookEntry person = new AddressBookEntry();
+            copyTo( person );
+            return person;
+        }
+    }  // end inner class View
+
+    // write one entry: length, bitmap, IDs, strings
+    private static void putEntry( ByteBuffer buffer,
+            AddressBookEntry person, byte[][] strings )
+    {
+        putVarint( buffer, entrySize( person, strings ) );
+        putVarint( buffer, bitmap( strings ) );
+        putVarint( buffer, person.getPersonID() );
+        putVarint( buffer, person.getAddressID() );
+        putVarint( buffer, person.getPhoneID() );
+        putVarint( buffer, person.getEmailID() );
+
+        for ( byte[] field : strings )
+            if ( field != null && field.length > 0 ) {
+                putVarint( buffer, field.length );
+                buffer.put( field );
+            }
+    }
+
+    // size of an entry after its length prefix
+    private static int entrySize( AddressBookEntry person,
+            byte[][] strings )
+    {
+        int size = varintSize( bitmap( strings ) ) +
+                varintSize( person.getPersonID() ) +
+                varintSize( person.getAddressID() ) +
+                varintSize( person.getPhoneID() ) +
+                varintSize( person.getEmailID() );
+
+        for ( byte[] field : strings )
+            if ( field != null && field.length > 0 )
+                size += varintSize( field.length ) + field.length;
+
+        return size;
+    }
+
+    // presence and null bits of an entry's strings
+    private static int bitmap( byte[][] strings )
+    {
+        int bitmap = 0;
+
+        for ( int i = 0; i < STRING_FIELDS; i++ )
+            if ( strings[ i ] == null )
+                bitmap |= 1 << ( STRING_FIELDS + i );
+            else if ( strings[ i ].length > 0 )
+                bitmap |= 1 << i;
+
+        return bitmap;
+    }
+
+    // UTF-8 bytes of an entry's strings (null for null strings)
+    private static byte[][] utf8( AddressBookEntry person )
+    {
+        String[] values = { person.getFirstName(), person.getLastName(),
+                person.getAddress1(), person.getAddress2(),
+                person.getCity(), person.getState(), person.getEircode(),
+                person.getPhoneNumber(), person.getEmailAddress() };
+        byte[][] fields = new byte[ STRING_FIELDS ][];
+
+        for ( int i = 0; i < STRING_FIELDS; i++ )
+            if ( values[ i ] != null )
+                fields[ i ] = values[ i ].getBytes( StandardCharsets.UTF_8 );
+
+        return fields;
+    }
+
+    // versions are unsigned; 0 was never written
+    private static void checkVersion( byte version )
+    {
+        if ( ( version & 0xFF ) < 1 )
+            throw new IllegalArgumentException(
+                    "Unsupported entry format version " + ( version & 0xFF ) );
+    }
+
+    // Write an int as an unsigned LEB128 varint: 7 bits per byte,
+    // high bit set on all but the last byte. IDs and lengths are
+    // never negative, so small values take one or two bytes.
+    static void putVarint( ByteBuffer buffer, int value )
+    {
+        while ( ( value & ~0x7F ) != 0 ) {
+            buffer.put( ( byte ) ( ( value & 0x7F ) | 0x80 ) );
+            value >>>= 7;
+        }
+
+        buffer.put( ( byte ) value );
+    }
+
+    // read a varint written by putVarint
+    static int getVarint( ByteBuffer buffer )
+    {
+        int value = 0;
+
+        for ( int shift = 0; shift < 35; shift += 7 ) {
+            byte b = buffer.get();
+            value |= ( b & 0x7F ) << shift;
+
+            if ( b >= 0 )
+                return value;
+        }
+
+        throw new IllegalArgumentException( "Malformed varint" );
+    }
+
+    // number of bytes putVarint writes for a value
+    static int varintSize( int value )
+    {
+        int size = 1;
+
+        while ( ( value & ~0x7F ) != 0 ) {
+            value >>>= 7;
+            size++;
+        }
+
+        return size;
+    }
+}  // end class AddressBookEntryCodec
@@ -0,0 +1,562 @@
+// AdmissionControlDataAccess.java
+// AddressBookDataAccess decorator that decides which calls reach the
+// data source, and in what order, so that one user or script
+// hammering searches cannot monopolize the database connection.
+//
+// Every call belongs to a lane: writes (newPerson, savePerson,
+// deletePerson), interactive reads (summaries, prefix searches,
+// phone lookups, loadDetails) and bulk reads (findPerson, which
+// joins every table).
+// A call is admitted in three steps:
+//
+//   - it takes a token from its caller's bucket and from its lane's
+//     bucket; if either is empty the call is rejected at once
+//   - if fewer than the allowed number of calls are running it runs;
+//     otherwise it waits in a bounded queue in which writes are
+//     served before reads and reads before bulk reads, oldest first
+//     within a lane. A full queue rejects the call, except that a
+//     write or read takes the place of the newest waiter of a lower
+//     lane, which is rejected instead
+//   - each lane has a maximum wait. A call that is expected, from
+//     the calls ahead of it and recent service times, to wait longer
+//     is shed at once rather than after the wait, and a waiting call
+//     whose time runs out is shed
+//
+// Rejected and shed calls fail with a DataAccessException. The
+// caller is the current tenant (TenantContext) or, without one,
+// "default"; override callerID to identify callers differently.
+// Queue depth, running calls and the reasons for rejection are
+// published through Metrics, under "admission." and the instance's
+// name, if any.
+
+// Java core packages
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class AdmissionControlDataAccess implements AddressBookDataAccess {
+
+    // lanes, in priority order
+    public static final int WRITE = 0, READ = 1, BULK_READ = 2;
+
+    private static final String[] LANE_NAMES = { "write", "read", "bulkRead" };
+
+    // data source being protected
+    private AddressBookDataAccess database;
+
+    // calls allowed to run at once, and calls allowed to wait
+    private int maxRunning;
+    private int maxQueued;
+
+    // default rate of each caller
+    private double callerPermitsPerSecond;
+    private int callerBurst;
+
+    // limits set for particular callers
+    private ConcurrentMap<String, double[]> callerLimits =
+            new ConcurrentHashMap<String, double[]>();
+
+    // rate limit of each caller seen so far
+    private ConcurrentMap<String, TokenBucket> callers =
+            new ConcurrentHashMap<String, TokenBucket>();
+
+    // rate limit and maximum wait of each lane
+    private TokenBucket[] laneRates = new TokenBucket[ 3 ];
+    private long[] laneMaxWaitNanos = new long[ 3 ];
+
+    // state below is guarded by this object's lock
+    private int running;
+    private boolean closed;
+    private long nextSequence;
+    private PriorityQueue<Waiter> queue = new PriorityQueue<Waiter>();
+
+    // moving average of how long a call runs
+    private long averageServiceNanos;
+
+    // metrics
+    private String metricsPrefix;
+    private AtomicLong admitted, rateLimited, queueFull, shed, displaced;
+    private Metrics.Gauge queueDepthGauge, runningGauge;
+
+    // Set up admission control for one connection: one call at a
+    // time, 64 waiting, 20 calls per second per caller with bursts
+    // of 40. Writes may wait 5 s, reads 1 s and bulk reads 2 s;
+    // bulk reads are limited to 5 per second overall.
+    public AdmissionControlDataAccess( AddressBookDataAccess database )
+    {
+        this( database, null );
+    }
+
+    // set up admission control for one connection, as above, with
+    // metrics named after name, e.g. a data source; null for no name
+    public AdmissionControlDataAccess( AddressBookDataAccess database,
+            String name )
+    {
+        this( database, name, 1, 64, 20, 40 );
+
+        setLaneLimits( WRITE, 100, 200, 5000 );
+        setLaneLimits( READ, 100, 200, 1000 );
+        setLaneLimits( BULK_READ, 5, 10, 2000 );
+    }
+
+    // set up admission control with explicit concurrency, queue and
+    // per-caller limits; lanes allow 1000 calls per second and a
+    // wait of 1 s until set with setLaneLimits
+    public AdmissionControlDataAccess( AddressBookDataAccess database,
+            int maxRunning, int maxQueued, double callerPermitsPerSecond,
+            int callerBurst )
+    {
+        this( database, null, maxRunning, maxQueued,
+                callerPermitsPerSecond, callerBurst );
+    }
+
+    // set up named admission control with explicit limits
+    public AdmissionControlDataAccess( AddressBookDataAccess database,
+            String name, int maxRunning, int maxQueued,
+            double callerPermitsPerSecond, int callerBurst )
+    {
+        if ( maxRunning < 1 || maxQueued < 0 )
+            throw new IllegalArgumentException(
+                    "maxRunning must be >= 1 and maxQueued >= 0" );
+
+        this.database = database;
+        this.maxRunning = maxRunning;
+        this.maxQueued = maxQueued;
+        this.callerPermitsPerSecond = callerPermitsPerSecond;
+        this.callerBurst = callerBurst;
+
+        for ( int lane = WRITE; lane <= BULK_READ; lane++ )
+            setLaneLimits( lane, 1000, 1000, 1000 );
+
+        metricsPrefix = name == null ? "admission." :
+                "admission." + name + ".";
+
+        admitted = Metrics.counter( metricsPrefix + "admitted" );
+        rateLimited = Metrics.counter( metricsPrefix + "rejected.rateLimit" );
+        queueFull = Metrics.counter( metricsPrefix + "rejected.queueFull" );
+        shed = Metrics.counter( metricsPrefix + "shed.deadline" );
+        displaced = Metrics.counter( metricsPrefix + "shed.displaced" );
+
+        queueDepthGauge = new Metrics.Gauge() {
+            public Object value()
+            {
+                return getQueueDepth();
+            }
+        };
+        runningGauge = new Metrics.Gauge() {
+            public Object value()
+            {
+                return getRunning();
+            }
+        };
+
+        Metrics.gauge( metricsPrefix + "queueDepth", queueDepthGauge );
+        Metrics.gauge( metricsPrefix + "running", runningGauge );
+    }
+
+    // set the rate and maximum wait of one lane
+    public void setLaneLimits( int lane, double permitsPerSecond,
+            int burst, long maxWaitMillis )
+    {
+        laneRates[ lane ] = new TokenBucket( permitsPerSecond, burst );
+        laneMaxWaitNanos[ lane ] =
+                TimeUnit.MILLISECONDS.toNanos( maxWaitMillis );
+    }
+
+    // Set the rate of one caller. Takes effect when the caller is
+    // first seen, so call it before the caller's requests arrive.
+    public void setCallerLimits( String callerID, double permitsPerSecond,
+            int burst )
+    {
+        callerLimits.put( callerID,
+                new double[] { permitsPerSecond, burst } );
+    }
+
+    // number of calls waiting to run
+    public synchronized int getQueueDepth()
+    {
+        return queue.size();
+    }
+
+    // number of calls running
+    public synchronized int getRunning()
+    {
+        return running;
+    }
+
+    public ArrayList<AddressBookEntry> findPerson( String lastName )
+            throws DataAccessException
+    {
+        long start = admit( BULK_READ );
+
+        try {
+            return database.findPerson( lastName );
+        }
+        finally {
+            release( start );
+        }
+    }
+
+    public ArrayList<AddressBookEntry> findPersonSummaries(
+            String lastName ) throws DataAccessException
+    {
+        long start = admit( READ );
+
+        try {
+            return database.findPersonSummaries( lastName );
+        }
+        finally {
+            release( start );
+        }
+    }
+
+    public ArrayList<AddressBookEntry> findPersonSummariesByPrefix(
+            String prefix, int limit ) throws DataAccessException
+    {
+        long start = admit( READ );
+
+        try {
+            return database.findPersonSummariesByPrefix( prefix, limit );
+        }
+        finally {
+            release( start );
+        }
+    }
+
+    public ArrayList<AddressBookEntry> findByPhone( String phoneNumber )
+            throws DataAccessException
+    {
+        long start = admit( READ );
+
+        try {
+            return database.findByPhone( phoneNumber );
+        }
+        finally {
+            release( start );
+        }
+    }
+
+    public ArrayList<AddressBookEntry> findByEmail( String emailAddress )
+            throws DataAccessException
+    {
+        long start = admit( READ );
+
+        try {
+            return database.findByEmail( emailAddress );
+        }
+        finally {
+            release( start );
+        }
+    }
+
+    // domain counts read an index of every address
+    public LinkedHashMap<String, Integer> countByEmailDomain( int limit )
+            throws DataAccessException
+    {
+        long start = admit( BULK_READ );
+
+        try {
+            return database.countByEmailDomain( limit );
+        }
+        finally {
+            release( start );
+        }
+    }
+
+    // cancelling is always admitted; it frees the connection
+    public void cancelSearch()
+    {
+        database.cancelSearch();
+    }
+
+    public boolean loadDetails( AddressBookEntry person )
+            throws DataAccessException
+    {
+        long start = admit( READ );
+
+        try {
+            return database.loadDetails( person );
+        }
+        finally {
+            release( start );
+        }
+    }
+
+    public ArrayList<AddressBookEntry> findDetails( AddressBookEntry person )
+            throws DataAccessException
+    {
+        long start = admit( READ );
+
+        try {
+            return database.findDetails( person );
+        }
+        finally {
+            release( start );
+        }
+    }
+
+    public boolean savePerson( AddressBookEntry person )
+            throws DataAccessException
+    {
+        long start = admit( WRITE );
+
+        try {
+            return database.savePerson( person );
+        }
+        finally {
+            release( start );
+        }
+    }
+
+    public boolean newPerson( AddressBookEntry person )
+            throws DataAccessException
+    {
+        long start = admit( WRITE );
+
+        try {
+            return database.newPerson( person );
+        }
+        finally {
+            release( start );
+        }
+    }
+
+    public boolean deletePerson( AddressBookEntry person )
+            throws DataAccessException
+    {
+        long start = admit( WRITE );
+
+        try {
+            return database.deletePerson( person );
+        }
+        finally {
+            release( start );
+        }
+    }
+
+    // fail waiting calls and close the data source
+    public void close()
+    {
+        synchronized ( this ) {
+            closed = true;
+            queue.clear();
+            notifyAll();
+        }
+
+        Metrics.removeGauge( metricsPrefix + "queueDepth", queueDepthGauge );
+        Metrics.removeGauge( metricsPrefix + "running", runningGauge );
+        database.close();
+    }
+
+    // Identify the caller of the current call. Override to limit
+    // callers other than tenants, e.g. by user or client address.
+    protected String callerID()
+    {
+        String tenantID = TenantContext.current();
+
+        return tenantID != null ? tenantID : "default";
+    }
+
+    // Wait until a call in lane may run, or throw if it is rejected
+    // or shed. Returns the time the call started running.
+    private long admit( int lane ) throws DataAccessException
+    {
+        String callerID = callerID();
+
+        if ( !caller( callerID ).tryAcquire() ) {
+            rateLimited.incrementAndGet();
+            throw new DataAccessException( "Caller " + callerID +
+                    " exceeded its request rate" );
+        }
+
+        if ( !laneRates[ lane ].tryAcquire() ) {
+            rateLimited.incrementAndGet();
+            throw new DataAccessException( "Too many " +
+                    LANE_NAMES[ lane ] + " requests; try again shortly" );
+        }
+
+        synchronized ( this ) {
+            if ( closed )
+                throw new DataAccessException( "Data source is closed" );
+
+            // run at once if nothing is waiting ahead
+            if ( running < maxRunning && queue.isEmpty() )
+                return start();
+
+            long now = System.nanoTime();
+            long deadline = now + laneMaxWaitNanos[ lane ];
+
+            // Shed now a call that would not start before its
+            // deadline. Checked before displacing anyone, so that no
+            // waiter loses its place to a call that is then shed; the
+            // lower-priority waiters a call could displace do not run
+            // before it, so they do not count in its expected wait.
+            if ( expectedWaitNanos( lane ) > laneMaxWaitNanos[ lane ] ) {
+                shed.incrementAndGet();
+                throw new DataAccessException(
+                        "The database is busy; request would time out" );
+            }
+
+            if ( queue.size() >= maxQueued && !displaceFor( lane ) ) {
+                queueFull.incrementAndGet();
+                throw new DataAccessException(
+                        "The database is busy; request queue is full" );
+            }
+
+            Waiter waiter = new Waiter( lane, nextSequence++ );
+            queue.add( waiter );
+
+            try {
+                while ( !waiter.admitted ) {
+                    if ( waiter.displaced ) {
+                        throw new DataAccessException(
+                                "The database is busy; request was " +
+                                        "displaced by higher priority work" );
+                    }
+
+                    if ( closed )
+                        throw new DataAccessException(
+                                "Data source is closed" );
+
+                    long remaining = deadline - System.nanoTime();
+
+                    if ( remaining <= 0 ) {
+                        queue.remove( waiter );
+                        shed.incrementAndGet();
+                        throw new DataAccessException(
+                                "The database is busy; request timed out " +
+                                        "waiting to run" );
+                    }
+
+                    TimeUnit.NANOSECONDS.timedWait( this, remaining );
+                }
+            }
+            catch ( InterruptedException exception ) {
+                Thread.currentThread().interrupt();
+
+                // if admitted meanwhile, hand the slot on
+                if ( !queue.remove( waiter ) && waiter.admitted ) {
+                    running--;
+                    dispatch();
+                }
+
+                throw new DataAccessException( exception );
+            }
+
+            admitted.incrementAndGet();
+            return System.nanoTime();
+        }
+    }
+
+    // take a running slot for a call admitted without waiting
+    private long start()
+    {
+        running++;
+        admitted.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    // a call has finished; record its time and start the next
+    private synchronized void release( long start )
+    {
+        long elapsed = System.nanoTime() - start;
+
+        averageServiceNanos = averageServiceNanos == 0 ? elapsed :
+                ( averageServiceNanos * 4 + elapsed ) / 5;
+
+        running--;
+        dispatch();
+    }
+
+    // admit waiting calls, in priority order, while slots are free
+    private void dispatch()
+    {
+        boolean woken = false;
+
+        while ( running < maxRunning && !queue.isEmpty() ) {
+            queue.poll().admitted = true;
+            running++;
+            woken = true;
+        }
+
+        if ( woken )
+            notifyAll();
+    }
+
+    // make room in a full queue by displacing the newest waiter of
+    // the lowest lane below lane; false if there is none
+    private boolean displaceFor( int lane )
+    {
+        Waiter victim = null;
+
+        for ( Waiter waiter : queue )
+            if ( waiter.lane > lane && ( victim == null ||
+                    victim.compareTo( waiter ) < 0 ) )
+                victim = waiter;
+
+        if ( victim == null )
+            return false;
+
+        queue.remove( victim );
+        victim.displaced = true;
+        displaced.incrementAndGet();
+        notifyAll();
+        return true;
+    }
+
+    // expected wait of a new call in lane: the calls that would run
+    // before it, shared among the running slots
+    private long expectedWaitNanos( int lane )
+    {
+        int ahead = running;
+
+        for ( Waiter waiter : queue )
+            if ( waiter.lane <= lane )
+                ahead++;
+
+        return ( ahead - maxRunning + 1 ) * averageServiceNanos / maxRunning;
+    }
+
+    // rate limit of a caller, created when first seen
+    private TokenBucket caller( String callerID )
+    {
+        TokenBucket bucket = callers.get( callerID );
+
+        if ( bucket == null ) {
+            double[] limits = callerLimits.get( callerID );
+
+            if ( limits == null )
+                limits = new double[] { callerPermitsPerSecond, callerBurst };
+
+            TokenBucket created = new TokenBucket( limits[ 0 ], limits[ 1 ] );
+            bucket = callers.putIfAbsent( callerID, created );
+
+            if ( bucket == null )
+                bucket = created;
+        }
+
+        return bucket;
+    }
+
+    // a call waiting to run, ordered by lane, then arrival
+    private static class Waiter implements Comparable<Waiter> {
+        int lane;
+        long sequence;
+        boolean admitted;
+        boolean displaced;
+
+        Waiter( int lane, long sequence )
+        {
+            this.lane = lane;
+            this.sequence = sequence;
+        }
+
+        public int compareTo( Waiter other )
+        {
+            if ( lane != other.lane )
+                return lane < other.lane ? -1 : 1;
+
+            return Long.compare( sequence, other.sequence );
+        }
+    }  // end inner class Waiter
+}  // end class AdmissionControlDataAccess
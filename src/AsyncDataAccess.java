@@ -0,0 +1,529 @@
+// AsyncDataAccess.java
+// Asynchronous AddressBookDataAccess backend. Calls are handed to a
+// fixed pool of worker threads, each owning its own data source (and
+// so its own JDBC connection), and results are returned as
+// CompletableFutures; the caller's thread never waits on the
+// database. The number of requests in flight is bounded: when the
+// bound is reached the *Async methods fail immediately with a
+// DataAccessException so that callers can back off, while the
+// blocking interface methods wait for a free slot. The number in
+// flight is published through Metrics, under "dataAccess.async." and
+// the instance's name, if any.
+
+// Java core packages
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AsyncDataAccess implements AddressBookDataAccess {
+
+    // creates one data source per worker thread
+    private DataAccessFactory factory;
+
+    // workers that execute the blocking JDBC calls
+    private ExecutorService workers;
+
+    // data source of the current worker thread
+    private ThreadLocal<AddressBookDataAccess> workerDatabase =
+            new ThreadLocal<AddressBookDataAccess>();
+
+    // every worker's data source, for close()
+    private List<AddressBookDataAccess> databases =
+            Collections.synchronizedList(
+                    new ArrayList<AddressBookDataAccess>() );
+
+    // permits for requests in flight
+    private Semaphore inFlight;
+    private int maxInFlight;
+
+    // metrics
+    private String inFlightMetric;
+    private Metrics.Gauge inFlightGauge;
+
+    // set up backend with the given number of connections and bound
+    // on requests in flight
+    public AsyncDataAccess( DataAccessFactory factory, int connections,
+            int maxInFlight )
+    {
+        this( factory, null, connections, maxInFlight );
+    }
+
+    // set up backend as above with metrics named after name, e.g. a
+    // data source; null for no name
+    public AsyncDataAccess( DataAccessFactory factory, String name,
+            int connections, int maxInFlight )
+    {
+        this.factory = factory;
+        this.maxInFlight = maxInFlight;
+        inFlight = new Semaphore( maxInFlight );
+
+        final AtomicInteger threadNumber = new AtomicInteger();
+        workers = Executors.newFixedThreadPool( connections,
+                new ThreadFactory() {
+                    public Thread newThread( Runnable task )
+                    {
+                        Thread thread = new Thread( task,
+                                "async-data-access-" +
+                                        threadNumber.incrementAndGet() );
+                        thread.setDaemon( true );
+                        return thread;
+                    }
+                } );
+
+        inFlightMetric = name == null ? "dataAccess.async.inFlight" :
+                "dataAccess.async." + name + ".inFlight";
+        inFlightGauge = new Metrics.Gauge() {
+            public Object value()
+            {
+                return getInFlight();
+            }
+        };
+
+        Metrics.gauge( inFlightMetric, inFlightGauge );
+    }
+
+    // locate people by last name without blocking
+    public CompletableFuture<ArrayList<AddressBookEntry>> findPersonAsync(
+            String lastName )
+    {
+        return submit( findPersonCall( lastName ) );
+    }
+
+    // locate name-only summaries without blocking
+    public CompletableFuture<ArrayList<AddressBookEntry>>
+            findPersonSummariesAsync( String lastName )
+    {
+        return submit( findPersonSummariesCall( lastName ) );
+    }
+
+    // locate summaries by last name prefix without blocking
+    public CompletableFuture<ArrayList<AddressBookEntry>>
+            findPersonSummariesByPrefixAsync( String prefix, int limit )
+    {
+        return submit( findPersonSummariesByPrefixCall( prefix, limit ) );
+    }
+
+    // locate people by phone number without blocking
+    public CompletableFuture<ArrayList<AddressBookEntry>> findByPhoneAsync(
+            String phoneNumber )
+    {
+        return submit( findByPhoneCall( phoneNumber ) );
+    }
+
+    // locate people by email address without blocking
+    public CompletableFuture<ArrayList<AddressBookEntry>> findByEmailAsync(
+            String emailAddress )
+    {
+        return submit( findByEmailCall( emailAddress ) );
+    }
+
+    // count people per email domain without blocking
+    public CompletableFuture<LinkedHashMap<String, Integer>>
+            countByEmailDomainAsync( int limit )
+    {
+        return submit( countByEmailDomainCall( limit ) );
+    }
+
+    // load details without blocking
+    public CompletableFuture<Boolean> loadDetailsAsync(
+            AddressBookEntry person )
+    {
+        return submit( loadDetailsCall( person ) );
+    }
+
+    // locate every detail combination without blocking
+    public CompletableFuture<ArrayList<AddressBookEntry>> findDetailsAsync(
+            AddressBookEntry person )
+    {
+        return submit( findDetailsCall( person ) );
+    }
+
+    // update person without blocking
+    public CompletableFuture<Boolean> savePersonAsync(
+            AddressBookEntry person )
+    {
+        return submit( savePersonCall( person ) );
+    }
+
+    // insert person without blocking
+    public CompletableFuture<Boolean> newPersonAsync(
+            AddressBookEntry person )
+    {
+        return submit( newPersonCall( person ) );
+    }
+
+    // delete person without blocking
+    public CompletableFuture<Boolean> deletePersonAsync(
+            AddressBookEntry person )
+    {
+        return submit( deletePersonCall( person ) );
+    }
+
+    // blocking form of findPersonAsync
+    public ArrayList<AddressBookEntry> findPerson( String lastName )
+            throws DataAccessException
+    {
+        return submitAndWait( findPersonCall( lastName ) );
+    }
+
+    // blocking form of findPersonSummariesAsync
+    public ArrayList<AddressBookEntry> findPersonSummaries(
+            String lastName ) throws DataAccessException
+    {
+        return submitAndWait( findPersonSummariesCall( lastName ) );
+    }
+
+    // blocking form of findPersonSummariesByPrefixAsync
+    public ArrayList<AddressBookEntry> findPersonSummariesByPrefix(
+            String prefix, int limit ) throws DataAccessException
+    {
+        return submitAndWait(
+                findPersonSummariesByPrefixCall( prefix, limit ) );
+    }
+
+    // blocking form of findByPhoneAsync
+    public ArrayList<AddressBookEntry> findByPhone( String phoneNumber )
+            throws DataAccessException
+    {
+        return submitAndWait( findByPhoneCall( phoneNumber ) );
+    }
+
+    // blocking form of findByEmailAsync
+    public ArrayList<AddressBookEntry> findByEmail( String emailAddress )
+            throws DataAccessException
+    {
+        return submitAndWait( findByEmailCall( emailAddress ) );
+    }
+
+    // blocking form of countByEmailDomainAsync
+    public LinkedHashMap<String, Integer> countByEmailDomain( int limit )
+            throws DataAccessException
+    {
+        return submitAndWait( countByEmailDomainCall( limit ) );
+    }
+
+    // Cancel the searches running on every worker. Workers are
+    // shared by all callers, so this suits a single client, such as
+    // a search box replacing its previous query.
+    public void cancelSearch()
+    {
+        synchronized ( databases ) {
+            for ( AddressBookDataAccess database : databases )
+                database.cancelSearch();
+        }
+    }
+
+    // blocking form of loadDetailsAsync
+    public boolean loadDetails( AddressBookEntry person )
+            throws DataAccessException
+    {
+        return submitAndWait( loadDetailsCall( person ) );
+    }
+
+    // blocking form of findDetailsAsync
+    public ArrayList<AddressBookEntry> findDetails( AddressBookEntry person )
+            throws DataAccessException
+    {
+        return submitAndWait( findDetailsCall( person ) );
+    }
+
+    // blocking form of savePersonAsync
+    public boolean savePerson( AddressBookEntry person )
+            throws DataAccessException
+    {
+        return submitAndWait( savePersonCall( person ) );
+    }
+
+    // blocking form of newPersonAsync
+    public boolean newPerson( AddressBookEntry person )
+            throws DataAccessException
+    {
+        return submitAndWait( newPersonCall( person ) );
+    }
+
+    // blocking form of deletePersonAsync
+    public boolean deletePerson( AddressBookEntry person )
+            throws DataAccessException
+    {
+        return submitAndWait( deletePersonCall( person ) );
+    }
+
+    // calls made by the async and blocking methods
+    private static Call<ArrayList<AddressBookEntry>> findPersonCall(
+            final String lastName )
+    {
+        return new Call<ArrayList<AddressBookEntry>>() {
+            public ArrayList<AddressBookEntry> run(
+                    AddressBookDataAccess database )
+                    throws DataAccessException
+            {
+                return database.findPerson( lastName );
+            }
+        };
+    }
+
+    private static Call<ArrayList<AddressBookEntry>>
+            findPersonSummariesCall( final String lastName )
+    {
+        return new Call<ArrayList<AddressBookEntry>>() {
+            public ArrayList<AddressBookEntry> run(
+                    AddressBookDataAccess database )
+                    throws DataAccessException
+            {
+                return database.findPersonSummaries( lastName );
+            }
+        };
+    }
+
+    private static Call<ArrayList<AddressBookEntry>>
+            findPersonSummariesByPrefixCall( final String prefix,
+                    final int limit )
+    {
+        return new Call<ArrayList<AddressBookEntry>>() {
+            public ArrayList<AddressBookEntry> run(
+                    AddressBookDataAccess database )
+                    throws DataAccessException
+            {
+                return database.findPersonSummariesByPrefix( prefix,
+                        limit );
+            }
+        };
+    }
+
+    private static Call<ArrayList<AddressBookEntry>> findByPhoneCall(
+            final String phoneNumber )
+    {
+        return new Call<ArrayList<AddressBookEntry>>() {
+            public ArrayList<AddressBookEntry> run(
+                    AddressBookDataAccess database )
+                    throws DataAccessException
+            {
+                return database.findByPhone( phoneNumber );
+            }
+        };
+    }
+
+    private static Call<ArrayList<AddressBookEntry>> findByEmailCall(
+            final String emailAddress )
+    {
+        return new Call<ArrayList<AddressBookEntry>>() {
+            public ArrayList<AddressBookEntry> run(
+                    AddressBookDataAccess database )
+                    throws DataAccessException
+            {
+                return database.findByEmail( emailAddress );
+            }
+        };
+    }
+
+    private static Call<LinkedHashMap<String, Integer>> countByEmailDomainCall(
+            final int limit )
+    {
+        return new Call<LinkedHashMap<String, Integer>>() {
+            public LinkedHashMap<String, Integer> run(
+                    AddressBookDataAccess database )
+                    throws DataAccessException
+            {
+                return database.countByEmailDomain( limit );
+            }
+        };
+    }
+
+    private static Call<Boolean> loadDetailsCall(
+            final AddressBookEntry person )
+    {
+        return new Call<Boolean>() {
+            public Boolean run( AddressBookDataAccess database )
+                    throws DataAccessException
+            {
+                return database.loadDetails( person );
+            }
+        };
+    }
+
+    private static Call<ArrayList<AddressBookEntry>> findDetailsCall(
+            final AddressBookEntry person )
+    {
+        return new Call<ArrayList<AddressBookEntry>>() {
+            public ArrayList<AddressBookEntry> run(
+                    AddressBookDataAccess database )
+                    throws DataAccessException
+            {
+                return database.findDetails( person );
+            }
+        };
+    }
+
+    private static Call<Boolean> savePersonCall(
+            final AddressBookEntry person )
+    {
+        return new Call<Boolean>() {
+            public Boolean run( AddressBookDataAccess database )
+                    throws DataAccessException
+            {
+                return database.savePerson( person );
+            }
+        };
+    }
+
+    private static Call<Boolean> newPersonCall(
+            final AddressBookEntry person )
+    {
+        return new Call<Boolean>() {
+            public Boolean run( AddressBookDataAccess database )
+                    throws DataAccessException
+            {
+                return database.newPerson( person );
+            }
+        };
+    }
+
+    private static Call<Boolean> deletePersonCall(
+            final AddressBookEntry person )
+    {
+        return new Call<Boolean>() {
+            public Boolean run( AddressBookDataAccess database )
+                    throws DataAccessException
+            {
+                return database.deletePerson( person );
+            }
+        };
+    }
+
+    // number of requests queued or executing
+    public int getInFlight()
+    {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    // finish queued requests, then close every worker's data source
+    public void close()
+    {
+        workers.shutdown();
+
+        try {
+            workers.awaitTermination( 30, TimeUnit.SECONDS );
+        }
+        catch ( InterruptedException exception ) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized ( databases ) {
+            for ( AddressBookDataAccess database : databases )
+                database.close();
+
+            databases.clear();
+        }
+
+        Metrics.removeGauge( inFlightMetric, inFlightGauge );
+    }
+
+    // Queue a call if a slot is free; otherwise fail at once.
+    private <T> CompletableFuture<T> submit( Call<T> call )
+    {
+        if ( !inFlight.tryAcquire() ) {
+            CompletableFuture<T> result = new CompletableFuture<T>();
+            result.completeExceptionally( new DataAccessException(
+                    "Too many requests in flight (" + maxInFlight + ")" ) );
+            return result;
+        }
+
+        return execute( call );
+    }
+
+    // Wait for a free slot, queue a call and wait for its result.
+    private <T> T submitAndWait( Call<T> call ) throws DataAccessException
+    {
+        try {
+            inFlight.acquire();
+        }
+        catch ( InterruptedException exception ) {
+            Thread.currentThread().interrupt();
+            throw new DataAccessException( exception );
+        }
+
+        return await( execute( call ) );
+    }
+
+    // Run a call on a worker. The caller holds a slot, which is
+    // released when the call finishes, whatever the outcome, and
+    // before the result completes: stages that depend on the result
+    // run on the worker, and must neither hold the slot nor find it
+    // still taken when they issue the next request.
+    private <T> CompletableFuture<T> execute( final Call<T> call )
+    {
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+
+        try {
+            workers.execute( new Runnable() {
+                public void run()
+                {
+                    T value;
+
+                    try {
+                        value = call.run( database() );
+                    }
+                    catch ( Throwable failure ) {
+                        inFlight.release();
+                        result.completeExceptionally( failure );
+                        return;
+                    }
+
+                    inFlight.release();
+                    result.complete( value );
+                }
+            } );
+        }
+        catch ( RejectedExecutionException exception ) {
+            inFlight.release();
+            result.completeExceptionally(
+                    new DataAccessException( "Data source is closed" ) );
+        }
+
+        return result;
+    }
+
+    // data source of the current worker, created on first use
+    private AddressBookDataAccess database() throws Exception
+    {
+        AddressBookDataAccess database = workerDatabase.get();
+
+        if ( database == null ) {
+            database = factory.create();
+            workerDatabase.set( database );
+            databases.add( database );
+        }
+
+        return database;
+    }
+
+    // wait for a call's result
+    private static <T> T await( CompletableFuture<T> result )
+            throws DataAccessException
+    {
+        try {
+            return result.get();
+        }
+        catch ( InterruptedException exception ) {
+            Thread.currentThread().interrupt();
+            throw new DataAccessException( exception );
+        }
+        catch ( ExecutionException exception ) {
+            Throwable cause = exception.getCause();
+
+            if ( cause instanceof DataAccessException )
+                throw ( DataAccessException ) cause;
+
+            // e.g. OutOfMemoryError on a worker
+            if ( cause instanceof Error )
+                throw ( Error ) cause;
+
+            throw new DataAccessException( ( Exception ) cause );
+        }
+    }
+
+    // one data-access call made on a worker thread
+    private interface Call<T> {
+        T run( AddressBookDataAccess database ) throws DataAccessException;
+    }
+}  // end class AsyncDataAccess
@@ -0,0 +1,430 @@
+// AuditLog.java
+// Append-only store of AuditRecords in a directory of segment files.
+//
+// Producers hand records to record(), which only places them in a
+// lock-free RingBuffer; a single writer thread drains the buffer,
+// compresses whatever has accumulated into one block and appends
+// the block to the current segment. A segment is closed and a new
+// one started when it reaches the segment size. Every block starts
+// with an uncompressed header giving its length, record count, time
+// range and the personIDs it contains; the headers are read when the
+// log is opened to build an in-memory index, so a query decompresses
+// only the blocks that can contain matching records.
+//
+// Block layout:
+//     int compressed length, int record count,
+//     long first time, long last time,
+//     int personID count, personIDs,
+//     compressed records
+
+// Java core packages
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.*;
+
+public class AuditLog {
+
+    // most records compressed into one block
+    private static final int MAX_BLOCK_RECORDS = 512;
+
+    // how long the writer sleeps when the buffer is empty
+    private static final long IDLE_NANOS = 5000000L;
+
+    // longest a producer waits for room in a full buffer
+    private static final long MAX_WAIT_NANOS = 100000000L;
+
+    private File directory;
+    private long segmentBytes;
+
+    // records waiting for the writer
+    private RingBuffer<AuditRecord> buffer;
+
+    // segment being appended to
+    private int segmentNumber;
+    private RandomAccessFile segment;
+
+    // end of the segment's last complete block; a write that failed
+    // part way may have left bytes after it
+    private long segmentEnd;
+
+    // every block, and the blocks containing each person
+    private List<Block> blocks = new ArrayList<Block>();
+    private Map<Integer, List<Block>> blocksByPerson =
+            new HashMap<Integer, List<Block>>();
+
+    private Thread writer;
+    private volatile boolean running = true;
+
+    private AtomicLong written = Metrics.counter( "audit.records" );
+    private AtomicLong waits = Metrics.counter( "audit.bufferFullWaits" );
+    private AtomicLong dropped = Metrics.counter( "audit.droppedRecords" );
+
+    // open the log in directory with 16 MB segments and room for
+    // 65536 queued records
+    public AuditLog( File directory ) throws IOException
+    {
+        this( directory, 16L * 1024 * 1024, 65536 );
+    }
+
+    // open or create the log and start its writer thread
+    public AuditLog( File directory, long segmentBytes, int bufferSize )
+            throws IOException
+    {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        buffer = new RingBuffer<AuditRecord>( bufferSize );
+
+        if ( !directory.isDirectory() && !directory.mkdirs() )
+            throw new IOException( "Cannot create " + directory );
+
+        loadIndex();
+        openSegment( Math.max( 1, segmentNumber ) );
+
+        writer = new Thread( "audit-writer" ) {
+            public void run()
+            {
+                writeLoop();
+            }
+        };
+        writer.setDaemon( true );
+        writer.start();
+    }
+
+    // Queue a record for writing. Returns at once unless the
+    // buffer is full, in which case it waits up to MAX_WAIT_NANOS
+    // for the writer to catch up. A record that still does not fit,
+    // because the writer is stuck retrying a failing disk, or that
+    // arrives after close(), is dropped and counted in
+    // audit.droppedRecords; the write it describes has already
+    // committed, so holding it up would not make the log complete.
+    public void record( AuditRecord record )
+    {
+        if ( !running ) {
+            dropped.incrementAndGet();
+            return;
+        }
+
+        if ( buffer.offer( record ) )
+            return;
+
+        waits.incrementAndGet();
+        long deadline = System.nanoTime() + MAX_WAIT_NANOS;
+
+        while ( !buffer.offer( record ) ) {
+            if ( !running || System.nanoTime() - deadline >= 0 ) {
+                dropped.incrementAndGet();
+                return;
+            }
+
+            LockSupport.parkNanos( 100000L );
+        }
+    }
+
+    // records for one person between from and to, in milliseconds
+    // since the epoch, oldest first
+    public List<AuditRecord> query( int personID, long from, long to )
+            throws IOException
+    {
+        List<Block> candidates;
+
+        synchronized ( this ) {
+            List<Block> personBlocks = blocksByPerson.get( personID );
+
+            if ( personBlocks == null )
+                return new ArrayList<AuditRecord>();
+
+            candidates = new ArrayList<Block>( personBlocks );
+        }
+
+        return read( candidates, personID, from, to );
+    }
+
+    // records of everyone between from and to, oldest first
+    public List<AuditRecord> query( long from, long to ) throws IOException
+    {
+        List<Block> candidates;
+
+        synchronized ( this ) {
+            candidates = new ArrayList<Block>( blocks );
+        }
+
+        return read( candidates, 0, from, to );
+    }
+
+    // write the queued records and close the log
+    public void close()
+    {
+        running = false;
+        LockSupport.unpark( writer );
+
+        try {
+            writer.join();
+        }
+        catch ( InterruptedException exception ) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized ( this ) {
+            try {
+                segment.close();
+            }
+            catch ( IOException exception ) {
+                exception.printStackTrace();
+            }
+        }
+    }
+
+    // drain the buffer into blocks until closed
+    private void writeLoop()
+    {
+        List<AuditRecord> batch = new ArrayList<AuditRecord>();
+
+        while ( true ) {
+            AuditRecord record;
+
+            while ( batch.size() < MAX_BLOCK_RECORDS &&
+                    ( record = buffer.poll() ) != null )
+                batch.add( record );
+
+            if ( batch.isEmpty() ) {
+                if ( !running )
+                    return;
+
+                LockSupport.parkNanos( IDLE_NANOS );
+                continue;
+            }
+
+            try {
+                append( batch );
+                written.addAndGet( batch.size() );
+            }
+            catch ( IOException exception ) {
+                exception.printStackTrace();
+
+                // once closing, give up rather than hold close() up
+                // forever; otherwise keep the records and try again
+                // shortly
+                if ( !running ) {
+                    dropped.addAndGet( batch.size() );
+
+                    while ( buffer.poll() != null )
+                        dropped.incrementAndGet();
+
+                    return;
+                }
+
+                LockSupport.parkNanos( IDLE_NANOS * 100 );
+                continue;
+            }
+
+            batch.clear();
+        }
+    }
+
+    // compress records into one block and append it
+    private synchronized void append( List<AuditRecord> records )
+            throws IOException
+    {
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(
+                new DeflaterOutputStream( raw ) );
+        Set<Integer> people = new TreeSet<Integer>();
+        long firstTime = Long.MAX_VALUE, lastTime = Long.MIN_VALUE;
+
+        // records from different threads may be slightly out of
+        // time order, so take the block's range from all of them
+        for ( AuditRecord record : records ) {
+            record.writeTo( out );
+            people.add( record.getPersonID() );
+            firstTime = Math.min( firstTime, record.getTime() );
+            lastTime = Math.max( lastTime, record.getTime() );
+        }
+
+        out.close();
+        byte[] compressed = raw.toByteArray();
+
+        if ( segmentEnd >= segmentBytes )
+            openSegment( segmentNumber + 1 );
+
+        Block block = new Block( segmentNumber, segmentEnd,
+                compressed.length, firstTime, lastTime );
+        block.count = records.size();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream( bytes );
+        header.writeInt( compressed.length );
+        header.writeInt( records.size() );
+        header.writeLong( block.firstTime );
+        header.writeLong( block.lastTime );
+        header.writeInt( people.size() );
+
+        for ( int personID : people )
+            header.writeInt( personID );
+
+        header.write( compressed );
+        block.dataOffset = block.offset + bytes.size() - compressed.length;
+
+        // drop what a failed attempt left, so that the block follows
+        // the last complete one and reopening finds every block
+        if ( segment.length() != segmentEnd )
+            segment.setLength( segmentEnd );
+
+        segment.seek( block.offset );
+        segment.write( bytes.toByteArray() );
+        segment.getFD().sync();
+        segmentEnd = block.offset + bytes.size();
+
+        index( block, people );
+    }
+
+    // decompress candidate blocks and keep matching records
+    private List<AuditRecord> read( List<Block> candidates, int personID,
+            long from, long to ) throws IOException
+    {
+        List<AuditRecord> records = new ArrayList<AuditRecord>();
+
+        for ( Block block : candidates ) {
+            if ( block.lastTime < from || block.firstTime > to )
+                continue;
+
+            byte[] compressed = new byte[ block.length ];
+            RandomAccessFile file =
+                    new RandomAccessFile( segmentFile( block.segment ), "r" );
+
+            try {
+                file.seek( block.dataOffset );
+                file.readFully( compressed );
+            }
+            finally {
+                file.close();
+            }
+
+            DataInputStream in = new DataInputStream( new InflaterInputStream(
+                    new ByteArrayInputStream( compressed ) ) );
+
+            for ( int i = 0; i < block.count; i++ ) {
+                AuditRecord record = AuditRecord.readFrom( in );
+
+                if ( ( personID == 0 || record.getPersonID() == personID ) &&
+                        record.getTime() >= from && record.getTime() <= to )
+                    records.add( record );
+            }
+        }
+
+        return records;
+    }
+
+    // read the block headers of every segment; a block cut short by
+    // a crash is removed from the end of the last segment
+    private void loadIndex() throws IOException
+    {
+        for ( int number = 1; segmentFile( number ).exists(); number++ ) {
+            segmentNumber = number;
+            RandomAccessFile file =
+                    new RandomAccessFile( segmentFile( number ), "rw" );
+
+            try {
+                long offset = 0;
+
+                while ( offset < file.length() ) {
+                    Block block = readHeader( file, number, offset );
+
+                    if ( block == null ) {
+                        file.setLength( offset );
+                        break;
+                    }
+
+                    offset = block.dataOffset + block.length;
+                }
+            }
+            finally {
+                file.close();
+            }
+        }
+    }
+
+    // read one block header and index it, or return null if the
+    // block is incomplete
+    private Block readHeader( RandomAccessFile file, int number,
+            long offset ) throws IOException
+    {
+        try {
+            file.seek( offset );
+            int length = file.readInt();
+            int count = file.readInt();
+            Block block = new Block( number, offset, length,
+                    file.readLong(), file.readLong() );
+            block.count = count;
+
+            Set<Integer> people = new TreeSet<Integer>();
+
+            for ( int i = file.readInt(); i > 0; i-- )
+                people.add( file.readInt() );
+
+            block.dataOffset = file.getFilePointer();
+
+            if ( block.dataOffset + length > file.length() )
+                return null;
+
+            index( block, people );
+            return block;
+        }
+        catch ( EOFException exception ) {
+            return null;
+        }
+    }
+
+    private void index( Block block, Set<Integer> people )
+    {
+        blocks.add( block );
+
+        for ( int personID : people ) {
+            List<Block> personBlocks = blocksByPerson.get( personID );
+
+            if ( personBlocks == null ) {
+                personBlocks = new ArrayList<Block>();
+                blocksByPerson.put( personID, personBlocks );
+            }
+
+            personBlocks.add( block );
+        }
+    }
+
+    private void openSegment( int number ) throws IOException
+    {
+        if ( segment != null )
+            segment.close();
+
+        segmentNumber = number;
+        segment = new RandomAccessFile( segmentFile( number ), "rw" );
+
+        // loadIndex has cut off any incomplete block at the end
+        segmentEnd = segment.length();
+    }
+
+    private File segmentFile( int number )
+    {
+        return new File( directory,
+                String.format( "audit-%06d.log", number ) );
+    }
+
+    // location and summary of one block
+    private static class Block {
+        int segment;
+        long offset, dataOffset;
+        int length, count;
+        long firstTime, lastTime;
+
+        Block( int segment, long offset, int length, long firstTime,
+                long lastTime )
+        {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.firstTime = firstTime;
+            this.lastTime = lastTime;
+        }
+    }  // end inner class Block
+}  // end class AuditLog
@@ -0,0 +1,133 @@
+// AuditRecord.java
+// One change recorded in the audit trail: who made it, when, what
+// kind of change it was, and the entry before and after the change.
+// Images are held encoded with AddressBookEntryCodec, so a record is
+// cheap to queue and to write, and are decoded only when read.
+
+// Java core packages
+import java.io.*;
+import java.nio.ByteBuffer;
+
+public class AuditRecord {
+
+    // kinds of change
+    public static final int NEW = 1, SAVE = 2, DELETE = 3;
+
+    private long time;
+    private String user;
+    private int operation;
+    private int personID;
+    private byte[] before;
+    private byte[] after;
+
+    // record a change; before is null for NEW and after for DELETE
+    public AuditRecord( long time, String user, int operation,
+            int personID, AddressBookEntry before, AddressBookEntry after )
+    {
+        this( time, user, operation, personID, encode( before ),
+                encode( after ) );
+    }
+
+    private AuditRecord( long time, String user, int operation,
+            int personID, byte[] before, byte[] after )
+    {
+        this.time = time;
+        this.user = user;
+        this.operation = operation;
+        this.personID = personID;
+        this.before = before;
+        this.after = after;
+    }
+
+    // time of the change in milliseconds since the epoch
+    public long getTime()
+    {
+        return time;
+    }
+
+    public String getUser()
+    {
+        return user;
+    }
+
+    // NEW, SAVE or DELETE
+    public int getOperation()
+    {
+        return operation;
+    }
+
+    public int getPersonID()
+    {
+        return personID;
+    }
+
+    // entry before the change, or null if not known
+    public AddressBookEntry getBefore()
+    {
+        return decode( before );
+    }
+
+    // entry after the change, or null for a delete
+    public AddressBookEntry getAfter()
+    {
+        return decode( after );
+    }
+
+    public String toString()
+    {
+        String[] names = { "?", "NEW", "SAVE", "DELETE" };
+
+        return new java.util.Date( time ) + " " + user + " " +
+                names[ operation ] + " " + personID;
+    }
+
+    // write record to an audit log block
+    void writeTo( DataOutputStream out ) throws IOException
+    {
+        out.writeLong( time );
+        out.writeUTF( user );
+        out.writeByte( operation );
+        out.writeInt( personID );
+        writeImage( out, before );
+        writeImage( out, after );
+    }
+
+    // read record written by writeTo
+    static AuditRecord readFrom( DataInputStream in ) throws IOException
+    {
+        return new AuditRecord( in.readLong(), in.readUTF(), in.readByte(),
+                in.readInt(), readImage( in ), readImage( in ) );
+    }
+
+    private static void writeImage( DataOutputStream out, byte[] image )
+            throws IOException
+    {
+        out.writeInt( image == null ? -1 : image.length );
+
+        if ( image != null )
+            out.write( image );
+    }
+
+    private static byte[] readImage( DataInputStream in ) throws IOException
+    {
+        int length = in.readInt();
+
+        if ( length < 0 )
+            return null;
+
+        byte[] image = new byte[ length ];
+        in.readFully( image );
+        return image;
+    }
+
+    private static byte[] encode( AddressBookEntry person )
+    {
+        return person == null ? null : AddressBookEntryCodec.encode( person );
+    }
+
+    private static AddressBookEntry decode( byte[] image )
+    {
+        return image == null ? null :
+                AddressBookEntryCodec.decodeEntry( ByteBuffer.wrap( image ) );
+    }
+}  // end class AuditRecord
@@ -0,0 +1,136 @@
+// AuditingDataAccess.java
+// AddressBookDataAccess decorator that records every committed
+// insert, update and delete in an AuditLog: the user who made it,
+// the time, and the entry before and after. Recording only queues
+// the record, so the write's own latency is unchanged apart from
+// the read of the before image; the log's writer thread compresses
+// and stores it afterwards.
+//
+// The records come from the CloudscapeDataAccess underneath as a
+// WriteListener, not from this decorator's own calls, so writes
+// that reach the database another way (e.g. batched by a
+// GroupCommitDataAccess) are recorded too. The before image is the
+// person's row as read inside the write's transaction, under the
+// write's lock, so it is what the write actually replaced even if
+// another client changed the entry since this one last read it.
+
+// Java core packages
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+public class AuditingDataAccess implements AddressBookDataAccess {
+
+    private AddressBookDataAccess database;
+    private CloudscapeDataAccess source;
+    private AuditLog log;
+    private String user;
+
+    // records each write source commits
+    private CloudscapeDataAccess.WriteListener listener =
+            new CloudscapeDataAccess.WriteListener() {
+                public void committed( int operation, int personID,
+                        AddressBookEntry before, AddressBookEntry after )
+                {
+                    log.record( new AuditRecord( System.currentTimeMillis(),
+                            user, operation, personID, before, after ) );
+                }
+            };
+
+    // audit changes committed by source, which database (source
+    // itself or decorators of it) writes through, as the given user
+    public AuditingDataAccess( AddressBookDataAccess database,
+            CloudscapeDataAccess source, AuditLog log, String user )
+    {
+        this.database = database;
+        this.source = source;
+        this.log = log;
+        this.user = user;
+        source.addWriteListener( listener );
+    }
+
+    public ArrayList<AddressBookEntry> findPerson( String lastName )
+            throws DataAccessException
+    {
+        return database.findPerson( lastName );
+    }
+
+    public ArrayList<AddressBookEntry> findPersonSummaries(
+            String lastName ) throws DataAccessException
+    {
+        return database.findPersonSummaries( lastName );
+    }
+
+    public ArrayList<AddressBookEntry> findPersonSummariesByPrefix(
+            String prefix, int limit ) throws DataAccessException
+    {
+        return database.findPersonSummariesByPrefix( prefix, limit );
+    }
+
+    public ArrayList<AddressBookEntry> findByPhone( String phoneNumber )
+            throws DataAccessException
+    {
+        return database.findByPhone( phoneNumber );
+    }
+
+    public ArrayList<AddressBookEntry> findByEmail( String emailAddress )
+            throws DataAccessException
+    {
+        return database.findByEmail( emailAddress );
+    }
+
+    public LinkedHashMap<String, Integer> countByEmailDomain( int limit )
+            throws DataAccessException
+    {
+        return database.countByEmailDomain( limit );
+    }
+
+    public void cancelSearch()
+    {
+        database.cancelSearch();
+    }
+
+    public boolean loadDetails( AddressBookEntry person )
+            throws DataAccessException
+    {
+        return database.loadDetails( person );
+    }
+
+    public ArrayList<AddressBookEntry> findDetails( AddressBookEntry person )
+            throws DataAccessException
+    {
+        return database.findDetails( person );
+    }
+
+    // writes are recorded by the listener once they commit
+    public boolean savePerson( AddressBookEntry person )
+            throws DataAccessException
+    {
+        return database.savePerson( person );
+    }
+
+    public boolean newPerson( AddressBookEntry person )
+            throws DataAccessException
+    {
+        return database.newPerson( person );
+    }
+
+    public boolean deletePerson( AddressBookEntry person )
+            throws DataAccessException
+    {
+        return database.deletePerson( person );
+    }
+
+    // the log this data source writes to, for queries
+    public AuditLog getLog()
+    {
+        return log;
+    }
+
+    // close data source, then write outstanding records
+    public void close()
+    {
+        database.close();
+        source.removeWriteListener( listener );
+        log.close();
+    }
+}  // end class AuditingDataAccess
@@ -4,453 +4,1366 @@
 
 // Java core packages
 import java.sql.*;
-import java.util.ArrayList;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class CloudscapeDataAccess
         implements AddressBookDataAccess {
 
+    // Told of every insert, update and delete once it has committed,
+    // with the operation (an AuditRecord constant), the person's row
+    // as read inside the write's own transaction before it changed
+    // (null for an insert, or if the person had no live row) and the
+    // entry written (null for a delete).
+    public interface WriteListener {
+        void committed( int operation, int personID,
+                AddressBookEntry before, AddressBookEntry after );
+    }
+
     // reference to database connection
     private Connection connection;
 
-    // reference to prepared statement for locating entry
-    private PreparedStatement sqlFind;
+    // captures query plans and slow queries in diagnostics mode
+    private QueryDiagnostics diagnostics;
+
+    // SQL of each statement; a statement is prepared the first time
+    // it is used, or by prepareAll, not when the connection opens
+
+    // locate person
+    private static final String FIND =
+            "SELECT names.personID, firstName, lastName, " +
+                    "addressID, address1, address2, city, state, " +
+                    "eircode, phoneID, phoneNumber, emailID, " +
+                    "emailAddress " +
+                    "FROM names, addresses, phoneNumbers, emailAddresses " +
+                    "WHERE lastName = ? AND names.deleted = 0 AND " +
+                    "names.personID = addresses.personID AND " +
+                    "names.personID = phoneNumbers.personID AND " +
+                    "names.personID = emailAddresses.personID";
+
+    // locate names only; served from the (lastName, firstName,
+    // deleted) index without touching the table rows
+    private static final String FIND_SUMMARY =
+            "SELECT personID, firstName, lastName FROM names " +
+                    "WHERE lastName = ? AND deleted = 0";
+
+    // locate names by last name prefix; a range scan of the
+    // same index, which also returns the rows in order
+    private static final String FIND_PREFIX =
+            "SELECT personID, firstName, lastName FROM names " +
+                    "WHERE lastName LIKE ? ESCAPE '!' AND deleted = 0 " +
+                    "ORDER BY lastName, firstName LIMIT ?";
+
+    // Load one person's addresses, phones and emails in one query:
+    // a row per combination, oldest address, phone and email first,
+    // so that loadDetails always picks the same row
+    private static final String LOAD_DETAILS =
+            "SELECT addressID, address1, address2, city, state, " +
+                    "eircode, phoneID, phoneNumber, emailID, " +
+                    "emailAddress " +
+                    "FROM addresses, phoneNumbers, emailAddresses " +
+                    "WHERE addresses.personID = ? AND " +
+                    "phoneNumbers.personID = ? AND " +
+                    "emailAddresses.personID = ? " +
+                    "ORDER BY addressID, phoneID, emailID";
+
+    // Obtain personID generated by this connection's last insert into
+    // names. Unlike MAX(personID) it is not affected by other
+    // connections' inserts, which a snapshot taken after ours sees.
+    private static final String PERSON_ID = "SELECT LAST_INSERT_ID()";
+
+    // Insert first and last names in table names.
+    // For referential integrity, this must be performed
+    // before INSERT_ADDRESS, INSERT_PHONE and INSERT_EMAIL.
+    private static final String INSERT_NAME =
+            "INSERT INTO names ( firstName, lastName ) " +
+                    "VALUES ( ? , ? )";
+
+    // insert address in table addresses
+    private static final String INSERT_ADDRESS =
+            "INSERT INTO addresses ( personID, address1, " +
+                    "address2, city, state, eircode ) " +
+                    "VALUES ( ? , ? , ? , ? , ? , ? )";
+
+    // insert phone number and its lookup key in table phoneNumbers
+    private static final String INSERT_PHONE =
+            "INSERT INTO phoneNumbers " +
+                    "( personID, phoneNumber, phoneKey ) " +
+                    "VALUES ( ? , ? , ? )";
+
+    // insert email and its lookup key and domain in table
+    // emailAddresses
+    private static final String INSERT_EMAIL =
+            "INSERT INTO emailAddresses " +
+                    "( personID, emailAddress, emailKey, emailDomain ) " +
+                    "VALUES ( ? , ? , ? , ? )";
+
+    // Update first and last names in table names. A name marked
+    // deleted is not updated, so that saving a deleted entry fails
+    // with soft delete just as it does when the rows are gone.
+    private static final String UPDATE_NAME =
+            "UPDATE names SET firstName = ?, lastName = ? " +
+                    "WHERE personID = ? AND deleted = 0";
+
+    // update address in table addresses
+    private static final String UPDATE_ADDRESS =
+            "UPDATE addresses SET address1 = ?, address2 = ?, " +
+                    "city = ?, state = ?, eircode = ? " +
+                    "WHERE addressID = ?";
+
+    // update phone number and its lookup key in table phoneNumbers
+    private static final String UPDATE_PHONE =
+            "UPDATE phoneNumbers SET phoneNumber = ?, phoneKey = ? " +
+                    "WHERE phoneID = ?";
+
+    // update email and its lookup key and domain in table
+    // emailAddresses
+    private static final String UPDATE_EMAIL =
+            "UPDATE emailAddresses SET emailAddress = ?, emailKey = ?, " +
+                    "emailDomain = ? WHERE emailID = ?";
+
+    // Delete row from table names. This must be executed
+    // after DELETE_ADDRESS, DELETE_PHONE and DELETE_EMAIL,
+    // because of referential integrity.
+    private static final String DELETE_NAME =
+            "DELETE FROM names WHERE personID = ?";
+
+    // delete address from table addresses
+    private static final String DELETE_ADDRESS =
+            "DELETE FROM addresses WHERE personID = ?";
+
+    // delete phone number from table phoneNumbers
+    private static final String DELETE_PHONE =
+            "DELETE FROM phoneNumbers WHERE personID = ?";
+
+    // delete email address from table emailAddresses
+    private static final String DELETE_EMAIL =
+            "DELETE FROM emailAddresses WHERE personID = ?";
+
+    // lock a person's name row if the person is not marked deleted
+    private static final String LIVE_PERSON =
+            "SELECT personID FROM names " +
+                    "WHERE personID = ? AND deleted = 0 FOR UPDATE";
+
+    // mark name deleted, leaving the rows for PurgeWorker
+    private static final String SOFT_DELETE_NAME =
+            "UPDATE names SET deleted = 1 " +
+                    "WHERE personID = ? AND deleted = 0";
+
+    // columns of a contact card, in the order findPerson reads them
+    static final String CARD_COLUMNS =
+            "personID, firstName, lastName, addressID, address1, " +
+                    "address2, city, state, eircode, phoneID, " +
+                    "phoneNumber, emailID, emailAddress";
+
+    // the normalized rows a contact card materializes: one row per
+    // combination of a live person's address, phone and email
+    static final String CARD_SOURCE =
+            "SELECT names.personID, firstName, lastName, " +
+                    "addressID, address1, address2, city, state, " +
+                    "eircode, phoneID, phoneNumber, emailID, " +
+                    "emailAddress " +
+                    "FROM names, addresses, phoneNumbers, emailAddresses " +
+                    "WHERE names.deleted = 0 AND " +
+                    "names.personID = addresses.personID AND " +
+                    "names.personID = phoneNumbers.personID AND " +
+                    "names.personID = emailAddresses.personID";
+
+    // locate people by the packed key of their phone number, an
+    // equality lookup on idx_phoneNumbers_phoneKey
+    private static final String FIND_BY_PHONE =
+            CARD_SOURCE + " AND phoneNumbers.phoneKey = ?";
+
+    // locate people by the normalized email address, an equality
+    // lookup on idx_emailAddresses_emailKey
+    private static final String FIND_BY_EMAIL =
+            CARD_SOURCE + " AND emailAddresses.emailKey = ?";
+
+    // Count live people per email domain. Grouping reads
+    // idx_emailAddresses_emailDomain, which holds (emailDomain,
+    // personID) in order, instead of the table; each personID is
+    // then checked against the names primary key.
+    private static final String COUNT_BY_DOMAIN =
+            "SELECT emailDomain, " +
+                    "COUNT( DISTINCT emailAddresses.personID ) AS people " +
+                    "FROM emailAddresses, names " +
+                    "WHERE emailDomain IS NOT NULL AND " +
+                    "names.personID = emailAddresses.personID AND " +
+                    "names.deleted = 0 " +
+                    "GROUP BY emailDomain " +
+                    "ORDER BY people DESC, emailDomain LIMIT ?";
+
+    // locate person in the contact cards with one index lookup
+    private static final String FIND_CARD =
+            "SELECT " + CARD_COLUMNS + " FROM contactCards " +
+                    "WHERE lastName = ?";
+
+    // rebuild one person's contact card from the normalized tables
+    private static final String DELETE_CARD =
+            "DELETE FROM contactCards WHERE personID = ?";
+    private static final String INSERT_CARD =
+            "INSERT INTO contactCards ( " + CARD_COLUMNS + " ) " +
+                    CARD_SOURCE + " AND names.personID = ?";
+
+    // Read and lock a person's row before a write changes it,
+    // preferring the row with the address, phone and email the
+    // entry names, for the before image given to WriteListeners
+    private static final String CURRENT_ROW =
+            CARD_SOURCE + " AND names.personID = ? " +
+                    "ORDER BY addresses.addressID = ? DESC, " +
+                    "phoneNumbers.phoneID = ? DESC, " +
+                    "emailAddresses.emailID = ? DESC " +
+                    "LIMIT 1 FOR UPDATE";
+
+    // every statement, in the order prepareAll prepares them
+    private static final String[] ALL_STATEMENTS = {
+            FIND_SUMMARY, FIND_PREFIX, LOAD_DETAILS, FIND, FIND_BY_PHONE,
+            FIND_BY_EMAIL, COUNT_BY_DOMAIN, INSERT_NAME,
+            PERSON_ID, INSERT_ADDRESS, INSERT_PHONE, INSERT_EMAIL,
+            UPDATE_NAME, UPDATE_ADDRESS, UPDATE_PHONE, UPDATE_EMAIL,
+            DELETE_ADDRESS, DELETE_PHONE, DELETE_EMAIL, DELETE_NAME,
+            SOFT_DELETE_NAME, CURRENT_ROW };
+
+    // statements that maintain and read the contact cards
+    private static final String[] CARD_STATEMENTS = {
+            FIND_CARD, DELETE_CARD, INSERT_CARD };
+
+    // statements prepared so far, keyed by SQL
+    private Map<String, PreparedStatement> statements =
+            new HashMap<String, PreparedStatement>();
+
+    // search being executed, for cancelSearch
+    private volatile Statement runningSearch;
+
+    // If true, deletePerson only marks the name deleted and
+    // PurgeWorker removes the rows later. Reads always skip marked
+    // names. Set by setting addressbook.softDelete.
+    private volatile boolean softDelete =
+            DataAccessConfig.current().get( DataAccessConfig.SOFT_DELETE );
+
+    // If true, every write also rebuilds the person's rows in the
+    // contactCards table in the same transaction, and findPerson
+    // reads the cards instead of joining four tables. Set by setting
+    // addressbook.contactCards; the table must exist and be up to
+    // date (see sql/contact_cards.sql and ContactCardTool).
+    private volatile boolean contactCards =
+            DataAccessConfig.current().get( DataAccessConfig.CONTACT_CARDS );
+
+    // told of committed writes; before images are read only while
+    // there is one, since reading them costs a query per write
+    private List<WriteListener> listeners =
+            new CopyOnWriteArrayList<WriteListener>();
+
+    // writes made in the current transaction, for the listeners
+    // once it commits
+    private List<Change> uncommitted = new ArrayList<Change>();
+
+    // connect to the AddressBook database
+    public CloudscapeDataAccess() throws Exception
+    {
+        this( "AddressBook" );
+    }
 
-    // reference to prepared statement for determining personID
-    private PreparedStatement sqlPersonID;
+    // connect to the named database; used to give each tenant of a
+    // shared server its own schema
+    public CloudscapeDataAccess( String database ) throws Exception
+    {
+        // connect to addressbook database
+        connect( database );
+    }  // end CloudscapeDataAccess constructor
 
-    // references to prepared statements for inserting entry
-    private PreparedStatement sqlInsertName;
-    private PreparedStatement sqlInsertAddress;
-    private PreparedStatement sqlInsertPhone;
-    private PreparedStatement sqlInsertEmail;
+    // Prepare every statement now rather than on first use, e.g.
+    // in the background after connecting so that the user's first
+    // search and save do not wait for the server to parse them.
+    public synchronized void prepareAll() throws DataAccessException
+    {
+        try {
+            for ( String sql : ALL_STATEMENTS )
+                statement( sql );
 
-    // references to prepared statements for updating entry
-    private PreparedStatement sqlUpdateName;
-    private PreparedStatement sqlUpdateAddress;
-    private PreparedStatement sqlUpdatePhone;
-    private PreparedStatement sqlUpdateEmail;
+            if ( contactCards )
+                for ( String sql : CARD_STATEMENTS )
+                    statement( sql );
+        }
 
-    // references to prepared statements for updating entry
-    private PreparedStatement sqlDeleteName;
-    private PreparedStatement sqlDeleteAddress;
-    private PreparedStatement sqlDeletePhone;
-    private PreparedStatement sqlDeleteEmail;
+        // catch SQLException
+        catch ( SQLException sqlException ) {
+            throw new DataAccessException( sqlException );
+        }
+    }
 
-    // set up PreparedStatements to access database
-    public CloudscapeDataAccess() throws Exception
+    // statement for sql, prepared on first use; callers hold this
+    // object's lock
+    private PreparedStatement statement( String sql ) throws SQLException
     {
-        // connect to addressbook database
-        connect();
-
-        // locate person
-        sqlFind = connection.prepareStatement(
-                "SELECT names.personID, firstName, lastName, " +
-                        "addressID, address1, address2, city, state, " +
-                        "eircode, phoneID, phoneNumber, emailID, " +
-                        "emailAddress " +
-                        "FROM names, addresses, phoneNumbers, emailAddresses " +
-                        "WHERE lastName = ? AND " +
-                        "names.personID = addresses.personID AND " +
-                        "names.personID = phoneNumbers.personID AND " +
-                        "names.personID = emailAddresses.personID" );
-
-        // Obtain personID for last person inserted in database.
-        // [This is a Cloudscape-specific database operation.]
-        sqlPersonID = connection.prepareStatement("SELECT MAX(personID) FROM NAMES ");
-
-        // Insert first and last names in table names.
-        // For referential integrity, this must be performed
-        // before sqlInsertAddress, sqlInsertPhone and
-        // sqlInsertEmail.
-        sqlInsertName = connection.prepareStatement(
-                "INSERT INTO names ( firstName, lastName ) " +
-                        "VALUES ( ? , ? )" );
-
-        // insert address in table addresses
-        sqlInsertAddress = connection.prepareStatement(
-                "INSERT INTO addresses ( personID, address1, " +
-                        "address2, city, state, eircode ) " +
-                        "VALUES ( ? , ? , ? , ? , ? , ? )" );
-
-        // insert phone number in table phoneNumbers
-        sqlInsertPhone = connection.prepareStatement(
-                "INSERT INTO phoneNumbers " +
-                        "( personID, phoneNumber) " +
-                        "VALUES ( ? , ? )" );
-
-        // insert email in table emailAddresses
-        sqlInsertEmail = connection.prepareStatement(
-                "INSERT INTO emailAddresses " +
-                        "( personID, emailAddress ) " +
-                        "VALUES ( ? , ? )" );
-
-        // update first and last names in table names
-        sqlUpdateName = connection.prepareStatement(
-                "UPDATE names SET firstName = ?, lastName = ? " +
-                        "WHERE personID = ?" );
-
-        // update address in table addresses
-        sqlUpdateAddress = connection.prepareStatement(
-                "UPDATE addresses SET address1 = ?, address2 = ?, " +
-                        "city = ?, state = ?, eircode = ? " +
-                        "WHERE addressID = ?" );
-
-        // update phone number in table phoneNumbers
-        sqlUpdatePhone = connection.prepareStatement(
-                "UPDATE phoneNumbers SET phoneNumber = ? " +
-                        "WHERE phoneID = ?" );
-
-        // update email in table emailAddresses
-        sqlUpdateEmail = connection.prepareStatement(
-                "UPDATE emailAddresses SET emailAddress = ? " +
-                        "WHERE emailID = ?" );
-
-        // Delete row from table names. This must be executed
-        // after sqlDeleteAddress, sqlDeletePhone and
-        // sqlDeleteEmail, because of referential integrity.
-        sqlDeleteName = connection.prepareStatement(
-                "DELETE FROM names WHERE personID = ?" );
-
-        // delete address from table addresses
-        sqlDeleteAddress = connection.prepareStatement(
-                "DELETE FROM addresses WHERE personID = ?" );
-
-        // delete phone number from table phoneNumbers
-        sqlDeletePhone = connection.prepareStatement(
-                "DELETE FROM phoneNumbers WHERE personID = ?" );
-
-        // delete email address from table emailAddresses
-        sqlDeleteEmail = connection.prepareStatement(
-                "DELETE FROM emailAddresses WHERE personID = ?" );
-    }  // end CloudscapeDataAccess constructor
+        PreparedStatement statement = statements.get( sql );
+
+        if ( statement == null ) {
+            statement = diagnostics.prepare( sql );
+            statements.put( sql, statement );
+        }
+
+        // fetch size and timeout may be changed by a settings reload
+        DataAccessConfig config = DataAccessConfig.current();
+        statement.setFetchSize(
+                config.get( DataAccessConfig.JDBC_FETCH_SIZE ) );
+        statement.setQueryTimeout(
+                config.get( DataAccessConfig.JDBC_QUERY_TIMEOUT_SECONDS ) );
+
+        return statement;
+    }
 
     // Obtain a connection to addressbook database. Method may
     // may throw ClassNotFoundException or SQLException. If so,
     // exception is passed via this class's constructor back to
     // the AddressBook application so the application can display
     // an error message and terminate.
-    private void connect() throws Exception
+    private void connect( String database ) throws Exception
+    {
+        connection = openConnection( database );
+
+        // all statements are prepared through diagnostics so that
+        // plans can be captured when diagnostics mode is enabled
+        diagnostics = new QueryDiagnostics( connection );
+    }
+
+    // Open a new connection to the named database with manual
+    // commit. Also used by tools that need connections of their own.
+    static Connection openConnection( String database ) throws Exception
     {
-        // Cloudscape database driver class name
-        String driver = "com.mysql.jdbc.Driver";
+        return openConnection( database, "" );
+    }
+
+    // Open a connection with extra Connector/J URL options, each
+    // given as "&name=value", which override the configured ones.
+    // The server, credentials and driver tuning come from the
+    // addressbook.jdbc.* settings of DataAccessConfig.
+    static Connection openConnection( String database, String options )
+            throws Exception
+    {
+        DataAccessConfig config = DataAccessConfig.current();
 
         // URL to connect to addressbook database
-        String url = "jdbc:mysql://localhost:3306/AddressBook?autoReconnect=true&useSSL=false";
+        String url = "jdbc:mysql://" +
+                config.get( DataAccessConfig.JDBC_HOST ) + ":" +
+                config.get( DataAccessConfig.JDBC_PORT ) + "/" + database +
+                "?autoReconnect=true" +
+                "&useSSL=" + config.get( DataAccessConfig.JDBC_USE_SSL ) +
+                "&connectTimeout=" +
+                config.get( DataAccessConfig.JDBC_CONNECT_TIMEOUT_MILLIS ) +
+                "&socketTimeout=" +
+                config.get( DataAccessConfig.JDBC_SOCKET_TIMEOUT_MILLIS ) +
+                "&cachePrepStmts=" +
+                config.get( DataAccessConfig.JDBC_CACHE_PREP_STMTS ) +
+                "&prepStmtCacheSize=" +
+                config.get( DataAccessConfig.JDBC_PREP_STMT_CACHE_SIZE ) +
+                "&prepStmtCacheSqlLimit=" +
+                config.get( DataAccessConfig.JDBC_PREP_STMT_CACHE_SQL_LIMIT ) +
+                "&useServerPrepStmts=" +
+                config.get( DataAccessConfig.JDBC_USE_SERVER_PREP_STMTS ) +
+                "&rewriteBatchedStatements=" +
+                config.get( DataAccessConfig.JDBC_REWRITE_BATCHED_STATEMENTS ) +
+                "&useCompression=" +
+                config.get( DataAccessConfig.JDBC_USE_COMPRESSION ) +
+                "&useCursorFetch=" +
+                config.get( DataAccessConfig.JDBC_USE_CURSOR_FETCH ) + options;
 
         // load database driver class
-        Class.forName( driver );
+        Class.forName( config.get( DataAccessConfig.JDBC_DRIVER ) );
 
         // connect to database
-        connection = DriverManager.getConnection( url, "root", "root" );
+        Connection connection = DriverManager.getConnection( url,
+                config.get( DataAccessConfig.JDBC_USER ),
+                config.get( DataAccessConfig.JDBC_PASSWORD ) );
 
         // Require manual commit for transactions. This enables
         // the program to rollback transactions that do not
         // complete and commit transactions that complete properly.
         connection.setAutoCommit( false );
+
+        return connection;
     }
 
     // Locate specified person. Method returns AddressBookEntry
     // containing information.
-    public ArrayList<AddressBookEntry> findPerson( String lastName )
+    public synchronized ArrayList<AddressBookEntry> findPerson(
+            String lastName ) throws DataAccessException
     {
         try {
+            PreparedStatement sqlFind =
+                    statement( contactCards ? FIND_CARD : FIND );
+
             // set query parameter and execute query
             sqlFind.setString( 1, lastName );
-            ResultSet resultSet = sqlFind.executeQuery();
+            runningSearch = sqlFind;
+            ResultSet resultSet;
+
+            try {
+                resultSet = diagnostics.executeQuery( sqlFind );
+            }
+            finally {
+                runningSearch = null;
+            }
 
             ArrayList<AddressBookEntry> lastNameList = new ArrayList<AddressBookEntry>();
 
             while (resultSet.next()) {
                 AddressBookEntry person = new AddressBookEntry();
 
-                person.setPersonID(resultSet.getInt(1));
-                person.setFirstName(resultSet.getString(2));
-                person.setLastName(resultSet.getString(3));
+                readEntry( resultSet, person );
+                lastNameList.add(person);
+            }
+
+            // end read transaction so the next read sees new commits
+            diagnostics.commit();
+            return lastNameList;
+        }
+
+        // catch SQLException
+        catch ( SQLException sqlException ) {
+            throw rollbackAfter( sqlException );
+        }
+    }  // end method findPerson
+
+    // Locate specified person without building a list: each row is
+    // read into holder, which is reused for every row, and passed
+    // to consumer until it returns false. Returns the number of
+    // rows passed. For callers searching at a high rate, this
+    // allocates no entry or list per search; the driver still
+    // creates the column Strings.
+    public synchronized int findPerson( String lastName,
+            AddressBookEntry holder, EntryConsumer consumer )
+            throws DataAccessException
+    {
+        try {
+            PreparedStatement sqlFind =
+                    statement( contactCards ? FIND_CARD : FIND );
+            sqlFind.setString( 1, lastName );
+            runningSearch = sqlFind;
+            ResultSet resultSet;
 
-                person.setAddressID(resultSet.getInt(4));
-                person.setAddress1(resultSet.getString(5));
-                person.setAddress2(resultSet.getString(6));
-                person.setCity(resultSet.getString(7));
-                person.setState(resultSet.getString(8));
-                person.setEircode(resultSet.getString(9));
+            try {
+                resultSet = diagnostics.executeQuery( sqlFind );
+            }
+            finally {
+                runningSearch = null;
+            }
 
-                person.setPhoneID(resultSet.getInt(10));
-                person.setPhoneNumber(resultSet.getString(11));
+            int rows = 0;
 
-                person.setEmailID(resultSet.getInt(12));
-                person.setEmailAddress(resultSet.getString(13));
-                lastNameList.add(person);
+            try {
+                while ( resultSet.next() ) {
+                    readEntry( resultSet, holder );
+                    rows++;
+
+                    if ( !consumer.accept( holder ) )
+                        break;
+                }
+            }
+            finally {
+                resultSet.close();
             }
 
-            return lastNameList;
+            // end read transaction so the next read sees new commits
+            diagnostics.commit();
+            return rows;
         }
 
         // catch SQLException
         catch ( SQLException sqlException ) {
-            return null;
+            throw rollbackAfter( sqlException );
         }
     }  // end method findPerson
 
+    // Locate people by last name, reading only personID, first name
+    // and last name. Details are loaded later with loadDetails.
+    public synchronized ArrayList<AddressBookEntry> findPersonSummaries(
+            String lastName ) throws DataAccessException
+    {
+        try {
+            PreparedStatement sqlFindSummary = statement( FIND_SUMMARY );
+            sqlFindSummary.setString( 1, lastName );
+            return readSummaries( sqlFindSummary );
+        }
 
-    // Update an entry. Method returns boolean indicating
-    // success or failure.
-    public boolean savePerson( AddressBookEntry person )
+        // catch SQLException
+        catch ( SQLException sqlException ) {
+            throw rollbackAfter( sqlException );
+        }
+    }  // end method findPersonSummaries
+
+    // locate up to limit people whose last name starts with prefix
+    public synchronized ArrayList<AddressBookEntry>
+            findPersonSummariesByPrefix( String prefix, int limit )
             throws DataAccessException
     {
-        // update person in database
         try {
-            int result;
+            PreparedStatement sqlFindPrefix = statement( FIND_PREFIX );
 
-            // update names table
-            sqlUpdateName.setString( 1, person.getFirstName() );
-            sqlUpdateName.setString( 2, person.getLastName() );
-            sqlUpdateName.setInt( 3, person.getPersonID() );
-            result = sqlUpdateName.executeUpdate();
+            // match the characters of prefix literally
+            sqlFindPrefix.setString( 1,
+                    prefix.replaceAll( "([!%_])", "!$1" ) + "%" );
+            sqlFindPrefix.setInt( 2, limit );
+            return readSummaries( sqlFindPrefix );
+        }
 
-            // if update fails, rollback and discontinue
-            if ( result == 0 ) {
-                connection.rollback(); // rollback update
-                return false;          // update unsuccessful
+        // catch SQLException
+        catch ( SQLException sqlException ) {
+            throw rollbackAfter( sqlException );
+        }
+    }  // end method findPersonSummariesByPrefix
+
+    // Locate people by phone number. A number that cannot be
+    // normalized matches nobody.
+    public synchronized ArrayList<AddressBookEntry> findByPhone(
+            String phoneNumber ) throws DataAccessException
+    {
+        long key = PhoneNumbers.key( phoneNumber );
+
+        if ( key == 0 )
+            return new ArrayList<AddressBookEntry>();
+
+        try {
+            PreparedStatement sqlFindByPhone = statement( FIND_BY_PHONE );
+            sqlFindByPhone.setLong( 1, key );
+            return readEntries( sqlFindByPhone );
+        }
+
+        // catch SQLException
+        catch ( SQLException sqlException ) {
+            throw rollbackAfter( sqlException );
+        }
+    }  // end method findByPhone
+
+    // Locate people by email address, in any case. An address that
+    // is not valid matches nobody.
+    public synchronized ArrayList<AddressBookEntry> findByEmail(
+            String emailAddress ) throws DataAccessException
+    {
+        String key = EmailAddresses.key( emailAddress );
+
+        if ( key == null )
+            return new ArrayList<AddressBookEntry>();
+
+        try {
+            PreparedStatement sqlFindByEmail = statement( FIND_BY_EMAIL );
+            sqlFindByEmail.setString( 1, key );
+            return readEntries( sqlFindByEmail );
+        }
+
+        // catch SQLException
+        catch ( SQLException sqlException ) {
+            throw rollbackAfter( sqlException );
+        }
+    }  // end method findByEmail
+
+    // count live people per email domain, most first
+    public synchronized LinkedHashMap<String, Integer> countByEmailDomain(
+            int limit ) throws DataAccessException
+    {
+        try {
+            PreparedStatement sqlCountByDomain = statement( COUNT_BY_DOMAIN );
+            sqlCountByDomain.setInt( 1, limit );
+            ResultSet resultSet =
+                    diagnostics.executeQuery( sqlCountByDomain );
+
+            LinkedHashMap<String, Integer> counts =
+                    new LinkedHashMap<String, Integer>();
+
+            while ( resultSet.next() )
+                counts.put( resultSet.getString( 1 ), resultSet.getInt( 2 ) );
+
+            // end read transaction so the next read sees new commits
+            diagnostics.commit();
+            return counts;
+        }
+
+        // catch SQLException
+        catch ( SQLException sqlException ) {
+            throw rollbackAfter( sqlException );
+        }
+    }  // end method countByEmailDomain
+
+    // run a query for full entries, in the columns of CARD_COLUMNS,
+    // and end the read transaction
+    private ArrayList<AddressBookEntry> readEntries(
+            PreparedStatement statement ) throws SQLException
+    {
+        ResultSet resultSet = diagnostics.executeQuery( statement );
+
+        ArrayList<AddressBookEntry> people =
+                new ArrayList<AddressBookEntry>();
+
+        while ( resultSet.next() ) {
+            AddressBookEntry person = new AddressBookEntry();
+
+            readEntry( resultSet, person );
+            people.add( person );
+        }
+
+        // end read transaction so the next read sees new commits
+        diagnostics.commit();
+        return people;
+    }
+
+    // Read the current row, in the columns of CARD_COLUMNS, into
+    // person. Every field is set, so a holder can be reused.
+    private static void readEntry( ResultSet resultSet,
+            AddressBookEntry person ) throws SQLException
+    {
+        person.setPersonID( resultSet.getInt( 1 ) );
+        person.setFirstName( resultSet.getString( 2 ) );
+        person.setLastName( resultSet.getString( 3 ) );
+
+        person.setAddressID( resultSet.getInt( 4 ) );
+        person.setAddress1( resultSet.getString( 5 ) );
+        person.setAddress2( resultSet.getString( 6 ) );
+        person.setCity( resultSet.getString( 7 ) );
+        person.setState( resultSet.getString( 8 ) );
+        person.setEircode( resultSet.getString( 9 ) );
+
+        person.setPhoneID( resultSet.getInt( 10 ) );
+        person.setPhoneNumber( resultSet.getString( 11 ) );
+
+        person.setEmailID( resultSet.getInt( 12 ) );
+        person.setEmailAddress( resultSet.getString( 13 ) );
+    }
+
+    // Cancel the search in progress. Not synchronized, since the
+    // search holds this object's lock until it finishes.
+    public void cancelSearch()
+    {
+        Statement statement = runningSearch;
+
+        if ( statement == null )
+            return;
+
+        try {
+            statement.cancel();
+        }
+        catch ( SQLException sqlException ) {
+            sqlException.printStackTrace();
+        }
+    }
+
+    // run a summary query, which can be cancelled while it runs
+    private ArrayList<AddressBookEntry> readSummaries(
+            PreparedStatement statement ) throws SQLException
+    {
+        ArrayList<AddressBookEntry> summaries =
+                new ArrayList<AddressBookEntry>();
+
+        runningSearch = statement;
+
+        try {
+            ResultSet resultSet = diagnostics.executeQuery( statement );
+
+            while ( resultSet.next() ) {
+                AddressBookEntry person =
+                        new AddressBookEntry( resultSet.getInt( 1 ) );
+                person.setFirstName( resultSet.getString( 2 ) );
+                person.setLastName( resultSet.getString( 3 ) );
+                summaries.add( person );
             }
+        }
+        finally {
+            runningSearch = null;
+        }
 
-            // update addresses table
-            sqlUpdateAddress.setString( 1, person.getAddress1() );
-            sqlUpdateAddress.setString( 2, person.getAddress2() );
-            sqlUpdateAddress.setString( 3, person.getCity() );
-            sqlUpdateAddress.setString( 4, person.getState() );
-            sqlUpdateAddress.setString( 5, person.getEircode() );
-            sqlUpdateAddress.setInt( 6, person.getAddressID() );
-            result = sqlUpdateAddress.executeUpdate();
+        // end read transaction so the next read sees new commits
+        diagnostics.commit();
+        return summaries;
+    }
 
-            // if update fails, rollback and discontinue
-            if ( result == 0 ) {
-                connection.rollback(); // rollback update
-                return false;          // update unsuccessful
+    // Fill in address, phone and email of an entry found by
+    // findPersonSummaries, from the first of the person's detail
+    // rows; findDetails returns them all. Method returns boolean
+    // indicating whether the person's details were found.
+    public synchronized boolean loadDetails( AddressBookEntry person )
+            throws DataAccessException
+    {
+        try {
+            ResultSet resultSet = queryDetails( person );
+            boolean found = resultSet.next();
+
+            if ( found )
+                readDetails( resultSet, person );
+
+            resultSet.close();
+
+            // end read transaction so the next read sees new commits
+            diagnostics.commit();
+            return found;
+        }
+
+        // catch SQLException
+        catch ( SQLException sqlException ) {
+            throw rollbackAfter( sqlException );
+        }
+    }  // end method loadDetails
+
+    // Return a copy of an entry found by findPersonSummaries for
+    // each of the person's detail rows, in loadDetails' order.
+    public synchronized ArrayList<AddressBookEntry> findDetails(
+            AddressBookEntry person ) throws DataAccessException
+    {
+        try {
+            ResultSet resultSet = queryDetails( person );
+            ArrayList<AddressBookEntry> details =
+                    new ArrayList<AddressBookEntry>();
+
+            while ( resultSet.next() ) {
+                AddressBookEntry detail = new AddressBookEntry( person );
+                readDetails( resultSet, detail );
+                details.add( detail );
             }
 
-            // update phoneNumbers table
-            sqlUpdatePhone.setString( 1, person.getPhoneNumber() );
-            sqlUpdatePhone.setInt( 2, person.getPhoneID() );
-            result = sqlUpdatePhone.executeUpdate();
+            resultSet.close();
 
-            // if update fails, rollback and discontinue
-            if ( result == 0 ) {
-                connection.rollback(); // rollback update
-                return false;          // update unsuccessful
+            // end read transaction so the next read sees new commits
+            diagnostics.commit();
+            return details;
+        }
+
+        // catch SQLException
+        catch ( SQLException sqlException ) {
+            throw rollbackAfter( sqlException );
+        }
+    }  // end method findDetails
+
+    // run LOAD_DETAILS for the entry's person
+    private ResultSet queryDetails( AddressBookEntry person )
+            throws SQLException
+    {
+        PreparedStatement sqlLoadDetails = statement( LOAD_DETAILS );
+        sqlLoadDetails.setInt( 1, person.getPersonID() );
+        sqlLoadDetails.setInt( 2, person.getPersonID() );
+        sqlLoadDetails.setInt( 3, person.getPersonID() );
+        return diagnostics.executeQuery( sqlLoadDetails );
+    }
+
+    // read the current row, in the columns of LOAD_DETAILS, into
+    // person's address, phone and email
+    private static void readDetails( ResultSet resultSet,
+            AddressBookEntry person ) throws SQLException
+    {
+        person.setAddressID( resultSet.getInt( 1 ) );
+        person.setAddress1( resultSet.getString( 2 ) );
+        person.setAddress2( resultSet.getString( 3 ) );
+        person.setCity( resultSet.getString( 4 ) );
+        person.setState( resultSet.getString( 5 ) );
+        person.setEircode( resultSet.getString( 6 ) );
+
+        person.setPhoneID( resultSet.getInt( 7 ) );
+        person.setPhoneNumber( resultSet.getString( 8 ) );
+
+        person.setEmailID( resultSet.getInt( 9 ) );
+        person.setEmailAddress( resultSet.getString( 10 ) );
+    }
+
+
+    // Read every entry in personID order, for bulk jobs such as
+    // duplicate detection that need them all at once. The rows are
+    // streamed from the server, but every entry is copied into the
+    // list returned, so the whole address book is held in memory;
+    // jobs that can look at one entry at a time use forEachPerson.
+    public synchronized ArrayList<AddressBookEntry> findAllPersons()
+            throws DataAccessException
+    {
+        final ArrayList<AddressBookEntry> people =
+                new ArrayList<AddressBookEntry>();
+
+        forEachPerson( new AddressBookEntry(), new EntryConsumer() {
+            public boolean accept( AddressBookEntry person )
+            {
+                people.add( new AddressBookEntry( person ) );
+                return true;
             }
+        } );
+
+        return people;
+    }  // end method findAllPersons
+
+    // Pass every entry, in personID order, to consumer until it
+    // returns false, reading each row into holder. Streams like
+    // findAllPersons but never holds more than one entry, for bulk
+    // jobs over more people than fit in memory as entries. Returns
+    // the number of rows passed.
+    public synchronized int forEachPerson( AddressBookEntry holder,
+            EntryConsumer consumer ) throws DataAccessException
+    {
+        try {
+            Statement statement = connection.createStatement(
+                    ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY );
+            statement.setFetchSize( Integer.MIN_VALUE );
+            int rows = 0;
+
+            // The streaming result must be closed before anything
+            // else runs on the connection, the commit included; when
+            // the consumer stops early, closing reads the rest.
+            try {
+                ResultSet resultSet = statement.executeQuery(
+                        CARD_SOURCE + " ORDER BY names.personID" );
 
-            // update emailAddresses table
-            sqlUpdateEmail.setString( 1, person.getEmailAddress() );
-            sqlUpdateEmail.setInt( 2, person.getEmailID() );
-            result = sqlUpdateEmail.executeUpdate();
+                try {
+                    while ( resultSet.next() ) {
+                        readEntry( resultSet, holder );
+                        rows++;
 
-            // if update fails, rollback and discontinue
-            if ( result == 0 ) {
-                connection.rollback(); // rollback update
-                return false;          // update unsuccessful
+                        if ( !consumer.accept( holder ) )
+                            break;
+                    }
+                }
+                finally {
+                    resultSet.close();
+                }
+            }
+            finally {
+                statement.close();
             }
 
-            connection.commit();   // commit update
-            return true;           // update successful
-        }  // end try
+            diagnostics.commit();   // end read transaction
+            return rows;
+        }
 
-        // detect problems updating database
+        // detect problems reading database
         catch ( SQLException sqlException ) {
+            throw rollbackAfter( sqlException );
+        }
 
-            // rollback transaction
+        // the consumer failed; end the read transaction
+        catch ( DataAccessException | RuntimeException exception ) {
             try {
-                connection.rollback(); // rollback update
-                return false;          // update unsuccessful
+                connection.rollback();
             }
-
-            // handle exception rolling back transaction
-            catch ( SQLException exception ) {
-                throw new DataAccessException( exception );
+            catch ( SQLException rollbackException ) {
+                exception.addSuppressed( rollbackException );
             }
-        }
-    }  // end method savePerson
 
-    // Insert new entry. Method returns boolean indicating
-    // success or failure.
-    public boolean newPerson( AddressBookEntry person )
+            throw exception;
+        }
+    }  // end method forEachPerson
+
+    // Merge a duplicate person into a surviving person. The
+    // duplicate's addresses, phone numbers and email addresses are
+    // re-parented onto the survivor's personID and the duplicate's
+    // name row is deleted, all in one transaction. The survivor's
+    // name row is locked first; if the survivor does not exist or is
+    // marked deleted nothing is changed, since the details would be
+    // moved onto a person no one can see. WriteListeners are told
+    // of a SAVE of the survivor and a DELETE of the duplicate.
+    // Method returns boolean indicating success or failure.
+    public synchronized boolean mergePersons( int survivorID,
+            int duplicateID )
             throws DataAccessException
     {
-        // insert person in database
-        try {
-            int result;
+        if ( survivorID == duplicateID )
+            return false;
 
-            // insert first and last name in names table
-            sqlInsertName.setString( 1, person.getFirstName() );
-            sqlInsertName.setString( 2, person.getLastName() );
-            result = sqlInsertName.executeUpdate();
+        // merges are rare, so these statements are prepared per call
+        String[] reparent = {
+                "UPDATE addresses SET personID = ? WHERE personID = ?",
+                "UPDATE phoneNumbers SET personID = ? WHERE personID = ?",
+                "UPDATE emailAddresses SET personID = ? WHERE personID = ?"
+        };
 
-            // if insert fails, rollback and discontinue
-            if ( result == 0 ) {
-                connection.rollback(); // rollback insert
-                return false;          // insert unsuccessful
+        try {
+            PreparedStatement sqlLivePerson = statement( LIVE_PERSON );
+            sqlLivePerson.setInt( 1, survivorID );
+
+            if ( !diagnostics.executeQuery( sqlLivePerson ).next() ) {
+                connection.rollback(); // release the lock
+                return false;          // no survivor to merge into
             }
 
-            // determine new personID
-            ResultSet resultPersonID = sqlPersonID.executeQuery();
-
-            if ( resultPersonID.next() ) {
-                int personID =  resultPersonID.getInt( 1 );
-
-                // insert address in addresses table
-                sqlInsertAddress.setInt( 1, personID );
-                sqlInsertAddress.setString( 2,
-                        person.getAddress1() );
-                sqlInsertAddress.setString( 3,
-                        person.getAddress2() );
-                sqlInsertAddress.setString( 4,
-                        person.getCity() );
-                sqlInsertAddress.setString( 5,
-                        person.getState() );
-                sqlInsertAddress.setString( 6,
-                        person.getEircode() );
-                result = sqlInsertAddress.executeUpdate();
-
-                // if insert fails, rollback and discontinue
-                if ( result == 0 ) {
-                    connection.rollback(); // rollback insert
-                    return false;          // insert unsuccessful
-                }
+            // both people as they stand, for the listeners
+            AddressBookEntry survivorBefore =
+                    currentRow( new AddressBookEntry( survivorID ) );
+            AddressBookEntry duplicateBefore =
+                    currentRow( new AddressBookEntry( duplicateID ) );
 
-                // insert phone number in phoneNumbers table
-                sqlInsertPhone.setInt( 1, personID );
-                sqlInsertPhone.setString( 2,
-                        person.getPhoneNumber() );
-                result = sqlInsertPhone.executeUpdate();
+            for ( int i = 0; i < reparent.length; i++ ) {
+                PreparedStatement statement =
+                        diagnostics.prepare( reparent[ i ] );
 
-                // if insert fails, rollback and discontinue
-                if ( result == 0 ) {
-                    connection.rollback(); // rollback insert
-                    return false;          // insert unsuccessful
+                try {
+                    statement.setInt( 1, survivorID );
+                    statement.setInt( 2, duplicateID );
+                    diagnostics.executeUpdate( statement );
                 }
-
-                // insert email address in emailAddresses table
-                sqlInsertEmail.setInt( 1, personID );
-                sqlInsertEmail.setString( 2,
-                        person.getEmailAddress() );
-                result = sqlInsertEmail.executeUpdate();
-
-                // if insert fails, rollback and discontinue
-                if ( result == 0 ) {
-                    connection.rollback(); // rollback insert
-                    return false;          // insert unsuccessful
+                finally {
+                    diagnostics.release( statement );
+                    statement.close();
                 }
+            }
+
+            // delete duplicate's name; this must be executed after
+            // its details have moved, because of referential integrity
+            PreparedStatement sqlDeleteName = statement( DELETE_NAME );
+            sqlDeleteName.setInt( 1, duplicateID );
 
-                connection.commit();   // commit insert
-                return true;           // insert successful
+            // if delete fails, rollback and discontinue
+            if ( diagnostics.executeUpdate( sqlDeleteName ) == 0 ) {
+                connection.rollback(); // rollback merge
+                writesRolledBack();
+                return false;          // merge unsuccessful
             }
 
-            else
-                return false;
+            // the survivor's card gains the duplicate's details
+            refreshCard( survivorID );
+            refreshCard( duplicateID );
+
+            // the survivor's after image is the same row as its
+            // before image, now that the duplicate's rows are its own
+            changed( AuditRecord.SAVE, survivorID, survivorBefore,
+                    currentRow( survivorBefore != null ? survivorBefore :
+                            new AddressBookEntry( survivorID ) ) );
+            changed( AuditRecord.DELETE, duplicateID, duplicateBefore,
+                    null );
+
+            diagnostics.commit();   // commit merge
+            writesCommitted();
+            return true;           // merge successful
         }  // end try
 
         // detect problems updating database
         catch ( SQLException sqlException ) {
-            // rollback transaction
-            sqlException.printStackTrace();
-            try {
+            throw rollbackAfter( sqlException );
+        }
+    }  // end method mergePersons
+
+    // Update an entry. Method returns boolean indicating
+    // success or failure.
+    public synchronized boolean savePerson( AddressBookEntry person )
+            throws DataAccessException
+    {
+        // update person in database
+        try {
+            // if update fails, rollback and discontinue
+            if ( !updateEntry( person ) ) {
                 connection.rollback(); // rollback update
+                writesRolledBack();
                 return false;          // update unsuccessful
             }
 
-            // handle exception rolling back transaction
-            catch ( SQLException exception ) {
-                throw new DataAccessException( exception );
+            diagnostics.commit();   // commit update
+            writesCommitted();
+            return true;           // update successful
+        }  // end try
+
+        // detect problems updating database
+        catch ( SQLException sqlException ) {
+            throw rollbackAfter( sqlException );
+        }
+    }  // end method savePerson
+
+    // Insert new entry. Method returns boolean indicating
+    // success or failure.
+    public synchronized boolean newPerson( AddressBookEntry person )
+            throws DataAccessException
+    {
+        // insert person in database
+        try {
+            // if insert fails, rollback and discontinue
+            if ( !insertEntry( person ) ) {
+                connection.rollback(); // rollback insert
+                writesRolledBack();
+                return false;          // insert unsuccessful
             }
+
+            diagnostics.commit();   // commit insert
+            writesCommitted();
+            return true;           // insert successful
+        }  // end try
+
+        // detect problems updating database
+        catch ( SQLException sqlException ) {
+            person.setPersonID( 0 );   // entry was not inserted
+            throw rollbackAfter( sqlException );
         }
     }  // end method newPerson
 
     // Delete an entry. Method returns boolean indicating
     // success or failure.
-    public boolean deletePerson( AddressBookEntry person )
+    public synchronized boolean deletePerson( AddressBookEntry person )
             throws DataAccessException
     {
         // delete a person from database
         try {
-            int result;
-
-            // delete address from addresses table
-            sqlDeleteAddress.setInt( 1, person.getPersonID() );
-            result = sqlDeleteAddress.executeUpdate();
-
             // if delete fails, rollback and discontinue
-            if ( result == 0 ) {
+            if ( !removeEntry( person ) ) {
                 connection.rollback(); // rollback delete
+                writesRolledBack();
                 return false;          // delete unsuccessful
             }
 
-            // delete phone number from phoneNumbers table
-            sqlDeletePhone.setInt( 1, person.getPersonID() );
-            result = sqlDeletePhone.executeUpdate();
+            diagnostics.commit();   // commit delete
+            writesCommitted();
+            return true;           // delete successful
+        }  // end try
 
-            // if delete fails, rollback and discontinue
-            if ( result == 0 ) {
-                connection.rollback(); // rollback delete
-                return false;          // delete unsuccessful
-            }
+        // detect problems updating database
+        catch ( SQLException sqlException ) {
+            throw rollbackAfter( sqlException );
+        }
+    }  // end method deletePerson
 
-            // delete email address from emailAddresses table
-            sqlDeleteEmail.setInt( 1, person.getPersonID() );
-            result = sqlDeleteEmail.executeUpdate();
+    // Execute the updates for an entry in the current transaction
+    // without committing. Returns false if any table had no row to
+    // update; the caller must then roll back. Callers other than
+    // savePerson (e.g. GroupCommitDataAccess) must hold this
+    // object's lock.
+    boolean updateEntry( AddressBookEntry person ) throws SQLException
+    {
+        AddressBookEntry before = currentRow( person );
+        PreparedStatement sqlUpdateName = statement( UPDATE_NAME );
+        PreparedStatement sqlUpdateAddress = statement( UPDATE_ADDRESS );
+        PreparedStatement sqlUpdatePhone = statement( UPDATE_PHONE );
+        PreparedStatement sqlUpdateEmail = statement( UPDATE_EMAIL );
+
+        // update names table
+        sqlUpdateName.setString( 1, person.getFirstName() );
+        sqlUpdateName.setString( 2, person.getLastName() );
+        sqlUpdateName.setInt( 3, person.getPersonID() );
+
+        if ( diagnostics.executeUpdate( sqlUpdateName ) == 0 )
+            return false;
+
+        // update addresses table
+        sqlUpdateAddress.setString( 1, person.getAddress1() );
+        sqlUpdateAddress.setString( 2, person.getAddress2() );
+        sqlUpdateAddress.setString( 3, person.getCity() );
+        sqlUpdateAddress.setString( 4, person.getState() );
+        sqlUpdateAddress.setString( 5, person.getEircode() );
+        sqlUpdateAddress.setInt( 6, person.getAddressID() );
+
+        if ( diagnostics.executeUpdate( sqlUpdateAddress ) == 0 )
+            return false;
+
+        // update phoneNumbers table, storing the number in E.164 form
+        normalizePhone( person );
+        sqlUpdatePhone.setString( 1, person.getPhoneNumber() );
+        sqlUpdatePhone.setLong( 2,
+                PhoneNumbers.key( person.getPhoneNumber() ) );
+        sqlUpdatePhone.setInt( 3, person.getPhoneID() );
+
+        if ( diagnostics.executeUpdate( sqlUpdatePhone ) == 0 )
+            return false;
+
+        // update emailAddresses table, with the address's lookup key
+        sqlUpdateEmail.setString( 1, person.getEmailAddress() );
+        sqlUpdateEmail.setString( 2, emailKey( person ) );
+        sqlUpdateEmail.setString( 3,
+                EmailAddresses.domain( person.getEmailAddress() ) );
+        sqlUpdateEmail.setInt( 4, person.getEmailID() );
+
+        if ( diagnostics.executeUpdate( sqlUpdateEmail ) == 0 )
+            return false;
+
+        refreshCard( person.getPersonID() );
+        changed( AuditRecord.SAVE, person.getPersonID(), before, person );
+        return true;
+    }  // end method updateEntry
+
+    // Execute the inserts for a new entry in the current
+    // transaction without committing, and store the new personID
+    // in the entry. Returns false if any insert failed; the caller
+    // must then roll back and reset the personID. Callers other
+    // than newPerson must hold this object's lock.
+    boolean insertEntry( AddressBookEntry person ) throws SQLException
+    {
+        PreparedStatement sqlInsertName = statement( INSERT_NAME );
+        PreparedStatement sqlPersonID = statement( PERSON_ID );
+        PreparedStatement sqlInsertAddress = statement( INSERT_ADDRESS );
+        PreparedStatement sqlInsertPhone = statement( INSERT_PHONE );
+        PreparedStatement sqlInsertEmail = statement( INSERT_EMAIL );
+
+        // insert first and last name in names table
+        sqlInsertName.setString( 1, person.getFirstName() );
+        sqlInsertName.setString( 2, person.getLastName() );
+
+        if ( diagnostics.executeUpdate( sqlInsertName ) == 0 )
+            return false;
+
+        // determine new personID
+        ResultSet resultPersonID = diagnostics.executeQuery( sqlPersonID );
+
+        if ( !resultPersonID.next() )
+            return false;
+
+        int personID = resultPersonID.getInt( 1 );
+
+        // insert address in addresses table
+        sqlInsertAddress.setInt( 1, personID );
+        sqlInsertAddress.setString( 2, person.getAddress1() );
+        sqlInsertAddress.setString( 3, person.getAddress2() );
+        sqlInsertAddress.setString( 4, person.getCity() );
+        sqlInsertAddress.setString( 5, person.getState() );
+        sqlInsertAddress.setString( 6, person.getEircode() );
+
+        if ( diagnostics.executeUpdate( sqlInsertAddress ) == 0 )
+            return false;
+
+        // insert phone number in phoneNumbers table in E.164 form
+        normalizePhone( person );
+        sqlInsertPhone.setInt( 1, personID );
+        sqlInsertPhone.setString( 2, person.getPhoneNumber() );
+        sqlInsertPhone.setLong( 3,
+                PhoneNumbers.key( person.getPhoneNumber() ) );
+
+        if ( diagnostics.executeUpdate( sqlInsertPhone ) == 0 )
+            return false;
+
+        // insert email address and its lookup key in emailAddresses table
+        sqlInsertEmail.setInt( 1, personID );
+        sqlInsertEmail.setString( 2, person.getEmailAddress() );
+        sqlInsertEmail.setString( 3, emailKey( person ) );
+        sqlInsertEmail.setString( 4,
+                EmailAddresses.domain( person.getEmailAddress() ) );
+
+        if ( diagnostics.executeUpdate( sqlInsertEmail ) == 0 )
+            return false;
+
+        refreshCard( personID );
+        person.setPersonID( personID );
+        changed( AuditRecord.NEW, personID, null, person );
+        return true;
+    }  // end method insertEntry
+
+    // Execute the deletes for an entry in the current transaction
+    // without committing. Returns false if any table had no row to
+    // delete; the caller must then roll back. Callers other than
+    // deletePerson must hold this object's lock.
+    boolean removeEntry( AddressBookEntry person ) throws SQLException
+    {
+        AddressBookEntry before = currentRow( person );
 
-            // if delete fails, rollback and discontinue
-            if ( result == 0 ) {
-                connection.rollback(); // rollback delete
-                return false;          // delete unsuccessful
-            }
+        // in soft-delete mode one row is updated
+        if ( softDelete ) {
+            PreparedStatement sqlSoftDeleteName =
+                    statement( SOFT_DELETE_NAME );
+            sqlSoftDeleteName.setInt( 1, person.getPersonID() );
 
-            // delete name from names table
-            sqlDeleteName.setInt( 1, person.getPersonID() );
-            result = sqlDeleteName.executeUpdate();
+            if ( diagnostics.executeUpdate( sqlSoftDeleteName ) == 0 )
+                return false;
 
-            // if delete fails, rollback and discontinue
-            if ( result == 0 ) {
-                connection.rollback(); // rollback delete
-                return false;          // delete unsuccessful
-            }
+            refreshCard( person.getPersonID() );
+            changed( AuditRecord.DELETE, person.getPersonID(), before,
+                    null );
+            return true;
+        }
 
-            connection.commit();   // commit delete
-            return true;           // delete successful
-        }  // end try
+        PreparedStatement sqlDeleteAddress = statement( DELETE_ADDRESS );
+        PreparedStatement sqlDeletePhone = statement( DELETE_PHONE );
+        PreparedStatement sqlDeleteEmail = statement( DELETE_EMAIL );
+        PreparedStatement sqlDeleteName = statement( DELETE_NAME );
 
-        // detect problems updating database
-        catch ( SQLException sqlException ) {
-            // rollback transaction
-            try {
-                connection.rollback(); // rollback update
-                return false;          // update unsuccessful
-            }
+        // delete address from addresses table
+        sqlDeleteAddress.setInt( 1, person.getPersonID() );
+
+        if ( diagnostics.executeUpdate( sqlDeleteAddress ) == 0 )
+            return false;
+
+        // delete phone number from phoneNumbers table
+        sqlDeletePhone.setInt( 1, person.getPersonID() );
+
+        if ( diagnostics.executeUpdate( sqlDeletePhone ) == 0 )
+            return false;
+
+        // delete email address from emailAddresses table
+        sqlDeleteEmail.setInt( 1, person.getPersonID() );
+
+        if ( diagnostics.executeUpdate( sqlDeleteEmail ) == 0 )
+            return false;
+
+        // delete name from names table
+        sqlDeleteName.setInt( 1, person.getPersonID() );
+
+        if ( diagnostics.executeUpdate( sqlDeleteName ) == 0 )
+            return false;
+
+        refreshCard( person.getPersonID() );
+        changed( AuditRecord.DELETE, person.getPersonID(), before, null );
+        return true;
+    }  // end method removeEntry
+
+    // store the entry's phone number in E.164 form if it is one;
+    // anything else is kept as typed
+    private static void normalizePhone( AddressBookEntry person )
+    {
+        String e164 = PhoneNumbers.toE164( person.getPhoneNumber() );
+
+        if ( e164 != null )
+            person.setPhoneNumber( e164 );
+    }
+
+    // lookup key of the entry's email address; an address that is
+    // not valid gets an empty key, which nothing is looked up by
+    private static String emailKey( AddressBookEntry person )
+    {
+        String key = EmailAddresses.key( person.getEmailAddress() );
+
+        return key != null ? key : "";
+    }
+
+    // Rebuild a person's contact card rows from the normalized
+    // tables in the current transaction, so that the cards change
+    // and commit or roll back together with the tables. A deleted
+    // person's rows are just removed. Callers hold this object's lock.
+    private void refreshCard( int personID ) throws SQLException
+    {
+        if ( !contactCards )
+            return;
+
+        PreparedStatement sqlDeleteCard = statement( DELETE_CARD );
+        sqlDeleteCard.setInt( 1, personID );
+        diagnostics.executeUpdate( sqlDeleteCard );
+
+        PreparedStatement sqlInsertCard = statement( INSERT_CARD );
+        sqlInsertCard.setInt( 1, personID );
+        diagnostics.executeUpdate( sqlInsertCard );
+    }
+
+    // A copy of the person's row as it stands in this transaction,
+    // locked until the transaction ends so that no other writer can
+    // change it in between, or null if the person has no live row.
+    // Not read when there are no listeners to give it to.
+    private AddressBookEntry currentRow( AddressBookEntry person )
+            throws SQLException
+    {
+        if ( listeners.isEmpty() )
+            return null;
+
+        PreparedStatement sqlCurrentRow = statement( CURRENT_ROW );
+        sqlCurrentRow.setInt( 1, person.getPersonID() );
+        sqlCurrentRow.setInt( 2, person.getAddressID() );
+        sqlCurrentRow.setInt( 3, person.getPhoneID() );
+        sqlCurrentRow.setInt( 4, person.getEmailID() );
+        ResultSet resultSet = diagnostics.executeQuery( sqlCurrentRow );
+
+        if ( !resultSet.next() )
+            return null;
+
+        AddressBookEntry row = new AddressBookEntry();
+        readEntry( resultSet, row );
+        return row;
+    }
+
+    // remember a completed write until its transaction ends
+    private void changed( int operation, int personID,
+            AddressBookEntry before, AddressBookEntry after )
+    {
+        if ( !listeners.isEmpty() )
+            uncommitted.add( new Change( operation, personID, before,
+                    after == null ? null : new AddressBookEntry( after ) ) );
+    }
+
+    // Tell the listeners of the writes in the transaction just
+    // committed. Callers that commit the connection themselves
+    // (e.g. GroupCommitDataAccess) must call this, or
+    // writesRolledBack, while still holding this object's lock.
+    void writesCommitted()
+    {
+        if ( uncommitted.isEmpty() )
+            return;
+
+        for ( Change change : uncommitted )
+            for ( WriteListener listener : listeners ) {
+                try {
+                    listener.committed( change.operation, change.personID,
+                            change.before, change.after );
+                }
 
-            // handle exception rolling back transaction
-            catch ( SQLException exception ) {
-                throw new DataAccessException( exception );
+                // the write has committed; a listener cannot undo it
+                catch ( RuntimeException exception ) {
+                    exception.printStackTrace();
+                }
             }
+
+        uncommitted.clear();
+    }
+
+    // forget the writes of a transaction that was rolled back
+    void writesRolledBack()
+    {
+        uncommitted.clear();
+    }
+
+    // add a listener to be told of committed writes
+    public void addWriteListener( WriteListener listener )
+    {
+        listeners.add( listener );
+    }
+
+    public void removeWriteListener( WriteListener listener )
+    {
+        listeners.remove( listener );
+    }
+
+    // Roll back the current transaction after a failed statement
+    // and return the exception to throw. The statement's failure is
+    // kept as the cause so that callers can classify it; a failure
+    // to roll back is attached as a suppressed exception.
+    private DataAccessException rollbackAfter( SQLException sqlException )
+    {
+        writesRolledBack();
+
+        try {
+            connection.rollback();
         }
-    }  // end method deletePerson
+        catch ( SQLException exception ) {
+            sqlException.addSuppressed( exception );
+        }
+
+        return new DataAccessException( sqlException );
+    }
+
+    // get connection for callers that manage their own
+    // transactions while holding this object's lock
+    Connection getConnection()
+    {
+        return connection;
+    }
+
+    // choose between marking deleted people (true) and removing
+    // their rows at once (false)
+    public void setSoftDelete( boolean softDelete )
+    {
+        this.softDelete = softDelete;
+    }
+
+    public boolean isSoftDelete()
+    {
+        return softDelete;
+    }
+
+    // choose between maintaining and reading contact cards (true)
+    // and joining the normalized tables on every read (false)
+    public void setContactCards( boolean contactCards )
+    {
+        this.contactCards = contactCards;
+    }
+
+    public boolean isContactCards()
+    {
+        return contactCards;
+    }
+
+    // get diagnostics for this data source's statements
+    public QueryDiagnostics getDiagnostics()
+    {
+        return diagnostics;
+    }
 
     // method to close statements and database connection
-    public void close()
+    public synchronized void close()
     {
         // close database connection
         try {
-            sqlFind.close();
-            sqlPersonID.close();
-            sqlInsertName.close();
-            sqlInsertAddress.close();
-            sqlInsertPhone.close();
-            sqlInsertEmail.close();
-            sqlUpdateName.close();
-            sqlUpdateAddress.close();
-            sqlUpdatePhone.close();
-            sqlUpdateEmail.close();
-            sqlDeleteName.close();
-            sqlDeleteAddress.close();
-            sqlDeletePhone.close();
-            sqlDeleteEmail.close();
+            for ( PreparedStatement statement : statements.values() )
+                statement.close();
+
             connection.close();
         }  // end try
 
@@ -460,6 +1373,23 @@ public class CloudscapeDataAccess
         }
     }  // end method close
 
+    // one write waiting for its transaction to commit
+    private static class Change {
+        int operation;
+        int personID;
+        AddressBookEntry before;
+        AddressBookEntry after;
+
+        Change( int operation, int personID, AddressBookEntry before,
+                AddressBookEntry after )
+        {
+            this.operation = operation;
+            this.personID = personID;
+            this.before = before;
+            this.after = after;
+        }
+    }
+
     // Method to clean up database connection. Provided in case
     // CloudscapeDataAccess object is garbage collected.
     protected void finalize()
@@ -0,0 +1,197 @@
+// CompactEntry.java
+// Memory-efficient form of AddressBookEntry for holding many entries
+// at once, e.g. in caches and large result sets. City, county and
+// the routing key (first three characters) of the Eircode are held
+// as codes into the shared StringDictionaries. All other strings are
+// packed into a single byte array: one byte per character when the
+// string is Latin-1, UTF-8 otherwise, each preceded by a varint
+// header of (byte length << 2 | form). An entry is thus two objects
+// instead of ten, and a repeated city is one shared String.
+//
+// Conversion in either direction copies the strings once. Coded
+// fields decode to the shared String without allocating.
+
+// Java core packages
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class CompactEntry {
+
+    // forms of a packed string
+    private static final int LATIN1 = 0, UTF8 = 1, NULL = 2;
+
+    private int personID, addressID, phoneID, emailID;
+
+    // dictionary codes, or NOT_CODED when the value is packed
+    private short city, state, routingKey;
+
+    // packed strings: firstName, lastName, address1, address2, city
+    // and state when not coded, the Eircode (without its routing key
+    // when that is coded), phoneNumber, emailAddress
+    private byte[] data;
+
+    private CompactEntry()
+    {
+    }
+
+    // compact form of an entry
+    public static CompactEntry of( AddressBookEntry person )
+    {
+        CompactEntry compact = new CompactEntry();
+        compact.personID = person.getPersonID();
+        compact.addressID = person.getAddressID();
+        compact.phoneID = person.getPhoneID();
+        compact.emailID = person.getEmailID();
+
+        compact.city = ( short ) StringDictionary.CITIES.encode(
+                person.getCity() );
+        compact.state = ( short ) StringDictionary.STATES.encode(
+                person.getState() );
+
+        // code "A65 F4E2" as routing key "A65" plus "F4E2"
+        String eircode = person.getEircode();
+
+        if ( eircode != null && eircode.length() == 8 &&
+                eircode.charAt( 3 ) == ' ' ) {
+            compact.routingKey = ( short )
+                    StringDictionary.EIRCODE_ROUTING_KEYS.encode(
+                            eircode.substring( 0, 3 ) );
+
+            if ( compact.routingKey != StringDictionary.NOT_CODED )
+                eircode = eircode.substring( 4 );
+        }
+        else
+            compact.routingKey = StringDictionary.NOT_CODED;
+
+        String[] packed = {
+                person.getFirstName(), person.getLastName(),
+                person.getAddress1(), person.getAddress2(),
+                compact.city == StringDictionary.NOT_CODED ?
+                        person.getCity() : null,
+                compact.state == StringDictionary.NOT_CODED ?
+                        person.getState() : null,
+                eircode, person.getPhoneNumber(),
+                person.getEmailAddress() };
+
+        compact.data = pack( packed );
+        return compact;
+    }
+
+    // copy every field into an existing entry
+    public void copyTo( AddressBookEntry person )
+    {
+        String[] strings = unpack();
+
+        person.setPersonID( personID );
+        person.setAddressID( addressID );
+        person.setPhoneID( phoneID );
+        person.setEmailID( emailID );
+        person.setFirstName( strings[ 0 ] );
+        person.setLastName( strings[ 1 ] );
+        person.setAddress1( strings[ 2 ] );
+        person.setAddress2( strings[ 3 ] );
+        person.setCity( city == StringDictionary.NOT_CODED ? strings[ 4 ] :
+                StringDictionary.CITIES.decode( city ) );
+        person.setState( state == StringDictionary.NOT_CODED ? strings[ 5 ] :
+                StringDictionary.STATES.decode( state ) );
+        person.setEircode( routingKey == StringDictionary.NOT_CODED ?
+                strings[ 6 ] : StringDictionary.EIRCODE_ROUTING_KEYS.decode(
+                        routingKey ) + " " + strings[ 6 ] );
+        person.setPhoneNumber( strings[ 7 ] );
+        person.setEmailAddress( strings[ 8 ] );
+    }
+
+    // full entry
+    public AddressBookEntry toEntry()
+    {
+        AddressBookEntry person = new AddressBookEntry();
+        copyTo( person );
+        return person;
+    }
+
+    public int getPersonID()
+    {
+        return personID;
+    }
+
+    // city; a coded city is returned without unpacking anything
+    public String getCity()
+    {
+        return city == StringDictionary.NOT_CODED ? unpack()[ 4 ] :
+                StringDictionary.CITIES.decode( city );
+    }
+
+    // county; a coded county is returned without unpacking anything
+    public String getState()
+    {
+        return state == StringDictionary.NOT_CODED ? unpack()[ 5 ] :
+                StringDictionary.STATES.decode( state );
+    }
+
+    // pack strings into one array
+    private static byte[] pack( String[] strings )
+    {
+        byte[][] bytes = new byte[ strings.length ][];
+        int[] headers = new int[ strings.length ];
+        int size = 0;
+
+        for ( int i = 0; i < strings.length; i++ ) {
+            String value = strings[ i ];
+
+            if ( value == null ) {
+                headers[ i ] = NULL;
+                bytes[ i ] = new byte[ 0 ];
+            }
+            else {
+                boolean latin1 = isLatin1( value );
+                bytes[ i ] = value.getBytes( latin1 ?
+                        StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8 );
+                headers[ i ] = bytes[ i ].length << 2 |
+                        ( latin1 ? LATIN1 : UTF8 );
+            }
+
+            size += AddressBookEntryCodec.varintSize( headers[ i ] ) +
+                    bytes[ i ].length;
+        }
+
+        ByteBuffer data = ByteBuffer.allocate( size );
+
+        for ( int i = 0; i < strings.length; i++ ) {
+            AddressBookEntryCodec.putVarint( data, headers[ i ] );
+            data.put( bytes[ i ] );
+        }
+
+        return data.array();
+    }
+
+    // unpack every packed string
+    private String[] unpack()
+    {
+        String[] strings = new String[ 9 ];
+        ByteBuffer in = ByteBuffer.wrap( data );
+
+        for ( int i = 0; i < strings.length; i++ ) {
+            int header = AddressBookEntryCodec.getVarint( in );
+            int length = header >>> 2;
+            int form = header & 3;
+
+            if ( form != NULL )
+                strings[ i ] = new String( data, in.position(), length,
+                        form == LATIN1 ? StandardCharsets.ISO_8859_1 :
+                                StandardCharsets.UTF_8 );
+
+            in.position( in.position() + length );
+        }
+
+        return strings;
+    }
+
+    private static boolean isLatin1( String value )
+    {
+        for ( int i = 0; i < value.length(); i++ )
+            if ( value.charAt( i ) > 0xFF )
+                return false;
+
+        return true;
+    }
+}  // end class CompactEntry
@@ -0,0 +1,177 @@
+// CompletionIndex.java
+// Prefix index of terms with the number of times each term occurs,
+// answering "the K most frequent terms starting with this prefix".
+// Terms are kept in a character trie, matched without regard to
+// case. Every node caches the top terms of its subtree; an add or
+// remove only clears the caches on the term's own path, and they
+// are rebuilt from the children's caches the next time they are
+// asked for, so a lookup costs the length of the prefix plus, at
+// most, one rebuild per cleared node.
+
+// Java core packages
+import java.util.*;
+
+public class CompletionIndex {
+
+    // number of terms cached per node, and most a lookup returns
+    private int maxResults;
+
+    private Node root = new Node();
+
+    // set up index returning at most maxResults terms per lookup
+    public CompletionIndex( int maxResults )
+    {
+        this.maxResults = maxResults;
+    }
+
+    // count one more occurrence of a term
+    public synchronized void add( String term )
+    {
+        change( term, 1 );
+    }
+
+    // count one less occurrence of a term
+    public synchronized void remove( String term )
+    {
+        change( term, -1 );
+    }
+
+    // most frequent terms starting with prefix, most frequent first
+    // and alphabetical among equals
+    public synchronized List<String> complete( String prefix, int limit )
+    {
+        Node node = root;
+        String key = prefix.toLowerCase( Locale.ROOT );
+
+        for ( int i = 0; node != null && i < key.length(); i++ )
+            node = node.children.get( key.charAt( i ) );
+
+        List<String> terms = new ArrayList<String>();
+
+        if ( node == null )
+            return terms;
+
+        for ( Node top : node.top( maxResults ) ) {
+            if ( terms.size() == limit )
+                break;
+
+            terms.add( top.term );
+        }
+
+        return terms;
+    }
+
+    // number of occurrences of a term
+    public synchronized int count( String term )
+    {
+        Node node = find( term.toLowerCase( Locale.ROOT ) );
+        return node == null ? 0 : node.count;
+    }
+
+    // forget every term
+    public synchronized void clear()
+    {
+        root = new Node();
+    }
+
+    // add delta to a term's count, clearing cached top terms along
+    // its path and pruning nodes that no longer lead to any term
+    private void change( String term, int delta )
+    {
+        if ( term == null || term.isEmpty() )
+            return;
+
+        String key = term.toLowerCase( Locale.ROOT );
+        Node[] path = new Node[ key.length() + 1 ];
+        path[ 0 ] = root;
+
+        for ( int i = 0; i < key.length(); i++ ) {
+            Node child = path[ i ].children.get( key.charAt( i ) );
+
+            if ( child == null ) {
+                if ( delta < 0 )
+                    return;
+
+                child = new Node();
+                path[ i ].children.put( key.charAt( i ), child );
+            }
+
+            path[ i + 1 ] = child;
+        }
+
+        Node node = path[ key.length() ];
+        node.count = Math.max( 0, node.count + delta );
+
+        // keep the spelling of the latest added occurrence
+        if ( delta > 0 || node.term == null )
+            node.term = term;
+
+        if ( node.count == 0 )
+            node.term = null;
+
+        for ( int i = key.length(); i >= 0; i-- ) {
+            path[ i ].top = null;
+
+            if ( i > 0 && path[ i ].count == 0 &&
+                    path[ i ].children.isEmpty() )
+                path[ i - 1 ].children.remove( key.charAt( i - 1 ) );
+        }
+    }
+
+    private Node find( String key )
+    {
+        Node node = root;
+
+        for ( int i = 0; node != null && i < key.length(); i++ )
+            node = node.children.get( key.charAt( i ) );
+
+        return node;
+    }
+
+    // orders terms by count, then alphabetically
+    private static final Comparator<Node> BY_FREQUENCY =
+            new Comparator<Node>() {
+                public int compare( Node a, Node b )
+                {
+                    if ( a.count != b.count )
+                        return a.count > b.count ? -1 : 1;
+
+                    return a.term.compareToIgnoreCase( b.term );
+                }
+            };
+
+    // one character of one or more terms
+    private static class Node {
+        Map<Character, Node> children = new HashMap<Character, Node>( 4 );
+
+        // occurrences of the term ending here, and its spelling
+        int count;
+        String term;
+
+        // cached most frequent terms in this subtree, or null
+        Node[] top;
+
+        // most frequent terms in this subtree, merged from the
+        // children's cached lists when not cached here
+        Node[] top( int size )
+        {
+            if ( top != null )
+                return top;
+
+            List<Node> candidates = new ArrayList<Node>();
+
+            if ( count > 0 )
+                candidates.add( this );
+
+            for ( Node child : children.values() )
+                candidates.addAll( Arrays.asList( child.top( size ) ) );
+
+            Collections.sort( candidates, BY_FREQUENCY );
+
+            top = candidates.subList( 0,
+                    Math.min( size, candidates.size() ) ).toArray(
+                            new Node[ 0 ] );
+            return top;
+        }
+    }  // end inner class Node
+}  // end class CompletionIndex
@@ -0,0 +1,195 @@
+// ContactCardTool.java
+// Checks and rebuilds the contactCards table, the denormalized copy
+// of names, addresses, phoneNumbers and emailAddresses that
+// CloudscapeDataAccess maintains when addressbook.contactCards is
+// set. Cards can drift from the tables if they were written while
+// card maintenance was off, or changed by hand or by a restore.
+//
+//   verify   compares every card with the join it materializes, in
+//            one consistent snapshot, and lists the people whose
+//            cards are missing, stale or left over; exits with
+//            status 1 if any are found
+//   repair   rebuilds the cards of just those people, one short
+//            transaction each, while the application keeps running
+//   rebuild  replaces every card in one transaction
+//
+// Usage: java ContactCardTool verify|repair|rebuild [database]
+
+// Java core packages
+import java.sql.*;
+import java.util.*;
+
+public class ContactCardTool {
+
+    // people listed in a report
+    private static final int MAX_REPORTED = 20;
+
+    // card and source row are the same when every column matches
+    private static final String SAME_ROW =
+            "c.personID = s.personID AND c.addressID = s.addressID AND " +
+                    "c.phoneID = s.phoneID AND c.emailID = s.emailID AND " +
+                    "c.firstName <=> s.firstName AND " +
+                    "c.lastName <=> s.lastName AND " +
+                    "c.address1 <=> s.address1 AND " +
+                    "c.address2 <=> s.address2 AND c.city <=> s.city AND " +
+                    "c.state <=> s.state AND c.eircode <=> s.eircode AND " +
+                    "c.phoneNumber <=> s.phoneNumber AND " +
+                    "c.emailAddress <=> s.emailAddress";
+
+    // people with a source row that has no identical card
+    private static final String MISSING =
+            "SELECT DISTINCT s.personID FROM ( " +
+                    CloudscapeDataAccess.CARD_SOURCE + " ) s " +
+                    "LEFT JOIN contactCards c ON " + SAME_ROW +
+                    " WHERE c.personID IS NULL ORDER BY s.personID";
+
+    // people with a card that matches no source row
+    private static final String LEFT_OVER =
+            "SELECT DISTINCT c.personID FROM contactCards c " +
+                    "LEFT JOIN ( " + CloudscapeDataAccess.CARD_SOURCE +
+                    " ) s ON " + SAME_ROW +
+                    " WHERE s.personID IS NULL ORDER BY c.personID";
+
+    private Connection connection;
+
+    // work on the named database over a connection of its own
+    public ContactCardTool( String database ) throws Exception
+    {
+        connection = CloudscapeDataAccess.openConnection( database );
+    }
+
+    // personIDs whose cards differ from the tables, in order
+    public SortedSet<Integer> verify() throws SQLException
+    {
+        SortedSet<Integer> drifted = new TreeSet<Integer>();
+        Statement statement = connection.createStatement();
+
+        try {
+            // both comparisons see the same committed state
+            statement.execute(
+                    "START TRANSACTION WITH CONSISTENT SNAPSHOT, READ ONLY" );
+
+            for ( String sql : new String[] { MISSING, LEFT_OVER } ) {
+                ResultSet resultSet = statement.executeQuery( sql );
+
+                while ( resultSet.next() )
+                    drifted.add( resultSet.getInt( 1 ) );
+
+                resultSet.close();
+            }
+
+            connection.commit();
+            return drifted;
+        }
+        catch ( SQLException sqlException ) {
+            connection.rollback();
+            throw sqlException;
+        }
+        finally {
+            statement.close();
+        }
+    }
+
+    // rebuild the cards of the given people, one transaction each
+    public int repair( Collection<Integer> personIDs ) throws SQLException
+    {
+        PreparedStatement delete = connection.prepareStatement(
+                "DELETE FROM contactCards WHERE personID = ?" );
+        PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO contactCards ( " +
+                        CloudscapeDataAccess.CARD_COLUMNS + " ) " +
+                        CloudscapeDataAccess.CARD_SOURCE +
+                        " AND names.personID = ?" );
+
+        try {
+            for ( int personID : personIDs ) {
+                delete.setInt( 1, personID );
+                delete.executeUpdate();
+                insert.setInt( 1, personID );
+                insert.executeUpdate();
+                connection.commit();
+            }
+
+            return personIDs.size();
+        }
+        catch ( SQLException sqlException ) {
+            connection.rollback();
+            throw sqlException;
+        }
+        finally {
+            delete.close();
+            insert.close();
+        }
+    }
+
+    // replace every card in one transaction; returns the rows written
+    public int rebuild() throws SQLException
+    {
+        Statement statement = connection.createStatement();
+
+        try {
+            statement.executeUpdate( "DELETE FROM contactCards" );
+            int rows = statement.executeUpdate(
+                    "INSERT INTO contactCards ( " +
+                            CloudscapeDataAccess.CARD_COLUMNS + " ) " +
+                            CloudscapeDataAccess.CARD_SOURCE );
+            connection.commit();
+            return rows;
+        }
+        catch ( SQLException sqlException ) {
+            connection.rollback();
+            throw sqlException;
+        }
+        finally {
+            statement.close();
+        }
+    }
+
+    public void close() throws SQLException
+    {
+        connection.close();
+    }
+
+    public static void main( String args[] ) throws Exception
+    {
+        if ( args.length < 1 || !args[ 0 ].equals( "verify" ) &&
+                !args[ 0 ].equals( "repair" ) &&
+                !args[ 0 ].equals( "rebuild" ) ) {
+            System.err.println( "Usage: java ContactCardTool " +
+                    "verify|repair|rebuild [database]" );
+            System.exit( 1 );
+        }
+
+        ContactCardTool tool = new ContactCardTool(
+                args.length > 1 ? args[ 1 ] : "AddressBook" );
+
+        try {
+            if ( args[ 0 ].equals( "rebuild" ) ) {
+                System.out.println( "Wrote " + tool.rebuild() +
+                        " contact card rows" );
+                return;
+            }
+
+            SortedSet<Integer> drifted = tool.verify();
+
+            if ( drifted.isEmpty() ) {
+                System.out.println( "Contact cards match the tables" );
+                return;
+            }
+
+            List<Integer> listed = new ArrayList<Integer>( drifted );
+            System.out.println( drifted.size() + " people have drifted " +
+                    "contact cards, e.g. personIDs " + listed.subList( 0,
+                            Math.min( MAX_REPORTED, listed.size() ) ) );
+
+            if ( args[ 0 ].equals( "repair" ) )
+                System.out.println( "Repaired " + tool.repair( drifted ) +
+                        " people" );
+            else
+                System.exit( 1 );
+        }
+        finally {
+            tool.close();
+        }
+    }
+}  // end class ContactCardTool
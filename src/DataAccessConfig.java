@@ -0,0 +1,452 @@
+// DataAccessConfig.java
+// Typed settings of the data access layer: how connections are opened
+// and tuned, and which optional layers are enabled. Each setting is a
+// Setting constant with a type, a default and allowed bounds, and is
+// read from, in order of precedence:
+//
+//   - a system property, e.g. -Daddressbook.jdbc.fetchSize=500
+//   - an environment variable, the name in upper case with dots as
+//     underscores, e.g. ADDRESSBOOK_JDBC_FETCHSIZE=500
+//   - the properties file named by addressbook.config (property or
+//     ADDRESSBOOK_CONFIG), by default addressbook.properties in the
+//     working directory, if present
+//   - the setting's default
+//
+// Every value is checked when the settings are loaded and all the
+// problems are reported together, so a bad setting stops the program
+// at startup rather than at first use. Unknown addressbook.* names
+// in the file are reported too, since they are usually typos.
+//
+// The file can be watched and reloaded while running. Only settings
+// marked reloadable, which are read again on every use, take the new
+// value; changes to the others are reported and wait for a restart.
+// A file that fails to validate is ignored and the old settings kept.
+//
+// Usage: java DataAccessConfig
+// prints the effective settings and where each came from.
+
+// Java core packages
+import java.io.*;
+import java.util.*;
+
+public class DataAccessConfig {
+
+    // one typed setting
+    public static class Setting<T> {
+        private String name;
+        private Class<T> type;
+        private T defaultValue;
+        private long min, max;
+        private boolean reloadable;
+        private boolean secret;
+
+        private Setting( String name, Class<T> type, T defaultValue,
+                long min, long max, boolean reloadable, boolean secret )
+        {
+            this.name = name;
+            this.type = type;
+            this.defaultValue = defaultValue;
+            this.min = min;
+            this.max = max;
+            this.reloadable = reloadable;
+            this.secret = secret;
+            SETTINGS.add( this );
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public boolean isReloadable()
+        {
+            return reloadable;
+        }
+
+        // value of text, or IllegalArgumentException saying why not
+        private T parse( String text )
+        {
+            text = text.trim();
+
+            if ( type == String.class )
+                return type.cast( text );
+
+            if ( type == Boolean.class ) {
+                if ( !text.equals( "true" ) && !text.equals( "false" ) )
+                    throw new IllegalArgumentException(
+                            "must be true or false" );
+
+                return type.cast( Boolean.valueOf( text ) );
+            }
+
+            long value;
+
+            try {
+                value = Long.parseLong( text );
+            }
+            catch ( NumberFormatException exception ) {
+                throw new IllegalArgumentException( "must be a number" );
+            }
+
+            if ( value < min || value > max )
+                throw new IllegalArgumentException( "must be between " +
+                        min + " and " + max );
+
+            return type == Integer.class ? type.cast( ( int ) value ) :
+                    type.cast( value );
+        }
+    }  // end inner class Setting
+
+    // every setting, in the order printed
+    private static final List<Setting<?>> SETTINGS =
+            new ArrayList<Setting<?>>();
+
+    // connection; take effect for connections opened after a change,
+    // so they are read once, at startup
+    public static final Setting<String> JDBC_DRIVER = string(
+            "addressbook.jdbc.driver", "com.mysql.jdbc.Driver" );
+    public static final Setting<String> JDBC_HOST = string(
+            "addressbook.jdbc.host", "localhost" );
+    public static final Setting<Integer> JDBC_PORT = integer(
+            "addressbook.jdbc.port", 3306, 1, 65535, false );
+    public static final Setting<String> JDBC_USER = string(
+            "addressbook.jdbc.user", "root" );
+    public static final Setting<String> JDBC_PASSWORD = new Setting<String>(
+            "addressbook.jdbc.password", String.class, "root", 0, 0,
+            false, true );
+    public static final Setting<Boolean> JDBC_USE_SSL = bool(
+            "addressbook.jdbc.useSSL", false, false );
+    public static final Setting<Integer> JDBC_CONNECT_TIMEOUT_MILLIS = integer(
+            "addressbook.jdbc.connectTimeoutMillis", 0, 0, 600000, false );
+    public static final Setting<Integer> JDBC_SOCKET_TIMEOUT_MILLIS = integer(
+            "addressbook.jdbc.socketTimeoutMillis", 0, 0, 3600000, false );
+    public static final Setting<Boolean> JDBC_CACHE_PREP_STMTS = bool(
+            "addressbook.jdbc.cachePrepStmts", false, false );
+    public static final Setting<Integer> JDBC_PREP_STMT_CACHE_SIZE = integer(
+            "addressbook.jdbc.prepStmtCacheSize", 25, 0, 10000, false );
+    public static final Setting<Integer> JDBC_PREP_STMT_CACHE_SQL_LIMIT =
+            integer( "addressbook.jdbc.prepStmtCacheSqlLimit", 256, 0,
+                    65536, false );
+    public static final Setting<Boolean> JDBC_USE_SERVER_PREP_STMTS = bool(
+            "addressbook.jdbc.useServerPrepStmts", false, false );
+    public static final Setting<Boolean> JDBC_REWRITE_BATCHED_STATEMENTS =
+            bool( "addressbook.jdbc.rewriteBatchedStatements", false, false );
+    public static final Setting<Boolean> JDBC_USE_COMPRESSION = bool(
+            "addressbook.jdbc.useCompression", false, false );
+    public static final Setting<Boolean> JDBC_USE_CURSOR_FETCH = bool(
+            "addressbook.jdbc.useCursorFetch", false, false );
+
+    // statement tunables; applied every time a statement is used
+    public static final Setting<Integer> JDBC_FETCH_SIZE = integer(
+            "addressbook.jdbc.fetchSize", 0, 0, 1000000, true );
+    public static final Setting<Integer> JDBC_QUERY_TIMEOUT_SECONDS = integer(
+            "addressbook.jdbc.queryTimeoutSeconds", 0, 0, 3600, true );
+
+    // diagnostics (see QueryDiagnostics)
+    public static final Setting<Boolean> DIAGNOSTICS = bool(
+            "addressbook.diagnostics", false, true );
+    public static final Setting<Long> SLOW_QUERY_MILLIS = new Setting<Long>(
+            "addressbook.slowQueryMillis", Long.class, 200L, 0,
+            Long.MAX_VALUE / 1000000, true, false );
+
+    // optional layers, chosen when the data source is built
+    public static final Setting<Boolean> CACHE = bool(
+            "addressbook.cache", false, false );
+    public static final Setting<Integer> OFF_HEAP_CACHE_MB = integer(
+            "addressbook.offHeapCacheMB", 32, 1, 65536, false );
+    public static final Setting<Integer> CACHE_TTL_SECONDS = integer(
+            "addressbook.cacheTtlSeconds", 30, 1, 86400, false );
+    public static final Setting<Boolean> PHONE_INDEX = bool(
+            "addressbook.phoneIndex", false, false );
+    public static final Setting<Integer> PHONE_INDEX_MAX_STALE_SECONDS =
+            integer( "addressbook.phoneIndexMaxStaleSeconds", 60, 2, 86400,
+                    false );
+    public static final Setting<String> AUDIT_DIR = string(
+            "addressbook.auditDir", "" );
+    public static final Setting<Boolean> CONTACT_CARDS = bool(
+            "addressbook.contactCards", false, false );
+
+    // soft delete and purging (see PurgeWorker)
+    public static final Setting<Boolean> SOFT_DELETE = bool(
+            "addressbook.softDelete", false, false );
+    public static final Setting<Integer> PURGE_BATCH_SIZE = integer(
+            "addressbook.purgeBatchSize", 100, 1, 100000, false );
+    public static final Setting<Integer> PURGE_BATCHES_PER_SECOND = integer(
+            "addressbook.purgeBatchesPerSecond", 2, 1, 1000, false );
+    public static final Setting<Long> PURGE_COMPACT_AFTER = new Setting<Long>(
+            "addressbook.purgeCompactAfter", Long.class, 0L, 0,
+            Long.MAX_VALUE, false, false );
+
+    // schema migration (see SchemaMigrator)
+    public static final Setting<Boolean> MIGRATE = bool(
+            "addressbook.migrate", false, false );
+    public static final Setting<Integer> MIGRATE_CHUNK_SIZE = integer(
+            "addressbook.migrateChunkSize", 1000, 1, 1000000, false );
+    public static final Setting<Integer> MIGRATE_CHUNKS_PER_SECOND = integer(
+            "addressbook.migrateChunksPerSecond", 5, 1, 10000, false );
+
+    // span tracing (see Tracer): "" for off, "stdout", or a file to
+    // append spans to
+    public static final Setting<String> TRACING = string(
+            "addressbook.tracing", "" );
+
+    // startup
+    public static final Setting<Boolean> STARTUP_TRAINING = bool(
+            "addressbook.startupTraining", false, false );
+    public static final Setting<Integer> RELOAD_SECONDS = integer(
+            "addressbook.config.reloadSeconds", 0, 0, 86400, false );
+
+    // settings in use
+    private static volatile DataAccessConfig current;
+
+    // file last loaded, and its modification time then
+    private static File loadedFile;
+    private static long loadedModified;
+
+    private static Thread watcher;
+
+    private Map<Setting<?>, Object> values =
+            new HashMap<Setting<?>, Object>();
+
+    // where each value came from
+    private Map<Setting<?>, String> sources =
+            new HashMap<Setting<?>, String>();
+
+    private DataAccessConfig()
+    {
+    }
+
+    // value of a setting
+    public <T> T get( Setting<T> setting )
+    {
+        return setting.type.cast( values.get( setting ) );
+    }
+
+    // Settings in use, loading them on first use. Throws
+    // IllegalArgumentException if they do not validate.
+    public static DataAccessConfig current()
+    {
+        DataAccessConfig config = current;
+
+        return config != null ? config : load();
+    }
+
+    // Load and validate the settings and start using them. Throws
+    // IllegalArgumentException listing every problem found.
+    public static synchronized DataAccessConfig load()
+    {
+        File file = configFile();
+        List<String> problems = new ArrayList<String>();
+        DataAccessConfig config = read( file, problems );
+
+        if ( !problems.isEmpty() )
+            throw new IllegalArgumentException( describe( problems ) );
+
+        current = config;
+        loadedFile = file;
+        loadedModified = file.lastModified();
+        return config;
+    }
+
+    // Load the settings again. Reloadable settings take their new
+    // values; other changes are reported and ignored. Returns false,
+    // keeping the old settings, if the new ones do not validate.
+    public static synchronized boolean reload()
+    {
+        DataAccessConfig old = current();
+        File file = configFile();
+        List<String> problems = new ArrayList<String>();
+        DataAccessConfig config = read( file, problems );
+
+        loadedFile = file;
+        loadedModified = file.lastModified();
+
+        if ( !problems.isEmpty() ) {
+            System.err.println( describe( problems ) +
+                    "; keeping the current settings" );
+            return false;
+        }
+
+        for ( Setting<?> setting : SETTINGS )
+            if ( !setting.reloadable &&
+                    !old.values.get( setting ).equals(
+                            config.values.get( setting ) ) ) {
+                System.err.println( setting.name +
+                        " changes after a restart" );
+                config.values.put( setting, old.values.get( setting ) );
+                config.sources.put( setting, old.sources.get( setting ) );
+            }
+
+        current = config;
+        return true;
+    }
+
+    // Check the settings file every intervalSeconds seconds on a
+    // daemon thread and reload it when it changes.
+    public static synchronized void watch( final long intervalSeconds )
+    {
+        if ( watcher != null || intervalSeconds <= 0 )
+            return;
+
+        watcher = new Thread( "config-watcher" ) {
+            public void run()
+            {
+                while ( true ) {
+                    try {
+                        Thread.sleep( intervalSeconds * 1000 );
+                    }
+                    catch ( InterruptedException exception ) {
+                        return;
+                    }
+
+                    if ( changed() )
+                        reload();
+                }
+            }
+        };
+
+        watcher.setDaemon( true );
+        watcher.start();
+    }
+
+    // has the settings file changed, appeared or gone since loaded?
+    private static synchronized boolean changed()
+    {
+        File file = configFile();
+
+        return !file.equals( loadedFile ) ||
+                file.lastModified() != loadedModified;
+    }
+
+    // the settings file, which need not exist
+    private static File configFile()
+    {
+        String name = System.getProperty( "addressbook.config" );
+
+        if ( name == null )
+            name = System.getenv( "ADDRESSBOOK_CONFIG" );
+
+        return new File( name != null ? name : "addressbook.properties" );
+    }
+
+    // read every setting, adding any problems to problems
+    private static DataAccessConfig read( File file, List<String> problems )
+    {
+        Properties properties = new Properties();
+
+        if ( file.exists() ) {
+            try {
+                InputStream input = new FileInputStream( file );
+
+                try {
+                    properties.load( input );
+                }
+                finally {
+                    input.close();
+                }
+            }
+            catch ( IOException exception ) {
+                problems.add( "cannot read " + file + ": " +
+                        exception.getMessage() );
+            }
+        }
+        else if ( System.getProperty( "addressbook.config" ) != null ||
+                System.getenv( "ADDRESSBOOK_CONFIG" ) != null )
+            problems.add( file + " does not exist" );
+
+        DataAccessConfig config = new DataAccessConfig();
+        Set<String> known = new HashSet<String>();
+
+        for ( Setting<?> setting : SETTINGS ) {
+            known.add( setting.name );
+
+            String environment =
+                    setting.name.toUpperCase( Locale.ROOT ).replace( '.', '_' );
+            String text = System.getProperty( setting.name );
+            String source = "system property";
+
+            if ( text == null ) {
+                text = System.getenv( environment );
+                source = "environment " + environment;
+            }
+
+            if ( text == null ) {
+                text = properties.getProperty( setting.name );
+                source = file.getPath();
+            }
+
+            if ( text == null ) {
+                config.values.put( setting, setting.defaultValue );
+                config.sources.put( setting, "default" );
+                continue;
+            }
+
+            try {
+                config.values.put( setting, setting.parse( text ) );
+                config.sources.put( setting, source );
+            }
+            catch ( IllegalArgumentException exception ) {
+                problems.add( setting.name + " (" + source + ") " +
+                        exception.getMessage() + ", not \"" +
+                        ( setting.secret ? "..." : text.trim() ) + "\"" );
+            }
+        }
+
+        for ( String name : properties.stringPropertyNames() )
+            if ( name.startsWith( "addressbook." ) && !known.contains( name ) )
+                problems.add( "unknown setting " + name + " in " + file );
+
+        return config;
+    }
+
+    private static String describe( List<String> problems )
+    {
+        StringBuilder message = new StringBuilder( "Invalid settings" );
+
+        for ( String problem : problems )
+            message.append( "\n  " ).append( problem );
+
+        return message.toString();
+    }
+
+    private static Setting<String> string( String name, String defaultValue )
+    {
+        return new Setting<String>( name, String.class, defaultValue, 0, 0,
+                false, false );
+    }
+
+    private static Setting<Boolean> bool( String name, boolean defaultValue,
+            boolean reloadable )
+    {
+        return new Setting<Boolean>( name, Boolean.class, defaultValue, 0, 0,
+                reloadable, false );
+    }
+
+    private static Setting<Integer> integer( String name, int defaultValue,
+            int min, int max, boolean reloadable )
+    {
+        return new Setting<Integer>( name, Integer.class, defaultValue, min,
+                max, reloadable, false );
+    }
+
+    // print the effective settings, or the problems with them
+    public static void main( String args[] )
+    {
+        DataAccessConfig config;
+
+        try {
+            config = load();
+        }
+        catch ( IllegalArgumentException exception ) {
+            System.err.println( exception.getMessage() );
+            System.exit( 1 );
+            return;
+        }
+
+        for ( Setting<?> setting : SETTINGS )
+            System.out.println( setting.name + " = " +
+                    ( setting.secret ? "..." : config.values.get( setting ) ) +
+                    "  (" + config.sources.get( setting ) +
+                    ( setting.reloadable ? ", reloadable" : "" ) + ")" );
+    }
+}  // end class DataAccessConfig
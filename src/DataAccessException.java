@@ -12,15 +12,33 @@ public class DataAccessException extends Exception {
         super( message );
     }
 
-    // constructor with Exception argument
+    // constructor with Exception argument; the exception is kept
+    // as the cause so callers can tell what went wrong
     public DataAccessException( Exception exception )
     {
-        exception = this.exception;
+        super( exception );
+        this.exception = exception;
+    }
+
+    // constructor with String and Exception arguments
+    public DataAccessException( String message, Exception exception )
+    {
+        super( message, exception );
+        this.exception = exception;
+    }
+
+    // get exception from constructor, or null if there was none
+    public Exception getException()
+    {
+        return exception;
     }
 
     // printStackTrace of exception from constructor
     public void printStackTrace()
     {
-        exception.printStackTrace();
+        if ( exception != null )
+            exception.printStackTrace();
+        else
+            super.printStackTrace();
     }
 }
\ No newline at end of file
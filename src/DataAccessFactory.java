@@ -0,0 +1,9 @@
+// DataAccessFactory.java
+// Creates AddressBookDataAccess objects for components that need
+// more than one, such as one connection per worker thread.
+
+public interface DataAccessFactory {
+
+    // create a new, connected data source
+    public AddressBookDataAccess create() throws Exception;
+}  // end interface DataAccessFactory
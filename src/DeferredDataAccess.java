@@ -0,0 +1,140 @@
+// DeferredDataAccess.java
+// Stand-in for a data source that is still being opened, so that the
+// GUI can be built and shown before the database connection is up.
+// Until setDatabase is called every operation fails with a
+// DataAccessException saying the address book is offline; afterwards
+// every call is passed to the real data source.
+
+// Java core packages
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+public class DeferredDataAccess implements AddressBookDataAccess {
+
+    // real data source, null while connecting
+    private volatile AddressBookDataAccess database;
+
+    // true once closed; a data source arriving later is closed at once
+    private boolean closed;
+
+    // start using database; returns false, after closing database,
+    // if this stand-in has already been closed
+    public boolean setDatabase( AddressBookDataAccess database )
+    {
+        synchronized ( this ) {
+            if ( !closed ) {
+                this.database = database;
+                return true;
+            }
+        }
+
+        database.close();
+        return false;
+    }
+
+    // is the real data source available yet?
+    public boolean isConnected()
+    {
+        return database != null;
+    }
+
+    public ArrayList<AddressBookEntry> findPerson( String lastName )
+            throws DataAccessException
+    {
+        return connected().findPerson( lastName );
+    }
+
+    public ArrayList<AddressBookEntry> findPersonSummaries(
+            String lastName ) throws DataAccessException
+    {
+        return connected().findPersonSummaries( lastName );
+    }
+
+    public ArrayList<AddressBookEntry> findPersonSummariesByPrefix(
+            String prefix, int limit ) throws DataAccessException
+    {
+        return connected().findPersonSummariesByPrefix( prefix, limit );
+    }
+
+    public ArrayList<AddressBookEntry> findByPhone( String phoneNumber )
+            throws DataAccessException
+    {
+        return connected().findByPhone( phoneNumber );
+    }
+
+    public ArrayList<AddressBookEntry> findByEmail( String emailAddress )
+            throws DataAccessException
+    {
+        return connected().findByEmail( emailAddress );
+    }
+
+    public LinkedHashMap<String, Integer> countByEmailDomain( int limit )
+            throws DataAccessException
+    {
+        return connected().countByEmailDomain( limit );
+    }
+
+    // nothing can be running before the connection is up
+    public void cancelSearch()
+    {
+        AddressBookDataAccess current = database;
+
+        if ( current != null )
+            current.cancelSearch();
+    }
+
+    public boolean loadDetails( AddressBookEntry person )
+            throws DataAccessException
+    {
+        return connected().loadDetails( person );
+    }
+
+    public ArrayList<AddressBookEntry> findDetails( AddressBookEntry person )
+            throws DataAccessException
+    {
+        return connected().findDetails( person );
+    }
+
+    public boolean savePerson( AddressBookEntry person )
+            throws DataAccessException
+    {
+        return connected().savePerson( person );
+    }
+
+    public boolean newPerson( AddressBookEntry person )
+            throws DataAccessException
+    {
+        return connected().newPerson( person );
+    }
+
+    public boolean deletePerson( AddressBookEntry person )
+            throws DataAccessException
+    {
+        return connected().deletePerson( person );
+    }
+
+    // close the real data source, if it has arrived
+    public void close()
+    {
+        AddressBookDataAccess current;
+
+        synchronized ( this ) {
+            closed = true;
+            current = database;
+        }
+
+        if ( current != null )
+            current.close();
+    }
+
+    private AddressBookDataAccess connected() throws DataAccessException
+    {
+        AddressBookDataAccess current = database;
+
+        if ( current == null )
+            throw new DataAccessException(
+                    "The address book is offline; still connecting" );
+
+        return current;
+    }
+}  // end class DeferredDataAccess
@@ -0,0 +1,352 @@
+// DuplicateDetector.java
+// Finds address book entries that probably describe the same
+// person. Comparing every pair of entries is quadratic, so entries
+// are first grouped into blocks that share a cheap key (phonetic
+// last name, normalized phone, email or eircode) and only pairs
+// within a block are scored. Scoring runs in parallel on the
+// common ForkJoinPool.
+
+// Java core packages
+import java.util.*;
+import java.util.concurrent.*;
+
+public class DuplicateDetector {
+
+    // blocks larger than this are too unselective to be useful
+    // (e.g. an empty phone number shared by thousands of entries)
+    private static final int MAX_BLOCK_SIZE = 500;
+
+    // number of candidate pairs scored sequentially per task
+    private static final int PAIRS_PER_TASK = 2048;
+
+    // minimum score for a pair to be suggested as a merge
+    private double threshold;
+
+    // set up detector with default threshold
+    public DuplicateDetector()
+    {
+        this( 0.85 );
+    }
+
+    // set up detector with the given score threshold
+    public DuplicateDetector( double threshold )
+    {
+        this.threshold = threshold;
+    }
+
+    // Return merge suggestions for the given entries, best first.
+    // Entries with the same personID (one per joined address,
+    // phone or email row) are treated as a single person.
+    public List<MergeSuggestion> findDuplicates(
+            List<AddressBookEntry> entries )
+    {
+        // keep one entry per person
+        Map<Integer, AddressBookEntry> byID =
+                new LinkedHashMap<Integer, AddressBookEntry>();
+
+        for ( AddressBookEntry entry : entries )
+            if ( !byID.containsKey( entry.getPersonID() ) )
+                byID.put( entry.getPersonID(), entry );
+
+        AddressBookEntry[] people =
+                byID.values().toArray( new AddressBookEntry[ 0 ] );
+
+        long[] pairs = candidatePairs( people );
+
+        List<MergeSuggestion> suggestions = ForkJoinPool.commonPool()
+                .invoke( new ScoreTask( people, pairs, 0, pairs.length ) );
+
+        Collections.sort( suggestions );
+        return suggestions;
+    }
+
+    // Group entries into blocks and return the distinct pairs of
+    // entry indexes that share at least one block. Each pair is
+    // packed into a long with the smaller index in the high word.
+    private long[] candidatePairs( AddressBookEntry[] people )
+    {
+        Map<String, List<Integer>> blocks =
+                new HashMap<String, List<Integer>>();
+
+        for ( int i = 0; i < people.length; i++ )
+            for ( String key : blockingKeys( people[ i ] ) ) {
+                List<Integer> block = blocks.get( key );
+
+                if ( block == null ) {
+                    block = new ArrayList<Integer>();
+                    blocks.put( key, block );
+                }
+
+                block.add( i );
+            }
+
+        long[] pairs = new long[ 1024 ];
+        int count = 0;
+
+        for ( List<Integer> block : blocks.values() ) {
+            int size = block.size();
+
+            if ( size < 2 || size > MAX_BLOCK_SIZE )
+                continue;
+
+            for ( int a = 0; a < size; a++ )
+                for ( int b = a + 1; b < size; b++ ) {
+                    long low = Math.min( block.get( a ), block.get( b ) );
+                    long high = Math.max( block.get( a ), block.get( b ) );
+
+                    if ( count == pairs.length )
+                        pairs = Arrays.copyOf( pairs, count * 2 );
+
+                    pairs[ count++ ] = ( low << 32 ) | high;
+                }
+        }
+
+        // the same pair may appear in several blocks
+        Arrays.sort( pairs, 0, count );
+        int unique = 0;
+
+        for ( int i = 0; i < count; i++ )
+            if ( unique == 0 || pairs[ unique - 1 ] != pairs[ i ] )
+                pairs[ unique++ ] = pairs[ i ];
+
+        return Arrays.copyOf( pairs, unique );
+    }
+
+    // Blocking keys for one entry. The phonetic key is combined with
+    // the first initial so that common surnames do not produce
+    // oversized blocks.
+    static List<String> blockingKeys( AddressBookEntry person )
+    {
+        List<String> keys = new ArrayList<String>( 4 );
+
+        String lastName = soundex( person.getLastName() );
+        if ( lastName.length() > 0 )
+            keys.add( "N:" + lastName + initial( person.getFirstName() ) );
+
+        String phone = normalizePhone( person.getPhoneNumber() );
+        if ( phone.length() > 0 )
+            keys.add( "P:" + phone );
+
+        String email = normalizeEmail( person.getEmailAddress() );
+        if ( email.length() > 0 )
+            keys.add( "E:" + email );
+
+        String eircode = normalizeEircode( person.getEircode() );
+        if ( eircode.length() > 0 )
+            keys.add( "Z:" + eircode + initial( person.getLastName() ) );
+
+        return keys;
+    }
+
+    // Score two entries between 0.0 (unrelated) and 1.0 (identical).
+    static double score( AddressBookEntry a, AddressBookEntry b )
+    {
+        double score = 0.30 * jaroWinkler( lower( a.getLastName() ),
+                lower( b.getLastName() ) );
+        score += 0.20 * jaroWinkler( lower( a.getFirstName() ),
+                lower( b.getFirstName() ) );
+        score += 0.20 * same( normalizePhone( a.getPhoneNumber() ),
+                normalizePhone( b.getPhoneNumber() ) );
+        score += 0.20 * same( normalizeEmail( a.getEmailAddress() ),
+                normalizeEmail( b.getEmailAddress() ) );
+        score += 0.10 * same( normalizeEircode( a.getEircode() ),
+                normalizeEircode( b.getEircode() ) );
+
+        return score;
+    }
+
+    // American Soundex code of a name, e.g. "Kelly" -> "K400".
+    // Returns "" for names without letters.
+    static String soundex( String name )
+    {
+        if ( name == null )
+            return "";
+
+        final String codes = "01230120022455012623010202";
+        StringBuilder key = new StringBuilder( 4 );
+        char last = 0;
+
+        for ( int i = 0; i < name.length() && key.length() < 4; i++ ) {
+            char c = Character.toUpperCase( name.charAt( i ) );
+
+            if ( c < 'A' || c > 'Z' )
+                continue;
+
+            char code = codes.charAt( c - 'A' );
+
+            if ( key.length() == 0 )
+                key.append( c );
+            else if ( code != '0' && code != last )
+                key.append( code );
+
+            // H and W do not separate letters with the same code
+            if ( c != 'H' && c != 'W' )
+                last = code;
+        }
+
+        if ( key.length() == 0 )
+            return "";
+
+        while ( key.length() < 4 )
+            key.append( '0' );
+
+        return key.toString();
+    }
+
+    // keep only the digits of a phone number, dropping a leading
+    // international or trunk prefix so that "+353 87..." and
+    // "087..." normalize to the same value
+    static String normalizePhone( String phone )
+    {
+        if ( phone == null )
+            return "";
+
+        StringBuilder digits = new StringBuilder( phone.length() );
+
+        for ( int i = 0; i < phone.length(); i++ )
+            if ( Character.isDigit( phone.charAt( i ) ) )
+                digits.append( phone.charAt( i ) );
+
+        // compare on the subscriber part only
+        return digits.length() > 9 ?
+                digits.substring( digits.length() - 9 ) :
+                digits.toString();
+    }
+
+    // lower case email address without surrounding whitespace
+    static String normalizeEmail( String email )
+    {
+        return email == null ? "" : email.trim().toLowerCase( Locale.ROOT );
+    }
+
+    // upper case eircode without spaces, e.g. "a65f4e2" -> "A65F4E2"
+    static String normalizeEircode( String eircode )
+    {
+        if ( eircode == null )
+            return "";
+
+        return eircode.replace( " ", "" ).toUpperCase( Locale.ROOT );
+    }
+
+    // Jaro-Winkler similarity of two strings
+    static double jaroWinkler( String a, String b )
+    {
+        if ( a.length() == 0 && b.length() == 0 )
+            return 1.0;
+
+        if ( a.length() == 0 || b.length() == 0 )
+            return 0.0;
+
+        int window = Math.max( 0,
+                Math.max( a.length(), b.length() ) / 2 - 1 );
+        boolean[] matchedA = new boolean[ a.length() ];
+        boolean[] matchedB = new boolean[ b.length() ];
+        int matches = 0;
+
+        for ( int i = 0; i < a.length(); i++ ) {
+            int from = Math.max( 0, i - window );
+            int to = Math.min( b.length() - 1, i + window );
+
+            for ( int j = from; j <= to; j++ )
+                if ( !matchedB[ j ] && a.charAt( i ) == b.charAt( j ) ) {
+                    matchedA[ i ] = true;
+                    matchedB[ j ] = true;
+                    matches++;
+                    break;
+                }
+        }
+
+        if ( matches == 0 )
+            return 0.0;
+
+        // count transpositions between matched characters
+        int transpositions = 0;
+
+        for ( int i = 0, j = 0; i < a.length(); i++ )
+            if ( matchedA[ i ] ) {
+                while ( !matchedB[ j ] )
+                    j++;
+
+                if ( a.charAt( i ) != b.charAt( j ) )
+                    transpositions++;
+
+                j++;
+            }
+
+        double m = matches;
+        double jaro = ( m / a.length() + m / b.length() +
+                ( m - transpositions / 2.0 ) / m ) / 3.0;
+
+        // boost strings that share a common prefix of up to 4 chars
+        int prefix = 0;
+
+        while ( prefix < Math.min( 4, Math.min( a.length(), b.length() ) )
+                && a.charAt( prefix ) == b.charAt( prefix ) )
+            prefix++;
+
+        return jaro + prefix * 0.1 * ( 1.0 - jaro );
+    }
+
+    // 1.0 if both values are present and equal, otherwise 0.0
+    private static double same( String a, String b )
+    {
+        return a.length() > 0 && a.equals( b ) ? 1.0 : 0.0;
+    }
+
+    private static String lower( String value )
+    {
+        return value == null ? "" : value.trim().toLowerCase( Locale.ROOT );
+    }
+
+    private static String initial( String value )
+    {
+        value = lower( value );
+        return value.length() == 0 ? "" : value.substring( 0, 1 );
+    }
+
+    // Task that scores a range of candidate pairs, splitting the
+    // range in half until it is small enough to score directly.
+    private class ScoreTask
+            extends RecursiveTask<List<MergeSuggestion>> {
+        private AddressBookEntry[] people;
+        private long[] pairs;
+        private int from, to;
+
+        ScoreTask( AddressBookEntry[] people, long[] pairs,
+                int from, int to )
+        {
+            this.people = people;
+            this.pairs = pairs;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected List<MergeSuggestion> compute()
+        {
+            if ( to - from > PAIRS_PER_TASK ) {
+                int middle = ( from + to ) >>> 1;
+                ScoreTask left =
+                        new ScoreTask( people, pairs, from, middle );
+                left.fork();
+
+                List<MergeSuggestion> result =
+                        new ScoreTask( people, pairs, middle, to ).compute();
+                result.addAll( left.join() );
+                return result;
+            }
+
+            List<MergeSuggestion> result = new ArrayList<MergeSuggestion>();
+
+            for ( int i = from; i < to; i++ ) {
+                AddressBookEntry a = people[ ( int ) ( pairs[ i ] >>> 32 ) ];
+                AddressBookEntry b = people[ ( int ) pairs[ i ] ];
+                double similarity = score( a, b );
+
+                if ( similarity >= threshold )
+                    result.add( new MergeSuggestion( a, b, similarity ) );
+            }
+
+            return result;
+        }
+    }  // end inner class ScoreTask
+}  // end class DuplicateDetector
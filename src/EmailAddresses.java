@@ -0,0 +1,144 @@
+// EmailAddresses.java
+// Normalization of email addresses for lookup. Addresses are stored as
+// typed, for display, and also as a key, the address trimmed and in
+// lower case, and as the domain part of the key, in the emailKey and
+// emailDomain columns, so that findByEmail and the per-domain counts
+// are index lookups that do not depend on how the address was typed.
+// Only the domain is case-insensitive by the standard, but in practice
+// no mail server treats the local part differently either.
+//
+// Usage: java EmailAddresses backfill [database]
+// keys the email addresses already stored, for a database upgraded
+// with sql/email_keys.sql or restored from backup.
+
+// Java core packages
+import java.sql.*;
+import java.util.Locale;
+
+public class EmailAddresses {
+
+    // longest key the emailKey column holds
+    private static final int MAX_LENGTH = 50;
+
+    // people whose email addresses are keyed per backfill transaction
+    private static final int BACKFILL_BATCH = 1000;
+
+    // no instances; all methods are static
+    private EmailAddresses()
+    {
+    }
+
+    // lookup key of an email address, or null if it is not one,
+    // e.g. empty, holding spaces or with no local part or domain
+    public static String key( String email )
+    {
+        if ( email == null )
+            return null;
+
+        String key = email.trim().toLowerCase( Locale.ROOT );
+        int at = key.lastIndexOf( '@' );
+
+        if ( at <= 0 || at == key.length() - 1 ||
+                key.length() > MAX_LENGTH || key.indexOf( ' ' ) >= 0 )
+            return null;
+
+        return key;
+    }
+
+    // domain of an email address, in lower case, or null if it is
+    // not an email address
+    public static String domain( String email )
+    {
+        String key = key( email );
+
+        return key == null ? null : key.substring( key.lastIndexOf( '@' ) + 1 );
+    }
+
+    // Key stored email addresses that have no key yet, in chunks of
+    // people of one short transaction each. Addresses that are not
+    // valid get an empty key, so that they are not read again, and
+    // are never found. Returns the number of rows updated.
+    // SchemaMigrator runs the same backfill throttled and resumably.
+    public static long backfill( Connection connection ) throws SQLException
+    {
+        int maxID = SchemaMigrator.maxPersonID( connection );
+        long updated = 0;
+
+        try {
+            for ( int afterID = 0; afterID < maxID;
+                    afterID += BACKFILL_BATCH ) {
+                updated += backfill( connection, afterID,
+                        Math.min( maxID, afterID + BACKFILL_BATCH ) );
+                connection.commit();
+            }
+
+            return updated;
+        }
+        catch ( SQLException sqlException ) {
+            connection.rollback();
+            throw sqlException;
+        }
+    }
+
+    // Key the addresses without a key of the people with afterID <
+    // personID <= lastID, in the current transaction without
+    // committing. Returns the number of rows updated.
+    static int backfill( Connection connection, int afterID, int lastID )
+            throws SQLException
+    {
+        PreparedStatement select = connection.prepareStatement(
+                "SELECT emailID, emailAddress FROM emailAddresses " +
+                        "WHERE personID > ? AND personID <= ? " +
+                        "AND emailKey IS NULL" );
+        PreparedStatement update = connection.prepareStatement(
+                "UPDATE emailAddresses SET emailKey = ?, emailDomain = ? " +
+                        "WHERE emailID = ?" );
+        int batched = 0;
+
+        try {
+            select.setInt( 1, afterID );
+            select.setInt( 2, lastID );
+            ResultSet resultSet = select.executeQuery();
+
+            while ( resultSet.next() ) {
+                String email = resultSet.getString( 2 );
+                String key = key( email );
+
+                update.setString( 1, key != null ? key : "" );
+                update.setString( 2, domain( email ) );
+                update.setInt( 3, resultSet.getInt( 1 ) );
+                update.addBatch();
+                batched++;
+            }
+
+            if ( batched > 0 )
+                update.executeBatch();
+
+            return batched;
+        }
+        finally {
+            select.close();
+            update.close();
+        }
+    }
+
+    public static void main( String args[] ) throws Exception
+    {
+        if ( args.length < 1 || !args[ 0 ].equals( "backfill" ) ) {
+            System.err.println(
+                    "Usage: java EmailAddresses backfill [database]" );
+            System.exit( 1 );
+        }
+
+        Connection connection = CloudscapeDataAccess.openConnection(
+                args.length > 1 ? args[ 1 ] : "AddressBook" );
+
+        try {
+            System.out.println( "Keyed " + backfill( connection ) +
+                    " email addresses" );
+        }
+        finally {
+            connection.close();
+        }
+    }
+}  // end class EmailAddresses
@@ -0,0 +1,143 @@
+// EmailDomainIndex.java
+// In-memory index from email domain to the people with an address in
+// it, for per-company reports that must not scan the emailAddresses
+// table. Each domain is numbered once and holds a posting list, a
+// sorted array of personIDs, so counting a domain's people is one
+// array read and listing them one copy; the domain of each person is
+// kept in a LongMultimap so that a write can remove them again. People
+// are appended in personID order when loaded from a scan, which keeps
+// building the lists linear. Methods are synchronized; each is short.
+
+// Java core packages
+import java.util.*;
+
+public class EmailDomainIndex {
+
+    // domain numbers, and the domain and posting list of each
+    private Map<String, Integer> numbers = new HashMap<String, Integer>();
+    private List<String> domains = new ArrayList<String>();
+    private int[][] postings = new int[ 16 ][];
+    private int[] counts = new int[ 16 ];
+
+    // personID -> domain number + 1
+    private LongMultimap byPerson = new LongMultimap();
+
+    // record that personID has an address in domain
+    public synchronized void add( int personID, String domain )
+    {
+        if ( domain == null || personID == 0 )
+            return;
+
+        Integer number = numbers.get( domain );
+
+        if ( number == null ) {
+            number = domains.size();
+            numbers.put( domain, number );
+            domains.add( domain );
+
+            if ( number == counts.length ) {
+                postings = Arrays.copyOf( postings, number * 2 );
+                counts = Arrays.copyOf( counts, number * 2 );
+            }
+
+            postings[ number ] = new int[ 4 ];
+        }
+
+        if ( byPerson.contains( personID, number + 1 ) )
+            return;
+
+        byPerson.add( personID, number + 1 );
+        insert( number, personID );
+    }
+
+    // forget every address of personID
+    public synchronized void remove( int personID )
+    {
+        for ( long value : byPerson.values( personID ) ) {
+            int number = ( int ) value - 1;
+            int[] list = postings[ number ];
+            int at = Arrays.binarySearch( list, 0, counts[ number ], personID );
+
+            System.arraycopy( list, at + 1, list, at,
+                    counts[ number ] - at - 1 );
+            counts[ number ]--;
+            byPerson.remove( personID, value );
+        }
+    }
+
+    // people with an address in domain, in personID order
+    public synchronized int[] people( String domain )
+    {
+        Integer number = numbers.get( domain );
+
+        return number == null ? new int[ 0 ] :
+                Arrays.copyOf( postings[ number ], counts[ number ] );
+    }
+
+    // number of people with an address in domain
+    public synchronized int count( String domain )
+    {
+        Integer number = numbers.get( domain );
+
+        return number == null ? 0 : counts[ number ];
+    }
+
+    // Up to limit domains with the most people, most first, ties in
+    // domain order, mapped to their number of people.
+    public synchronized LinkedHashMap<String, Integer> top( int limit )
+    {
+        Comparator<Integer> fewestFirst = new Comparator<Integer>() {
+            public int compare( Integer a, Integer b )
+            {
+                return counts[ a ] != counts[ b ] ?
+                        Integer.compare( counts[ a ], counts[ b ] ) :
+                        domains.get( b ).compareTo( domains.get( a ) );
+            }
+        };
+
+        // keep the limit largest in a heap whose root is the smallest
+        PriorityQueue<Integer> largest =
+                new PriorityQueue<Integer>( 16, fewestFirst );
+
+        for ( int number = 0; number < domains.size() && limit > 0; number++ )
+            if ( counts[ number ] > 0 ) {
+                largest.add( number );
+
+                if ( largest.size() > limit )
+                    largest.poll();
+            }
+
+        LinkedList<Integer> order = new LinkedList<Integer>();
+
+        while ( !largest.isEmpty() )
+            order.addFirst( largest.poll() );
+
+        LinkedHashMap<String, Integer> top =
+                new LinkedHashMap<String, Integer>();
+
+        for ( int number : order )
+            top.put( domains.get( number ), counts[ number ] );
+
+        return top;
+    }
+
+    // add personID to a domain's posting list, keeping it sorted
+    private void insert( int number, int personID )
+    {
+        int[] list = postings[ number ];
+        int count = counts[ number ];
+
+        if ( count == list.length )
+            list = postings[ number ] = Arrays.copyOf( list, count * 2 );
+
+        int at = count;
+
+        // appending is the common case
+        if ( count > 0 && list[ count - 1 ] > personID )
+            at = -Arrays.binarySearch( list, 0, count, personID ) - 1;
+
+        System.arraycopy( list, at, list, at + 1, count - at );
+        list[ at ] = personID;
+        counts[ number ]++;
+    }
+}  // end class EmailDomainIndex
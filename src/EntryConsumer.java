@@ -0,0 +1,13 @@
+// EntryConsumer.java
+// Receives the entries of a search one row at a time, for callers
+// that process many matches and should not build a list of them,
+// such as CloudscapeDataAccess.findPerson with a reusable holder.
+
+public interface EntryConsumer {
+
+    // Process one entry. The entry may be a holder that is
+    // overwritten by the next row; copy it with the AddressBookEntry
+    // copy constructor to keep it. Return false to stop the search.
+    public boolean accept( AddressBookEntry person )
+            throws DataAccessException;
+}  // end interface EntryConsumer
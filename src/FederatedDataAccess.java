@@ -0,0 +1,716 @@
+// FederatedDataAccess.java
+// AddressBookDataAccess that searches several address books at once,
+// e.g. regional databases and partner exports. A search is sent to
+// every source in parallel and the answers are merged:
+//
+//   - each source has its own timeout; a source that fails or does
+//     not answer in time is left out, and the search returns what
+//     the other sources found (search() also says which sources
+//     were missing); the search fails only if no source answers
+//   - a source may have a replica; if the primary has not answered
+//     within the source's hedge delay, or fails, the same request is
+//     also sent to the replica and the first answer is used; the
+//     other attempt is then abandoned, as is every attempt of a
+//     source that times out: a queued attempt never starts and a
+//     running one has its search cancelled (cancelSearch), so a
+//     slow source does not keep a connection and a thread busy
+//     answering nobody. Calls on each source data source are made
+//     one at a time, so that the search cancelled is always the
+//     abandoned attempt's own and never another request's; the
+//     data sources must not be shared with other users
+//   - requests run on a bounded pool of two threads per connection;
+//     a request that finds the pool's queue full fails at once,
+//     like a source that refused it
+//   - full entries found in more than one source are merged by a
+//     stable key (name plus email address, or phone number when there
+//     is no email address); the entry of the earliest source is kept
+//
+// personIDs are only unique within a source, so entries returned
+// carry a federated personID, local personID * sources + source
+// index, from which loadDetails and writes find the source again,
+// even for copies of the entry. New entries are inserted into the
+// first source. Writes to a read-only source are refused.
+
+// Java core packages
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+public class FederatedDataAccess implements AddressBookDataAccess {
+
+    // one federated address book
+    public static class Source {
+        private String name;
+        private AddressBookDataAccess primary;
+        private AddressBookDataAccess replica;
+        private long timeoutMillis;
+        private long hedgeAfterMillis;
+        private boolean writable;
+        private Guard primaryGuard = new Guard();
+        private Guard replicaGuard = new Guard();
+
+        // Describe a source. replica may be null; it must hold the
+        // same data, with the same personIDs, as primary.
+        public Source( String name, AddressBookDataAccess primary,
+                AddressBookDataAccess replica, long timeoutMillis,
+                long hedgeAfterMillis, boolean writable )
+        {
+            this.name = name;
+            this.primary = primary;
+            this.replica = replica;
+            this.timeoutMillis = timeoutMillis;
+            this.hedgeAfterMillis = hedgeAfterMillis;
+            this.writable = writable;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+    }  // end inner class Source
+
+    // Makes calls on one data source one at a time and records the
+    // attempt whose call is running, so that abandoning an attempt
+    // cancels its own search only
+    private static class Guard {
+
+        // held for the whole of a call
+        private final ReentrantLock lock = new ReentrantLock();
+
+        // attempt whose call holds the lock, or null; guarded by
+        // the Guard itself
+        private Object running;
+    }
+
+    // merged answer of a search and the sources missing from it
+    public static class Result {
+        private ArrayList<AddressBookEntry> people;
+        private List<String> unavailable;
+
+        Result( ArrayList<AddressBookEntry> people, List<String> unavailable )
+        {
+            this.people = people;
+            this.unavailable = unavailable;
+        }
+
+        public ArrayList<AddressBookEntry> getPeople()
+        {
+            return people;
+        }
+
+        // names of sources that failed or timed out
+        public List<String> getUnavailableSources()
+        {
+            return unavailable;
+        }
+
+        public boolean isPartial()
+        {
+            return !unavailable.isEmpty();
+        }
+    }  // end inner class Result
+
+    private Source[] sources;
+
+    // requests queued per connection before new ones are refused
+    private static final int QUEUE_PER_CONNECTION = 16;
+
+    // runs requests to sources
+    private ExecutorService workers;
+
+    // starts hedged requests
+    private ScheduledExecutorService hedgeTimer;
+
+    private AtomicLong timeouts = Metrics.counter( "federated.timeouts" );
+    private AtomicLong failures = Metrics.counter( "federated.failures" );
+    private AtomicLong hedges = Metrics.counter( "federated.hedges" );
+    private AtomicLong partial = Metrics.counter( "federated.partialResults" );
+
+    // federate the given sources; the first receives new entries
+    public FederatedDataAccess( List<Source> sources )
+    {
+        this.sources = sources.toArray( new Source[ 0 ] );
+
+        ThreadFactory daemons = new ThreadFactory() {
+            private AtomicInteger number = new AtomicInteger();
+
+            public Thread newThread( Runnable task )
+            {
+                Thread thread = new Thread( task,
+                        "federated-" + number.incrementAndGet() );
+                thread.setDaemon( true );
+                return thread;
+            }
+        };
+
+        int connections = 0;
+
+        for ( Source source : this.sources )
+            connections += source.replica == null ? 1 : 2;
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor( 2 * connections,
+                2 * connections, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(
+                        QUEUE_PER_CONNECTION * connections ), daemons );
+        pool.allowCoreThreadTimeOut( true );
+        workers = pool;
+        hedgeTimer = Executors.newSingleThreadScheduledExecutor( daemons );
+    }
+
+    // search every source for full entries, merging duplicates, and
+    // report which sources did not answer
+    public Result search( final String lastName ) throws DataAccessException
+    {
+        List<String> unavailable = new ArrayList<String>();
+        List<ArrayList<AddressBookEntry>> answers =
+                fanOut( new Query<ArrayList<AddressBookEntry>>() {
+                    public ArrayList<AddressBookEntry> run(
+                            AddressBookDataAccess database )
+                            throws DataAccessException
+                    {
+                        return database.findPerson( lastName );
+                    }
+                }, unavailable );
+
+        return new Result( merge( answers ), unavailable );
+    }
+
+    // full entries from every source that answers
+    public ArrayList<AddressBookEntry> findPerson( String lastName )
+            throws DataAccessException
+    {
+        return search( lastName ).getPeople();
+    }
+
+    // Summaries from every source that answers. Summaries carry too
+    // little to recognise the same person in two sources, so they
+    // are not merged.
+    public ArrayList<AddressBookEntry> findPersonSummaries(
+            final String lastName ) throws DataAccessException
+    {
+        return concatenate( fanOut( new Query<ArrayList<AddressBookEntry>>() {
+            public ArrayList<AddressBookEntry> run(
+                    AddressBookDataAccess database )
+                    throws DataAccessException
+            {
+                return database.findPersonSummaries( lastName );
+            }
+        }, new ArrayList<String>() ), Integer.MAX_VALUE );
+    }
+
+    // prefix summaries from every source, in name order, at most
+    // limit in all
+    public ArrayList<AddressBookEntry> findPersonSummariesByPrefix(
+            final String prefix, final int limit ) throws DataAccessException
+    {
+        return concatenate( fanOut( new Query<ArrayList<AddressBookEntry>>() {
+            public ArrayList<AddressBookEntry> run(
+                    AddressBookDataAccess database )
+                    throws DataAccessException
+            {
+                return database.findPersonSummariesByPrefix( prefix, limit );
+            }
+        }, new ArrayList<String>() ), limit );
+    }
+
+    // people with a phone number in every source that answers,
+    // merging duplicates
+    public ArrayList<AddressBookEntry> findByPhone( final String phoneNumber )
+            throws DataAccessException
+    {
+        return merge( fanOut( new Query<ArrayList<AddressBookEntry>>() {
+            public ArrayList<AddressBookEntry> run(
+                    AddressBookDataAccess database )
+                    throws DataAccessException
+            {
+                return database.findByPhone( phoneNumber );
+            }
+        }, new ArrayList<String>() ) );
+    }
+
+    // people with an email address in every source that answers,
+    // merging duplicates
+    public ArrayList<AddressBookEntry> findByEmail( final String emailAddress )
+            throws DataAccessException
+    {
+        return merge( fanOut( new Query<ArrayList<AddressBookEntry>>() {
+            public ArrayList<AddressBookEntry> run(
+                    AddressBookDataAccess database )
+                    throws DataAccessException
+            {
+                return database.findByEmail( emailAddress );
+            }
+        }, new ArrayList<String>() ) );
+    }
+
+    // Domain counts summed over the sources that answer. Each source
+    // is asked for its top limit domains, so a domain just below the
+    // limit everywhere may be missed, and a person stored in two
+    // sources is counted twice.
+    public LinkedHashMap<String, Integer> countByEmailDomain( final int limit )
+            throws DataAccessException
+    {
+        List<LinkedHashMap<String, Integer>> answers =
+                fanOut( new Query<LinkedHashMap<String, Integer>>() {
+                    public LinkedHashMap<String, Integer> run(
+                            AddressBookDataAccess database )
+                            throws DataAccessException
+                    {
+                        return database.countByEmailDomain( limit );
+                    }
+                }, new ArrayList<String>() );
+
+        final Map<String, Integer> sums = new HashMap<String, Integer>();
+
+        for ( Map<String, Integer> answer : answers )
+            if ( answer != null )
+                for ( Map.Entry<String, Integer> count : answer.entrySet() ) {
+                    Integer sum = sums.get( count.getKey() );
+
+                    sums.put( count.getKey(), count.getValue() +
+                            ( sum == null ? 0 : sum ) );
+                }
+
+        List<String> domains = new ArrayList<String>( sums.keySet() );
+
+        Collections.sort( domains, new Comparator<String>() {
+            public int compare( String a, String b )
+            {
+                int order = sums.get( b ).compareTo( sums.get( a ) );
+
+                return order != 0 ? order : a.compareTo( b );
+            }
+        } );
+
+        LinkedHashMap<String, Integer> top =
+                new LinkedHashMap<String, Integer>();
+
+        for ( String domain : domains.subList( 0,
+                Math.min( limit, domains.size() ) ) )
+            top.put( domain, sums.get( domain ) );
+
+        return top;
+    }
+
+    // cancel searches in every source
+    public void cancelSearch()
+    {
+        for ( Source source : sources ) {
+            source.primary.cancelSearch();
+
+            if ( source.replica != null )
+                source.replica.cancelSearch();
+        }
+    }
+
+    // load details from the entry's own source
+    public boolean loadDetails( final AddressBookEntry person )
+            throws DataAccessException
+    {
+        return local( person, false, new Write() {
+            public boolean run( AddressBookDataAccess database,
+                    AddressBookEntry local ) throws DataAccessException
+            {
+                return database.loadDetails( local );
+            }
+        } );
+    }
+
+    // every detail combination, from the entry's own source
+    public ArrayList<AddressBookEntry> findDetails( AddressBookEntry person )
+            throws DataAccessException
+    {
+        final ArrayList<AddressBookEntry> details =
+                new ArrayList<AddressBookEntry>();
+        final int index = person.getPersonID() % sources.length;
+
+        local( person, false, new Write() {
+            public boolean run( AddressBookDataAccess database,
+                    AddressBookEntry local ) throws DataAccessException
+            {
+                for ( AddressBookEntry detail : database.findDetails( local ) )
+                    details.add( federate( detail, index ) );
+
+                return true;
+            }
+        } );
+
+        return details;
+    }
+
+    // update the entry in its own source
+    public boolean savePerson( AddressBookEntry person )
+            throws DataAccessException
+    {
+        return local( person, true, new Write() {
+            public boolean run( AddressBookDataAccess database,
+                    AddressBookEntry local ) throws DataAccessException
+            {
+                return database.savePerson( local );
+            }
+        } );
+    }
+
+    // insert the entry into the first source
+    public boolean newPerson( AddressBookEntry person )
+            throws DataAccessException
+    {
+        person.setPersonID( 0 );
+
+        return local( person, true, new Write() {
+            public boolean run( AddressBookDataAccess database,
+                    AddressBookEntry local ) throws DataAccessException
+            {
+                return database.newPerson( local );
+            }
+        } );
+    }
+
+    // delete the entry from its own source
+    public boolean deletePerson( AddressBookEntry person )
+            throws DataAccessException
+    {
+        return local( person, true, new Write() {
+            public boolean run( AddressBookDataAccess database,
+                    AddressBookEntry local ) throws DataAccessException
+            {
+                return database.deletePerson( local );
+            }
+        } );
+    }
+
+    // close every source
+    public void close()
+    {
+        workers.shutdownNow();
+        hedgeTimer.shutdownNow();
+
+        for ( Source source : sources ) {
+            source.primary.close();
+
+            if ( source.replica != null )
+                source.replica.close();
+        }
+    }
+
+    // Send a query to every source and wait for each up to its
+    // timeout. Returns the answers by source index, null for
+    // sources that failed or timed out, which are added to
+    // unavailable.
+    private <T> List<T> fanOut( Query<T> query, List<String> unavailable )
+            throws DataAccessException
+    {
+        long start = System.nanoTime();
+        List<CompletableFuture<T>> pending =
+                new ArrayList<CompletableFuture<T>>();
+
+        for ( Source source : sources )
+            pending.add( hedged( source, query ) );
+
+        List<T> answers = new ArrayList<T>();
+
+        for ( int i = 0; i < sources.length; i++ ) {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(
+                    sources[ i ].timeoutMillis ) - ( System.nanoTime() - start );
+
+            try {
+                answers.add( pending.get( i ).get( Math.max( 0, remaining ),
+                        TimeUnit.NANOSECONDS ) );
+                continue;
+            }
+            catch ( TimeoutException exception ) {
+                // abandon the source's attempts
+                pending.get( i ).cancel( false );
+                timeouts.incrementAndGet();
+            }
+            catch ( ExecutionException exception ) {
+                failures.incrementAndGet();
+            }
+            catch ( InterruptedException exception ) {
+                for ( CompletableFuture<T> answer : pending )
+                    answer.cancel( false );
+
+                Thread.currentThread().interrupt();
+                throw new DataAccessException( exception );
+            }
+
+            answers.add( null );
+            unavailable.add( sources[ i ].name );
+        }
+
+        if ( unavailable.size() == sources.length )
+            throw new DataAccessException( "No address book source answered" );
+
+        if ( !unavailable.isEmpty() )
+            partial.incrementAndGet();
+
+        return answers;
+    }
+
+    // Run a query on a source's primary and, if it is slow or fails,
+    // on its replica too; complete with the first answer, or fail
+    // when every attempt has failed. Once the result is complete,
+    // or cancelled by the caller, attempts still queued or running
+    // are abandoned.
+    private <T> CompletableFuture<T> hedged( final Source source,
+            final Query<T> query )
+    {
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        final AtomicBoolean hedged = new AtomicBoolean( source.replica == null );
+
+        // attempts started and attempts failed
+        final AtomicInteger started = new AtomicInteger( 1 );
+        final AtomicInteger failed = new AtomicInteger();
+
+        // each attempt's data source, its guard and its task
+        final AddressBookDataAccess[] databases =
+                { source.primary, source.replica };
+        final Guard[] guards = { source.primaryGuard, source.replicaGuard };
+        final AtomicReferenceArray<Future<?>> tasks =
+                new AtomicReferenceArray<Future<?>>( 2 );
+
+        final Runnable[] attempt = new Runnable[ 2 ];
+        final Failure[] failure = new Failure[ 1 ];
+
+        // start the replica attempt at most once
+        final Runnable hedge = new Runnable() {
+            public void run()
+            {
+                if ( !result.isDone() && hedged.compareAndSet( false, true ) ) {
+                    hedges.incrementAndGet();
+                    started.incrementAndGet();
+                    tasks.set( 1, submit( attempt[ 1 ], failure[ 0 ] ) );
+                }
+            }
+        };
+
+        // try the replica at once, then give up when every attempt
+        // started has failed
+        failure[ 0 ] = new Failure() {
+            public void failed( Exception exception )
+            {
+                hedge.run();
+
+                if ( failed.incrementAndGet() == started.get() )
+                    result.completeExceptionally( exception );
+            }
+        };
+
+        for ( int i = 0; i < 2; i++ ) {
+            final AddressBookDataAccess database = databases[ i ];
+            final Guard guard = guards[ i ];
+
+            attempt[ i ] = new Runnable() {
+                public void run()
+                {
+                    T answer;
+                    guard.lock.lock();
+
+                    try {
+                        // Abandoned while queued or waiting for the
+                        // source. Checked under the guard as the
+                        // attempt is marked running, so that either
+                        // this sees the result complete or the
+                        // abandoning sees the attempt running and
+                        // cancels its search.
+                        synchronized ( guard ) {
+                            if ( result.isDone() )
+                                return;
+
+                            guard.running = this;
+                        }
+
+                        try {
+                            answer = query.run( database );
+                        }
+                        finally {
+                            // no longer running, so completing does
+                            // not cancel this attempt's own search
+                            synchronized ( guard ) {
+                                guard.running = null;
+                            }
+                        }
+                    }
+                    catch ( Exception exception ) {
+                        failure[ 0 ].failed( exception );
+                        return;
+                    }
+                    finally {
+                        guard.lock.unlock();
+                    }
+
+                    result.complete( answer );
+                }
+            };
+        }
+
+        tasks.set( 0, submit( attempt[ 0 ], failure[ 0 ] ) );
+
+        final ScheduledFuture<?> hedgeTask = source.replica == null ? null :
+                schedule( hedge, source.hedgeAfterMillis );
+
+        // abandon the losing or timed-out attempts
+        result.whenComplete( new BiConsumer<T, Throwable>() {
+            public void accept( T answer, Throwable failure )
+            {
+                if ( hedgeTask != null )
+                    hedgeTask.cancel( false );
+
+                for ( int i = 0; i < 2; i++ ) {
+                    Future<?> task = tasks.get( i );
+
+                    if ( task != null )
+                        task.cancel( false );
+
+                    // only while the source runs this attempt's call
+                    synchronized ( guards[ i ] ) {
+                        if ( guards[ i ].running == attempt[ i ] )
+                            databases[ i ].cancelSearch();
+                    }
+                }
+            }
+        } );
+
+        return result;
+    }
+
+    // Submit an attempt, or run its failure if the pool refuses it,
+    // because its queue is full or it is closed. Returns the
+    // attempt's task, or null if refused.
+    private Future<?> submit( Runnable attempt, Failure failure )
+    {
+        try {
+            return workers.submit( attempt );
+        }
+        catch ( RejectedExecutionException exception ) {
+            failure.failed( exception );
+            return null;
+        }
+    }
+
+    // schedule a hedge, unless closed
+    private ScheduledFuture<?> schedule( Runnable hedge, long delayMillis )
+    {
+        try {
+            return hedgeTimer.schedule( hedge, delayMillis,
+                    TimeUnit.MILLISECONDS );
+        }
+        catch ( RejectedExecutionException exception ) {
+            return null;
+        }
+    }
+
+    // Run a call on the source of a federated entry, with the
+    // entry's local personID, then restore the federated one.
+    private boolean local( AddressBookEntry person, boolean write,
+            Write call ) throws DataAccessException
+    {
+        int index = person.getPersonID() % sources.length;
+        Source source = sources[ index ];
+
+        if ( write && !source.writable )
+            throw new DataAccessException( "Address book " + source.name +
+                    " is read-only" );
+
+        person.setPersonID( person.getPersonID() / sources.length );
+        source.primaryGuard.lock.lock();
+
+        try {
+            return call.run( source.primary, person );
+        }
+        finally {
+            source.primaryGuard.lock.unlock();
+            person.setPersonID( person.getPersonID() * sources.length + index );
+        }
+    }
+
+    // entry with its federated personID
+    private AddressBookEntry federate( AddressBookEntry person, int index )
+    {
+        person.setPersonID( person.getPersonID() * sources.length + index );
+        return person;
+    }
+
+    // federate full entries, keeping the first of each stable key
+    private ArrayList<AddressBookEntry> merge(
+            List<ArrayList<AddressBookEntry>> answers )
+    {
+        Map<String, AddressBookEntry> merged =
+                new LinkedHashMap<String, AddressBookEntry>();
+
+        for ( int i = 0; i < answers.size(); i++ )
+            if ( answers.get( i ) != null )
+                for ( AddressBookEntry person : answers.get( i ) ) {
+                    String key = stableKey( person );
+
+                    if ( !merged.containsKey( key ) )
+                        merged.put( key, federate( person, i ) );
+                }
+
+        return new ArrayList<AddressBookEntry>( merged.values() );
+    }
+
+    // federate and join the answers; sorted by name when limited
+    private ArrayList<AddressBookEntry> concatenate(
+            List<ArrayList<AddressBookEntry>> answers, int limit )
+    {
+        ArrayList<AddressBookEntry> people = new ArrayList<AddressBookEntry>();
+
+        for ( int i = 0; i < answers.size(); i++ )
+            if ( answers.get( i ) != null )
+                for ( AddressBookEntry person : answers.get( i ) )
+                    people.add( federate( person, i ) );
+
+        if ( limit < Integer.MAX_VALUE ) {
+            Collections.sort( people, new Comparator<AddressBookEntry>() {
+                public int compare( AddressBookEntry a, AddressBookEntry b )
+                {
+                    int order = a.getLastName().compareToIgnoreCase(
+                            b.getLastName() );
+
+                    return order != 0 ? order :
+                            a.getFirstName().compareToIgnoreCase(
+                                    b.getFirstName() );
+                }
+            } );
+
+            if ( people.size() > limit )
+                people.subList( limit, people.size() ).clear();
+        }
+
+        return people;
+    }
+
+    // key identifying the same person in different sources
+    private static String stableKey( AddressBookEntry person )
+    {
+        String contact = DuplicateDetector.normalizeEmail(
+                person.getEmailAddress() );
+
+        if ( contact.isEmpty() )
+            contact = DuplicateDetector.normalizePhone(
+                    person.getPhoneNumber() );
+
+        return person.getLastName().trim().toLowerCase( Locale.ROOT ) + "|" +
+                person.getFirstName().trim().toLowerCase( Locale.ROOT ) +
+                "|" + contact;
+    }
+
+    // a search sent to each source
+    private interface Query<T> {
+        T run( AddressBookDataAccess database ) throws DataAccessException;
+    }
+
+    // a call on the source of one entry
+    private interface Write {
+        boolean run( AddressBookDataAccess database, AddressBookEntry local )
+                throws DataAccessException;
+    }
+
+    // what to do when an attempt fails or is refused
+    private interface Failure {
+        void failed( Exception exception );
+    }
+}  // end class FederatedDataAccess
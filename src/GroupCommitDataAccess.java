@@ -0,0 +1,419 @@
+// GroupCommitDataAccess.java
+// Optional write pipeline over CloudscapeDataAccess. Instead of
+// committing every newPerson/savePerson/deletePerson on its own,
+// writes are queued and a single writer thread applies them in
+// shared transactions of up to maxBatchSize writes, waiting at most
+// maxLingerMillis for a batch to fill. Each write runs inside its
+// own savepoint, so a failing write is rolled back alone and every
+// caller still receives its individual result through a future.
+// Every queued write is completed: by its batch's commit, or, if the
+// pipeline is closed first or the writer thread fails, with an
+// exception.
+
+// Java core packages
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.*;
+
+public class GroupCommitDataAccess implements AddressBookDataAccess {
+
+    // kinds of queued write
+    private static final int NEW = 0, SAVE = 1, DELETE = 2;
+
+    // data source that executes the writes
+    private CloudscapeDataAccess database;
+
+    // limits on the size and age of a batch
+    private int maxBatchSize;
+    private long maxLingerNanos;
+
+    // writes waiting for the writer thread
+    private BlockingQueue<PendingWrite> queue =
+            new LinkedBlockingQueue<PendingWrite>();
+
+    // thread that applies and commits batches
+    private Thread writer;
+
+    // set under the queue's lock, so no write is queued after close
+    private volatile boolean closed;
+
+    // Set up pipeline with batches of up to 64 writes and no linger:
+    // the writes queued while one batch commits form the next. A
+    // linger only pays when commits cost far more than the wait; with
+    // few writers it makes every write wait for it (see
+    // test/GroupCommitBenchmark).
+    public GroupCommitDataAccess( CloudscapeDataAccess database )
+    {
+        this( database, 64, 0 );
+    }
+
+    // set up pipeline and start writer thread
+    public GroupCommitDataAccess( CloudscapeDataAccess database,
+            int maxBatchSize, long maxLingerMillis )
+    {
+        if ( maxBatchSize < 1 || maxLingerMillis < 0 )
+            throw new IllegalArgumentException(
+                    "maxBatchSize must be >= 1 and maxLingerMillis >= 0" );
+
+        this.database = database;
+        this.maxBatchSize = maxBatchSize;
+        this.maxLingerNanos =
+                TimeUnit.MILLISECONDS.toNanos( maxLingerMillis );
+
+        writer = new Thread( new Runnable() {
+            public void run()
+            {
+                writeLoop();
+            }
+        }, "group-commit-writer" );
+        writer.setDaemon( true );
+        writer.start();
+    }
+
+    // reads are not queued
+    public ArrayList<AddressBookEntry> findPerson( String lastName )
+            throws DataAccessException
+    {
+        return database.findPerson( lastName );
+    }
+
+    // reads are not queued
+    public ArrayList<AddressBookEntry> findPersonSummaries(
+            String lastName ) throws DataAccessException
+    {
+        return database.findPersonSummaries( lastName );
+    }
+
+    // reads are not queued
+    public ArrayList<AddressBookEntry> findPersonSummariesByPrefix(
+            String prefix, int limit ) throws DataAccessException
+    {
+        return database.findPersonSummariesByPrefix( prefix, limit );
+    }
+
+    // reads are not queued
+    public ArrayList<AddressBookEntry> findByPhone( String phoneNumber )
+            throws DataAccessException
+    {
+        return database.findByPhone( phoneNumber );
+    }
+
+    // reads are not queued
+    public ArrayList<AddressBookEntry> findByEmail( String emailAddress )
+            throws DataAccessException
+    {
+        return database.findByEmail( emailAddress );
+    }
+
+    // reads are not queued
+    public LinkedHashMap<String, Integer> countByEmailDomain( int limit )
+            throws DataAccessException
+    {
+        return database.countByEmailDomain( limit );
+    }
+
+    // cancel a search; queued writes are not affected
+    public void cancelSearch()
+    {
+        database.cancelSearch();
+    }
+
+    // reads are not queued
+    public boolean loadDetails( AddressBookEntry person )
+            throws DataAccessException
+    {
+        return database.loadDetails( person );
+    }
+
+    public ArrayList<AddressBookEntry> findDetails( AddressBookEntry person )
+            throws DataAccessException
+    {
+        return database.findDetails( person );
+    }
+
+    // queue an insert; the future completes when its batch commits
+    public CompletableFuture<Boolean> newPersonAsync(
+            AddressBookEntry person )
+    {
+        return submit( NEW, person );
+    }
+
+    // queue an update; the future completes when its batch commits
+    public CompletableFuture<Boolean> savePersonAsync(
+            AddressBookEntry person )
+    {
+        return submit( SAVE, person );
+    }
+
+    // queue a delete; the future completes when its batch commits
+    public CompletableFuture<Boolean> deletePersonAsync(
+            AddressBookEntry person )
+    {
+        return submit( DELETE, person );
+    }
+
+    // Update information for specified person, waiting for the
+    // shared transaction to commit.
+    public boolean savePerson( AddressBookEntry person )
+            throws DataAccessException
+    {
+        return await( savePersonAsync( person ) );
+    }
+
+    // Insert a new person, waiting for the shared transaction
+    // to commit.
+    public boolean newPerson( AddressBookEntry person )
+            throws DataAccessException
+    {
+        return await( newPersonAsync( person ) );
+    }
+
+    // Delete specified person, waiting for the shared transaction
+    // to commit.
+    public boolean deletePerson( AddressBookEntry person )
+            throws DataAccessException
+    {
+        return await( deletePersonAsync( person ) );
+    }
+
+    // Stop accepting writes, commit what is already queued and
+    // close the data source.
+    public void close()
+    {
+        synchronized ( queue ) {
+            closed = true;
+        }
+
+        writer.interrupt();
+
+        try {
+            writer.join();
+        }
+        catch ( InterruptedException exception ) {
+            Thread.currentThread().interrupt();
+        }
+
+        // fail writes the writer did not reach, e.g. after it failed
+        failQueued( new DataAccessException( "Write pipeline is closed" ) );
+
+        database.close();
+    }
+
+    // queue a write unless the pipeline is closed
+    private CompletableFuture<Boolean> submit( int kind,
+            AddressBookEntry person )
+    {
+        PendingWrite write = new PendingWrite( kind, person );
+
+        // checked and queued atomically with close()
+        synchronized ( queue ) {
+            if ( closed )
+                write.result.completeExceptionally( new DataAccessException(
+                        "Write pipeline is closed" ) );
+            else
+                queue.add( write );
+        }
+
+        return write.result;
+    }
+
+    // complete every queued write with failure
+    private void failQueued( Exception failure )
+    {
+        for ( PendingWrite write; ( write = queue.poll() ) != null; )
+            write.result.completeExceptionally( failure );
+    }
+
+    // wait for a write's result
+    private boolean await( CompletableFuture<Boolean> result )
+            throws DataAccessException
+    {
+        try {
+            return result.get();
+        }
+        catch ( InterruptedException exception ) {
+            Thread.currentThread().interrupt();
+            throw new DataAccessException( exception );
+        }
+        catch ( ExecutionException exception ) {
+            Throwable cause = exception.getCause();
+
+            if ( cause instanceof DataAccessException )
+                throw ( DataAccessException ) cause;
+
+            // e.g. OutOfMemoryError on the writer
+            if ( cause instanceof Error )
+                throw ( Error ) cause;
+
+            throw new DataAccessException( ( Exception ) cause );
+        }
+    }
+
+    // take batches off the queue until closed and drained
+    private void writeLoop()
+    {
+        List<PendingWrite> batch = new ArrayList<PendingWrite>();
+
+        while ( !closed || !queue.isEmpty() ) {
+            try {
+                PendingWrite first = queue.poll( 100, TimeUnit.MILLISECONDS );
+
+                if ( first == null )
+                    continue;
+
+                batch.add( first );
+                long deadline = System.nanoTime() + maxLingerNanos;
+
+                // fill batch until it is full or has lingered long enough
+                while ( batch.size() < maxBatchSize ) {
+                    queue.drainTo( batch, maxBatchSize - batch.size() );
+
+                    long remaining = deadline - System.nanoTime();
+
+                    if ( batch.size() >= maxBatchSize || remaining <= 0 )
+                        break;
+
+                    PendingWrite next =
+                            queue.poll( remaining, TimeUnit.NANOSECONDS );
+
+                    if ( next == null )
+                        break;
+
+                    batch.add( next );
+                }
+            }
+
+            // close() interrupts the writer; finish what is queued
+            catch ( InterruptedException exception ) {
+                queue.drainTo( batch, maxBatchSize - batch.size() );
+            }
+
+            try {
+                if ( !batch.isEmpty() )
+                    commitBatch( batch );
+            }
+
+            // a bug in a write must not leave callers waiting forever
+            catch ( RuntimeException | Error exception ) {
+                for ( PendingWrite write : batch )
+                    write.result.completeExceptionally( exception );
+
+                exception.printStackTrace();
+            }
+
+            batch.clear();
+        }
+    }
+
+    // apply a batch of writes in one transaction
+    private void commitBatch( List<PendingWrite> batch )
+    {
+        boolean[] results = new boolean[ batch.size() ];
+        Exception[] failures = new Exception[ batch.size() ];
+
+        synchronized ( database ) {
+            Connection connection = database.getConnection();
+
+            try {
+                for ( int i = 0; i < batch.size(); i++ ) {
+                    PendingWrite write = batch.get( i );
+                    Savepoint savepoint = connection.setSavepoint();
+
+                    try {
+                        results[ i ] = apply( write );
+                    }
+                    catch ( SQLException sqlException ) {
+                        failures[ i ] = sqlException;
+                    }
+
+                    // undo only this write if it did not complete
+                    if ( results[ i ] )
+                        connection.releaseSavepoint( savepoint );
+                    else {
+                        connection.rollback( savepoint );
+
+                        if ( write.kind == NEW )
+                            write.person.setPersonID( 0 );
+                    }
+                }
+
+                connection.commit();   // commit whole batch
+                database.writesCommitted();
+            }
+
+            // commit failed: no write in the batch took effect
+            catch ( SQLException sqlException ) {
+                database.writesRolledBack();
+
+                try {
+                    connection.rollback();
+                }
+                catch ( SQLException exception ) {
+                    exception.printStackTrace();
+                }
+
+                for ( int i = 0; i < batch.size(); i++ ) {
+                    if ( batch.get( i ).kind == NEW )
+                        batch.get( i ).person.setPersonID( 0 );
+
+                    batch.get( i ).result.completeExceptionally(
+                            new DataAccessException( sqlException ) );
+                }
+
+                return;
+            }
+
+            // a bug in a write: undo the whole batch, as above, and
+            // let writeLoop fail it
+            catch ( RuntimeException exception ) {
+                database.writesRolledBack();
+
+                try {
+                    connection.rollback();
+                }
+                catch ( SQLException sqlException ) {
+                    exception.addSuppressed( sqlException );
+                }
+
+                throw exception;
+            }
+        }
+
+        // report individual results outside the lock
+        for ( int i = 0; i < batch.size(); i++ )
+            if ( failures[ i ] != null )
+                batch.get( i ).result.completeExceptionally(
+                        new DataAccessException( failures[ i ] ) );
+            else
+                batch.get( i ).result.complete( results[ i ] );
+    }
+
+    // execute one write without committing
+    private boolean apply( PendingWrite write ) throws SQLException
+    {
+        switch ( write.kind ) {
+            case NEW:
+                return database.insertEntry( write.person );
+            case SAVE:
+                return database.updateEntry( write.person );
+            default:
+                return database.removeEntry( write.person );
+        }
+    }
+
+    // one queued write and the future its caller waits on
+    private static class PendingWrite {
+        int kind;
+        AddressBookEntry person;
+        CompletableFuture<Boolean> result =
+                new CompletableFuture<Boolean>();
+
+        PendingWrite( int kind, AddressBookEntry person )
+        {
+            this.kind = kind;
+            this.person = person;
+        }
+    }  // end inner class PendingWrite
+}  // end class GroupCommitDataAccess
@@ -0,0 +1,378 @@
+// LiveSearchPanel.java
+// Search box that lists matching entries as the user types. A query
+// runs only once typing has paused, a query still running when the
+// text changes again is cancelled on the server, and results of
+// recent queries are kept so that refining a query ("Kel", "Kell",
+// "Kelly") is answered from memory whenever an earlier, shorter
+// query already returned every match. Long result lists are added
+// to the list a chunk at a time so the window stays responsive.
+// Cancelling is a round trip to the server, so it is sent from a
+// background thread, and the next query waits for it to be sent so
+// that it cannot cancel the wrong query.
+
+// Java core packages
+import java.awt.*;
+import java.awt.event.*;
+import java.util.ArrayList;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Java extension packages
+import javax.swing.*;
+import javax.swing.event.*;
+
+public class LiveSearchPanel extends JPanel {
+
+    // told when the user opens one of the results
+    public interface OpenListener {
+        void open( AddressBookEntry person );
+    }
+
+    // pause in typing after which a query runs
+    private static final int DEBOUNCE_MILLIS = 250;
+
+    // most results fetched for one query
+    private static final int MAX_RESULTS = 200;
+
+    // results added to the list per event
+    private static final int RENDER_CHUNK = 50;
+
+    private AddressBookDataAccess database;
+    private OpenListener listener;
+
+    private TypeaheadField field;
+    private DefaultListModel<AddressBookEntry> results =
+            new DefaultListModel<AddressBookEntry>();
+    private JList<AddressBookEntry> list =
+            new JList<AddressBookEntry>( results );
+    private JLabel status = new JLabel( " " );
+
+    // restarted by every change to the text
+    private Timer debounce;
+
+    // recent results by lower-case query
+    private LruCache<String, ArrayList<AddressBookEntry>> cache =
+            new LruCache<String, ArrayList<AddressBookEntry>>( 64 );
+
+    // sends cancels to the server off the event dispatch thread
+    private static final ExecutorService canceller =
+            Executors.newSingleThreadExecutor( new ThreadFactory() {
+                public Thread newThread( Runnable task )
+                {
+                    Thread thread = new Thread( task, "live-search-cancel" );
+                    thread.setDaemon( true );
+                    return thread;
+                }
+            } );
+
+    // query being run, and query whose results are shown
+    private SearchWorker running;
+
+    // last cancel sent, which the next query waits for
+    private Future<?> cancelling;
+    private String shownQuery;
+
+    // incremented whenever new results start rendering, so chunks
+    // of older results stop being added
+    private int renderGeneration;
+
+    private AtomicLong queries = Metrics.counter( "search.live.queries" );
+    private AtomicLong cacheHits = Metrics.counter( "search.live.cacheHits" );
+    private AtomicLong cancelled = Metrics.counter( "search.live.cancelled" );
+
+    // set up panel searching database, with last name suggestions
+    public LiveSearchPanel( AddressBookDataAccess database,
+            TypeaheadService typeahead, OpenListener openListener )
+    {
+        super( new BorderLayout( 0, 5 ) );
+        this.database = database;
+        listener = openListener;
+
+        field = new TypeaheadField( typeahead, TypeaheadService.LAST_NAME, 15 );
+
+        debounce = new Timer( DEBOUNCE_MILLIS,
+                new ActionListener() {
+                    public void actionPerformed( ActionEvent event )
+                    {
+                        search();
+                    }
+                }
+        );
+        debounce.setRepeats( false );
+
+        // wait for typing to pause before searching
+        field.getDocument().addDocumentListener(
+                new DocumentListener() {
+                    public void insertUpdate( DocumentEvent event )
+                    {
+                        debounce.restart();
+                    }
+
+                    public void removeUpdate( DocumentEvent event )
+                    {
+                        debounce.restart();
+                    }
+
+                    public void changedUpdate( DocumentEvent event )
+                    {
+                    }
+                }
+        );
+
+        // Enter searches at once
+        field.addActionListener(
+                new ActionListener() {
+                    public void actionPerformed( ActionEvent event )
+                    {
+                        debounce.stop();
+                        search();
+                    }
+                }
+        );
+
+        // show results as "Last, First"
+        list.setCellRenderer(
+                new DefaultListCellRenderer() {
+                    public Component getListCellRendererComponent(
+                            JList<?> list, Object value, int index,
+                            boolean selected, boolean focused )
+                    {
+                        AddressBookEntry person = ( AddressBookEntry ) value;
+                        return super.getListCellRendererComponent( list,
+                                person.getLastName() + ", " +
+                                        person.getFirstName(),
+                                index, selected, focused );
+                    }
+                }
+        );
+
+        // open a result with a double click or Enter
+        list.addMouseListener(
+                new MouseAdapter() {
+                    public void mouseClicked( MouseEvent event )
+                    {
+                        if ( event.getClickCount() == 2 )
+                            openSelected();
+                    }
+                }
+        );
+
+        list.addKeyListener(
+                new KeyAdapter() {
+                    public void keyPressed( KeyEvent event )
+                    {
+                        if ( event.getKeyCode() == KeyEvent.VK_ENTER )
+                            openSelected();
+                    }
+                }
+        );
+
+        JPanel top = new JPanel( new BorderLayout( 0, 2 ) );
+        top.add( new JLabel( "Search last name" ), BorderLayout.NORTH );
+        top.add( field, BorderLayout.CENTER );
+
+        add( top, BorderLayout.NORTH );
+        add( new JScrollPane( list ), BorderLayout.CENTER );
+        add( status, BorderLayout.SOUTH );
+
+        setBorder( BorderFactory.createEmptyBorder( 5, 5, 5, 5 ) );
+        setPreferredSize( new Dimension( 220, 0 ) );
+    }  // end LiveSearchPanel constructor
+
+    // move the cursor to the search box
+    public void focusSearch()
+    {
+        field.requestFocusInWindow();
+        field.selectAll();
+    }
+
+    // Forget cached results and search again. Call after entries
+    // are inserted, updated or deleted.
+    public void refresh()
+    {
+        cache.clear();
+        shownQuery = null;
+        search();
+    }
+
+    // search for the settled text, from the cache when possible
+    private void search()
+    {
+        String query = field.getText().trim();
+
+        if ( query.equals( shownQuery ) )
+            return;
+
+        cancelRunning();
+
+        if ( query.isEmpty() ) {
+            show( query, new ArrayList<AddressBookEntry>() );
+            return;
+        }
+
+        ArrayList<AddressBookEntry> people = cached( query );
+
+        if ( people != null ) {
+            cacheHits.incrementAndGet();
+            show( query, people );
+            return;
+        }
+
+        queries.incrementAndGet();
+        status.setText( "Searching..." );
+        running = new SearchWorker( query, cancelling );
+        running.execute();
+    }
+
+    // Results for query from the cache: its own, or those of a
+    // shorter prefix filtered down, as long as the shorter query
+    // was not cut off at MAX_RESULTS. Queries and names are compared
+    // as the database compares them, by TieredCacheDataAccess's
+    // searchKey, so that filtering keeps every name it would match.
+    private ArrayList<AddressBookEntry> cached( String query )
+    {
+        String key = TieredCacheDataAccess.searchKey( query );
+        ArrayList<AddressBookEntry> people = cache.get( key );
+
+        if ( people != null )
+            return people;
+
+        for ( int length = key.length() - 1; length > 0; length-- ) {
+            ArrayList<AddressBookEntry> shorter =
+                    cache.get( key.substring( 0, length ) );
+
+            if ( shorter == null )
+                continue;
+
+            if ( shorter.size() >= MAX_RESULTS )
+                return null;
+
+            people = new ArrayList<AddressBookEntry>();
+
+            for ( AddressBookEntry person : shorter )
+                if ( TieredCacheDataAccess.searchKey(
+                        person.getLastName() ).startsWith( key ) )
+                    people.add( person );
+
+            cache.put( key, people );
+            return people;
+        }
+
+        return null;
+    }
+
+    // stop the query still running for superseded text
+    private void cancelRunning()
+    {
+        if ( running == null )
+            return;
+
+        running.cancel( true );
+        cancelling = canceller.submit( new Runnable() {
+            public void run()
+            {
+                database.cancelSearch();
+            }
+        } );
+        cancelled.incrementAndGet();
+        running = null;
+    }
+
+    // replace the listed results, adding them a chunk at a time
+    private void show( String query, final ArrayList<AddressBookEntry> people )
+    {
+        shownQuery = query;
+        results.clear();
+
+        status.setText( query.isEmpty() ? " " : people.size() >=
+                MAX_RESULTS ? "First " + MAX_RESULTS + " matches" :
+                people.size() + ( people.size() == 1 ? " match" :
+                        " matches" ) );
+
+        final int generation = ++renderGeneration;
+
+        SwingUtilities.invokeLater( new Runnable() {
+            private int next;
+
+            public void run()
+            {
+                if ( generation != renderGeneration )
+                    return;
+
+                int end = Math.min( next + RENDER_CHUNK, people.size() );
+
+                for ( ; next < end; next++ )
+                    results.addElement( people.get( next ) );
+
+                if ( next < people.size() )
+                    SwingUtilities.invokeLater( this );
+            }
+        } );
+    }
+
+    // open a copy of the selected result, so loading its details
+    // does not change cached results
+    private void openSelected()
+    {
+        AddressBookEntry person = list.getSelectedValue();
+
+        if ( person != null )
+            listener.open( new AddressBookEntry( person ) );
+    }
+
+    // runs one query off the event dispatch thread
+    private class SearchWorker
+            extends SwingWorker<ArrayList<AddressBookEntry>, Void> {
+
+        private String query;
+        private Future<?> cancelling;
+
+        // run query once the cancel of the one before, if any, is sent
+        SearchWorker( String query, Future<?> cancelling )
+        {
+            this.query = query;
+            this.cancelling = cancelling;
+        }
+
+        protected ArrayList<AddressBookEntry> doInBackground()
+                throws DataAccessException, InterruptedException
+        {
+            if ( cancelling != null ) {
+                try {
+                    cancelling.get();
+                }
+                catch ( ExecutionException exception ) {
+                    exception.getCause().printStackTrace();
+                }
+            }
+
+            return database.findPersonSummariesByPrefix( query,
+                    MAX_RESULTS );
+        }
+
+        // show results, unless the query has been superseded
+        protected void done()
+        {
+            if ( running != this )
+                return;
+
+            running = null;
+
+            try {
+                ArrayList<AddressBookEntry> people = get();
+                cache.put( TieredCacheDataAccess.searchKey( query ),
+                        people );
+                show( query, people );
+            }
+            catch ( InterruptedException exception ) {
+                Thread.currentThread().interrupt();
+            }
+            catch ( ExecutionException exception ) {
+                shownQuery = null;
+                results.clear();
+                status.setText( "Search failed" );
+                exception.getCause().printStackTrace();
+            }
+        }
+    }  // end inner class SearchWorker
+}  // end class LiveSearchPanel
@@ -0,0 +1,74 @@
+// LogSpanExporter.java
+// SpanExporter that writes one line per span to standard output or
+// to a file, as a local stand-in for a tracing system. A line holds
+// the trace, span and parent IDs, the name, the start time, the
+// duration and the span's attributes, e.g.
+//
+//   trace=3f2a... span=91c0... parent=77e1... name=sql.update
+//   start=2026-10-19T10:15:02.113Z micros=812 sql="UPDATE ..." rows=1
+//
+// (on one line). Lines of a trace can be put together by trace ID
+// and indented by parent ID to see where an operation spent its time.
+
+// Java core packages
+import java.io.*;
+import java.util.Date;
+import java.util.Map;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+public class LogSpanExporter implements SpanExporter {
+
+    private PrintStream out;
+
+    private SimpleDateFormat timestamp =
+            new SimpleDateFormat( "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'" );
+
+    // write spans to standard output
+    public LogSpanExporter()
+    {
+        this( System.out );
+    }
+
+    // append spans to file
+    public LogSpanExporter( File file ) throws IOException
+    {
+        this( new PrintStream( new FileOutputStream( file, true ), true,
+                "UTF-8" ) );
+    }
+
+    private LogSpanExporter( PrintStream out )
+    {
+        this.out = out;
+        timestamp.setTimeZone( TimeZone.getTimeZone( "UTC" ) );
+    }
+
+    // write one span as one line
+    public synchronized void export( Span span )
+    {
+        StringBuilder line = new StringBuilder( 200 );
+
+        line.append( "trace=" ).append( Span.hex( span.getTraceID() ) )
+                .append( " span=" ).append( Span.hex( span.getSpanID() ) )
+                .append( " parent=" ).append( span.getParentID() == 0 ? "-" :
+                        Span.hex( span.getParentID() ) )
+                .append( " name=" ).append( span.getName() )
+                .append( " start=" ).append(
+                        timestamp.format( new Date( span.getStartMillis() ) ) )
+                .append( " micros=" ).append(
+                        span.getDurationNanos() / 1000 );
+
+        for ( Map.Entry<String, Object> attribute :
+                span.getAttributes().entrySet() ) {
+            line.append( ' ' ).append( attribute.getKey() ).append( '=' );
+
+            if ( attribute.getValue() instanceof String )
+                line.append( '"' ).append( ( ( String ) attribute.getValue() )
+                        .replace( "\"", "\\\"" ) ).append( '"' );
+            else
+                line.append( attribute.getValue() );
+        }
+
+        out.println( line );
+    }
+}  // end class LogSpanExporter
@@ -0,0 +1,128 @@
+// LongMultimap.java
+// Multimap of non-zero longs to longs in one linear-probing table of
+// primitive arrays, for indexes over millions of entries that must
+// not cost an object per entry: PhoneIndex (number <-> person) and
+// EmailDomainIndex (person -> domain). A key may have many values; a
+// pair is stored once per add. Key 0 marks a free slot and cannot be
+// stored. Not synchronized; the indexes using it lock around it.
+
+// Java core packages
+import java.util.Arrays;
+
+public class LongMultimap {
+
+    private long[] keys = new long[ 64 ];
+    private long[] values = new long[ 64 ];
+    private int size;
+
+    // store the pair key -> value
+    public void add( long key, long value )
+    {
+        if ( ( size + 1 ) * 2 > keys.length )
+            resize( keys.length * 2 );
+
+        int i = hash( key, keys.length );
+
+        while ( keys[ i ] != 0 )
+            i = ( i + 1 ) & ( keys.length - 1 );
+
+        keys[ i ] = key;
+        values[ i ] = value;
+        size++;
+    }
+
+    // is the pair key -> value stored?
+    public boolean contains( long key, long value )
+    {
+        return slot( key, value ) >= 0;
+    }
+
+    // every value stored under key
+    public long[] values( long key )
+    {
+        long[] found = new long[ 2 ];
+        int count = 0;
+
+        if ( key == 0 )
+            return new long[ 0 ];
+
+        for ( int i = hash( key, keys.length ); keys[ i ] != 0;
+                i = ( i + 1 ) & ( keys.length - 1 ) )
+            if ( keys[ i ] == key ) {
+                if ( count == found.length )
+                    found = Arrays.copyOf( found, count * 2 );
+
+                found[ count++ ] = values[ i ];
+            }
+
+        return Arrays.copyOf( found, count );
+    }
+
+    // Remove one pair, moving later entries of the probe
+    // sequence back so that no lookup stops short.
+    public void remove( long key, long value )
+    {
+        int free = slot( key, value );
+
+        if ( free < 0 )
+            return;
+
+        int mask = keys.length - 1;
+
+        for ( int i = ( free + 1 ) & mask; keys[ i ] != 0;
+                i = ( i + 1 ) & mask ) {
+            int home = hash( keys[ i ], keys.length );
+
+            // move the entry if its home is not between free and i
+            if ( ( ( i - home ) & mask ) >= ( ( i - free ) & mask ) ) {
+                keys[ free ] = keys[ i ];
+                values[ free ] = values[ i ];
+                free = i;
+            }
+        }
+
+        keys[ free ] = 0;
+        values[ free ] = 0;
+        size--;
+    }
+
+    // number of pairs
+    public int size()
+    {
+        return size;
+    }
+
+    // slot holding the pair, or -1
+    private int slot( long key, long value )
+    {
+        for ( int i = hash( key, keys.length ); keys[ i ] != 0;
+                i = ( i + 1 ) & ( keys.length - 1 ) )
+            if ( keys[ i ] == key && values[ i ] == value )
+                return i;
+
+        return -1;
+    }
+
+    // rehash into a table of capacity slots
+    private void resize( int capacity )
+    {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+
+        keys = new long[ capacity ];
+        values = new long[ capacity ];
+        size = 0;
+
+        for ( int i = 0; i < oldKeys.length; i++ )
+            if ( oldKeys[ i ] != 0 )
+                add( oldKeys[ i ], oldValues[ i ] );
+    }
+
+    // spread the bits of a key over a power-of-two table
+    private static int hash( long key, int capacity )
+    {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+
+        return ( int ) ( mixed >>> 32 ) & ( capacity - 1 );
+    }
+}  // end class LongMultimap
@@ -0,0 +1,71 @@
+// LruCache.java
+// Small thread-safe cache that holds at most maxEntries values and
+// evicts the least recently used one when full.
+
+// Java core packages
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class LruCache<K, V> {
+
+    private int maxEntries;
+    private LinkedHashMap<K, V> entries;
+
+    // set up cache holding at most maxEntries values
+    public LruCache( final int maxEntries )
+    {
+        this.maxEntries = maxEntries;
+
+        // access order, so the eldest entry is the least recently used
+        entries = new LinkedHashMap<K, V>( 16, 0.75f, true ) {
+            protected boolean removeEldestEntry( Map.Entry<K, V> eldest )
+            {
+                return size() > LruCache.this.maxEntries;
+            }
+        };
+    }
+
+    // get cached value, or null if not cached
+    public synchronized V get( K key )
+    {
+        return entries.get( key );
+    }
+
+    // cache value; a cache with no room stores nothing
+    public synchronized void put( K key, V value )
+    {
+        if ( maxEntries > 0 )
+            entries.put( key, value );
+    }
+
+    // remove one value
+    public synchronized void remove( K key )
+    {
+        entries.remove( key );
+    }
+
+    // remove every value
+    public synchronized void clear()
+    {
+        entries.clear();
+    }
+
+    // copy of the cached values, least recently used first; does not
+    // change the order of use
+    public synchronized Map<K, V> snapshot()
+    {
+        return new LinkedHashMap<K, V>( entries );
+    }
+
+    // number of cached values
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    // get maximum number of cached values
+    public int getMaxEntries()
+    {
+        return maxEntries;
+    }
+}  // end class LruCache
@@ -0,0 +1,61 @@
+// MergeSuggestion.java
+// Pair of address book entries that DuplicateDetector believes
+// describe the same person, with the entry that should survive
+// a merge and the similarity score that produced the pairing.
+
+public class MergeSuggestion implements Comparable<MergeSuggestion> {
+    private AddressBookEntry survivor;
+    private AddressBookEntry duplicate;
+    private double score;
+
+    // set up suggestion; the entry with the lower personID
+    // (the one created first) survives the merge
+    public MergeSuggestion( AddressBookEntry first,
+            AddressBookEntry second, double similarity )
+    {
+        if ( first.getPersonID() <= second.getPersonID() ) {
+            survivor = first;
+            duplicate = second;
+        }
+        else {
+            survivor = second;
+            duplicate = first;
+        }
+
+        score = similarity;
+    }
+
+    // get entry that keeps its personID after the merge
+    public AddressBookEntry getSurvivor()
+    {
+        return survivor;
+    }
+
+    // get entry whose details are moved onto the survivor
+    public AddressBookEntry getDuplicate()
+    {
+        return duplicate;
+    }
+
+    // get similarity score between 0.0 and 1.0
+    public double getScore()
+    {
+        return score;
+    }
+
+    // order suggestions by descending score
+    public int compareTo( MergeSuggestion other )
+    {
+        return Double.compare( other.score, score );
+    }
+
+    // describe suggestion for display or logging
+    public String toString()
+    {
+        return String.format( "%d %s %s <- %d %s %s (%.2f)",
+                survivor.getPersonID(), survivor.getFirstName(),
+                survivor.getLastName(), duplicate.getPersonID(),
+                duplicate.getFirstName(), duplicate.getLastName(),
+                score );
+    }
+}  // end class MergeSuggestion
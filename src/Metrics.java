@@ -0,0 +1,79 @@
+// Metrics.java
+// Process-wide registry of named counters and gauges. Components
+// such as ResilientDataAccess register their metrics here; snapshot()
+// returns the current value of every metric, sorted by name, for
+// display or for export to a monitoring system.
+
+// Java core packages
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class Metrics {
+
+    // value computed when a snapshot is taken
+    public interface Gauge {
+        Object value();
+    }
+
+    private static final ConcurrentMap<String, AtomicLong> counters =
+            new ConcurrentHashMap<String, AtomicLong>();
+
+    private static final ConcurrentMap<String, Gauge> gauges =
+            new ConcurrentHashMap<String, Gauge>();
+
+    // no instances; all methods are static
+    private Metrics()
+    {
+    }
+
+    // get counter with the given name, creating it at zero
+    public static AtomicLong counter( String name )
+    {
+        AtomicLong counter = counters.get( name );
+
+        if ( counter == null ) {
+            AtomicLong created = new AtomicLong();
+            counter = counters.putIfAbsent( name, created );
+
+            if ( counter == null )
+                counter = created;
+        }
+
+        return counter;
+    }
+
+    // register gauge, replacing any gauge with the same name
+    public static void gauge( String name, Gauge gauge )
+    {
+        gauges.put( name, gauge );
+    }
+
+    // remove gauge, e.g. when its component is closed
+    public static void removeGauge( String name )
+    {
+        gauges.remove( name );
+    }
+
+    // remove gauge only if it is still the one registered under name,
+    // so that a closed component cannot remove its successor's gauge
+    public static void removeGauge( String name, Gauge gauge )
+    {
+        gauges.remove( name, gauge );
+    }
+
+    // current value of every counter and gauge, sorted by name
+    public static Map<String, Object> snapshot()
+    {
+        Map<String, Object> values = new TreeMap<String, Object>();
+
+        for ( Map.Entry<String, AtomicLong> entry : counters.entrySet() )
+            values.put( entry.getKey(), entry.getValue().get() );
+
+        for ( Map.Entry<String, Gauge> entry : gauges.entrySet() )
+            values.put( entry.getKey(), entry.getValue().value() );
+
+        return values;
+    }
+}  // end class Metrics
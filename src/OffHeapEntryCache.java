@@ -0,0 +1,297 @@
+// OffHeapEntryCache.java
+// Process-wide cache of search results stored outside the Java heap.
+// Results are encoded with AddressBookEntryCodec into a direct
+// ByteBuffer, so millions of cached entries add nothing to garbage
+// collection work. The buffer is divided into segments that are
+// filled in turn; when the last segment is full the oldest segment
+// is cleared and reused, evicting everything stored in it. Results
+// also expire a time to live after they were stored, since writes made
+// by other processes never invalidate them; that bounds how stale a
+// result read from this cache can be.
+//
+// The cache also remembers which cached keys contain each person, so
+// that a write to that person can invalidate every result it appears
+// in. Only keys still cached are remembered: a key is forgotten when
+// it is evicted, replaced or invalidated, so this on-heap map stays
+// proportional to the cache's contents. Invalidations, with the
+// person written, are passed on to registered listeners, such as the
+// per-client near caches of TieredCacheDataAccess, which find their
+// own results containing that person.
+
+// Java core packages
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class OffHeapEntryCache {
+
+    // told when keys, and every result containing personID (0 for
+    // none), are invalidated
+    public interface InvalidationListener {
+        void invalidated( int personID, Collection<String> keys );
+    }
+
+    private static OffHeapEntryCache shared;
+
+    // memory holding the encoded results
+    private ByteBuffer[] segments;
+
+    // segment currently being filled
+    private int current;
+
+    // keys stored in each segment, to evict when it is reused
+    private List<List<String>> segmentKeys;
+
+    // results expire this long after they are stored
+    private long timeToLiveNanos;
+
+    // location of each cached result
+    private Map<String, Slot> index = new HashMap<String, Slot>();
+
+    // keys of cached results containing each personID; holds only
+    // keys in index
+    private Map<Integer, Set<String>> keysByPerson =
+            new HashMap<Integer, Set<String>>();
+
+    // incremented by every invalidation
+    private long version;
+
+    private List<InvalidationListener> listeners =
+            new CopyOnWriteArrayList<InvalidationListener>();
+
+    private AtomicLong hits = Metrics.counter( "cache.offHeap.hits" );
+    private AtomicLong misses = Metrics.counter( "cache.offHeap.misses" );
+    private AtomicLong evictions =
+            Metrics.counter( "cache.offHeap.evictions" );
+
+    // get the cache shared by all clients in this process, sized by
+    // setting addressbook.offHeapCacheMB (default 32), with results
+    // kept for addressbook.cacheTtlSeconds (default 30)
+    public static synchronized OffHeapEntryCache shared()
+    {
+        if ( shared == null ) {
+            DataAccessConfig config = DataAccessConfig.current();
+            shared = new OffHeapEntryCache(
+                    config.get( DataAccessConfig.OFF_HEAP_CACHE_MB )
+                            * 1024L * 1024L, 16,
+                    config.get( DataAccessConfig.CACHE_TTL_SECONDS )
+                            * 1000L );
+        }
+
+        return shared;
+    }
+
+    // set up cache of the given total size in bytes, keeping results
+    // for timeToLiveMillis
+    public OffHeapEntryCache( long capacity, int segmentCount,
+            long timeToLiveMillis )
+    {
+        timeToLiveNanos = timeToLiveMillis * 1000000L;
+
+        int segmentSize = ( int ) Math.min( Integer.MAX_VALUE,
+                capacity / segmentCount );
+
+        segments = new ByteBuffer[ segmentCount ];
+        segmentKeys = new ArrayList<List<String>>( segmentCount );
+
+        for ( int i = 0; i < segmentCount; i++ ) {
+            segments[ i ] = ByteBuffer.allocateDirect( segmentSize );
+            segmentKeys.add( new ArrayList<String>() );
+        }
+    }
+
+    // get cached result, or null if not cached
+    public synchronized ArrayList<AddressBookEntry> get( String key )
+    {
+        Slot slot = index.get( key );
+
+        if ( slot != null && slot.expires - System.nanoTime() <= 0 ) {
+            drop( key );
+            slot = null;
+        }
+
+        if ( slot == null ) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        hits.incrementAndGet();
+
+        ByteBuffer view = segments[ slot.segment ].duplicate();
+        view.limit( slot.offset + slot.length );
+        view.position( slot.offset );
+
+        return AddressBookEntryCodec.decode( view );
+    }
+
+    // Time, as System.nanoTime(), at which the result cached under
+    // key expires, or 0 if it is not cached. A copy kept elsewhere,
+    // such as in a near cache, should expire no later.
+    public synchronized long expiresAt( String key )
+    {
+        Slot slot = index.get( key );
+
+        return slot == null ? 0 : slot.expires;
+    }
+
+    // Get the invalidation version. Take it before reading from the
+    // database and pass it to put, so a result read before a write
+    // is not cached after the write invalidated it.
+    public synchronized long version()
+    {
+        return version;
+    }
+
+    // Store result read at the given version. Results larger than a
+    // segment, or read before an invalidation, are not cached.
+    public synchronized void put( String key,
+            List<AddressBookEntry> people, long readVersion )
+    {
+        if ( readVersion != version )
+            return;
+
+        byte[] bytes = AddressBookEntryCodec.encode( people );
+        int segmentSize = segments[ 0 ].capacity();
+
+        if ( bytes.length > segmentSize )
+            return;
+
+        drop( key );
+
+        // move to the next segment, evicting its contents, when the
+        // current one has no room
+        if ( segments[ current ].remaining() < bytes.length ) {
+            current = ( current + 1 ) % segments.length;
+            evictSegment( current );
+        }
+
+        ByteBuffer segment = segments[ current ];
+        int offset = segment.position();
+        segment.put( bytes );
+
+        int[] personIDs = new int[ people.size() ];
+
+        for ( int i = 0; i < personIDs.length; i++ )
+            personIDs[ i ] = people.get( i ).getPersonID();
+
+        index.put( key, new Slot( current, offset, bytes.length,
+                personIDs, System.nanoTime() + timeToLiveNanos ) );
+        segmentKeys.get( current ).add( key );
+        track( key, personIDs );
+    }
+
+    // Invalidate the given keys and every key containing the given
+    // person (0 for a person not yet in the database), in this
+    // cache and in every listener.
+    public void invalidate( int personID, Collection<String> extraKeys )
+    {
+        Set<String> keys = new HashSet<String>( extraKeys );
+
+        synchronized ( this ) {
+            version++;
+            Set<String> personKeys = keysByPerson.remove( personID );
+
+            if ( personKeys != null )
+                keys.addAll( personKeys );
+
+            for ( String key : keys )
+                drop( key );
+        }
+
+        for ( InvalidationListener listener : listeners )
+            listener.invalidated( personID, keys );
+    }
+
+    // register near cache to be told of invalidations
+    public void addListener( InvalidationListener listener )
+    {
+        listeners.add( listener );
+    }
+
+    // unregister near cache
+    public void removeListener( InvalidationListener listener )
+    {
+        listeners.remove( listener );
+    }
+
+    // remember that a result for these people is cached under key
+    private void track( String key, int[] personIDs )
+    {
+        for ( int personID : personIDs ) {
+            Set<String> keys = keysByPerson.get( personID );
+
+            if ( keys == null ) {
+                keys = new HashSet<String>();
+                keysByPerson.put( personID, keys );
+            }
+
+            keys.add( key );
+        }
+    }
+
+    // Remove a cached result and forget the people it contained. Its
+    // bytes are reclaimed when its segment is reused.
+    private void drop( String key )
+    {
+        Slot slot = index.remove( key );
+
+        if ( slot == null )
+            return;
+
+        for ( int personID : slot.personIDs ) {
+            Set<String> keys = keysByPerson.get( personID );
+
+            if ( keys != null && keys.remove( key ) && keys.isEmpty() )
+                keysByPerson.remove( personID );
+        }
+    }
+
+    // number of people with cached results, for checking that the
+    // reverse map shrinks with the cache
+    public synchronized int trackedPeople()
+    {
+        return keysByPerson.size();
+    }
+
+    // number of cached results
+    public synchronized int size()
+    {
+        return index.size();
+    }
+
+    // clear a segment before it is reused
+    private void evictSegment( int segment )
+    {
+        for ( String key : segmentKeys.get( segment ) ) {
+            Slot slot = index.get( key );
+
+            // the key may have been stored again in a newer segment
+            if ( slot != null && slot.segment == segment ) {
+                drop( key );
+                evictions.incrementAndGet();
+            }
+        }
+
+        segmentKeys.get( segment ).clear();
+        segments[ segment ].clear();
+    }
+
+    // location of one encoded result, the people in it and when it
+    // expires
+    private static class Slot {
+        int segment, offset, length;
+        int[] personIDs;
+        long expires;
+
+        Slot( int segment, int offset, int length, int[] personIDs,
+                long expires )
+        {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.personIDs = personIDs;
+            this.expires = expires;
+        }
+    }  // end inner class Slot
+}  // end class OffHeapEntryCache
@@ -0,0 +1,579 @@
+// OnlineBackup.java
+// Online backup and restore of an AddressBook database.
+//
+// A backup is a point-in-time copy taken without stopping writers.
+// The four tables are locked for reading only for the moment it
+// takes to open a consistent-snapshot transaction on each reader
+// connection, so every reader sees the same committed state; the
+// lock is then released and the readers copy the tables from their
+// snapshots while users carry on writing. The personID range is cut
+// into chunks that the readers copy in parallel. Each chunk holds
+// the rows of all four tables for its range of people, in personID
+// order, and is written as one compressed entry of a zip archive.
+// A manifest entry records the format version, the chunks, their
+// CRC-32 checksums and their row counts.
+//
+// Restore loads an archive into an empty database using batched
+// inserts with foreign key and unique checks turned off for the
+// session, checking each chunk against the manifest first. Each
+// chunk is committed as it is loaded. The contactCards table,
+// phoneNumbers.phoneKey and emailAddresses.emailKey and emailDomain
+// are derived from the other columns and are not copied; after a
+// restore run "java PhoneNumbers backfill" and "java EmailAddresses
+// backfill", and "java ContactCardTool rebuild" if contact cards are
+// in use.
+//
+// Usage: java OnlineBackup backup|restore <archive> [database]
+
+// Java core packages
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+public class OnlineBackup {
+
+    // version of the archive layout
+    private static final int FORMAT = 2;
+
+    private static final String MANIFEST = "MANIFEST.properties";
+
+    // rows per batched insert during restore
+    private static final int BATCH_SIZE = 1000;
+
+    // the four tables, parents first; integer columns come first
+    private static final Table[] TABLES = {
+            new Table( "names", 2, "personID", "deleted", "firstName",
+                    "lastName" ),
+            new Table( "addresses", 2, "addressID", "personID",
+                    "address1", "address2", "city", "state", "eircode" ),
+            new Table( "phoneNumbers", 2, "phoneID", "personID",
+                    "phoneNumber" ),
+            new Table( "emailAddresses", 2, "emailID", "personID",
+                    "emailAddress" ) };
+
+    private String database;
+    private int readers;
+    private int chunkSize;
+
+    // set up backup of a database with 4 readers and chunks of 5000
+    // people
+    public OnlineBackup( String database )
+    {
+        this( database, 4, 5000 );
+    }
+
+    // set up backup with the given parallelism and chunk size
+    public OnlineBackup( String database, int readers, int chunkSize )
+    {
+        this.database = database;
+        this.readers = readers;
+        this.chunkSize = chunkSize;
+    }
+
+    // Write a consistent copy of the database to archive and return
+    // its manifest. The archive is written under a temporary name
+    // and renamed when complete.
+    public Properties backup( File archive ) throws Exception
+    {
+        Connection lock = CloudscapeDataAccess.openConnection( database );
+        List<Connection> opened = new ArrayList<Connection>();
+        BlockingQueue<Connection> snapshots =
+                new ArrayBlockingQueue<Connection>( readers );
+        ExecutorService pool = Executors.newFixedThreadPool( readers );
+
+        try {
+            for ( int i = 0; i < readers; i++ ) {
+                opened.add( CloudscapeDataAccess.openConnection( database ) );
+                snapshots.add( opened.get( i ) );
+            }
+
+            openSnapshots( lock, snapshots );
+
+            // personID range as of the snapshot
+            Connection first = snapshots.take();
+            long[] range;
+
+            try {
+                range = personIDRange( first );
+            }
+            finally {
+                snapshots.put( first );
+            }
+
+            Properties manifest = new Properties();
+            manifest.setProperty( "format", String.valueOf( FORMAT ) );
+            manifest.setProperty( "database", database );
+            manifest.setProperty( "created",
+                    new java.util.Date().toString() );
+
+            File partial = new File( archive.getPath() + ".part" );
+            ZipOutputStream zip = new ZipOutputStream(
+                    new BufferedOutputStream(
+                            new FileOutputStream( partial ) ) );
+            long[] totals = new long[ TABLES.length ];
+            int chunks = 0;
+
+            try {
+                // read chunks in parallel but write them in order,
+                // with a bounded number read ahead
+                Deque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+
+                for ( long low = range[ 0 ]; low <= range[ 1 ];
+                        low += chunkSize ) {
+                    pending.add( pool.submit( new ChunkReader( snapshots,
+                            low, Math.min( low + chunkSize - 1,
+                                    range[ 1 ] ) ) ) );
+
+                    if ( pending.size() >= readers * 2 )
+                        chunks = writeChunk( zip, pending.poll().get(),
+                                manifest, totals, chunks );
+                }
+
+                while ( !pending.isEmpty() )
+                    chunks = writeChunk( zip, pending.poll().get(),
+                            manifest, totals, chunks );
+
+                manifest.setProperty( "chunks", String.valueOf( chunks ) );
+
+                for ( int t = 0; t < TABLES.length; t++ )
+                    manifest.setProperty( "rows." + TABLES[ t ].name,
+                            String.valueOf( totals[ t ] ) );
+
+                zip.putNextEntry( new ZipEntry( MANIFEST ) );
+                manifest.store( zip, "AddressBook backup" );
+                zip.closeEntry();
+            }
+            finally {
+                zip.close();
+            }
+
+            if ( archive.exists() && !archive.delete() ||
+                    !partial.renameTo( archive ) )
+                throw new IOException( "Cannot rename " + partial +
+                        " to " + archive );
+
+            return manifest;
+        }
+        finally {
+            pool.shutdownNow();
+            lock.close();
+
+            // closing ends each snapshot transaction
+            for ( Connection connection : opened )
+                connection.close();
+        }
+    }  // end method backup
+
+    // Load archive into the database, which must be empty. Returns
+    // the number of rows loaded.
+    public long restore( File archive ) throws Exception
+    {
+        ZipFile zip = new ZipFile( archive );
+        Connection connection = CloudscapeDataAccess.openConnection(
+                database, "&rewriteBatchedStatements=true" );
+
+        try {
+            Properties manifest = new Properties();
+            ZipEntry manifestEntry = zip.getEntry( MANIFEST );
+
+            if ( manifestEntry == null )
+                throw new IOException( archive + " has no manifest" );
+
+            InputStream in = zip.getInputStream( manifestEntry );
+
+            try {
+                manifest.load( in );
+            }
+            finally {
+                in.close();
+            }
+
+            if ( !String.valueOf( FORMAT ).equals(
+                    manifest.getProperty( "format" ) ) )
+                throw new IOException( "Unsupported backup format " +
+                        manifest.getProperty( "format" ) );
+
+            checkEmpty( connection );
+
+            Statement statement = connection.createStatement();
+            statement.execute( "SET foreign_key_checks = 0" );
+            statement.execute( "SET unique_checks = 0" );
+
+            PreparedStatement[] inserts =
+                    new PreparedStatement[ TABLES.length ];
+
+            for ( int t = 0; t < TABLES.length; t++ )
+                inserts[ t ] = connection.prepareStatement(
+                        TABLES[ t ].insertSql() );
+
+            long rows = 0;
+
+            try {
+                int chunks = Integer.parseInt(
+                        manifest.getProperty( "chunks" ) );
+
+                for ( int i = 0; i < chunks; i++ ) {
+                    byte[] data = readChunk( zip, manifest, i );
+                    rows += loadChunk( data, inserts );
+                    connection.commit();
+                }
+            }
+            catch ( Exception exception ) {
+                connection.rollback();
+                throw exception;
+            }
+            finally {
+                for ( PreparedStatement insert : inserts )
+                    if ( insert != null )
+                        insert.close();
+
+                statement.execute( "SET unique_checks = 1" );
+                statement.execute( "SET foreign_key_checks = 1" );
+                statement.close();
+            }
+
+            return rows;
+        }
+        finally {
+            connection.close();
+            zip.close();
+        }
+    }  // end method restore
+
+    // Start a consistent-snapshot transaction on every reader while
+    // the tables are read-locked, so that no write commits between
+    // the first snapshot and the last.
+    private static void openSnapshots( Connection lock,
+            Collection<Connection> snapshots ) throws SQLException
+    {
+        for ( Connection connection : snapshots )
+            connection.setTransactionIsolation(
+                    Connection.TRANSACTION_REPEATABLE_READ );
+
+        Statement statement = lock.createStatement();
+
+        try {
+            statement.execute( "LOCK TABLES names READ, addresses READ, " +
+                    "phoneNumbers READ, emailAddresses READ" );
+
+            try {
+                for ( Connection connection : snapshots ) {
+                    Statement start = connection.createStatement();
+                    start.execute( "START TRANSACTION WITH CONSISTENT " +
+                            "SNAPSHOT, READ ONLY" );
+                    start.close();
+                }
+            }
+            finally {
+                statement.execute( "UNLOCK TABLES" );
+            }
+        }
+        finally {
+            statement.close();
+        }
+    }
+
+    // lowest and highest personID, or an empty range
+    private static long[] personIDRange( Connection connection )
+            throws SQLException
+    {
+        Statement statement = connection.createStatement();
+
+        try {
+            ResultSet resultSet = statement.executeQuery(
+                    "SELECT MIN(personID), MAX(personID) FROM names" );
+            resultSet.next();
+
+            if ( resultSet.getObject( 1 ) == null )
+                return new long[] { 1, 0 };
+
+            return new long[] { resultSet.getLong( 1 ),
+                    resultSet.getLong( 2 ) };
+        }
+        finally {
+            statement.close();
+        }
+    }
+
+    // add one chunk to the archive and manifest; empty chunks are
+    // left out
+    private static int writeChunk( ZipOutputStream zip, Chunk chunk,
+            Properties manifest, long[] totals, int chunks )
+            throws IOException
+    {
+        long rows = 0;
+
+        for ( long count : chunk.rows )
+            rows += count;
+
+        if ( rows == 0 )
+            return chunks;
+
+        String name = String.format( "data/%010d-%010d",
+                chunk.low, chunk.high );
+        CRC32 crc = new CRC32();
+        crc.update( chunk.data );
+
+        zip.putNextEntry( new ZipEntry( name ) );
+        zip.write( chunk.data );
+        zip.closeEntry();
+
+        String prefix = "chunk." + chunks + ".";
+        manifest.setProperty( prefix + "name", name );
+        manifest.setProperty( prefix + "crc",
+                Long.toHexString( crc.getValue() ) );
+
+        for ( int t = 0; t < TABLES.length; t++ ) {
+            manifest.setProperty( prefix + "rows." + TABLES[ t ].name,
+                    String.valueOf( chunk.rows[ t ] ) );
+            totals[ t ] += chunk.rows[ t ];
+        }
+
+        return chunks + 1;
+    }
+
+    // read the rows of all tables for one range of people
+    private static Chunk readChunk( Connection connection, long low,
+            long high ) throws SQLException, IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream( bytes );
+        long[] rows = new long[ TABLES.length ];
+
+        for ( int t = 0; t < TABLES.length; t++ ) {
+            Table table = TABLES[ t ];
+            PreparedStatement select =
+                    connection.prepareStatement( table.selectSql() );
+
+            try {
+                select.setLong( 1, low );
+                select.setLong( 2, high );
+                ResultSet resultSet = select.executeQuery();
+
+                // each row is preceded by true; false ends the table
+                while ( resultSet.next() ) {
+                    out.writeBoolean( true );
+
+                    for ( int c = 0; c < table.columns.length; c++ )
+                        if ( c < table.intColumns )
+                            out.writeInt( resultSet.getInt( c + 1 ) );
+                        else
+                            out.writeUTF( resultSet.getString( c + 1 ) );
+
+                    rows[ t ]++;
+                }
+
+                out.writeBoolean( false );
+            }
+            finally {
+                select.close();
+            }
+        }
+
+        out.flush();
+        return new Chunk( low, high, bytes.toByteArray(), rows );
+    }
+
+    // read one chunk of an archive, checking it against the manifest
+    private static byte[] readChunk( ZipFile zip, Properties manifest,
+            int index ) throws IOException
+    {
+        String prefix = "chunk." + index + ".";
+        String name = manifest.getProperty( prefix + "name" );
+        ZipEntry entry = zip.getEntry( name );
+
+        if ( entry == null )
+            throw new IOException( "Backup is missing chunk " + name );
+
+        byte[] data = new byte[ ( int ) entry.getSize() ];
+        DataInputStream in = new DataInputStream(
+                zip.getInputStream( entry ) );
+
+        try {
+            in.readFully( data );
+        }
+        finally {
+            in.close();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update( data );
+
+        if ( !Long.toHexString( crc.getValue() ).equals(
+                manifest.getProperty( prefix + "crc" ) ) )
+            throw new IOException( "Checksum mismatch in chunk " + name );
+
+        return data;
+    }
+
+    // insert the rows of one chunk in batches
+    private static long loadChunk( byte[] data, PreparedStatement[] inserts )
+            throws IOException, SQLException
+    {
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream( data ) );
+        long rows = 0;
+
+        for ( int t = 0; t < TABLES.length; t++ ) {
+            Table table = TABLES[ t ];
+            int batched = 0;
+
+            while ( in.readBoolean() ) {
+                for ( int c = 0; c < table.columns.length; c++ )
+                    if ( c < table.intColumns )
+                        inserts[ t ].setInt( c + 1, in.readInt() );
+                    else
+                        inserts[ t ].setString( c + 1, in.readUTF() );
+
+                inserts[ t ].addBatch();
+                rows++;
+
+                if ( ++batched == BATCH_SIZE ) {
+                    inserts[ t ].executeBatch();
+                    batched = 0;
+                }
+            }
+
+            if ( batched > 0 )
+                inserts[ t ].executeBatch();
+        }
+
+        return rows;
+    }
+
+    // refuse to restore over existing data
+    private static void checkEmpty( Connection connection )
+            throws SQLException
+    {
+        Statement statement = connection.createStatement();
+
+        try {
+            for ( Table table : TABLES ) {
+                ResultSet resultSet = statement.executeQuery(
+                        "SELECT EXISTS ( SELECT 1 FROM " + table.name + " )" );
+                resultSet.next();
+
+                if ( resultSet.getBoolean( 1 ) )
+                    throw new SQLException( "Table " + table.name +
+                            " is not empty; restore needs an empty database" );
+            }
+
+            connection.commit();
+        }
+        finally {
+            statement.close();
+        }
+    }
+
+    // back up or restore from the command line
+    public static void main( String args[] ) throws Exception
+    {
+        if ( args.length < 2 || !args[ 0 ].equals( "backup" ) &&
+                !args[ 0 ].equals( "restore" ) ) {
+            System.err.println( "Usage: java OnlineBackup " +
+                    "backup|restore <archive> [database]" );
+            System.exit( 1 );
+        }
+
+        OnlineBackup backup = new OnlineBackup(
+                args.length > 2 ? args[ 2 ] : "AddressBook" );
+        File archive = new File( args[ 1 ] );
+
+        if ( args[ 0 ].equals( "backup" ) ) {
+            Properties manifest = backup.backup( archive );
+            System.out.println( "Wrote " + manifest.getProperty( "chunks" ) +
+                    " chunks to " + archive );
+        }
+        else
+            System.out.println( "Restored " + backup.restore( archive ) +
+                    " rows from " + archive );
+    }
+
+    // reads one chunk on a pool thread, using any free snapshot
+    private static class ChunkReader implements Callable<Chunk> {
+        private BlockingQueue<Connection> snapshots;
+        private long low, high;
+
+        ChunkReader( BlockingQueue<Connection> snapshots, long low,
+                long high )
+        {
+            this.snapshots = snapshots;
+            this.low = low;
+            this.high = high;
+        }
+
+        public Chunk call() throws Exception
+        {
+            Connection connection = snapshots.take();
+
+            try {
+                return readChunk( connection, low, high );
+            }
+            finally {
+                snapshots.put( connection );
+            }
+        }
+    }  // end inner class ChunkReader
+
+    // encoded rows of one range of people
+    private static class Chunk {
+        long low, high;
+        byte[] data;
+        long[] rows;
+
+        Chunk( long low, long high, byte[] data, long[] rows )
+        {
+            this.low = low;
+            this.high = high;
+            this.data = data;
+            this.rows = rows;
+        }
+    }  // end inner class Chunk
+
+    // a backed-up table and its columns
+    private static class Table {
+        String name;
+        int intColumns;
+        String[] columns;
+
+        Table( String name, int intColumns, String... columns )
+        {
+            this.name = name;
+            this.intColumns = intColumns;
+            this.columns = columns;
+        }
+
+        // rows of a personID range in personID, then key, order
+        String selectSql()
+        {
+            String order = columns[ 0 ].equals( "personID" ) ?
+                    "personID" : "personID, " + columns[ 0 ];
+
+            return "SELECT " + join() + " FROM " + name +
+                    " WHERE personID BETWEEN ? AND ? ORDER BY " + order;
+        }
+
+        String insertSql()
+        {
+            StringBuilder values = new StringBuilder( "?" );
+
+            for ( int c = 1; c < columns.length; c++ )
+                values.append( ", ?" );
+
+            return "INSERT INTO " + name + " ( " + join() +
+                    " ) VALUES ( " + values + " )";
+        }
+
+        private String join()
+        {
+            StringBuilder list = new StringBuilder( columns[ 0 ] );
+
+            for ( int c = 1; c < columns.length; c++ )
+                list.append( ", " ).append( columns[ c ] );
+
+            return list.toString();
+        }
+    }  // end inner class Table
+}  // end class OnlineBackup
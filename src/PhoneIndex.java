@@ -0,0 +1,59 @@
+// PhoneIndex.java
+// In-memory reverse index from phone number to person, for caller-ID
+// style lookups that must not wait for the database. Numbers are
+// held as the packed long keys of PhoneNumbers in two open-addressing
+// tables of primitive arrays, number -> people and person -> numbers,
+// since a number may be shared and a merged person has several. A
+// pair costs about 32 bytes and no objects, so millions of numbers
+// fit in a few tens of megabytes and a lookup is a few array reads.
+// Methods are synchronized; each is short.
+
+public class PhoneIndex {
+
+    // key -> personIDs and personID -> keys
+    private LongMultimap byKey = new LongMultimap();
+    private LongMultimap byPerson = new LongMultimap();
+
+    // record that personID has the number with the given key
+    public synchronized void add( int personID, long key )
+    {
+        if ( key == 0 || personID == 0 || byKey.contains( key, personID ) )
+            return;
+
+        byKey.add( key, personID );
+        byPerson.add( personID, key );
+    }
+
+    // forget every number of personID
+    public synchronized void remove( int personID )
+    {
+        for ( long key : byPerson.values( personID ) ) {
+            byKey.remove( key, personID );
+            byPerson.remove( personID, key );
+        }
+    }
+
+    // people with the number with the given key
+    public synchronized int[] find( long key )
+    {
+        long[] values = byKey.values( key );
+        int[] people = new int[ values.length ];
+
+        for ( int i = 0; i < values.length; i++ )
+            people[ i ] = ( int ) values[ i ];
+
+        return people;
+    }
+
+    // numbers recorded for personID
+    public synchronized long[] keysOf( int personID )
+    {
+        return byPerson.values( personID );
+    }
+
+    // number of (number, person) pairs
+    public synchronized int size()
+    {
+        return byKey.size();
+    }
+}  // end class PhoneIndex
@@ -0,0 +1,230 @@
+// PhoneNumbers.java
+// Normalization of the free-form phone numbers users type to E.164,
+// the international form "+<country code><number>" with at most 15
+// digits, so that "087 123 4567", "(087) 1234567" and
+// "+353 87 123 4567" are stored, indexed and looked up as the same
+// number. A normalized number is also packed into a long, its digits
+// read as a decimal number, which is what the phoneKey column and
+// PhoneIndex hold: eight bytes instead of a string, and equal numbers
+// have equal keys.
+//
+// Numbers are taken to be Irish unless they start with + or 00.
+//
+// Usage: java PhoneNumbers backfill [database]
+// normalizes and keys the phone numbers already stored, for a
+// database upgraded with sql/phone_keys.sql or restored from backup,
+// and rebuilds the contact cards of the people whose numbers change.
+
+// Java core packages
+import java.sql.*;
+import java.util.*;
+
+public class PhoneNumbers {
+
+    // country code of numbers written without one
+    public static final String DEFAULT_COUNTRY_CODE = "353";
+
+    // E.164 allows at most 15 digits; fewer than 9 is not a full number
+    private static final int MIN_DIGITS = 9, MAX_DIGITS = 15;
+
+    // people whose phone numbers are normalized per backfill
+    // transaction
+    private static final int BACKFILL_BATCH = 1000;
+
+    // no instances; all methods are static
+    private PhoneNumbers()
+    {
+    }
+
+    // E.164 form of a phone number, or null if it is not one, e.g.
+    // empty, too short or holding letters or an extension
+    public static String toE164( String phone )
+    {
+        if ( phone == null )
+            return null;
+
+        String trimmed = phone.trim();
+        StringBuilder digits = new StringBuilder( trimmed.length() );
+
+        for ( int i = 0; i < trimmed.length(); i++ ) {
+            char c = trimmed.charAt( i );
+
+            if ( c >= '0' && c <= '9' )
+                digits.append( c );
+            else if ( c == '+' && i == 0 )
+                continue;
+            else if ( " -()./".indexOf( c ) < 0 )
+                return null;
+        }
+
+        // a number starting with + is already international
+        if ( !trimmed.startsWith( "+" ) ) {
+            if ( digits.length() > 1 && digits.charAt( 0 ) == '0' &&
+                    digits.charAt( 1 ) == '0' )
+                digits.delete( 0, 2 );      // international prefix 00
+            else if ( digits.length() > 0 && digits.charAt( 0 ) == '0' )
+                digits.replace( 0, 1, DEFAULT_COUNTRY_CODE );   // trunk 0
+            else
+                digits.insert( 0, DEFAULT_COUNTRY_CODE );
+        }
+
+        if ( digits.length() < MIN_DIGITS || digits.length() > MAX_DIGITS ||
+                digits.charAt( 0 ) == '0' )
+            return null;
+
+        return "+" + digits;
+    }
+
+    // packed key of a phone number, or 0 if it is not a phone number
+    public static long key( String phone )
+    {
+        String e164 = toE164( phone );
+
+        return e164 == null ? 0 : Long.parseLong( e164.substring( 1 ) );
+    }
+
+    // E.164 form of a packed key
+    public static String fromKey( long key )
+    {
+        return "+" + key;
+    }
+
+    // Normalize and key stored numbers that have no key yet, in
+    // chunks of people of one short transaction each. Numbers that
+    // cannot be normalized are left as typed, with key 0. Returns
+    // the number of rows updated. SchemaMigrator runs the same
+    // backfill throttled and resumably.
+    public static long backfill( Connection connection ) throws SQLException
+    {
+        int maxID = SchemaMigrator.maxPersonID( connection );
+        long updated = 0;
+
+        try {
+            for ( int afterID = 0; afterID < maxID;
+                    afterID += BACKFILL_BATCH ) {
+                updated += backfill( connection, afterID,
+                        Math.min( maxID, afterID + BACKFILL_BATCH ) );
+                connection.commit();
+            }
+
+            return updated;
+        }
+        catch ( SQLException sqlException ) {
+            connection.rollback();
+            throw sqlException;
+        }
+    }
+
+    // Normalize and key the numbers without a key of the people with
+    // afterID < personID <= lastID, in the current transaction
+    // without committing. The contact cards of people whose numbers
+    // were rewritten are rebuilt in the same transaction, so that
+    // findPerson does not read the old text from them. Returns the
+    // number of rows updated.
+    static int backfill( Connection connection, int afterID, int lastID )
+            throws SQLException
+    {
+        PreparedStatement select = connection.prepareStatement(
+                "SELECT phoneID, phoneNumber, personID FROM phoneNumbers " +
+                        "WHERE personID > ? AND personID <= ? " +
+                        "AND phoneKey IS NULL" );
+        PreparedStatement update = connection.prepareStatement(
+                "UPDATE phoneNumbers SET phoneNumber = ?, phoneKey = ? " +
+                        "WHERE phoneID = ?" );
+        Set<Integer> rewritten = new TreeSet<Integer>();
+        int batched = 0;
+
+        try {
+            select.setInt( 1, afterID );
+            select.setInt( 2, lastID );
+            ResultSet resultSet = select.executeQuery();
+
+            while ( resultSet.next() ) {
+                String phone = resultSet.getString( 2 );
+                String e164 = toE164( phone );
+
+                if ( e164 != null && !e164.equals( phone ) )
+                    rewritten.add( resultSet.getInt( 3 ) );
+
+                update.setString( 1, e164 != null ? e164 : phone );
+                update.setLong( 2, key( phone ) );
+                update.setInt( 3, resultSet.getInt( 1 ) );
+                update.addBatch();
+                batched++;
+            }
+
+            if ( batched > 0 )
+                update.executeBatch();
+        }
+        finally {
+            select.close();
+            update.close();
+        }
+
+        if ( !rewritten.isEmpty() && hasContactCards( connection ) )
+            refreshCards( connection, rewritten );
+
+        return batched;
+    }
+
+    // true if the database has a contactCards table to keep current
+    private static boolean hasContactCards( Connection connection )
+            throws SQLException
+    {
+        ResultSet tables = connection.getMetaData().getTables(
+                connection.getCatalog(), null, "contactCards", null );
+
+        try {
+            return tables.next();
+        }
+        finally {
+            tables.close();
+        }
+    }
+
+    // rebuild the contact cards of the given people from the tables
+    private static void refreshCards( Connection connection,
+            Collection<Integer> personIDs ) throws SQLException
+    {
+        PreparedStatement delete = connection.prepareStatement(
+                "DELETE FROM contactCards WHERE personID = ?" );
+        PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO contactCards ( " +
+                        CloudscapeDataAccess.CARD_COLUMNS + " ) " +
+                        CloudscapeDataAccess.CARD_SOURCE +
+                        " AND names.personID = ?" );
+
+        try {
+            for ( int personID : personIDs ) {
+                delete.setInt( 1, personID );
+                delete.executeUpdate();
+                insert.setInt( 1, personID );
+                insert.executeUpdate();
+            }
+        }
+        finally {
+            delete.close();
+            insert.close();
+        }
+    }
+
+    public static void main( String args[] ) throws Exception
+    {
+        if ( args.length < 1 || !args[ 0 ].equals( "backfill" ) ) {
+            System.err.println(
+                    "Usage: java PhoneNumbers backfill [database]" );
+            System.exit( 1 );
+        }
+
+        Connection connection = CloudscapeDataAccess.openConnection(
+                args.length > 1 ? args[ 1 ] : "AddressBook" );
+
+        try {
+            System.out.println( "Normalized " + backfill( connection ) +
+                    " phone numbers" );
+        }
+        finally {
+            connection.close();
+        }
+    }
+}  // end class PhoneNumbers
@@ -0,0 +1,220 @@
+// PurgeWorker.java
+// Background removal of people marked deleted by CloudscapeDataAccess
+// in soft-delete mode. The worker uses its own connection and removes
+// marked people in small batches, each batch one short transaction
+// deleting their detail rows and then their names, so locks are held
+// briefly and index maintenance is spread out over time. The number
+// of batches per second is limited by a TokenBucket. Optionally the
+// tables are rebuilt with OPTIMIZE TABLE after a given number of
+// people have been purged, to return the freed space.
+
+// Java core packages
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class PurgeWorker implements Runnable {
+
+    // tables holding a person's rows, children first
+    private static final String[] TABLES = {
+            "addresses", "phoneNumbers", "emailAddresses", "names" };
+
+    private String database;
+    private int batchSize;
+    private TokenBucket batches;
+
+    // people purged between compactions; 0 never compacts
+    private long compactAfter;
+    private long sinceCompaction;
+
+    // wait between checks when nothing is marked deleted
+    private long idleMillis = 5000;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    private AtomicLong purged = Metrics.counter( "purge.people" );
+    private AtomicLong compactions = Metrics.counter( "purge.compactions" );
+
+    // set up worker purging up to batchSize people per batch and at
+    // most batchesPerSecond batches per second
+    public PurgeWorker( String database, int batchSize,
+            double batchesPerSecond )
+    {
+        this.database = database;
+        this.batchSize = batchSize;
+        batches = new TokenBucket( batchesPerSecond, 1 );
+    }
+
+    // rebuild the tables after this many people have been purged
+    public void setCompactAfter( long people )
+    {
+        compactAfter = people;
+    }
+
+    // start purging on a daemon thread
+    public synchronized void start()
+    {
+        if ( thread != null )
+            return;
+
+        running = true;
+        thread = new Thread( this, "purge-worker" );
+        thread.setDaemon( true );
+        thread.setPriority( Thread.MIN_PRIORITY );
+        thread.start();
+    }
+
+    // stop after the current batch
+    public synchronized void stop()
+    {
+        running = false;
+
+        if ( thread != null ) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    // purge until stopped, reconnecting after failures
+    public void run()
+    {
+        while ( running ) {
+            try {
+                Connection connection =
+                        CloudscapeDataAccess.openConnection( database );
+
+                try {
+                    purge( connection );
+                }
+                finally {
+                    connection.close();
+                }
+            }
+            catch ( InterruptedException exception ) {
+                return;
+            }
+            catch ( Exception exception ) {
+                exception.printStackTrace();
+
+                if ( !pause( idleMillis ) )
+                    return;
+            }
+        }
+    }
+
+    // purge batches until stopped, waiting while none are marked
+    private void purge( Connection connection )
+            throws SQLException, InterruptedException
+    {
+        PreparedStatement select = connection.prepareStatement(
+                "SELECT personID FROM names WHERE deleted = 1 " +
+                        "ORDER BY personID LIMIT ?" );
+
+        try {
+            while ( running ) {
+                long wait = batches.nanosUntilAvailable();
+
+                if ( wait > 0 ) {
+                    Thread.sleep( wait / 1000000, ( int ) ( wait % 1000000 ) );
+                    continue;
+                }
+
+                if ( !batches.tryAcquire() )
+                    continue;
+
+                select.setInt( 1, batchSize );
+                List<Integer> people = new ArrayList<Integer>();
+                ResultSet resultSet = select.executeQuery();
+
+                while ( resultSet.next() )
+                    people.add( resultSet.getInt( 1 ) );
+
+                connection.commit();
+
+                if ( people.isEmpty() ) {
+                    if ( !pause( idleMillis ) )
+                        return;
+
+                    continue;
+                }
+
+                purgeBatch( connection, people );
+                purged.addAndGet( people.size() );
+                sinceCompaction += people.size();
+
+                if ( compactAfter > 0 && sinceCompaction >= compactAfter ) {
+                    compact( connection );
+                    sinceCompaction = 0;
+                }
+            }
+        }
+        finally {
+            select.close();
+        }
+    }
+
+    // delete the rows of one batch of marked people in one
+    // transaction; a name is only removed if still marked
+    private static void purgeBatch( Connection connection,
+            List<Integer> people ) throws SQLException
+    {
+        StringBuilder ids = new StringBuilder();
+
+        for ( int personID : people )
+            ids.append( ids.length() == 0 ? "" : ", " ).append( personID );
+
+        Statement statement = connection.createStatement();
+
+        try {
+            for ( String table : TABLES )
+                statement.executeUpdate( "DELETE FROM " + table +
+                        " WHERE personID IN ( " + ids + " )" +
+                        ( table.equals( "names" ) ? " AND deleted = 1" : "" ) );
+
+            connection.commit();
+        }
+        catch ( SQLException sqlException ) {
+            connection.rollback();
+            throw sqlException;
+        }
+        finally {
+            statement.close();
+        }
+    }
+
+    // rebuild the tables to reclaim the space of purged rows
+    private void compact( Connection connection ) throws SQLException
+    {
+        Statement statement = connection.createStatement();
+
+        try {
+            for ( String table : TABLES ) {
+                ResultSet resultSet =
+                        statement.executeQuery( "OPTIMIZE TABLE " + table );
+
+                while ( resultSet.next() ) {
+                    // read the status rows MySQL returns
+                }
+            }
+
+            compactions.incrementAndGet();
+        }
+        finally {
+            statement.close();
+        }
+    }
+
+    // sleep unless stopped; return false if stopped
+    private boolean pause( long millis )
+    {
+        try {
+            Thread.sleep( millis );
+            return running;
+        }
+        catch ( InterruptedException exception ) {
+            return false;
+        }
+    }
+}  // end class PurgeWorker
@@ -0,0 +1,318 @@
+// QueryDiagnostics.java
+// Diagnostics mode for the JDBC data access layer. When enabled
+// (setting addressbook.diagnostics=true) every statement
+// prepared through this class is run through EXPLAIN, full table
+// scans are flagged together with the optimizer's estimate of rows
+// examined, and executions slower than addressbook.slowQueryMillis
+// (default 200) are logged. Bound parameter values are never
+// logged; slow queries are reported with their ? placeholders. Both
+// settings can be changed by reloading DataAccessConfig; plans are
+// captured for statements prepared while diagnostics are on. While
+// a Tracer exporter is set, each execution and commit is also timed
+// in a span of its own, with the SQL text but again no values.
+
+// Java core packages
+import java.io.PrintStream;
+import java.sql.*;
+import java.util.*;
+
+public class QueryDiagnostics {
+
+    // reference to database connection
+    private Connection connection;
+
+    // true if plans are captured and slow queries logged
+    private boolean enabled;
+
+    // executions taking at least this long are logged
+    private long slowQueryNanos;
+
+    // true if the two settings above are read from DataAccessConfig
+    private boolean configured;
+
+    // SQL text of each prepared statement, for log messages
+    private Map<PreparedStatement, String> sqlText =
+            Collections.synchronizedMap(
+                    new IdentityHashMap<PreparedStatement, String>() );
+
+    // plan captured for each distinct SQL text
+    private Map<String, QueryPlan> plans =
+            Collections.synchronizedMap(
+                    new LinkedHashMap<String, QueryPlan>() );
+
+    // where diagnostics are written
+    private PrintStream log = System.err;
+
+    // set up diagnostics following the current settings
+    public QueryDiagnostics( Connection connection )
+    {
+        this( connection, false, 0 );
+        configured = true;
+    }
+
+    // set up diagnostics with explicit settings
+    public QueryDiagnostics( Connection connection, boolean enabled,
+            long slowQueryMillis )
+    {
+        this.connection = connection;
+        this.enabled = enabled;
+        this.slowQueryNanos = slowQueryMillis * 1000000L;
+    }
+
+    // is diagnostics mode on?
+    public boolean isEnabled()
+    {
+        if ( configured )
+            return DataAccessConfig.current().get(
+                    DataAccessConfig.DIAGNOSTICS );
+
+        return enabled;
+    }
+
+    // Prepare a statement, capturing its plan in diagnostics mode.
+    public PreparedStatement prepare( String sql ) throws SQLException
+    {
+        PreparedStatement statement = connection.prepareStatement( sql );
+        sqlText.put( statement, sql );
+
+        if ( isEnabled() && !plans.containsKey( sql ) )
+            explain( sql );
+
+        return statement;
+    }
+
+    // forget a statement that is about to be closed
+    public void release( PreparedStatement statement )
+    {
+        sqlText.remove( statement );
+    }
+
+    // execute query, logging it if it is slow, in a sql.query span
+    // when tracing; rows read are counted by the caller's span
+    public ResultSet executeQuery( PreparedStatement statement )
+            throws SQLException
+    {
+        if ( !isEnabled() && !Tracer.isEnabled() )
+            return statement.executeQuery();
+
+        Span span = Tracer.start( "sql.query" )
+                .setAttribute( "sql", sqlText.get( statement ) );
+        long start = System.nanoTime();
+
+        try {
+            ResultSet resultSet = statement.executeQuery();
+
+            if ( isEnabled() )
+                logIfSlow( statement, System.nanoTime() - start );
+
+            return resultSet;
+        }
+        catch ( SQLException sqlException ) {
+            span.setError( sqlException );
+            throw sqlException;
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    // execute update, logging it if it is slow, in a sql.update span
+    // recording the rows changed when tracing
+    public int executeUpdate( PreparedStatement statement )
+            throws SQLException
+    {
+        if ( !isEnabled() && !Tracer.isEnabled() )
+            return statement.executeUpdate();
+
+        Span span = Tracer.start( "sql.update" )
+                .setAttribute( "sql", sqlText.get( statement ) );
+        long start = System.nanoTime();
+
+        try {
+            int result = statement.executeUpdate();
+            span.setAttribute( "rows", result );
+
+            if ( isEnabled() )
+                logIfSlow( statement, System.nanoTime() - start );
+
+            return result;
+        }
+        catch ( SQLException sqlException ) {
+            span.setError( sqlException );
+            throw sqlException;
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    // commit the connection's transaction, in a sql.commit span when
+    // tracing, since the commit is a round trip of its own
+    public void commit() throws SQLException
+    {
+        Span span = Tracer.start( "sql.commit" );
+
+        try {
+            connection.commit();
+        }
+        catch ( SQLException sqlException ) {
+            span.setError( sqlException );
+            throw sqlException;
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    // plans captured so far, keyed by SQL text
+    public Map<String, QueryPlan> getPlans()
+    {
+        synchronized ( plans ) {
+            return new LinkedHashMap<String, QueryPlan>( plans );
+        }
+    }
+
+    // print every captured plan
+    public void printReport( PrintStream out )
+    {
+        for ( QueryPlan plan : getPlans().values() )
+            out.println( plan );
+    }
+
+    // Run EXPLAIN for a statement and record the plan. Parameters
+    // are bound to empty strings; MySQL converts them to the column
+    // type, which is enough for the optimizer to choose access paths.
+    private void explain( String sql )
+    {
+        String verb = sql.trim().toUpperCase( Locale.ROOT );
+
+        // inserts have no access path worth reporting
+        if ( !verb.startsWith( "SELECT" ) && !verb.startsWith( "UPDATE" )
+                && !verb.startsWith( "DELETE" ) )
+            return;
+
+        QueryPlan plan = new QueryPlan( sql );
+
+        try {
+            PreparedStatement statement =
+                    connection.prepareStatement( "EXPLAIN " + sql );
+
+            try {
+                for ( int i = 1; i <= countParameters( sql ); i++ )
+                    statement.setString( i, "" );
+
+                ResultSet resultSet = statement.executeQuery();
+
+                while ( resultSet.next() )
+                    plan.addStep( resultSet.getString( "table" ),
+                            resultSet.getString( "type" ),
+                            resultSet.getString( "key" ),
+                            resultSet.getLong( "rows" ) );
+            }
+            finally {
+                statement.close();
+            }
+        }
+
+        // a failed EXPLAIN must never break the application
+        catch ( SQLException sqlException ) {
+            log.println( "[diagnostics] EXPLAIN failed for " + sql +
+                    ": " + sqlException.getMessage() );
+            return;
+        }
+
+        plans.put( sql, plan );
+        log.println( "[diagnostics] " + plan );
+    }
+
+    // log execution if it took longer than the threshold
+    private void logIfSlow( PreparedStatement statement, long nanos )
+    {
+        long threshold = !configured ? slowQueryNanos :
+                DataAccessConfig.current().get(
+                        DataAccessConfig.SLOW_QUERY_MILLIS ) * 1000000L;
+
+        if ( nanos < threshold )
+            return;
+
+        String sql = sqlText.get( statement );
+
+        log.printf( "[diagnostics] SLOW %d ms: %s%n",
+                nanos / 1000000, sql == null ? "<unknown>" : sql );
+    }
+
+    // number of ? placeholders outside quoted literals
+    private static int countParameters( String sql )
+    {
+        int count = 0;
+        char quote = 0;
+
+        for ( int i = 0; i < sql.length(); i++ ) {
+            char c = sql.charAt( i );
+
+            if ( quote != 0 ) {
+                if ( c == quote )
+                    quote = 0;
+            }
+            else if ( c == '\'' || c == '"' || c == '`' )
+                quote = c;
+            else if ( c == '?' )
+                count++;
+        }
+
+        return count;
+    }
+
+    // Plan of one statement: one step per table in join order.
+    public static class QueryPlan {
+        private String sql;
+        private List<String> steps = new ArrayList<String>();
+        private List<String> fullScans = new ArrayList<String>();
+        private long rowsExamined = 1;
+
+        QueryPlan( String sql )
+        {
+            this.sql = sql;
+        }
+
+        // record one row of EXPLAIN output
+        void addStep( String table, String type, String key, long rows )
+        {
+            steps.add( table + "(" + type +
+                    ( key == null ? "" : " " + key ) + ", " + rows + ")" );
+
+            // ALL reads the whole table; index reads the whole index
+            if ( "ALL".equals( type ) || "index".equals( type ) )
+                fullScans.add( table );
+
+            // nested loop join: rows examined multiply
+            if ( rows > 0 )
+                rowsExamined *= rows;
+        }
+
+        // SQL text of the statement
+        public String getSql()
+        {
+            return sql;
+        }
+
+        // tables read with a full table or index scan
+        public List<String> getFullScans()
+        {
+            return fullScans;
+        }
+
+        // optimizer's estimate of rows examined per execution
+        public long getRowsExamined()
+        {
+            return steps.isEmpty() ? 0 : rowsExamined;
+        }
+
+        public String toString()
+        {
+            return ( fullScans.isEmpty() ? "PLAN" :
+                    "FULL SCAN " + fullScans ) + " ~" + getRowsExamined() +
+                    " rows " + steps + ": " + sql;
+        }
+    }  // end inner class QueryPlan
+}  // end class QueryDiagnostics
@@ -0,0 +1,454 @@
+// ResilientDataAccess.java
+// Decorator that makes any AddressBookDataAccess tolerant of
+// transient database failures. Failed calls are classified from
+// their SQLException: a transaction the server rolled back (deadlock,
+// lock wait timeout) is safe to retry, while a lost connection is
+// ambiguous because a commit may have reached the server, so it is
+// only retried for idempotent operations. Retries wait with jittered
+// exponential backoff. A circuit breaker stops calling the database
+// after repeated connection failures and fails fast until a trial
+// call succeeds. State and counts are published through Metrics,
+// under "dataAccess.resilience." and the instance's name, if any.
+
+// Java core packages
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ResilientDataAccess implements AddressBookDataAccess {
+
+    // classes of failure, from safest to retry to not retryable
+    static final int ROLLED_BACK = 0, CONNECTION = 1, PERMANENT = 2;
+
+    // circuit breaker states
+    public static final String CLOSED = "CLOSED", OPEN = "OPEN",
+            HALF_OPEN = "HALF_OPEN";
+
+    // MySQL error codes for lock wait timeout and deadlock
+    private static final int LOCK_WAIT_TIMEOUT = 1205, DEADLOCK = 1213;
+
+    // data source being protected
+    private AddressBookDataAccess database;
+
+    // retry settings
+    private int maxAttempts;
+    private long baseDelayMillis, maxDelayMillis;
+
+    // circuit breaker settings and state
+    private int failureThreshold;
+    private long openMillis;
+    private String state = CLOSED;
+    private int consecutiveFailures;
+    private long openUntil;
+    private boolean trialInProgress;
+
+    // metrics
+    private String metricsPrefix;
+    private AtomicLong calls, retries, failures, shortCircuited;
+    private Metrics.Gauge circuitStateGauge, consecutiveFailuresGauge;
+
+    // set up decorator with default settings: 4 attempts, 50 ms to
+    // 2 s backoff, open after 5 failures for 10 s
+    public ResilientDataAccess( AddressBookDataAccess database )
+    {
+        this( database, null );
+    }
+
+    // set up decorator with default settings whose metrics are named
+    // after name, e.g. a data source or tenant; null for no name
+    public ResilientDataAccess( AddressBookDataAccess database,
+            String name )
+    {
+        this( database, name, 4, 50, 2000, 5, 10000 );
+    }
+
+    // set up decorator with explicit settings
+    public ResilientDataAccess( AddressBookDataAccess database,
+            int maxAttempts, long baseDelayMillis, long maxDelayMillis,
+            int failureThreshold, long openMillis )
+    {
+        this( database, null, maxAttempts, baseDelayMillis,
+                maxDelayMillis, failureThreshold, openMillis );
+    }
+
+    // set up named decorator with explicit settings
+    public ResilientDataAccess( AddressBookDataAccess database,
+            String name, int maxAttempts, long baseDelayMillis,
+            long maxDelayMillis, int failureThreshold, long openMillis )
+    {
+        this.database = database;
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+
+        metricsPrefix = name == null ? "dataAccess.resilience." :
+                "dataAccess.resilience." + name + ".";
+
+        calls = Metrics.counter( metricsPrefix + "calls" );
+        retries = Metrics.counter( metricsPrefix + "retries" );
+        failures = Metrics.counter( metricsPrefix + "failures" );
+        shortCircuited = Metrics.counter( metricsPrefix + "shortCircuited" );
+
+        circuitStateGauge = new Metrics.Gauge() {
+            public Object value()
+            {
+                return getCircuitState();
+            }
+        };
+        consecutiveFailuresGauge = new Metrics.Gauge() {
+            public Object value()
+            {
+                return getConsecutiveFailures();
+            }
+        };
+
+        Metrics.gauge( metricsPrefix + "circuitState", circuitStateGauge );
+        Metrics.gauge( metricsPrefix + "consecutiveFailures",
+                consecutiveFailuresGauge );
+    }
+
+    // reads are idempotent
+    public ArrayList<AddressBookEntry> findPerson( final String lastName )
+            throws DataAccessException
+    {
+        return call( true, new Call<ArrayList<AddressBookEntry>>() {
+            public ArrayList<AddressBookEntry> run()
+                    throws DataAccessException
+            {
+                return database.findPerson( lastName );
+            }
+        } );
+    }
+
+    // reads are idempotent
+    public ArrayList<AddressBookEntry> findPersonSummaries(
+            final String lastName ) throws DataAccessException
+    {
+        return call( true, new Call<ArrayList<AddressBookEntry>>() {
+            public ArrayList<AddressBookEntry> run()
+                    throws DataAccessException
+            {
+                return database.findPersonSummaries( lastName );
+            }
+        } );
+    }
+
+    // reads are idempotent
+    public ArrayList<AddressBookEntry> findPersonSummariesByPrefix(
+            final String prefix, final int limit )
+            throws DataAccessException
+    {
+        return call( true, new Call<ArrayList<AddressBookEntry>>() {
+            public ArrayList<AddressBookEntry> run()
+                    throws DataAccessException
+            {
+                return database.findPersonSummariesByPrefix( prefix,
+                        limit );
+            }
+        } );
+    }
+
+    // reads are idempotent
+    public ArrayList<AddressBookEntry> findByPhone( final String phoneNumber )
+            throws DataAccessException
+    {
+        return call( true, new Call<ArrayList<AddressBookEntry>>() {
+            public ArrayList<AddressBookEntry> run()
+                    throws DataAccessException
+            {
+                return database.findByPhone( phoneNumber );
+            }
+        } );
+    }
+
+    // reads are idempotent
+    public ArrayList<AddressBookEntry> findByEmail( final String emailAddress )
+            throws DataAccessException
+    {
+        return call( true, new Call<ArrayList<AddressBookEntry>>() {
+            public ArrayList<AddressBookEntry> run()
+                    throws DataAccessException
+            {
+                return database.findByEmail( emailAddress );
+            }
+        } );
+    }
+
+    // reads are idempotent
+    public LinkedHashMap<String, Integer> countByEmailDomain( final int limit )
+            throws DataAccessException
+    {
+        return call( true, new Call<LinkedHashMap<String, Integer>>() {
+            public LinkedHashMap<String, Integer> run()
+                    throws DataAccessException
+            {
+                return database.countByEmailDomain( limit );
+            }
+        } );
+    }
+
+    // a cancelled search fails as a permanent error and is not
+    // retried
+    public void cancelSearch()
+    {
+        database.cancelSearch();
+    }
+
+    // reads are idempotent
+    public boolean loadDetails( final AddressBookEntry person )
+            throws DataAccessException
+    {
+        return call( true, new Call<Boolean>() {
+            public Boolean run() throws DataAccessException
+            {
+                return database.loadDetails( person );
+            }
+        } );
+    }
+
+    public ArrayList<AddressBookEntry> findDetails(
+            final AddressBookEntry person ) throws DataAccessException
+    {
+        return call( true, new Call<ArrayList<AddressBookEntry>>() {
+            public ArrayList<AddressBookEntry> run()
+                    throws DataAccessException
+            {
+                return database.findDetails( person );
+            }
+        } );
+    }
+
+    // writing the same values twice leaves the same row
+    public boolean savePerson( final AddressBookEntry person )
+            throws DataAccessException
+    {
+        return call( true, new Call<Boolean>() {
+            public Boolean run() throws DataAccessException
+            {
+                return database.savePerson( person );
+            }
+        } );
+    }
+
+    // an insert that may have committed must not be repeated
+    public boolean newPerson( final AddressBookEntry person )
+            throws DataAccessException
+    {
+        return call( false, new Call<Boolean>() {
+            public Boolean run() throws DataAccessException
+            {
+                return database.newPerson( person );
+            }
+        } );
+    }
+
+    // Deleting twice leaves no row; a retried delete whose first
+    // attempt committed reports false because nothing was left.
+    public boolean deletePerson( final AddressBookEntry person )
+            throws DataAccessException
+    {
+        return call( true, new Call<Boolean>() {
+            public Boolean run() throws DataAccessException
+            {
+                return database.deletePerson( person );
+            }
+        } );
+    }
+
+    // close data source and stop publishing this instance's gauges
+    public void close()
+    {
+        Metrics.removeGauge( metricsPrefix + "circuitState",
+                circuitStateGauge );
+        Metrics.removeGauge( metricsPrefix + "consecutiveFailures",
+                consecutiveFailuresGauge );
+        database.close();
+    }
+
+    // get circuit breaker state: CLOSED, OPEN or HALF_OPEN
+    public synchronized String getCircuitState()
+    {
+        if ( state == OPEN && System.currentTimeMillis() >= openUntil )
+            return HALF_OPEN;
+
+        return state;
+    }
+
+    // get number of connection failures since the last success
+    public synchronized int getConsecutiveFailures()
+    {
+        return consecutiveFailures;
+    }
+
+    // Run a call through the circuit breaker, retrying transient
+    // failures. Connection failures are retried only if the call
+    // is idempotent.
+    private <T> T call( boolean idempotent, Call<T> call )
+            throws DataAccessException
+    {
+        calls.incrementAndGet();
+
+        for ( int attempt = 1; ; attempt++ ) {
+            acquirePermission();
+            boolean recorded = false;
+
+            try {
+                T result = call.run();
+                recordSuccess();
+                recorded = true;
+                return result;
+            }
+            catch ( DataAccessException exception ) {
+                int kind = classify( exception );
+
+                // only a lost connection counts against the circuit;
+                // any other error means the server answered
+                if ( kind == CONNECTION )
+                    recordFailure();
+                else
+                    recordSuccess();
+
+                recorded = true;
+
+                if ( kind == PERMANENT )
+                    throw exception;
+
+                boolean retryable = kind == ROLLED_BACK || idempotent;
+
+                if ( !retryable || attempt >= maxAttempts ) {
+                    failures.incrementAndGet();
+                    throw exception;
+                }
+            }
+
+            // a RuntimeException says nothing about the database, but
+            // must not leave a half-open trial taken forever
+            finally {
+                if ( !recorded )
+                    releaseTrial();
+            }
+
+            retries.incrementAndGet();
+            sleep( backoff( attempt ) );
+        }
+    }
+
+    // fail fast while the circuit is open; let one trial call
+    // through when the open period has elapsed
+    private synchronized void acquirePermission()
+            throws DataAccessException
+    {
+        if ( state == CLOSED )
+            return;
+
+        if ( state == OPEN && System.currentTimeMillis() >= openUntil ) {
+            state = HALF_OPEN;
+            trialInProgress = false;
+        }
+
+        if ( state == HALF_OPEN && !trialInProgress ) {
+            trialInProgress = true;
+            return;
+        }
+
+        shortCircuited.incrementAndGet();
+        throw new DataAccessException(
+                "Database unavailable; circuit breaker is open" );
+    }
+
+    // let another trial call through after one that ended without
+    // a result either way
+    private synchronized void releaseTrial()
+    {
+        trialInProgress = false;
+    }
+
+    // close circuit after a successful call
+    private synchronized void recordSuccess()
+    {
+        consecutiveFailures = 0;
+        trialInProgress = false;
+        state = CLOSED;
+    }
+
+    // open circuit after too many failures or a failed trial call
+    private synchronized void recordFailure()
+    {
+        consecutiveFailures++;
+        trialInProgress = false;
+
+        if ( state == HALF_OPEN || consecutiveFailures >= failureThreshold ) {
+            state = OPEN;
+            openUntil = System.currentTimeMillis() + openMillis;
+        }
+    }
+
+    // "full jitter" backoff: random delay up to base * 2^(attempt-1)
+    private long backoff( int attempt )
+    {
+        long ceiling = Math.min( maxDelayMillis,
+                baseDelayMillis << Math.min( attempt - 1, 20 ) );
+
+        return ThreadLocalRandom.current().nextLong( ceiling + 1 );
+    }
+
+    private static void sleep( long millis ) throws DataAccessException
+    {
+        try {
+            Thread.sleep( millis );
+        }
+        catch ( InterruptedException exception ) {
+            Thread.currentThread().interrupt();
+            throw new DataAccessException( exception );
+        }
+    }
+
+    // Classify a failure by the first SQLException in its causes.
+    // Failures without an SQLException (e.g. an open circuit in a
+    // nested decorator) are treated as permanent.
+    static int classify( Throwable failure )
+    {
+        for ( Throwable cause = failure; cause != null;
+                cause = cause.getCause() ) {
+
+            if ( !( cause instanceof SQLException ) )
+                continue;
+
+            SQLException sqlException = ( SQLException ) cause;
+            String sqlState = sqlException.getSQLState();
+            int code = sqlException.getErrorCode();
+
+            if ( sqlException instanceof SQLTransactionRollbackException
+                    || code == DEADLOCK || code == LOCK_WAIT_TIMEOUT
+                    || ( sqlState != null && sqlState.startsWith( "40" ) ) )
+                return ROLLED_BACK;
+
+            // A statement that ran past addressbook.jdbc.queryTimeoutSeconds
+            // was cancelled by a server that is answering; retrying it
+            // would only repeat the wait. A socket timeout is reported
+            // as a lost connection (08S01) below instead.
+            if ( sqlException instanceof SQLTimeoutException )
+                return PERMANENT;
+
+            // Connector/J reports a dropped connection as a
+            // CommunicationsException with SQLState 08S01
+            if ( sqlException instanceof SQLTransientConnectionException
+                    || sqlException instanceof SQLRecoverableException
+                    || ( sqlState != null && sqlState.startsWith( "08" ) ) )
+                return CONNECTION;
+
+            return PERMANENT;
+        }
+
+        return PERMANENT;
+    }
+
+    // one attempt at a data-access call
+    private interface Call<T> {
+        T run() throws DataAccessException;
+    }
+}  // end class ResilientDataAccess
@@ -0,0 +1,464 @@
+// ReverseLookupDataAccess.java
+// AddressBookDataAccess decorator that answers findByPhone from
+// memory, for telephony integrations that look up every incoming
+// call, and findByEmail and countByEmailDomain likewise, for mail
+// integrations resolving senders and per-company reports. A
+// PhoneIndex of every stored number is built from a bulk scan on a
+// background thread, rebuilt periodically, and kept current between
+// scans by the writes made through this object. A number that is not
+// in the index is answered at once with no match, which is the
+// common case for incoming calls. The entries of numbers that are in
+// it are read from the database, by the indexed phoneKey column, and
+// then kept in a bounded cache in compact form.
+//
+// Writes made by other clients are only seen by the next scan, so the
+// index may lack a number another client has just added. Answers from
+// memory are therefore bounded in staleness: the index and the entry
+// cache are only used while the scan that built them started at most
+// maxStaleSeconds ago, and scans are repeated every half of that.
+// When no recent enough scan has finished, e.g. before the first one
+// or while the database is slow, every lookup goes to the database.
+// A number that changes through this object stays in the index under
+// its old value until the next scan; a lookup of the old number then
+// goes to the database, which finds nobody.
+//
+// An EmailDomainIndex of every stored address's domain likewise
+// answers findByEmail at once for an address in a domain nobody has,
+// and countByEmailDomain without a database call, within the same
+// bound. A saved person is indexed under the domain of the address
+// saved only, so a merged person with addresses in several domains
+// is counted in just that one until the next scan.
+
+// Java core packages
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ReverseLookupDataAccess implements AddressBookDataAccess {
+
+    private AddressBookDataAccess database;
+
+    // every stored number, by person, as of the last finished scan
+    private volatile PhoneIndex phones = new PhoneIndex();
+
+    // every stored email domain, with its people, likewise
+    private volatile EmailDomainIndex domains = new EmailDomainIndex();
+
+    // indexes being built by a scan in progress, or null
+    private PhoneIndex loadingPhones;
+    private EmailDomainIndex loadingDomains;
+
+    // entries found for recently looked-up numbers
+    private LruCache<Long, CompactEntry[]> found;
+
+    private volatile boolean loaded;
+
+    // System.nanoTime() when the scan of the indexes in use started
+    private volatile long scannedAt;
+
+    // answers from memory must come from a scan at most this old
+    private long maxStaleNanos;
+
+    // thread rescanning the database, stopped by close
+    private Thread loader;
+    private boolean closed;
+
+    // people written while loading; the scan may predate the writes.
+    // Also the lock for updating the indexes.
+    private Set<Integer> writtenWhileLoading = new HashSet<Integer>();
+
+    private AtomicLong misses = Metrics.counter( "reverseLookup.phone.misses" );
+    private AtomicLong hits = Metrics.counter( "reverseLookup.phone.hits" );
+    private AtomicLong reads =
+            Metrics.counter( "reverseLookup.phone.databaseReads" );
+    private AtomicLong emailMisses =
+            Metrics.counter( "reverseLookup.email.misses" );
+    private AtomicLong staleReads =
+            Metrics.counter( "reverseLookup.staleFallbacks" );
+
+    // set up decorator caching the entries of 10000 numbers, with
+    // answers at most 60 seconds stale
+    public ReverseLookupDataAccess( AddressBookDataAccess database )
+    {
+        this( database, 10000, 60 );
+    }
+
+    // set up decorator caching the entries of cachedNumbers numbers,
+    // with answers from memory at most maxStaleSeconds stale
+    public ReverseLookupDataAccess( AddressBookDataAccess database,
+            int cachedNumbers, int maxStaleSeconds )
+    {
+        this.database = database;
+        found = new LruCache<Long, CompactEntry[]>( cachedNumbers );
+        maxStaleNanos = maxStaleSeconds * 1000000000L;
+    }
+
+    // Start loading the index from a database on a background
+    // thread, over a connection of its own for each scan, and
+    // rebuilding it every half of the staleness bound.
+    public synchronized void loadInBackground( final String databaseName )
+    {
+        if ( closed || loader != null )
+            return;
+
+        final long periodMillis = Math.max( 1, maxStaleNanos / 2000000 );
+
+        loader = new Thread( "reverse-lookup-loader" ) {
+            public void run()
+            {
+                while ( !isInterrupted() ) {
+                    try {
+                        scan( databaseName );
+                    }
+
+                    // lookups still work, from the database
+                    catch ( Exception exception ) {
+                        abandonLoad();
+                        exception.printStackTrace();
+                    }
+
+                    try {
+                        Thread.sleep( periodMillis );
+                    }
+                    catch ( InterruptedException exception ) {
+                        return;
+                    }
+                }
+            }
+        };
+
+        loader.setDaemon( true );
+        loader.setPriority( Thread.MIN_PRIORITY );
+        loader.start();
+    }
+
+    // build new indexes from one bulk scan of the database
+    private void scan( String databaseName ) throws Exception
+    {
+        CloudscapeDataAccess scan = new CloudscapeDataAccess( databaseName );
+
+        // index rows as they stream in, one holder for all
+        try {
+            long startedAt = startLoad();
+
+            // stop at the next row when close interrupts the loader
+            scan.forEachPerson( new AddressBookEntry(), new EntryConsumer() {
+                public boolean accept( AddressBookEntry person )
+                {
+                    index( person );
+                    return !Thread.currentThread().isInterrupted();
+                }
+            } );
+
+            if ( Thread.currentThread().isInterrupted() )
+                abandonLoad();
+            else
+                finishLoad( startedAt );
+        }
+        finally {
+            scan.close();
+        }
+    }
+
+    // Index people read by a bulk scan that started now. People
+    // written through this object meanwhile are already indexed as
+    // written and are kept.
+    public void load( List<AddressBookEntry> people )
+    {
+        long startedAt = startLoad();
+
+        for ( AddressBookEntry person : people )
+            index( person );
+
+        finishLoad( startedAt );
+    }
+
+    // start building new indexes; returns the time the scan started
+    private long startLoad()
+    {
+        synchronized ( writtenWhileLoading ) {
+            loadingPhones = new PhoneIndex();
+            loadingDomains = new EmailDomainIndex();
+            writtenWhileLoading.clear();
+            return System.nanoTime();
+        }
+    }
+
+    // index one person read by a bulk scan, unless written meanwhile
+    private void index( AddressBookEntry person )
+    {
+        synchronized ( writtenWhileLoading ) {
+            if ( loadingPhones != null &&
+                    !writtenWhileLoading.contains( person.getPersonID() ) ) {
+                loadingPhones.add( person.getPersonID(),
+                        PhoneNumbers.key( person.getPhoneNumber() ) );
+                loadingDomains.add( person.getPersonID(),
+                        EmailAddresses.domain( person.getEmailAddress() ) );
+            }
+        }
+    }
+
+    // Start answering from the new indexes. Entries cached from
+    // before the scan are dropped, so that they are no staler than
+    // the indexes.
+    private void finishLoad( long startedAt )
+    {
+        synchronized ( writtenWhileLoading ) {
+            phones = loadingPhones;
+            domains = loadingDomains;
+            loadingPhones = null;
+            loadingDomains = null;
+            writtenWhileLoading.clear();
+            found.clear();
+            scannedAt = startedAt;
+            loaded = true;
+        }
+    }
+
+    // drop the indexes of a scan that failed
+    private void abandonLoad()
+    {
+        synchronized ( writtenWhileLoading ) {
+            loadingPhones = null;
+            loadingDomains = null;
+            writtenWhileLoading.clear();
+        }
+    }
+
+    // true once the startup scan has been indexed
+    public boolean isLoaded()
+    {
+        return loaded;
+    }
+
+    // true if answers may come from memory: the indexes in use come
+    // from a scan recent enough
+    private boolean isFresh()
+    {
+        if ( !loaded )
+            return false;
+
+        if ( System.nanoTime() - scannedAt <= maxStaleNanos )
+            return true;
+
+        staleReads.incrementAndGet();
+        return false;
+    }
+
+    public ArrayList<AddressBookEntry> findPerson( String lastName )
+            throws DataAccessException
+    {
+        return database.findPerson( lastName );
+    }
+
+    public ArrayList<AddressBookEntry> findPersonSummaries(
+            String lastName ) throws DataAccessException
+    {
+        return database.findPersonSummaries( lastName );
+    }
+
+    public ArrayList<AddressBookEntry> findPersonSummariesByPrefix(
+            String prefix, int limit ) throws DataAccessException
+    {
+        return database.findPersonSummariesByPrefix( prefix, limit );
+    }
+
+    // people with a phone number, from memory when possible
+    public ArrayList<AddressBookEntry> findByPhone( String phoneNumber )
+            throws DataAccessException
+    {
+        long key = PhoneNumbers.key( phoneNumber );
+
+        if ( key == 0 )
+            return new ArrayList<AddressBookEntry>();
+
+        if ( !isFresh() )
+            return database.findByPhone( phoneNumber );
+
+        if ( phones.find( key ).length == 0 ) {
+            misses.incrementAndGet();
+            return new ArrayList<AddressBookEntry>();
+        }
+
+        CompactEntry[] entries = found.get( key );
+
+        if ( entries != null ) {
+            hits.incrementAndGet();
+            return expand( entries );
+        }
+
+        reads.incrementAndGet();
+        ArrayList<AddressBookEntry> people = database.findByPhone( phoneNumber );
+        entries = new CompactEntry[ people.size() ];
+
+        for ( int i = 0; i < entries.length; i++ )
+            entries[ i ] = CompactEntry.of( people.get( i ) );
+
+        found.put( key, entries );
+        return people;
+    }
+
+    // People with an email address; an address in a domain that
+    // nobody has is answered from memory.
+    public ArrayList<AddressBookEntry> findByEmail( String emailAddress )
+            throws DataAccessException
+    {
+        String domain = EmailAddresses.domain( emailAddress );
+
+        if ( domain == null )
+            return new ArrayList<AddressBookEntry>();
+
+        if ( isFresh() && domains.count( domain ) == 0 ) {
+            emailMisses.incrementAndGet();
+            return new ArrayList<AddressBookEntry>();
+        }
+
+        return database.findByEmail( emailAddress );
+    }
+
+    // people per email domain, from memory while fresh
+    public LinkedHashMap<String, Integer> countByEmailDomain( int limit )
+            throws DataAccessException
+    {
+        if ( !isFresh() )
+            return database.countByEmailDomain( limit );
+
+        return domains.top( limit );
+    }
+
+    // personIDs of the people with an address in domain, in order;
+    // empty until loaded
+    public int[] findPersonIDsByEmailDomain( String domain )
+    {
+        return domains.people( domain.trim().toLowerCase( Locale.ROOT ) );
+    }
+
+    public void cancelSearch()
+    {
+        database.cancelSearch();
+    }
+
+    public boolean loadDetails( AddressBookEntry person )
+            throws DataAccessException
+    {
+        return database.loadDetails( person );
+    }
+
+    public ArrayList<AddressBookEntry> findDetails( AddressBookEntry person )
+            throws DataAccessException
+    {
+        return database.findDetails( person );
+    }
+
+    // update person, then index their number and domain
+    public boolean savePerson( AddressBookEntry person )
+            throws DataAccessException
+    {
+        boolean saved = database.savePerson( person );
+
+        if ( saved )
+            written( person.getPersonID(), person.getPhoneNumber(),
+                    person.getEmailAddress() );
+
+        return saved;
+    }
+
+    // insert person, then index their number and domain
+    public boolean newPerson( AddressBookEntry person )
+            throws DataAccessException
+    {
+        boolean inserted = database.newPerson( person );
+
+        if ( inserted )
+            written( person.getPersonID(), person.getPhoneNumber(),
+                    person.getEmailAddress() );
+
+        return inserted;
+    }
+
+    // delete person, then remove their numbers and domains
+    public boolean deletePerson( AddressBookEntry person )
+            throws DataAccessException
+    {
+        boolean deleted = database.deletePerson( person );
+
+        if ( deleted )
+            written( person.getPersonID(), null, null );
+
+        return deleted;
+    }
+
+    // stop rescanning, waiting for a scan in progress to stop at its
+    // next row, and close the data source
+    public void close()
+    {
+        Thread stopping;
+
+        synchronized ( this ) {
+            closed = true;
+            stopping = loader;
+        }
+
+        if ( stopping != null ) {
+            stopping.interrupt();
+
+            try {
+                stopping.join();
+            }
+            catch ( InterruptedException exception ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        database.close();
+    }
+
+    // Bring the indexes up to date after a write of personID, whose
+    // number and address are now phoneNumber and emailAddress, or
+    // who is deleted if they are null. Cached lookups of their old
+    // and new numbers are dropped. A scan in progress gets the write
+    // too, in place of its own, possibly older, row.
+    private void written( int personID, String phoneNumber,
+            String emailAddress )
+    {
+        synchronized ( writtenWhileLoading ) {
+            for ( long old : phones.keysOf( personID ) )
+                found.remove( old );
+
+            found.remove( PhoneNumbers.key( phoneNumber ) );
+            update( phones, domains, personID, phoneNumber, emailAddress );
+
+            if ( loadingPhones != null ) {
+                writtenWhileLoading.add( personID );
+                update( loadingPhones, loadingDomains, personID,
+                        phoneNumber, emailAddress );
+            }
+        }
+    }
+
+    // record a write of personID in one pair of indexes
+    private static void update( PhoneIndex phones, EmailDomainIndex domains,
+            int personID, String phoneNumber, String emailAddress )
+    {
+        if ( phoneNumber == null )
+            phones.remove( personID );
+        else
+            phones.add( personID, PhoneNumbers.key( phoneNumber ) );
+
+        domains.remove( personID );
+
+        if ( emailAddress != null )
+            domains.add( personID, EmailAddresses.domain( emailAddress ) );
+    }
+
+    private static ArrayList<AddressBookEntry> expand(
+            CompactEntry[] entries )
+    {
+        ArrayList<AddressBookEntry> people =
+                new ArrayList<AddressBookEntry>( entries.length );
+
+        for ( CompactEntry entry : entries )
+            people.add( entry.toEntry() );
+
+        return people;
+    }
+}  // end class ReverseLookupDataAccess
@@ -0,0 +1,89 @@
+// RingBuffer.java
+// Bounded lock-free queue for many producer threads and a single
+// consumer thread. Each slot carries a sequence number telling
+// producers and the consumer whose turn it is to use it, so offer
+// and poll never take a lock: a producer claims a slot with one
+// compare-and-set on the tail counter, and the consumer needs no
+// atomic update at all.
+
+// Java core packages
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class RingBuffer<T> {
+
+    private Object[] items;
+    private AtomicLongArray sequences;
+    private int mask;
+
+    // next position to claim, shared by producers
+    private AtomicLong tail = new AtomicLong();
+
+    // next position to read, used by the consumer only
+    private long head;
+
+    // set up buffer; capacity is rounded up to a power of two
+    public RingBuffer( int capacity )
+    {
+        int size = Integer.highestOneBit( Math.max( 2, capacity ) - 1 ) << 1;
+
+        items = new Object[ size ];
+        sequences = new AtomicLongArray( size );
+        mask = size - 1;
+
+        // slot i is free for the producer of position i
+        for ( int i = 0; i < size; i++ )
+            sequences.set( i, i );
+    }
+
+    // add item if there is room; may be called from any thread
+    public boolean offer( T item )
+    {
+        while ( true ) {
+            long position = tail.get();
+            int index = ( int ) position & mask;
+            long difference = sequences.get( index ) - position;
+
+            // slot still holds an item from one lap ago: full
+            if ( difference < 0 )
+                return false;
+
+            if ( difference == 0 &&
+                    tail.compareAndSet( position, position + 1 ) ) {
+                items[ index ] = item;
+
+                // publish the item to the consumer
+                sequences.lazySet( index, position + 1 );
+                return true;
+            }
+
+            // another producer claimed the slot; try the next one
+        }
+    }
+
+    // Remove the oldest item, or return null if none is ready. Must
+    // only be called from the consumer thread.
+    @SuppressWarnings( "unchecked" )
+    public T poll()
+    {
+        int index = ( int ) head & mask;
+
+        if ( sequences.get( index ) != head + 1 )
+            return null;
+
+        T item = ( T ) items[ index ];
+        items[ index ] = null;
+
+        // free the slot for the producer one lap ahead
+        sequences.lazySet( index, head + mask + 1 );
+        head++;
+
+        return item;
+    }
+
+    // number of slots
+    public int capacity()
+    {
+        return mask + 1;
+    }
+}  // end class RingBuffer
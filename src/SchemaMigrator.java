@@ -0,0 +1,614 @@
+// SchemaMigrator.java
+// Versioned schema changes for the AddressBook database, applied by
+// the application at startup instead of by hand. Each migration has
+// DDL steps and optionally a data backfill; the version reached is
+// recorded in table schemaVersions.
+//
+//   - A DDL step first checks information_schema and is skipped if
+//     its column or index is already there, so databases upgraded by
+//     hand with the scripts in sql/ are recognised. Columns and
+//     indexes are added with ALGORITHM=INPLACE, LOCK=NONE, so reads
+//     and writes continue while InnoDB builds them.
+//   - A backfill fills derived columns or tables for the rows that
+//     already exist, in chunks of personIDs, each chunk one short
+//     transaction that also records how far it got. The number of
+//     chunks per second is limited by a TokenBucket. Backfills run
+//     on a background thread once the DDL is in place, and a stopped
+//     backfill resumes from its last chunk. Rows written meanwhile
+//     are kept up to date by the application itself.
+//
+// Only one process migrates at a time; the others skip migration
+// while a named server lock is held.
+//
+// Usage: java SchemaMigrator status|migrate [database]
+
+// Java core packages
+import java.sql.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SchemaMigrator implements Runnable {
+
+    // one DDL statement and how to tell that it has been applied
+    private static class Step {
+        private String check;
+        private String[] checkArguments;
+        private String ddl;
+
+        // Run ddl unless check, a COUNT(*) query over
+        // information_schema, finds a row. A null check always runs.
+        Step( String check, String[] checkArguments, String ddl )
+        {
+            this.check = check;
+            this.checkArguments = checkArguments;
+            this.ddl = ddl;
+        }
+    }  // end inner class Step
+
+    // fills derived data for the people in a personID range
+    private interface Backfill {
+
+        // update the rows of people with afterID < personID <= lastID
+        // in the current transaction, without committing
+        void run( Connection connection, int afterID, int lastID )
+                throws SQLException;
+    }
+
+    // one schema version
+    private static class Migration {
+        private int version;
+        private String description;
+        private Step[] steps;
+        private Backfill backfill;
+
+        Migration( int version, String description, Step[] steps,
+                Backfill backfill )
+        {
+            this.version = version;
+            this.description = description;
+            this.steps = steps;
+            this.backfill = backfill;
+        }
+    }  // end inner class Migration
+
+    // online DDL: no table copy where avoidable and no lock
+    private static final String ONLINE = ", ALGORITHM=INPLACE, LOCK=NONE";
+
+    private static final String COLUMN_EXISTS =
+            "SELECT COUNT(*) FROM information_schema.COLUMNS " +
+                    "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? " +
+                    "AND COLUMN_NAME = ?";
+
+    private static final String INDEX_EXISTS =
+            "SELECT COUNT(*) FROM information_schema.STATISTICS " +
+                    "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? " +
+                    "AND INDEX_NAME = ?";
+
+    private static final String INDEX_HAS_COLUMN =
+            INDEX_EXISTS + " AND COLUMN_NAME = ?";
+
+    // every migration, in version order; never change one that has
+    // shipped, add a new one instead
+    private static final Migration[] MIGRATIONS = {
+
+        new Migration( 1, "tables and lookup indexes", new Step[] {
+            always( "CREATE TABLE IF NOT EXISTS names ( " +
+                    "personID INT NOT NULL AUTO_INCREMENT, " +
+                    "firstName VARCHAR(30) NOT NULL, " +
+                    "lastName VARCHAR(30) NOT NULL, " +
+                    "PRIMARY KEY ( personID ) ) ENGINE = InnoDB" ),
+            always( "CREATE TABLE IF NOT EXISTS addresses ( " +
+                    "addressID INT NOT NULL AUTO_INCREMENT, " +
+                    "personID INT NOT NULL, " +
+                    "address1 VARCHAR(50) NOT NULL, " +
+                    "address2 VARCHAR(50) NOT NULL, " +
+                    "city VARCHAR(30) NOT NULL, " +
+                    "state VARCHAR(30) NOT NULL, " +
+                    "eircode VARCHAR(8) NOT NULL, " +
+                    "PRIMARY KEY ( addressID ), " +
+                    "INDEX idx_addresses_personID ( personID ), " +
+                    "FOREIGN KEY ( personID ) REFERENCES names ( personID ) " +
+                    ") ENGINE = InnoDB" ),
+            always( "CREATE TABLE IF NOT EXISTS phoneNumbers ( " +
+                    "phoneID INT NOT NULL AUTO_INCREMENT, " +
+                    "personID INT NOT NULL, " +
+                    "phoneNumber VARCHAR(20) NOT NULL, " +
+                    "PRIMARY KEY ( phoneID ), " +
+                    "INDEX idx_phoneNumbers_personID ( personID ), " +
+                    "FOREIGN KEY ( personID ) REFERENCES names ( personID ) " +
+                    ") ENGINE = InnoDB" ),
+            always( "CREATE TABLE IF NOT EXISTS emailAddresses ( " +
+                    "emailID INT NOT NULL AUTO_INCREMENT, " +
+                    "personID INT NOT NULL, " +
+                    "emailAddress VARCHAR(50) NOT NULL, " +
+                    "PRIMARY KEY ( emailID ), " +
+                    "INDEX idx_emailAddresses_personID ( personID ), " +
+                    "FOREIGN KEY ( personID ) REFERENCES names ( personID ) " +
+                    ") ENGINE = InnoDB" ),
+            unlessIndex( "names", "idx_names_lastName",
+                    "ALTER TABLE names ADD INDEX idx_names_lastName " +
+                            "( lastName, firstName )" + ONLINE ),
+            unlessIndex( "addresses", "idx_addresses_personID",
+                    "ALTER TABLE addresses ADD INDEX " +
+                            "idx_addresses_personID ( personID )" + ONLINE ),
+            unlessIndex( "phoneNumbers", "idx_phoneNumbers_personID",
+                    "ALTER TABLE phoneNumbers ADD INDEX " +
+                            "idx_phoneNumbers_personID ( personID )" + ONLINE ),
+            unlessIndex( "emailAddresses", "idx_emailAddresses_personID",
+                    "ALTER TABLE emailAddresses ADD INDEX " +
+                            "idx_emailAddresses_personID ( personID )" +
+                            ONLINE ) }, null ),
+
+        new Migration( 2, "soft delete flag", new Step[] {
+            unlessColumn( "names", "deleted",
+                    "ALTER TABLE names ADD COLUMN deleted TINYINT " +
+                            "NOT NULL DEFAULT 0" + ONLINE ),
+            unlessIndexColumn( "names", "idx_names_lastName", "deleted",
+                    "ALTER TABLE names DROP INDEX idx_names_lastName, " +
+                            "ADD INDEX idx_names_lastName " +
+                            "( lastName, firstName, deleted )" + ONLINE ),
+            unlessIndex( "names", "idx_names_deleted",
+                    "ALTER TABLE names ADD INDEX idx_names_deleted " +
+                            "( deleted, personID )" + ONLINE ) }, null ),
+
+        new Migration( 3, "contact cards", new Step[] {
+            always( "CREATE TABLE IF NOT EXISTS contactCards ( " +
+                    "personID INT NOT NULL, " +
+                    "firstName VARCHAR(30) NOT NULL, " +
+                    "lastName VARCHAR(30) NOT NULL, " +
+                    "addressID INT NOT NULL, " +
+                    "address1 VARCHAR(50) NOT NULL, " +
+                    "address2 VARCHAR(50) NOT NULL, " +
+                    "city VARCHAR(30) NOT NULL, " +
+                    "state VARCHAR(30) NOT NULL, " +
+                    "eircode VARCHAR(8) NOT NULL, " +
+                    "phoneID INT NOT NULL, " +
+                    "phoneNumber VARCHAR(20) NOT NULL, " +
+                    "emailID INT NOT NULL, " +
+                    "emailAddress VARCHAR(50) NOT NULL, " +
+                    "PRIMARY KEY ( personID, addressID, phoneID, emailID ), " +
+                    "INDEX idx_contactCards_lastName ( lastName ) " +
+                    ") ENGINE = InnoDB" ) },
+                new Backfill() {
+                    public void run( Connection connection, int afterID,
+                            int lastID ) throws SQLException
+                    {
+                        update( connection, "DELETE FROM contactCards " +
+                                "WHERE personID > ? AND personID <= ?",
+                                afterID, lastID );
+                        update( connection, "INSERT INTO contactCards ( " +
+                                CloudscapeDataAccess.CARD_COLUMNS + " ) " +
+                                CloudscapeDataAccess.CARD_SOURCE +
+                                " AND names.personID > ? " +
+                                "AND names.personID <= ?", afterID, lastID );
+                    }
+                } ),
+
+        new Migration( 4, "phone number keys", new Step[] {
+            unlessColumn( "phoneNumbers", "phoneKey",
+                    "ALTER TABLE phoneNumbers " +
+                            "ADD COLUMN phoneKey BIGINT NULL, " +
+                            "ADD INDEX idx_phoneNumbers_phoneKey " +
+                            "( phoneKey )" + ONLINE ) },
+                new Backfill() {
+                    public void run( Connection connection, int afterID,
+                            int lastID ) throws SQLException
+                    {
+                        PhoneNumbers.backfill( connection, afterID, lastID );
+                    }
+                } ),
+
+        new Migration( 5, "email address keys", new Step[] {
+            unlessColumn( "emailAddresses", "emailKey",
+                    "ALTER TABLE emailAddresses " +
+                            "ADD COLUMN emailKey VARCHAR(50) NULL, " +
+                            "ADD COLUMN emailDomain VARCHAR(50) NULL, " +
+                            "ADD INDEX idx_emailAddresses_emailKey " +
+                            "( emailKey ), " +
+                            "ADD INDEX idx_emailAddresses_emailDomain " +
+                            "( emailDomain, personID )" + ONLINE ) },
+                new Backfill() {
+                    public void run( Connection connection, int afterID,
+                            int lastID ) throws SQLException
+                    {
+                        EmailAddresses.backfill( connection, afterID, lastID );
+                    }
+                } ) };
+
+    // server lock held while migrating
+    private static final String LOCK = "AddressBook.schemaMigration";
+
+    private String database;
+    private int chunkPeople;
+    private TokenBucket chunks;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    private AtomicLong backfilled =
+            Metrics.counter( "migration.backfilledChunks" );
+
+    // set up migrator backfilling chunks of chunkPeople personIDs at
+    // most chunksPerSecond times per second
+    public SchemaMigrator( String database, int chunkPeople,
+            double chunksPerSecond )
+    {
+        this.database = database;
+        this.chunkPeople = chunkPeople;
+        chunks = new TokenBucket( chunksPerSecond, 1 );
+    }
+
+    // Apply the DDL of every migration not yet applied. Returns false
+    // if another process is migrating; its DDL may still be running.
+    public boolean migrate() throws Exception
+    {
+        Connection connection = CloudscapeDataAccess.openConnection( database );
+
+        try {
+            if ( !lock( connection ) )
+                return false;
+
+            try {
+                createVersionTable( connection );
+
+                for ( Migration migration : MIGRATIONS )
+                    if ( !isRecorded( connection, migration.version ) )
+                        apply( connection, migration );
+
+                return true;
+            }
+            finally {
+                unlock( connection );
+            }
+        }
+        finally {
+            connection.close();
+        }
+    }
+
+    // start running pending backfills on a daemon thread
+    public synchronized void start()
+    {
+        if ( thread != null )
+            return;
+
+        running = true;
+        thread = new Thread( this, "schema-backfill" );
+        thread.setDaemon( true );
+        thread.setPriority( Thread.MIN_PRIORITY );
+        thread.start();
+    }
+
+    // stop after the current chunk; the backfill resumes from there
+    public synchronized void stop()
+    {
+        running = false;
+
+        if ( thread != null ) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    // run the pending backfills until done or stopped
+    public void run()
+    {
+        try {
+            Connection connection =
+                    CloudscapeDataAccess.openConnection( database );
+
+            try {
+                if ( !lock( connection ) )
+                    return;
+
+                try {
+                    for ( Migration migration : MIGRATIONS )
+                        if ( migration.backfill != null && running )
+                            backfill( connection, migration );
+                }
+                finally {
+                    unlock( connection );
+                }
+            }
+            finally {
+                connection.close();
+            }
+        }
+        catch ( InterruptedException exception ) {
+            // stopped; resumes from the last chunk
+        }
+        catch ( Exception exception ) {
+            exception.printStackTrace();
+        }
+    }
+
+    // run a migration's DDL steps and record it, complete unless it
+    // has a backfill still to run
+    private static void apply( Connection connection, Migration migration )
+            throws SQLException
+    {
+        for ( Step step : migration.steps )
+            if ( step.check == null || count( connection, step.check,
+                    step.checkArguments ) == 0 ) {
+                Statement statement = connection.createStatement();
+
+                try {
+                    statement.executeUpdate( step.ddl );
+                }
+                finally {
+                    statement.close();
+                }
+            }
+
+        PreparedStatement record = connection.prepareStatement(
+                "INSERT INTO schemaVersions ( version, description, " +
+                        "backfilledTo, completed ) VALUES ( ?, ?, 0, ? )" );
+
+        try {
+            record.setInt( 1, migration.version );
+            record.setString( 2, migration.description );
+            record.setBoolean( 3, migration.backfill == null );
+            record.executeUpdate();
+            connection.commit();
+        }
+        finally {
+            record.close();
+        }
+    }
+
+    // Backfill a migration in chunks from where it last stopped, up
+    // to the highest personID, which is read again for every chunk.
+    private void backfill( Connection connection, Migration migration )
+            throws SQLException, InterruptedException
+    {
+        PreparedStatement progress = connection.prepareStatement(
+                "SELECT backfilledTo, completed FROM schemaVersions " +
+                        "WHERE version = ?" );
+        PreparedStatement record = connection.prepareStatement(
+                "UPDATE schemaVersions SET backfilledTo = ?, completed = ? " +
+                        "WHERE version = ?" );
+
+        try {
+            progress.setInt( 1, migration.version );
+            ResultSet resultSet = progress.executeQuery();
+
+            if ( !resultSet.next() || resultSet.getBoolean( 2 ) ) {
+                connection.commit();
+                return;
+            }
+
+            int afterID = resultSet.getInt( 1 );
+            connection.commit();
+
+            while ( running ) {
+                long wait = chunks.nanosUntilAvailable();
+
+                if ( wait > 0 ) {
+                    Thread.sleep( wait / 1000000, ( int ) ( wait % 1000000 ) );
+                    continue;
+                }
+
+                if ( !chunks.tryAcquire() )
+                    continue;
+
+                int maxID = maxPersonID( connection );
+                int lastID = ( int ) Math.min( maxID,
+                        ( long ) afterID + chunkPeople );
+                boolean done = lastID >= maxID;
+
+                try {
+                    migration.backfill.run( connection, afterID, lastID );
+                    record.setInt( 1, lastID );
+                    record.setBoolean( 2, done );
+                    record.setInt( 3, migration.version );
+                    record.executeUpdate();
+                    connection.commit();
+                }
+                catch ( SQLException sqlException ) {
+                    connection.rollback();
+                    throw sqlException;
+                }
+
+                backfilled.incrementAndGet();
+                afterID = lastID;
+
+                if ( done )
+                    return;
+            }
+        }
+        finally {
+            progress.close();
+            record.close();
+        }
+    }
+
+    // highest personID in use, 0 if there is nobody
+    static int maxPersonID( Connection connection ) throws SQLException
+    {
+        Statement statement = connection.createStatement();
+
+        try {
+            ResultSet resultSet =
+                    statement.executeQuery( "SELECT MAX(personID) FROM names" );
+            resultSet.next();
+            return resultSet.getInt( 1 );
+        }
+        finally {
+            statement.close();
+        }
+    }
+
+    private static void createVersionTable( Connection connection )
+            throws SQLException
+    {
+        Statement statement = connection.createStatement();
+
+        try {
+            statement.executeUpdate(
+                    "CREATE TABLE IF NOT EXISTS schemaVersions ( " +
+                            "version INT NOT NULL, " +
+                            "description VARCHAR(100) NOT NULL, " +
+                            "backfilledTo INT NOT NULL DEFAULT 0, " +
+                            "completed TINYINT NOT NULL DEFAULT 0, " +
+                            "appliedAt TIMESTAMP NOT NULL " +
+                            "DEFAULT CURRENT_TIMESTAMP, " +
+                            "PRIMARY KEY ( version ) ) ENGINE = InnoDB" );
+        }
+        finally {
+            statement.close();
+        }
+    }
+
+    private static boolean isRecorded( Connection connection, int version )
+            throws SQLException
+    {
+        return count( connection,
+                "SELECT COUNT(*) FROM schemaVersions WHERE version = ?",
+                new String[] { Integer.toString( version ) } ) > 0;
+    }
+
+    // run a COUNT(*) query with string arguments
+    private static int count( Connection connection, String sql,
+            String[] arguments ) throws SQLException
+    {
+        PreparedStatement statement = connection.prepareStatement( sql );
+
+        try {
+            for ( int i = 0; i < arguments.length; i++ )
+                statement.setString( i + 1, arguments[ i ] );
+
+            ResultSet resultSet = statement.executeQuery();
+            resultSet.next();
+            int count = resultSet.getInt( 1 );
+            connection.commit();
+            return count;
+        }
+        finally {
+            statement.close();
+        }
+    }
+
+    // run an update over a personID range
+    private static void update( Connection connection, String sql,
+            int afterID, int lastID ) throws SQLException
+    {
+        PreparedStatement statement = connection.prepareStatement( sql );
+
+        try {
+            statement.setInt( 1, afterID );
+            statement.setInt( 2, lastID );
+            statement.executeUpdate();
+        }
+        finally {
+            statement.close();
+        }
+    }
+
+    // take the migration lock without waiting
+    private static boolean lock( Connection connection ) throws SQLException
+    {
+        return count( connection, "SELECT GET_LOCK( ?, 0 )",
+                new String[] { LOCK } ) == 1;
+    }
+
+    private static void unlock( Connection connection ) throws SQLException
+    {
+        count( connection, "SELECT COALESCE( RELEASE_LOCK( ? ), 0 )",
+                new String[] { LOCK } );
+    }
+
+    private static Step always( String ddl )
+    {
+        return new Step( null, null, ddl );
+    }
+
+    private static Step unlessColumn( String table, String column,
+            String ddl )
+    {
+        return new Step( COLUMN_EXISTS, new String[] { table, column }, ddl );
+    }
+
+    private static Step unlessIndex( String table, String index, String ddl )
+    {
+        return new Step( INDEX_EXISTS, new String[] { table, index }, ddl );
+    }
+
+    private static Step unlessIndexColumn( String table, String index,
+            String column, String ddl )
+    {
+        return new Step( INDEX_HAS_COLUMN,
+                new String[] { table, index, column }, ddl );
+    }
+
+    // print the version and backfill progress of every migration
+    private static void status( Connection connection ) throws SQLException
+    {
+        createVersionTable( connection );
+        int maxID = maxPersonID( connection );
+        PreparedStatement progress = connection.prepareStatement(
+                "SELECT backfilledTo, completed FROM schemaVersions " +
+                        "WHERE version = ?" );
+
+        try {
+            for ( Migration migration : MIGRATIONS ) {
+                progress.setInt( 1, migration.version );
+                ResultSet resultSet = progress.executeQuery();
+                String state;
+
+                if ( !resultSet.next() )
+                    state = "pending";
+                else if ( resultSet.getBoolean( 2 ) )
+                    state = "applied";
+                else
+                    state = "backfilling, personID " + resultSet.getInt( 1 ) +
+                            " of " + maxID;
+
+                System.out.println( migration.version + " " +
+                        migration.description + ": " + state );
+            }
+
+            connection.commit();
+        }
+        finally {
+            progress.close();
+        }
+    }
+
+    public static void main( String args[] ) throws Exception
+    {
+        if ( args.length < 1 || !( args[ 0 ].equals( "status" ) ||
+                args[ 0 ].equals( "migrate" ) ) ) {
+            System.err.println(
+                    "Usage: java SchemaMigrator status|migrate [database]" );
+            System.exit( 1 );
+        }
+
+        String database = args.length > 1 ? args[ 1 ] : "AddressBook";
+
+        if ( args[ 0 ].equals( "status" ) ) {
+            Connection connection =
+                    CloudscapeDataAccess.openConnection( database );
+
+            try {
+                status( connection );
+            }
+            finally {
+                connection.close();
+            }
+
+            return;
+        }
+
+        // a command-line migration backfills in the foreground
+        SchemaMigrator migrator = new SchemaMigrator( database, 1000, 10 );
+
+        if ( !migrator.migrate() ) {
+            System.err.println( "Another process is migrating " + database );
+            System.exit( 1 );
+        }
+
+        migrator.running = true;
+        migrator.run();
+        System.out.println( "Migrated " + database + " to version " +
+                MIGRATIONS[ MIGRATIONS.length - 1 ].version );
+    }
+}  // end class SchemaMigrator
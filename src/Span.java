@@ -0,0 +1,121 @@
+// Span.java
+// One timed step of an operation, such as a UI action, a data access
+// call or a single SQL statement, started by Tracer.start and ended
+// by end(). Spans started while another is open on the same thread
+// become its children, so a trace shows where the time of a whole
+// operation went. Attributes record counts and similar facts about
+// the step; parameter values, which may be personal data, are not
+// recorded. A span belongs to the thread that started it.
+
+// Java core packages
+import java.util.*;
+
+public class Span {
+
+    // span returned while tracing is off; records nothing
+    static final Span NONE = new Span( null, 0, 0, 0, null );
+
+    private String name;
+    private long traceID;
+    private long spanID;
+    private long parentID;
+    private Span parent;
+
+    private long startMillis;
+    private long startNanos;
+    private long durationNanos = -1;
+
+    private Map<String, Object> attributes =
+            new LinkedHashMap<String, Object>();
+
+    Span( String name, long traceID, long spanID, long parentID,
+            Span parent )
+    {
+        this.name = name;
+        this.traceID = traceID;
+        this.spanID = spanID;
+        this.parentID = parentID;
+        this.parent = parent;
+        startMillis = System.currentTimeMillis();
+        startNanos = System.nanoTime();
+    }
+
+    // record a fact about this step; returns this span
+    public Span setAttribute( String key, Object value )
+    {
+        if ( this != NONE )
+            attributes.put( key, value );
+
+        return this;
+    }
+
+    // record that this step failed
+    public Span setError( Throwable error )
+    {
+        return setAttribute( "error", error.getClass().getName() + ": " +
+                error.getMessage() );
+    }
+
+    // End this step and export it. Later calls do nothing, so a span
+    // can be ended early, e.g. before a dialog is shown, and again in
+    // a finally block.
+    public void end()
+    {
+        if ( this == NONE || durationNanos >= 0 )
+            return;
+
+        durationNanos = System.nanoTime() - startNanos;
+        Tracer.ended( this );
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public long getTraceID()
+    {
+        return traceID;
+    }
+
+    public long getSpanID()
+    {
+        return spanID;
+    }
+
+    // ID of the enclosing span, 0 for the root of a trace
+    public long getParentID()
+    {
+        return parentID;
+    }
+
+    Span getParent()
+    {
+        return parent;
+    }
+
+    // wall clock time the step started
+    public long getStartMillis()
+    {
+        return startMillis;
+    }
+
+    // duration, or -1 while the span is open
+    public long getDurationNanos()
+    {
+        return durationNanos;
+    }
+
+    public Map<String, Object> getAttributes()
+    {
+        return Collections.unmodifiableMap( attributes );
+    }
+
+    // 16 hex digits of an ID
+    static String hex( long id )
+    {
+        String digits = Long.toHexString( id );
+
+        return "0000000000000000".substring( digits.length() ) + digits;
+    }
+}  // end class Span
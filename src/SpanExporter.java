@@ -0,0 +1,10 @@
+// SpanExporter.java
+// Receives every finished Span from the Tracer, e.g. to write it to
+// a log or send it to a tracing system. Called on the thread that
+// ended the span, so it should not block for long.
+
+public interface SpanExporter {
+
+    // record a finished span
+    public void export( Span span );
+}  // end interface SpanExporter
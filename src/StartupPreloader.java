@@ -0,0 +1,81 @@
+// StartupPreloader.java
+// Loads the classes the application needs in its first seconds on a
+// background thread, while the event dispatch thread is installing
+// the look and feel and building the window, so that the two
+// overlap instead of each class being read and verified on the
+// critical path when it is first touched. The class names are read
+// from the resource startup/preload.classlist, one per line; classes
+// are loaded but not initialized, so preloading has no side effects.
+//
+// With an AppCDS archive (see startup/appcds.sh) the classes are
+// already mapped from the archive and preloading costs next to
+// nothing.
+
+// Java core packages
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+public class StartupPreloader {
+
+    // no instances; all methods are static
+    private StartupPreloader()
+    {
+    }
+
+    // start loading the listed classes in the background
+    public static void start()
+    {
+        Thread thread = new Thread( "startup-preload" ) {
+            public void run()
+            {
+                preload( "startup/preload.classlist" );
+            }
+        };
+
+        thread.setDaemon( true );
+        thread.setPriority( Thread.MIN_PRIORITY );
+        thread.start();
+    }
+
+    // load every class named in the resource; missing classes, e.g.
+    // of an optional library, are skipped
+    static void preload( String resource )
+    {
+        InputStream in =
+                StartupPreloader.class.getResourceAsStream( resource );
+
+        if ( in == null )
+            return;
+
+        ClassLoader loader = StartupPreloader.class.getClassLoader();
+
+        try {
+            BufferedReader lines = new BufferedReader(
+                    new InputStreamReader( in, StandardCharsets.UTF_8 ) );
+
+            try {
+                String line;
+
+                while ( ( line = lines.readLine() ) != null ) {
+                    line = line.trim();
+
+                    if ( line.isEmpty() || line.startsWith( "#" ) )
+                        continue;
+
+                    try {
+                        Class.forName( line, false, loader );
+                    }
+                    catch ( ClassNotFoundException | LinkageError exception ) {
+                        // not on this class path
+                    }
+                }
+            }
+            finally {
+                lines.close();
+            }
+        }
+        catch ( IOException exception ) {
+            exception.printStackTrace();
+        }
+    }
+}  // end class StartupPreloader
@@ -0,0 +1,81 @@
+// StringDictionary.java
+// Maps the distinct values of a low-cardinality field, such as city
+// or county, to small integer codes, so that entries holding the
+// same value share one String instead of each holding a copy. The
+// shared dictionaries below are used by CompactEntry. A dictionary
+// stops growing at its maximum size; values seen after that are not
+// coded and are stored by the caller instead.
+
+// Java core packages
+import java.util.concurrent.ConcurrentHashMap;
+
+public class StringDictionary {
+
+    // process-wide dictionaries for the low-cardinality fields
+    public static final StringDictionary CITIES =
+            new StringDictionary( 8192 );
+    public static final StringDictionary STATES =
+            new StringDictionary( 1024 );
+    public static final StringDictionary EIRCODE_ROUTING_KEYS =
+            new StringDictionary( 1024 );
+
+    // returned by encode for a value that has no code
+    public static final int NOT_CODED = -1;
+
+    private ConcurrentHashMap<String, Integer> codes =
+            new ConcurrentHashMap<String, Integer>();
+    private volatile String[] values = new String[ 16 ];
+    private int size;
+    private int maxSize;
+
+    // set up dictionary holding at most maxSize values (up to 32767)
+    public StringDictionary( int maxSize )
+    {
+        this.maxSize = Math.min( maxSize, Short.MAX_VALUE );
+    }
+
+    // code of value, adding it if there is room, or NOT_CODED
+    public int encode( String value )
+    {
+        if ( value == null )
+            return NOT_CODED;
+
+        Integer code = codes.get( value );
+
+        if ( code != null )
+            return code;
+
+        synchronized ( this ) {
+            code = codes.get( value );
+
+            if ( code != null )
+                return code;
+
+            if ( size == maxSize )
+                return NOT_CODED;
+
+            if ( size == values.length ) {
+                String[] grown = new String[ Math.min( maxSize,
+                        values.length * 2 ) ];
+                System.arraycopy( values, 0, grown, 0, size );
+                values = grown;
+            }
+
+            values[ size ] = value;
+            codes.put( value, size );
+            return size++;
+        }
+    }
+
+    // value of a code returned by encode
+    public String decode( int code )
+    {
+        return values[ code ];
+    }
+
+    // number of values coded
+    public synchronized int size()
+    {
+        return size;
+    }
+}  // end class StringDictionary
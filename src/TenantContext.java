@@ -0,0 +1,34 @@
+// TenantContext.java
+// Carries the ID of the tenant on whose behalf the current thread
+// is working. A server sets it when it starts handling a request and
+// clears it when done; TenantRoutingDataAccess reads it on every
+// AddressBookDataAccess call to pick the tenant's data source.
+
+public class TenantContext {
+
+    private static final ThreadLocal<String> tenant =
+            new ThreadLocal<String>();
+
+    // no instances; all methods are static
+    private TenantContext()
+    {
+    }
+
+    // set tenant for the current thread
+    public static void set( String tenantID )
+    {
+        tenant.set( tenantID );
+    }
+
+    // get tenant for the current thread, or null if none is set
+    public static String current()
+    {
+        return tenant.get();
+    }
+
+    // clear tenant when the thread's request is finished
+    public static void clear()
+    {
+        tenant.remove();
+    }
+}  // end class TenantContext
@@ -0,0 +1,343 @@
+// TenantRoutingDataAccess.java
+// AddressBookDataAccess for a server that hosts many tenants. The
+// tenant of each call is taken from TenantContext and the call is
+// routed to that tenant's own data source, by default a
+// CloudscapeDataAccess connected to the schema AddressBook_<tenant>.
+// Each tenant also has its own request rate limit and its own
+// bounded cache of search results, so a bulk load or search storm
+// by one tenant uses up only that tenant's connection, tokens and
+// cache space and does not slow down other tenants. Cached results
+// expire after a time to live, which bounds staleness from writes
+// made by other servers; writes through this router clear the
+// tenant's cache.
+
+// Java core packages
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.*;
+import java.util.regex.Pattern;
+
+public class TenantRoutingDataAccess implements AddressBookDataAccess {
+
+    // tenant IDs become part of a schema name, so keep them simple
+    private static final Pattern TENANT_ID =
+            Pattern.compile( "[A-Za-z0-9_]{1,32}" );
+
+    // limits for tenants without limits of their own
+    private double defaultPermitsPerSecond;
+    private int defaultBurst;
+    private int defaultCacheEntries;
+
+    // cached searches expire this long after they are read
+    private long timeToLiveNanos;
+
+    // limits set for particular tenants
+    private ConcurrentMap<String, double[]> tenantLimits =
+            new ConcurrentHashMap<String, double[]>();
+
+    // data source, rate limit and cache of each tenant seen so far
+    private ConcurrentMap<String, Tenant> tenants =
+            new ConcurrentHashMap<String, Tenant>();
+
+    // set up router: 50 requests per second with bursts of 100 and
+    // 500 cached searches per tenant
+    public TenantRoutingDataAccess()
+    {
+        this( 50, 100, 500 );
+    }
+
+    // set up router with default per-tenant limits, caching searches
+    // for setting addressbook.cacheTtlSeconds
+    public TenantRoutingDataAccess( double permitsPerSecond, int burst,
+            int cacheEntries )
+    {
+        this( permitsPerSecond, burst, cacheEntries,
+                DataAccessConfig.current().get(
+                        DataAccessConfig.CACHE_TTL_SECONDS ) * 1000L );
+    }
+
+    // set up router with default per-tenant limits and a time to live
+    // for cached searches
+    public TenantRoutingDataAccess( double permitsPerSecond, int burst,
+            int cacheEntries, long timeToLiveMillis )
+    {
+        defaultPermitsPerSecond = permitsPerSecond;
+        defaultBurst = burst;
+        defaultCacheEntries = cacheEntries;
+        timeToLiveNanos = timeToLiveMillis * 1000000L;
+    }
+
+    // Set limits for one tenant. Takes effect when the tenant is
+    // first used, so call it before routing the tenant's requests.
+    public void setTenantLimits( String tenantID, double permitsPerSecond,
+            int burst, int cacheEntries )
+    {
+        tenantLimits.put( tenantID,
+                new double[] { permitsPerSecond, burst, cacheEntries } );
+    }
+
+    // search results come from the tenant's cache when possible
+    public ArrayList<AddressBookEntry> findPerson( String lastName )
+            throws DataAccessException
+    {
+        return cached( admit(), false, lastName );
+    }
+
+    // search results come from the tenant's cache when possible
+    public ArrayList<AddressBookEntry> findPersonSummaries(
+            String lastName ) throws DataAccessException
+    {
+        return cached( admit(), true, lastName );
+    }
+
+    // prefix searches are not cached
+    public ArrayList<AddressBookEntry> findPersonSummariesByPrefix(
+            String prefix, int limit ) throws DataAccessException
+    {
+        return admit().database.findPersonSummariesByPrefix( prefix,
+                limit );
+    }
+
+    // phone lookups are not cached
+    public ArrayList<AddressBookEntry> findByPhone( String phoneNumber )
+            throws DataAccessException
+    {
+        return admit().database.findByPhone( phoneNumber );
+    }
+
+    // email lookups and domain counts are not cached
+    public ArrayList<AddressBookEntry> findByEmail( String emailAddress )
+            throws DataAccessException
+    {
+        return admit().database.findByEmail( emailAddress );
+    }
+
+    public LinkedHashMap<String, Integer> countByEmailDomain( int limit )
+            throws DataAccessException
+    {
+        return admit().database.countByEmailDomain( limit );
+    }
+
+    // cancel the current tenant's search; takes no rate-limit token
+    public void cancelSearch()
+    {
+        String tenantID = TenantContext.current();
+        Tenant tenant = tenantID == null ? null : tenants.get( tenantID );
+
+        if ( tenant != null )
+            tenant.database.cancelSearch();
+    }
+
+    // details are loaded per person and are not cached
+    public boolean loadDetails( AddressBookEntry person )
+            throws DataAccessException
+    {
+        return admit().database.loadDetails( person );
+    }
+
+    public ArrayList<AddressBookEntry> findDetails( AddressBookEntry person )
+            throws DataAccessException
+    {
+        return admit().database.findDetails( person );
+    }
+
+    // update person and drop the tenant's cached searches
+    public boolean savePerson( AddressBookEntry person )
+            throws DataAccessException
+    {
+        Tenant tenant = admit();
+
+        try {
+            return tenant.database.savePerson( person );
+        }
+        finally {
+            tenant.invalidate();
+        }
+    }
+
+    // insert person and drop the tenant's cached searches
+    public boolean newPerson( AddressBookEntry person )
+            throws DataAccessException
+    {
+        Tenant tenant = admit();
+
+        try {
+            return tenant.database.newPerson( person );
+        }
+        finally {
+            tenant.invalidate();
+        }
+    }
+
+    // delete person and drop the tenant's cached searches
+    public boolean deletePerson( AddressBookEntry person )
+            throws DataAccessException
+    {
+        Tenant tenant = admit();
+
+        try {
+            return tenant.database.deletePerson( person );
+        }
+        finally {
+            tenant.invalidate();
+        }
+    }
+
+    // close every tenant's data source
+    public void close()
+    {
+        for ( Tenant tenant : tenants.values() )
+            tenant.database.close();
+
+        tenants.clear();
+    }
+
+    // Create the data source of a tenant. Override to route tenants
+    // differently, e.g. to separate servers.
+    protected AddressBookDataAccess createDataAccess( String tenantID )
+            throws Exception
+    {
+        return new CloudscapeDataAccess( "AddressBook_" + tenantID );
+    }
+
+    // find the current tenant and take one of its rate-limit tokens
+    private Tenant admit() throws DataAccessException
+    {
+        String tenantID = TenantContext.current();
+
+        if ( tenantID == null || !TENANT_ID.matcher( tenantID ).matches() )
+            throw new DataAccessException(
+                    "Missing or invalid tenant ID: " + tenantID );
+
+        Tenant tenant = tenants.get( tenantID );
+
+        if ( tenant == null )
+            tenant = createTenant( tenantID );
+
+        if ( !tenant.rate.tryAcquire() )
+            throw new DataAccessException( "Tenant " + tenantID +
+                    " exceeded its request rate" );
+
+        return tenant;
+    }
+
+    // connect a tenant the first time it is used
+    private synchronized Tenant createTenant( String tenantID )
+            throws DataAccessException
+    {
+        Tenant tenant = tenants.get( tenantID );
+
+        if ( tenant != null )
+            return tenant;
+
+        double[] limits = tenantLimits.get( tenantID );
+
+        if ( limits == null )
+            limits = new double[] { defaultPermitsPerSecond,
+                    defaultBurst, defaultCacheEntries };
+
+        try {
+            tenant = new Tenant( createDataAccess( tenantID ),
+                    new TokenBucket( limits[ 0 ], limits[ 1 ] ),
+                    new LruCache<String, CachedSearch>(
+                            ( int ) limits[ 2 ] ) );
+        }
+        catch ( DataAccessException exception ) {
+            throw exception;
+        }
+        catch ( Exception exception ) {
+            throw new DataAccessException( exception );
+        }
+
+        tenants.put( tenantID, tenant );
+        return tenant;
+    }
+
+    // Look up a search in the tenant's cache, reading and caching it
+    // on a miss. A result read while a write cleared the cache is not
+    // cached, since it may predate the write.
+    private ArrayList<AddressBookEntry> cached( Tenant tenant,
+            boolean summaries, String lastName ) throws DataAccessException
+    {
+        String key = ( summaries ? "S:" : "F:" ) +
+                TieredCacheDataAccess.searchKey( lastName );
+        CachedSearch cached = tenant.cache.get( key );
+
+        if ( cached != null && cached.expires - System.nanoTime() > 0 )
+            return copy( cached.people );
+
+        long version = tenant.version();
+        long expires = System.nanoTime() + timeToLiveNanos;
+        ArrayList<AddressBookEntry> people = summaries ?
+                tenant.database.findPersonSummaries( lastName ) :
+                tenant.database.findPerson( lastName );
+
+        tenant.put( key, new CachedSearch( people, expires ), version );
+        return copy( people );
+    }
+
+    // copy cached entries so callers cannot change the cache
+    private static ArrayList<AddressBookEntry> copy(
+            ArrayList<AddressBookEntry> people )
+    {
+        ArrayList<AddressBookEntry> copies =
+                new ArrayList<AddressBookEntry>( people.size() );
+
+        for ( AddressBookEntry person : people )
+            copies.add( new AddressBookEntry( person ) );
+
+        return copies;
+    }
+
+    // resources that belong to one tenant
+    private static class Tenant {
+        AddressBookDataAccess database;
+        TokenBucket rate;
+        LruCache<String, CachedSearch> cache;
+
+        // incremented by every write
+        private long version;
+
+        Tenant( AddressBookDataAccess database, TokenBucket rate,
+                LruCache<String, CachedSearch> cache )
+        {
+            this.database = database;
+            this.rate = rate;
+            this.cache = cache;
+        }
+
+        // version to take before reading from the database
+        synchronized long version()
+        {
+            return version;
+        }
+
+        // cache a result read at readVersion unless a write has
+        // invalidated the cache since
+        synchronized void put( String key, CachedSearch search,
+                long readVersion )
+        {
+            if ( readVersion == version )
+                cache.put( key, search );
+        }
+
+        // drop every cached search after a write
+        synchronized void invalidate()
+        {
+            version++;
+            cache.clear();
+        }
+    }  // end inner class Tenant
+
+    // cached search result and when it expires
+    private static class CachedSearch {
+        ArrayList<AddressBookEntry> people;
+        long expires;
+
+        CachedSearch( ArrayList<AddressBookEntry> people, long expires )
+        {
+            this.people = people;
+            this.expires = expires;
+        }
+    }  // end inner class CachedSearch
+}  // end class TenantRoutingDataAccess
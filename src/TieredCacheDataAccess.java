@@ -0,0 +1,300 @@
+// TieredCacheDataAccess.java
+// Two-tier cache of search results in front of an
+// AddressBookDataAccess. The first tier is a small on-heap near
+// cache belonging to this client, held as CompactEntries to keep the
+// tier small. The second tier is an OffHeapEntryCache shared by every
+// client of the same database in this process. Writes made through
+// any client invalidate the affected results in the shared tier and
+// in every client's near cache.
+//
+// Writes made by other processes invalidate nothing; staleness from
+// them is bounded by a time to live counted from the database read.
+// Shared entries expire after it, and a near entry copied from a
+// shared one expires when that does, so no result is served more
+// than one time to live after it was read.
+//
+// Results are cached under the last name as the database compares
+// it: MySQL's default collations ignore case, accents and trailing
+// spaces, so "Kelly", "kelly" and "Kelly " share an entry, and a
+// write for any of them invalidates it.
+
+// Java core packages
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TieredCacheDataAccess implements AddressBookDataAccess,
+        OffHeapEntryCache.InvalidationListener {
+
+    // data source being cached
+    private AddressBookDataAccess database;
+
+    // second tier, shared with other clients
+    private OffHeapEntryCache shared;
+
+    // first tier, private to this client
+    private LruCache<String, NearEntry> near;
+    private long timeToLiveNanos;
+
+    private AtomicLong nearHits = Metrics.counter( "cache.near.hits" );
+    private AtomicLong nearMisses = Metrics.counter( "cache.near.misses" );
+
+    // set up cache with the process-wide shared tier, 256 near
+    // entries and the time to live of setting addressbook.cacheTtlSeconds
+    public TieredCacheDataAccess( AddressBookDataAccess database )
+    {
+        this( database, OffHeapEntryCache.shared(), 256,
+                DataAccessConfig.current().get(
+                        DataAccessConfig.CACHE_TTL_SECONDS ) * 1000L );
+    }
+
+    // set up cache with explicit tiers; clients of different
+    // databases must not share an OffHeapEntryCache
+    public TieredCacheDataAccess( AddressBookDataAccess database,
+            OffHeapEntryCache shared, int nearEntries,
+            long timeToLiveMillis )
+    {
+        this.database = database;
+        this.shared = shared;
+        near = new LruCache<String, NearEntry>( nearEntries );
+        timeToLiveNanos = timeToLiveMillis * 1000000L;
+
+        shared.addListener( this );
+    }
+
+    // locate person through the cache tiers
+    public ArrayList<AddressBookEntry> findPerson( String lastName )
+            throws DataAccessException
+    {
+        return cached( "F:" + searchKey( lastName ), false, lastName );
+    }
+
+    // locate summaries through the cache tiers
+    public ArrayList<AddressBookEntry> findPersonSummaries(
+            String lastName ) throws DataAccessException
+    {
+        return cached( "S:" + searchKey( lastName ), true, lastName );
+    }
+
+    // Prefix searches are not cached: a new name would have to
+    // invalidate every prefix of it. LiveSearchPanel keeps its own
+    // short-lived cache of these results.
+    public ArrayList<AddressBookEntry> findPersonSummariesByPrefix(
+            String prefix, int limit ) throws DataAccessException
+    {
+        return database.findPersonSummariesByPrefix( prefix, limit );
+    }
+
+    // Phone lookups are not cached: they are single index lookups,
+    // and a changed number would have to be found in every entry.
+    public ArrayList<AddressBookEntry> findByPhone( String phoneNumber )
+            throws DataAccessException
+    {
+        return database.findByPhone( phoneNumber );
+    }
+
+    // Email lookups and domain counts are not cached either; both
+    // are index reads, and ReverseLookupDataAccess answers them from
+    // memory where that matters.
+    public ArrayList<AddressBookEntry> findByEmail( String emailAddress )
+            throws DataAccessException
+    {
+        return database.findByEmail( emailAddress );
+    }
+
+    public LinkedHashMap<String, Integer> countByEmailDomain( int limit )
+            throws DataAccessException
+    {
+        return database.countByEmailDomain( limit );
+    }
+
+    public void cancelSearch()
+    {
+        database.cancelSearch();
+    }
+
+    // details are loaded per person and are not cached
+    public boolean loadDetails( AddressBookEntry person )
+            throws DataAccessException
+    {
+        return database.loadDetails( person );
+    }
+
+    public ArrayList<AddressBookEntry> findDetails( AddressBookEntry person )
+            throws DataAccessException
+    {
+        return database.findDetails( person );
+    }
+
+    // update person, then invalidate results containing them
+    public boolean savePerson( AddressBookEntry person )
+            throws DataAccessException
+    {
+        try {
+            return database.savePerson( person );
+        }
+        finally {
+            invalidate( person );
+        }
+    }
+
+    // insert person, then invalidate results for their last name
+    public boolean newPerson( AddressBookEntry person )
+            throws DataAccessException
+    {
+        try {
+            return database.newPerson( person );
+        }
+        finally {
+            invalidate( person );
+        }
+    }
+
+    // delete person, then invalidate results containing them
+    public boolean deletePerson( AddressBookEntry person )
+            throws DataAccessException
+    {
+        try {
+            return database.deletePerson( person );
+        }
+        finally {
+            invalidate( person );
+        }
+    }
+
+    // Drop near entries invalidated through any client: the keys
+    // named, and every entry containing the person written. The near
+    // tier is small, so it is searched rather than indexed by person.
+    public void invalidated( int personID, Collection<String> keys )
+    {
+        for ( String key : keys )
+            near.remove( key );
+
+        if ( personID == 0 )
+            return;
+
+        for ( Map.Entry<String, NearEntry> entry :
+                near.snapshot().entrySet() )
+            if ( entry.getValue().contains( personID ) )
+                near.remove( entry.getKey() );
+    }
+
+    // stop listening and close data source
+    public void close()
+    {
+        shared.removeListener( this );
+        near.clear();
+        database.close();
+    }
+
+    // look up a search in the near tier, then the shared tier, then
+    // the database, filling the tiers on the way back
+    private ArrayList<AddressBookEntry> cached( String key,
+            boolean summaries, String lastName ) throws DataAccessException
+    {
+        NearEntry entry = near.get( key );
+
+        if ( entry != null && entry.expires - System.nanoTime() > 0 ) {
+            nearHits.incrementAndGet();
+            return expand( entry.people );
+        }
+
+        nearMisses.incrementAndGet();
+
+        long version = shared.version();
+        long expires = System.nanoTime() + timeToLiveNanos;
+        ArrayList<AddressBookEntry> people = shared.get( key );
+
+        if ( people == null ) {
+            people = summaries ? database.findPersonSummaries( lastName ) :
+                    database.findPerson( lastName );
+            shared.put( key, people, version );
+        }
+
+        // a copy of a shared entry expires with it
+        else
+            expires = Math.min( expires, shared.expiresAt( key ) );
+
+        // do not keep a result that a write has already invalidated
+        if ( shared.version() == version &&
+                expires - System.nanoTime() > 0 ) {
+            near.put( key, new NearEntry( compact( people ), expires ) );
+        }
+
+        return people;
+    }
+
+    // invalidate every result containing the person or their name
+    private void invalidate( AddressBookEntry person )
+    {
+        String lastName = searchKey( person.getLastName() );
+
+        shared.invalidate( person.getPersonID(),
+                Arrays.asList( "F:" + lastName, "S:" + lastName ) );
+    }
+
+    // A last name as MySQL's default case- and accent-insensitive
+    // collations compare it: trailing spaces dropped, accents
+    // removed and in lower case.
+    static String searchKey( String lastName )
+    {
+        if ( lastName == null )
+            return "";
+
+        String key = Normalizer.normalize( lastName, Normalizer.Form.NFD )
+                .replaceAll( "\\p{M}", "" ).toLowerCase( Locale.ROOT );
+        int end = key.length();
+
+        while ( end > 0 && key.charAt( end - 1 ) == ' ' )
+            end--;
+
+        return key.substring( 0, end );
+    }
+
+    // compact form of a result for the near tier
+    private static CompactEntry[] compact( List<AddressBookEntry> people )
+    {
+        CompactEntry[] compact = new CompactEntry[ people.size() ];
+
+        for ( int i = 0; i < compact.length; i++ )
+            compact[ i ] = CompactEntry.of( people.get( i ) );
+
+        return compact;
+    }
+
+    // new entries from a near-cached result, so callers cannot
+    // change cached ones
+    private static ArrayList<AddressBookEntry> expand(
+            CompactEntry[] people )
+    {
+        ArrayList<AddressBookEntry> entries =
+                new ArrayList<AddressBookEntry>( people.length );
+
+        for ( CompactEntry person : people )
+            entries.add( person.toEntry() );
+
+        return entries;
+    }
+
+    // near-cached result and when it expires
+    private static class NearEntry {
+        CompactEntry[] people;
+        long expires;
+
+        NearEntry( CompactEntry[] people, long expires )
+        {
+            this.people = people;
+            this.expires = expires;
+        }
+
+        // does the result contain personID?
+        boolean contains( int personID )
+        {
+            for ( CompactEntry person : people )
+                if ( person.getPersonID() == personID )
+                    return true;
+
+            return false;
+        }
+    }  // end inner class NearEntry
+}  // end class TieredCacheDataAccess
@@ -0,0 +1,62 @@
+// TokenBucket.java
+// Token bucket rate limiter. Tokens are added continuously at a
+// fixed rate up to a maximum burst; each permitted call takes one.
+
+public class TokenBucket {
+
+    private double permitsPerSecond;
+    private double burst;
+    private double tokens;
+    private long lastRefill;
+
+    // set up bucket that starts full
+    public TokenBucket( double permitsPerSecond, double burst )
+    {
+        if ( permitsPerSecond <= 0 || burst < 1 )
+            throw new IllegalArgumentException(
+                    "permitsPerSecond must be > 0 and burst >= 1" );
+
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.tokens = burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    // take a token if one is available; never blocks
+    public synchronized boolean tryAcquire()
+    {
+        refill();
+
+        if ( tokens < 1 )
+            return false;
+
+        tokens -= 1;
+        return true;
+    }
+
+    // nanoseconds until a token will be available (0 if one is now)
+    public synchronized long nanosUntilAvailable()
+    {
+        refill();
+
+        if ( tokens >= 1 )
+            return 0;
+
+        return ( long ) ( ( 1 - tokens ) / permitsPerSecond * 1e9 );
+    }
+
+    // get configured rate
+    public double getPermitsPerSecond()
+    {
+        return permitsPerSecond;
+    }
+
+    // add tokens earned since the last refill
+    private void refill()
+    {
+        long now = System.nanoTime();
+        tokens = Math.min( burst,
+                tokens + ( now - lastRefill ) / 1e9 * permitsPerSecond );
+        lastRefill = now;
+    }
+}  // end class TokenBucket
@@ -0,0 +1,86 @@
+// Tracer.java
+// Process-wide entry point for tracing. Tracer.start opens a span as
+// a child of the span open on the current thread, or as the root of
+// a new trace; ending it makes its parent current again and passes
+// it to the exporter. With no exporter set, tracing is off and start
+// returns a shared span that records nothing, so instrumented code
+// costs a field read.
+//
+//     Span span = Tracer.start( "dataAccess.savePerson" );
+//
+//     try {
+//         ...
+//     }
+//     finally {
+//         span.end();
+//     }
+
+// Java core packages
+import java.util.concurrent.ThreadLocalRandom;
+
+public class Tracer {
+
+    // where finished spans go; null while tracing is off
+    private static volatile SpanExporter exporter;
+
+    // innermost open span of each thread
+    private static final ThreadLocal<Span> current = new ThreadLocal<Span>();
+
+    // no instances; all methods are static
+    private Tracer()
+    {
+    }
+
+    // start exporting spans to exporter, or stop if it is null
+    public static void setExporter( SpanExporter exporter )
+    {
+        Tracer.exporter = exporter;
+    }
+
+    public static boolean isEnabled()
+    {
+        return exporter != null;
+    }
+
+    // open a span as a child of the current thread's open span
+    public static Span start( String name )
+    {
+        if ( exporter == null )
+            return Span.NONE;
+
+        Span parent = current.get();
+        long spanID = ThreadLocalRandom.current().nextLong();
+        Span span = parent == null ?
+                new Span( name, ThreadLocalRandom.current().nextLong(),
+                        spanID, 0, null ) :
+                new Span( name, parent.getTraceID(), spanID,
+                        parent.getSpanID(), parent );
+
+        current.set( span );
+        return span;
+    }
+
+    // make the span's parent current again and export the span
+    static void ended( Span span )
+    {
+        if ( current.get() == span ) {
+            if ( span.getParent() == null )
+                current.remove();
+            else
+                current.set( span.getParent() );
+        }
+
+        SpanExporter to = exporter;
+
+        if ( to != null ) {
+            try {
+                to.export( span );
+            }
+
+            // a failing exporter must not fail the traced operation
+            catch ( RuntimeException exception ) {
+                exception.printStackTrace();
+            }
+        }
+    }
+}  // end class Tracer
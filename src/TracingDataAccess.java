@@ -0,0 +1,210 @@
+// TracingDataAccess.java
+// AddressBookDataAccess decorator that opens a span for every call,
+// named "dataAccess." and the method, e.g. dataAccess.savePerson.
+// Spans of the statements the call runs, from QueryDiagnostics,
+// become its children, and a UI action's span its parent, so a trace
+// shows how the time of, say, a save splits between the EDT, each
+// UPDATE and the commit. The span records the number of entries or
+// domains returned, or the boolean result, and the failure if any;
+// it does not record search terms or entry contents. Installed
+// outermost so that its span includes retries and caching.
+
+// Java core packages
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class TracingDataAccess implements AddressBookDataAccess {
+
+    // data source being traced
+    private AddressBookDataAccess database;
+
+    // trace calls to database
+    public TracingDataAccess( AddressBookDataAccess database )
+    {
+        this.database = database;
+    }
+
+    public ArrayList<AddressBookEntry> findPerson( final String lastName )
+            throws DataAccessException
+    {
+        return call( "findPerson", new Call<ArrayList<AddressBookEntry>>() {
+            public ArrayList<AddressBookEntry> run()
+                    throws DataAccessException
+            {
+                return database.findPerson( lastName );
+            }
+        } );
+    }
+
+    public ArrayList<AddressBookEntry> findPersonSummaries(
+            final String lastName ) throws DataAccessException
+    {
+        return call( "findPersonSummaries",
+                new Call<ArrayList<AddressBookEntry>>() {
+                    public ArrayList<AddressBookEntry> run()
+                            throws DataAccessException
+                    {
+                        return database.findPersonSummaries( lastName );
+                    }
+                } );
+    }
+
+    public ArrayList<AddressBookEntry> findPersonSummariesByPrefix(
+            final String prefix, final int limit ) throws DataAccessException
+    {
+        return call( "findPersonSummariesByPrefix",
+                new Call<ArrayList<AddressBookEntry>>() {
+                    public ArrayList<AddressBookEntry> run()
+                            throws DataAccessException
+                    {
+                        return database.findPersonSummariesByPrefix(
+                                prefix, limit );
+                    }
+                } );
+    }
+
+    public ArrayList<AddressBookEntry> findByPhone( final String phoneNumber )
+            throws DataAccessException
+    {
+        return call( "findByPhone", new Call<ArrayList<AddressBookEntry>>() {
+            public ArrayList<AddressBookEntry> run()
+                    throws DataAccessException
+            {
+                return database.findByPhone( phoneNumber );
+            }
+        } );
+    }
+
+    public ArrayList<AddressBookEntry> findByEmail( final String emailAddress )
+            throws DataAccessException
+    {
+        return call( "findByEmail", new Call<ArrayList<AddressBookEntry>>() {
+            public ArrayList<AddressBookEntry> run()
+                    throws DataAccessException
+            {
+                return database.findByEmail( emailAddress );
+            }
+        } );
+    }
+
+    public LinkedHashMap<String, Integer> countByEmailDomain( final int limit )
+            throws DataAccessException
+    {
+        return call( "countByEmailDomain",
+                new Call<LinkedHashMap<String, Integer>>() {
+                    public LinkedHashMap<String, Integer> run()
+                            throws DataAccessException
+                    {
+                        return database.countByEmailDomain( limit );
+                    }
+                } );
+    }
+
+    // cancelling is a signal, not a step of an operation
+    public void cancelSearch()
+    {
+        database.cancelSearch();
+    }
+
+    public boolean loadDetails( final AddressBookEntry person )
+            throws DataAccessException
+    {
+        return call( "loadDetails", new Call<Boolean>() {
+            public Boolean run() throws DataAccessException
+            {
+                return database.loadDetails( person );
+            }
+        } );
+    }
+
+    public ArrayList<AddressBookEntry> findDetails(
+            final AddressBookEntry person ) throws DataAccessException
+    {
+        return call( "findDetails", new Call<ArrayList<AddressBookEntry>>() {
+            public ArrayList<AddressBookEntry> run()
+                    throws DataAccessException
+            {
+                return database.findDetails( person );
+            }
+        } );
+    }
+
+    public boolean savePerson( final AddressBookEntry person )
+            throws DataAccessException
+    {
+        return call( "savePerson", new Call<Boolean>() {
+            public Boolean run() throws DataAccessException
+            {
+                return database.savePerson( person );
+            }
+        } );
+    }
+
+    public boolean newPerson( final AddressBookEntry person )
+            throws DataAccessException
+    {
+        return call( "newPerson", new Call<Boolean>() {
+            public Boolean run() throws DataAccessException
+            {
+                return database.newPerson( person );
+            }
+        } );
+    }
+
+    public boolean deletePerson( final AddressBookEntry person )
+            throws DataAccessException
+    {
+        return call( "deletePerson", new Call<Boolean>() {
+            public Boolean run() throws DataAccessException
+            {
+                return database.deletePerson( person );
+            }
+        } );
+    }
+
+    public void close()
+    {
+        database.close();
+    }
+
+    // run call in a span named after method, recording its result
+    private <T> T call( String method, Call<T> call )
+            throws DataAccessException
+    {
+        if ( !Tracer.isEnabled() )
+            return call.run();
+
+        Span span = Tracer.start( "dataAccess." + method );
+
+        try {
+            T result = call.run();
+
+            if ( result instanceof Collection )
+                span.setAttribute( "rows", ( ( Collection<?> ) result ).size() );
+            else if ( result instanceof Map )
+                span.setAttribute( "rows", ( ( Map<?, ?> ) result ).size() );
+            else
+                span.setAttribute( "result", result );
+
+            return result;
+        }
+        catch ( DataAccessException exception ) {
+            span.setError( exception );
+            throw exception;
+        }
+        catch ( RuntimeException exception ) {
+            span.setError( exception );
+            throw exception;
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    // one call to the traced data source
+    private interface Call<T> {
+        T run() throws DataAccessException;
+    }
+}  // end class TracingDataAccess
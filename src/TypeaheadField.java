@@ -0,0 +1,157 @@
+// TypeaheadField.java
+// Text field that shows suggestions from a TypeaheadService in a
+// drop-down list as the user types. Up and Down move through the
+// suggestions, Enter or a mouse click copies the selected one into
+// the field and Escape hides the list.
+
+// Java core packages
+import java.awt.*;
+import java.awt.event.*;
+import java.util.List;
+
+// Java extension packages
+import javax.swing.*;
+import javax.swing.event.*;
+
+public class TypeaheadField extends JTextField {
+
+    // suggestions shown at once
+    private static final int VISIBLE_SUGGESTIONS = 8;
+
+    private TypeaheadService typeahead;
+    private int field;
+
+    private JPopupMenu popup = new JPopupMenu();
+    private DefaultListModel<String> suggestions =
+            new DefaultListModel<String>();
+    private JList<String> list = new JList<String>( suggestions );
+
+    // set text field to suggest values of one TypeaheadService field
+    public TypeaheadField( TypeaheadService service, int completedField,
+            int columns )
+    {
+        super( columns );
+        typeahead = service;
+        field = completedField;
+
+        list.setFocusable( false );
+        list.setSelectionMode( ListSelectionModel.SINGLE_SELECTION );
+        popup.setFocusable( false );
+        popup.add( new JScrollPane( list ) );
+
+        // look up suggestions after each change to the text
+        getDocument().addDocumentListener(
+                new DocumentListener() {
+                    public void insertUpdate( DocumentEvent event )
+                    {
+                        updateSuggestions();
+                    }
+
+                    public void removeUpdate( DocumentEvent event )
+                    {
+                        updateSuggestions();
+                    }
+
+                    public void changedUpdate( DocumentEvent event )
+                    {
+                    }
+                }
+        );
+
+        // move through and accept suggestions from the keyboard
+        addKeyListener(
+                new KeyAdapter() {
+                    public void keyPressed( KeyEvent event )
+                    {
+                        if ( !popup.isVisible() )
+                            return;
+
+                        int selected = list.getSelectedIndex();
+
+                        switch ( event.getKeyCode() ) {
+                            case KeyEvent.VK_DOWN:
+                                select( Math.min( selected + 1,
+                                        suggestions.size() - 1 ) );
+                                event.consume();
+                                break;
+
+                            case KeyEvent.VK_UP:
+                                select( Math.max( selected - 1, 0 ) );
+                                event.consume();
+                                break;
+
+                            case KeyEvent.VK_ENTER:
+                                if ( selected >= 0 ) {
+                                    accept( list.getSelectedValue() );
+                                    event.consume();
+                                }
+                                break;
+
+                            case KeyEvent.VK_ESCAPE:
+                                popup.setVisible( false );
+                                event.consume();
+                                break;
+                        }
+                    }
+                }
+        );
+
+        // accept a suggestion with the mouse
+        list.addMouseListener(
+                new MouseAdapter() {
+                    public void mouseClicked( MouseEvent event )
+                    {
+                        int index = list.locationToIndex( event.getPoint() );
+
+                        if ( index >= 0 )
+                            accept( suggestions.get( index ) );
+                    }
+                }
+        );
+    }  // end TypeaheadField constructor
+
+    // show suggestions for the current text, or hide the list
+    private void updateSuggestions()
+    {
+        // the document may not be changed while it notifies
+        // listeners, so accept() and the popup run afterwards
+        SwingUtilities.invokeLater(
+                new Runnable() {
+                    public void run()
+                    {
+                        List<String> terms = typeahead.complete( field,
+                                getText().trim(), VISIBLE_SUGGESTIONS );
+
+                        suggestions.clear();
+
+                        for ( String term : terms )
+                            if ( !term.equals( getText() ) )
+                                suggestions.addElement( term );
+
+                        if ( suggestions.isEmpty() || !isShowing() ) {
+                            popup.setVisible( false );
+                            return;
+                        }
+
+                        list.setVisibleRowCount( suggestions.size() );
+                        list.clearSelection();
+                        popup.pack();
+                        popup.show( TypeaheadField.this, 0, getHeight() );
+                        requestFocusInWindow();
+                    }
+                }
+        );
+    }
+
+    private void select( int index )
+    {
+        list.setSelectedIndex( index );
+        list.ensureIndexIsVisible( index );
+    }
+
+    private void accept( String term )
+    {
+        popup.setVisible( false );
+        setText( term );
+    }
+}  // end class TypeaheadField
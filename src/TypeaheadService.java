@@ -0,0 +1,154 @@
+// TypeaheadService.java
+// As-you-type suggestions for last names, first names and email
+// addresses. The indexes are filled from one bulk scan of the
+// database, run on a background thread at startup, and are then
+// kept current by passing each saved or deleted entry to
+// entrySaved or entryDeleted. Lookups only touch memory, so they
+// can be made on the event dispatch thread for every keystroke.
+
+// Java core packages
+import java.util.*;
+
+public class TypeaheadService {
+
+    // fields that can be completed
+    public static final int LAST_NAME = 0, FIRST_NAME = 1, EMAIL = 2;
+
+    // terms cached per prefix in each index
+    private static final int TOP_TERMS = 10;
+
+    private CompletionIndex[] indexes = {
+            new CompletionIndex( TOP_TERMS ),
+            new CompletionIndex( TOP_TERMS ),
+            new CompletionIndex( TOP_TERMS ) };
+
+    // terms currently indexed for each person, so an update can
+    // remove the old terms
+    private Map<Integer, String[]> termsByPerson =
+            new HashMap<Integer, String[]>();
+
+    private volatile boolean loaded;
+
+    // Start loading the indexes from a database on a background
+    // thread. A separate connection is used so that the scan does
+    // not hold up the application's own queries. Writes reported
+    // while loading are applied on top of the scan.
+    public void loadInBackground( final String database )
+    {
+        Thread loader = new Thread( "typeahead-loader" ) {
+            public void run()
+            {
+                try {
+                    CloudscapeDataAccess scan =
+                            new CloudscapeDataAccess( database );
+
+                    try {
+                        load( scan.findAllPersons() );
+                    }
+                    finally {
+                        scan.close();
+                    }
+                }
+
+                // suggestions are optional; searching still works
+                catch ( Exception exception ) {
+                    exception.printStackTrace();
+                }
+            }
+        };
+
+        loader.setDaemon( true );
+        loader.setPriority( Thread.MIN_PRIORITY );
+        loader.start();
+    }
+
+    // Index people read by a bulk scan. People already indexed
+    // through entrySaved are newer than the scan and are kept.
+    public void load( List<AddressBookEntry> people )
+    {
+        synchronized ( termsByPerson ) {
+            for ( AddressBookEntry person : people )
+                if ( !termsByPerson.containsKey( person.getPersonID() ) )
+                    index( person.getPersonID(), terms( person ) );
+        }
+
+        // build every node's cached suggestions now rather than on
+        // the first keystroke
+        for ( CompletionIndex index : indexes )
+            index.complete( "", 1 );
+
+        loaded = true;
+    }
+
+    // true once the startup scan has been indexed
+    public boolean isLoaded()
+    {
+        return loaded;
+    }
+
+    // index a person that was inserted or updated
+    public void entrySaved( AddressBookEntry person )
+    {
+        if ( person.getPersonID() == 0 )
+            return;
+
+        synchronized ( termsByPerson ) {
+            unindex( person.getPersonID() );
+            index( person.getPersonID(), terms( person ) );
+        }
+    }
+
+    // Remove a deleted person from the indexes. While the startup
+    // scan is running the person is remembered with no terms, so
+    // that the scan, which may have read them before the delete,
+    // does not index them again.
+    public void entryDeleted( int personID )
+    {
+        synchronized ( termsByPerson ) {
+            unindex( personID );
+
+            if ( !loaded )
+                termsByPerson.put( personID, new String[ 0 ] );
+        }
+    }
+
+    // up to limit suggestions for a prefix of one of the fields
+    public List<String> complete( int field, String prefix, int limit )
+    {
+        if ( prefix == null || prefix.isEmpty() )
+            return new ArrayList<String>();
+
+        return indexes[ field ].complete( prefix,
+                Math.min( limit, TOP_TERMS ) );
+    }
+
+    private void index( int personID, String[] terms )
+    {
+        for ( int field = 0; field < terms.length; field++ )
+            indexes[ field ].add( terms[ field ] );
+
+        termsByPerson.put( personID, terms );
+    }
+
+    private void unindex( int personID )
+    {
+        String[] terms = termsByPerson.remove( personID );
+
+        if ( terms != null )
+            for ( int field = 0; field < terms.length; field++ )
+                indexes[ field ].remove( terms[ field ] );
+    }
+
+    // indexed terms of a person, by field
+    private static String[] terms( AddressBookEntry person )
+    {
+        return new String[] { trim( person.getLastName() ),
+                trim( person.getFirstName() ),
+                trim( person.getEmailAddress() ) };
+    }
+
+    private static String trim( String value )
+    {
+        return value == null ? null : value.trim();
+    }
+}  // end class TypeaheadService
@@ -0,0 +1,38 @@
+-- contact_cards.sql
+-- Adds the contactCards table from schema.sql to an existing
+-- AddressBook database and fills it. Run once, while nothing is
+-- writing, before starting the application with
+-- -Daddressbook.contactCards=true. Afterwards check the cards with
+-- "java ContactCardTool verify".
+
+USE AddressBook;
+
+CREATE TABLE IF NOT EXISTS contactCards (
+    personID     INT          NOT NULL,
+    firstName    VARCHAR(30)  NOT NULL,
+    lastName     VARCHAR(30)  NOT NULL,
+    addressID    INT          NOT NULL,
+    address1     VARCHAR(50)  NOT NULL,
+    address2     VARCHAR(50)  NOT NULL,
+    city         VARCHAR(30)  NOT NULL,
+    state        VARCHAR(30)  NOT NULL,
+    eircode      VARCHAR(8)   NOT NULL,
+    phoneID      INT          NOT NULL,
+    phoneNumber  VARCHAR(20)  NOT NULL,
+    emailID      INT          NOT NULL,
+    emailAddress VARCHAR(50)  NOT NULL,
+    PRIMARY KEY ( personID, addressID, phoneID, emailID ),
+    INDEX idx_contactCards_lastName ( lastName )
+) ENGINE = InnoDB;
+
+INSERT INTO contactCards ( personID, firstName, lastName, addressID,
+        address1, address2, city, state, eircode, phoneID, phoneNumber,
+        emailID, emailAddress )
+    SELECT names.personID, firstName, lastName, addressID, address1,
+            address2, city, state, eircode, phoneID, phoneNumber,
+            emailID, emailAddress
+    FROM names, addresses, phoneNumbers, emailAddresses
+    WHERE names.deleted = 0 AND
+          names.personID = addresses.personID AND
+          names.personID = phoneNumbers.personID AND
+          names.personID = emailAddresses.personID;
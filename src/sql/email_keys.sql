@@ -0,0 +1,15 @@
+-- email_keys.sql
+-- Adds the emailKey and emailDomain columns from schema.sql, used by
+-- findByEmail and countByEmailDomain, to an existing AddressBook
+-- database. Run once, then run "java EmailAddresses backfill" to key
+-- the addresses already stored; new and updated addresses are keyed
+-- by the application. An address with no key (NULL) is not found by
+-- findByEmail or counted in its domain.
+
+USE AddressBook;
+
+ALTER TABLE emailAddresses
+    ADD COLUMN emailKey VARCHAR(50) NULL,
+    ADD COLUMN emailDomain VARCHAR(50) NULL,
+    ADD INDEX idx_emailAddresses_emailKey ( emailKey ),
+    ADD INDEX idx_emailAddresses_emailDomain ( emailDomain, personID );
@@ -0,0 +1,14 @@
+-- phone_keys.sql
+-- Adds the phoneKey column from schema.sql, used by findByPhone, to
+-- an existing AddressBook database. Run once, then run
+-- "java PhoneNumbers backfill" to normalize the numbers already
+-- stored to E.164 and fill in their keys, rebuilding the contact
+-- cards of the people whose numbers change; new and updated numbers
+-- are keyed by the application. A number with no key (NULL) is not
+-- found by findByPhone.
+
+USE AddressBook;
+
+ALTER TABLE phoneNumbers
+    ADD COLUMN phoneKey BIGINT NULL,
+    ADD INDEX idx_phoneNumbers_phoneKey ( phoneKey );
@@ -0,0 +1,100 @@
+-- schema.sql
+-- Schema of the AddressBook database used by CloudscapeDataAccess.
+-- Every access path the application uses is backed by an index:
+--   names.lastName              sqlFind (WHERE lastName = ?); with
+--                               firstName and deleted it also covers
+--                               sqlFindSummary and prefix searches
+--   names.deleted               PurgeWorker finding soft-deleted names
+--   names.personID (PK)         name updates/deletes by personID
+--   <detail>.personID           joins in sqlFind and sqlLoadDetails,
+--                               deletes by personID,
+--                               foreign keys to names
+--   <detail> primary keys       updates by addressID/phoneID/emailID
+--   phoneNumbers.phoneKey       findByPhone (E.164 number packed
+--                               into a BIGINT by PhoneNumbers)
+--   emailAddresses.emailKey     findByEmail (address in lower case)
+--   emailAddresses.emailDomain  countByEmailDomain, grouped in
+--                               (emailDomain, personID) order
+--   contactCards.lastName       findPerson with contact cards enabled
+--   contactCards.personID       rebuilding one person's cards
+
+-- SchemaMigrator applies the same schema, indexes included, and the
+-- upgrade scripts alongside this file, to an existing database at
+-- startup when addressbook.migrate is set, or with "java
+-- SchemaMigrator migrate", and records the version reached in table
+-- schemaVersions. Run with diagnostics mode on
+-- (-Daddressbook.diagnostics=true) before and after to confirm the
+-- full scans have gone.
+
+CREATE DATABASE IF NOT EXISTS AddressBook;
+USE AddressBook;
+
+CREATE TABLE IF NOT EXISTS names (
+    personID     INT          NOT NULL AUTO_INCREMENT,
+    firstName    VARCHAR(30)  NOT NULL,
+    lastName     VARCHAR(30)  NOT NULL,
+    deleted      TINYINT      NOT NULL DEFAULT 0,
+    PRIMARY KEY ( personID ),
+    INDEX idx_names_lastName ( lastName, firstName, deleted ),
+    INDEX idx_names_deleted ( deleted, personID )
+) ENGINE = InnoDB;
+
+CREATE TABLE IF NOT EXISTS addresses (
+    addressID    INT          NOT NULL AUTO_INCREMENT,
+    personID     INT          NOT NULL,
+    address1     VARCHAR(50)  NOT NULL,
+    address2     VARCHAR(50)  NOT NULL,
+    city         VARCHAR(30)  NOT NULL,
+    state        VARCHAR(30)  NOT NULL,
+    eircode      VARCHAR(8)   NOT NULL,
+    PRIMARY KEY ( addressID ),
+    INDEX idx_addresses_personID ( personID ),
+    FOREIGN KEY ( personID ) REFERENCES names ( personID )
+) ENGINE = InnoDB;
+
+CREATE TABLE IF NOT EXISTS phoneNumbers (
+    phoneID      INT          NOT NULL AUTO_INCREMENT,
+    personID     INT          NOT NULL,
+    phoneNumber  VARCHAR(20)  NOT NULL,
+    phoneKey     BIGINT       NULL,
+    PRIMARY KEY ( phoneID ),
+    INDEX idx_phoneNumbers_personID ( personID ),
+    INDEX idx_phoneNumbers_phoneKey ( phoneKey ),
+    FOREIGN KEY ( personID ) REFERENCES names ( personID )
+) ENGINE = InnoDB;
+
+CREATE TABLE IF NOT EXISTS emailAddresses (
+    emailID      INT          NOT NULL AUTO_INCREMENT,
+    personID     INT          NOT NULL,
+    emailAddress VARCHAR(50)  NOT NULL,
+    emailKey     VARCHAR(50)  NULL,
+    emailDomain  VARCHAR(50)  NULL,
+    PRIMARY KEY ( emailID ),
+    INDEX idx_emailAddresses_personID ( personID ),
+    INDEX idx_emailAddresses_emailKey ( emailKey ),
+    INDEX idx_emailAddresses_emailDomain ( emailDomain, personID ),
+    FOREIGN KEY ( personID ) REFERENCES names ( personID )
+) ENGINE = InnoDB;
+
+-- Denormalized copy of the four tables above for findPerson: one row
+-- per combination of a live person's address, phone and email, as
+-- returned by the join. Maintained by CloudscapeDataAccess in the
+-- same transaction as every write when addressbook.contactCards is
+-- set; checked and rebuilt with ContactCardTool.
+CREATE TABLE IF NOT EXISTS contactCards (
+    personID     INT          NOT NULL,
+    firstName    VARCHAR(30)  NOT NULL,
+    lastName     VARCHAR(30)  NOT NULL,
+    addressID    INT          NOT NULL,
+    address1     VARCHAR(50)  NOT NULL,
+    address2     VARCHAR(50)  NOT NULL,
+    city         VARCHAR(30)  NOT NULL,
+    state        VARCHAR(30)  NOT NULL,
+    eircode      VARCHAR(8)   NOT NULL,
+    phoneID      INT          NOT NULL,
+    phoneNumber  VARCHAR(20)  NOT NULL,
+    emailID      INT          NOT NULL,
+    emailAddress VARCHAR(50)  NOT NULL,
+    PRIMARY KEY ( personID, addressID, phoneID, emailID ),
+    INDEX idx_contactCards_lastName ( lastName )
+) ENGINE = InnoDB;
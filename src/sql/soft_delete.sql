@@ -0,0 +1,13 @@
+-- soft_delete.sql
+-- Adds the deleted flag from schema.sql to an existing AddressBook
+-- database. Run once, before starting the application with
+-- -Daddressbook.softDelete=true or after upgrading; reads filter on
+-- the flag whether or not soft delete is enabled.
+
+USE AddressBook;
+
+ALTER TABLE names
+    ADD COLUMN deleted TINYINT NOT NULL DEFAULT 0,
+    DROP INDEX idx_names_lastName,
+    ADD INDEX idx_names_lastName ( lastName, firstName, deleted ),
+    ADD INDEX idx_names_deleted ( deleted, personID );
@@ -0,0 +1,50 @@
+#!/bin/sh
+# Build an AppCDS (application class data sharing) archive for the
+# address book. Classes in the archive are mapped from it already
+# parsed and verified, which takes most class loading off startup.
+#
+# Usage: startup/appcds.sh <class path>
+#
+# 1. a training run starts the application, waits until it has
+#    connected (or given up for now) and exits, recording every
+#    class it loaded
+# 2. the recorded classes are dumped into addressbook.jsa
+#
+# Then start the application with
+#     java -XX:SharedArchiveFile=addressbook.jsa -cp <class path> AddressBook
+#
+# AppCDS is free in JDK 10 and later, which is what this script is
+# meant for. Oracle JDK 8 (8u40 or later) and 9 have it only as a
+# commercial feature; there the script adds the flags it needs, and
+# the application must be started with them too:
+#     java -XX:+UnlockCommercialFeatures -XX:+UseAppCDS \
+#         -XX:SharedArchiveFile=addressbook.jsa -cp <class path> AddressBook
+# OpenJDK 8 builds have no AppCDS and cannot use the archive.
+#
+# Rebuild the archive whenever the JDK or the class path changes;
+# a stale archive is ignored by the JVM, not harmful.
+
+set -e
+
+if [ -z "$1" ]; then
+    echo "usage: $0 <class path>" >&2
+    exit 1
+fi
+
+CP="$1"
+
+# "1.8.0_202" before JDK 9, "9.0.4", "11.0.2", ... after
+VERSION=$(java -version 2>&1 | sed -n 's/.*version "\([^"]*\)".*/\1/p')
+
+case "$VERSION" in
+    1.*|9|9.*) APPCDS="-XX:+UnlockCommercialFeatures -XX:+UseAppCDS" ;;
+    *)         APPCDS="" ;;
+esac
+
+java $APPCDS -Xshare:off -XX:DumpLoadedClassList=addressbook.classlist \
+    -Daddressbook.startupTraining=true -cp "$CP" AddressBook
+
+java $APPCDS -Xshare:dump -XX:SharedClassListFile=addressbook.classlist \
+    -XX:SharedArchiveFile=addressbook.jsa -cp "$CP"
+
+echo "wrote addressbook.jsa"
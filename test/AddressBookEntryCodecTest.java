@@ -0,0 +1,160 @@
+// AddressBookEntryCodecTest.java
+// Tests of AddressBookEntryCodec: round trips, views, varints and
+// reading entries written by later format versions.
+
+// Java core packages
+import java.nio.ByteBuffer;
+import java.util.*;
+
+// JUnit packages
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class AddressBookEntryCodecTest {
+
+    @Test
+    public void listRoundTripKeepsEveryField()
+    {
+        AddressBookEntry empty = new AddressBookEntry( 7 );
+        AddressBookEntry nulls = entry( 300, "Seán", null );
+        List<AddressBookEntry> people = Arrays.asList(
+                entry( 1, "Mary", "Murphy" ), empty, nulls );
+
+        List<AddressBookEntry> decoded = AddressBookEntryCodec.decode(
+                ByteBuffer.wrap( AddressBookEntryCodec.encode( people ) ) );
+
+        assertEquals( 3, decoded.size() );
+
+        for ( int i = 0; i < people.size(); i++ )
+            assertEntryEquals( people.get( i ), decoded.get( i ) );
+
+        assertNull( decoded.get( 2 ).getLastName() );
+        assertEquals( "", decoded.get( 1 ).getFirstName() );
+    }
+
+    @Test
+    public void entryRoundTrip()
+    {
+        AddressBookEntry person = entry( 123456, "Niamh", "Ó Briain" );
+
+        assertEntryEquals( person, AddressBookEntryCodec.decodeEntry(
+                ByteBuffer.wrap( AddressBookEntryCodec.encode( person ) ) ) );
+    }
+
+    @Test
+    public void viewReadsFieldsInPlace()
+    {
+        byte[] bytes = AddressBookEntryCodec.encode(
+                entry( 42, "John", "Walsh" ) );
+        ByteBuffer buffer = ByteBuffer.wrap( bytes );
+
+        // skip the version byte
+        AddressBookEntryCodec.View view =
+                new AddressBookEntryCodec.View().wrap( buffer, 1 );
+
+        assertEquals( 42, view.getPersonID() );
+        assertEquals( "Walsh",
+                view.getString( AddressBookEntryCodec.LAST_NAME ) );
+        assertTrue( view.asciiEquals( AddressBookEntryCodec.FIRST_NAME,
+                "John" ) );
+        assertFalse( view.asciiEquals( AddressBookEntryCodec.FIRST_NAME,
+                "Joan" ) );
+        assertEquals( bytes.length, view.end() );
+        assertEquals( 0, buffer.position() );
+    }
+
+    @Test
+    public void varintsRoundTripAtEverySize()
+    {
+        int[] values = { 0, 1, 127, 128, 16383, 16384, 2097151, 2097152,
+                Integer.MAX_VALUE, -1 };
+        ByteBuffer buffer = ByteBuffer.allocate( 64 );
+
+        for ( int value : values ) {
+            buffer.clear();
+            AddressBookEntryCodec.putVarint( buffer, value );
+            assertEquals( AddressBookEntryCodec.varintSize( value ),
+                    buffer.position() );
+
+            buffer.flip();
+            assertEquals( value, AddressBookEntryCodec.getVarint( buffer ) );
+        }
+    }
+
+    @Test
+    public void readsLaterVersionsSkippingUnknownFields()
+    {
+        List<AddressBookEntry> people = Arrays.asList(
+                entry( 1, "Mary", "Murphy" ), entry( 2, "Aoife", "Kelly" ) );
+        ByteBuffer later = ByteBuffer.allocate( 256 );
+        later.put( ( byte ) 2 );
+        AddressBookEntryCodec.putVarint( later, people.size() );
+
+        // each entry as version 1 writes it, plus three bytes of a
+        // field version 1 does not know
+        for ( AddressBookEntry person : people ) {
+            ByteBuffer entry = ByteBuffer.wrap(
+                    AddressBookEntryCodec.encode( person ) );
+            entry.get();
+            int length = AddressBookEntryCodec.getVarint( entry );
+
+            AddressBookEntryCodec.putVarint( later, length + 3 );
+            later.put( entry );
+            later.put( new byte[] { 3, 'x', 'y' } );
+        }
+
+        later.flip();
+        List<AddressBookEntry> decoded = AddressBookEntryCodec.decode( later );
+
+        assertEquals( 2, decoded.size() );
+        assertEntryEquals( people.get( 0 ), decoded.get( 0 ) );
+        assertEntryEquals( people.get( 1 ), decoded.get( 1 ) );
+        assertFalse( later.hasRemaining() );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void rejectsVersionZero()
+    {
+        byte[] bytes = AddressBookEntryCodec.encode(
+                new ArrayList<AddressBookEntry>() );
+        bytes[ 0 ] = 0;
+
+        AddressBookEntryCodec.decode( ByteBuffer.wrap( bytes ) );
+    }
+
+    private static AddressBookEntry entry( int id, String first, String last )
+    {
+        AddressBookEntry person = new AddressBookEntry( id );
+        person.setAddressID( id + 1 );
+        person.setPhoneID( id + 2 );
+        person.setEmailID( id + 3 );
+        person.setFirstName( first );
+        person.setLastName( last );
+        person.setAddress1( "1 Main Street" );
+        person.setCity( "Galway" );
+        person.setEircode( "H91 F4E2" );
+        person.setPhoneNumber( "+353871234567" );
+        person.setEmailAddress( first + "@example.ie" );
+        return person;
+    }
+
+    // every field of the two entries is equal
+    private static void assertEntryEquals( AddressBookEntry expected,
+            AddressBookEntry actual )
+    {
+        assertEquals( expected.getPersonID(), actual.getPersonID() );
+        assertEquals( expected.getAddressID(), actual.getAddressID() );
+        assertEquals( expected.getPhoneID(), actual.getPhoneID() );
+        assertEquals( expected.getEmailID(), actual.getEmailID() );
+        assertEquals( expected.getFirstName(), actual.getFirstName() );
+        assertEquals( expected.getLastName(), actual.getLastName() );
+        assertEquals( expected.getAddress1(), actual.getAddress1() );
+        assertEquals( expected.getAddress2(), actual.getAddress2() );
+        assertEquals( expected.getCity(), actual.getCity() );
+        assertEquals( expected.getState(), actual.getState() );
+        assertEquals( expected.getEircode(), actual.getEircode() );
+        assertEquals( expected.getPhoneNumber(), actual.getPhoneNumber() );
+        assertEquals( expected.getEmailAddress(),
+                actual.getEmailAddress() );
+    }
+}  // end class AddressBookEntryCodecTest
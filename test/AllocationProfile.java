@@ -0,0 +1,183 @@
+// AllocationProfile.java
+// Measures what the consumer-style reads of CloudscapeDataAccess save
+// in allocation and garbage collection, against the list methods:
+//
+//   findPerson, list      findPerson( lastName ), a new entry per row
+//                         and a new list per search
+//   findPerson, holder    findPerson( lastName, holder, consumer )
+//   findAllPersons        every entry, kept in one list
+//   forEachPerson         every entry, read into one holder
+//
+// Bytes are those allocated by the measuring thread, from
+// com.sun.management.ThreadMXBean, so the JVM must be HotSpot or
+// another that supports it. Each search matches ten people (see
+// BenchmarkData). The tables are EMPTIED and refilled first.
+//
+// Usage: java AllocationProfile <database> [people] [searches]
+
+// Java core packages
+import java.lang.management.*;
+import java.util.*;
+
+public class AllocationProfile {
+
+    private static final com.sun.management.ThreadMXBean threads =
+            ( com.sun.management.ThreadMXBean )
+                    ManagementFactory.getThreadMXBean();
+
+    public static void main( String args[] ) throws Exception
+    {
+        if ( args.length < 1 ) {
+            System.err.println( "Usage: java AllocationProfile " +
+                    "<database> [people] [searches]" );
+            System.exit( 1 );
+        }
+
+        String database = args[ 0 ];
+        int people = args.length > 1 ? Integer.parseInt( args[ 1 ] ) : 100000;
+        int searches = args.length > 2 ? Integer.parseInt( args[ 2 ] ) : 20000;
+
+        BenchmarkData.fill( database, people );
+
+        CloudscapeDataAccess cloudscape = new CloudscapeDataAccess( database );
+        cloudscape.prepareAll();
+
+        // the same random last names for both search modes
+        Random random = new Random( 1 );
+        String[] lastNames = new String[ searches ];
+
+        for ( int i = 0; i < searches; i++ )
+            lastNames[ i ] = "Bench" + random.nextInt( people / 10 );
+
+        System.out.printf( "%d people, %d searches%n", people, searches );
+        System.out.printf( "%-20s %12s %12s %8s %8s%n", "mode", "bytes/op",
+                "bytes/row", "GCs", "GC ms" );
+
+        // warm up the JIT, so that its own allocations are not counted
+        for ( int round = 0; round < 3; round++ ) {
+            searchLists( cloudscape, lastNames );
+            searchHolder( cloudscape, lastNames );
+        }
+
+        measure( "findPerson, list", searches, new Mode() {
+            public long run() throws Exception
+            {
+                return searchLists( cloudscape, lastNames );
+            }
+        } );
+
+        measure( "findPerson, holder", searches, new Mode() {
+            public long run() throws Exception
+            {
+                return searchHolder( cloudscape, lastNames );
+            }
+        } );
+
+        for ( int round = 0; round < 2; round++ ) {
+            cloudscape.findAllPersons();
+            scan( cloudscape );
+        }
+
+        measure( "findAllPersons", 1, new Mode() {
+            public long run() throws Exception
+            {
+                return cloudscape.findAllPersons().size();
+            }
+        } );
+
+        measure( "forEachPerson", 1, new Mode() {
+            public long run() throws Exception
+            {
+                return scan( cloudscape );
+            }
+        } );
+
+        cloudscape.close();
+    }
+
+    // one way of reading; returns the number of rows read
+    private interface Mode {
+        long run() throws Exception;
+    }
+
+    private static long searchLists( CloudscapeDataAccess cloudscape,
+            String[] lastNames ) throws DataAccessException
+    {
+        long rows = 0;
+
+        for ( String lastName : lastNames )
+            rows += cloudscape.findPerson( lastName ).size();
+
+        return rows;
+    }
+
+    private static long searchHolder( CloudscapeDataAccess cloudscape,
+            String[] lastNames ) throws DataAccessException
+    {
+        AddressBookEntry holder = new AddressBookEntry();
+        EntryConsumer consumer = new EntryConsumer() {
+            public boolean accept( AddressBookEntry person )
+            {
+                return true;
+            }
+        };
+        long rows = 0;
+
+        for ( String lastName : lastNames )
+            rows += cloudscape.findPerson( lastName, holder, consumer );
+
+        return rows;
+    }
+
+    private static long scan( CloudscapeDataAccess cloudscape )
+            throws DataAccessException
+    {
+        return cloudscape.forEachPerson( new AddressBookEntry(),
+                new EntryConsumer() {
+                    public boolean accept( AddressBookEntry person )
+                    {
+                        return true;
+                    }
+                } );
+    }
+
+    // run mode once and report the bytes this thread allocated per
+    // operation and per row, and the collections during the run
+    private static void measure( String name, int operations, Mode mode )
+            throws Exception
+    {
+        long thread = Thread.currentThread().getId();
+        long collections = collections(), gcMillis = gcMillis();
+        long before = threads.getThreadAllocatedBytes( thread );
+
+        long rows = mode.run();
+
+        long bytes = threads.getThreadAllocatedBytes( thread ) - before;
+
+        System.out.printf( "%-20s %12.0f %12.0f %8d %8d%n", name,
+                ( double ) bytes / operations, ( double ) bytes / rows,
+                collections() - collections, gcMillis() - gcMillis );
+    }
+
+    private static long collections()
+    {
+        long total = 0;
+
+        for ( GarbageCollectorMXBean collector :
+                ManagementFactory.getGarbageCollectorMXBeans() )
+            total += collector.getCollectionCount();
+
+        return total;
+    }
+
+    private static long gcMillis()
+    {
+        long total = 0;
+
+        for ( GarbageCollectorMXBean collector :
+                ManagementFactory.getGarbageCollectorMXBeans() )
+            total += collector.getCollectionTime();
+
+        return total;
+    }
+}  // end class AllocationProfile
@@ -0,0 +1,107 @@
+// AuditLogTest.java
+// Tests of AuditLog: records written are found again by person and
+// time, and records that cannot be queued are dropped and counted
+// instead of blocking the writer.
+
+// Java core packages
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+// JUnit packages
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class AuditLogTest {
+
+    @Test
+    public void recordsAreFoundByPersonAndTime() throws Exception
+    {
+        File directory = Files.createTempDirectory( "audit" ).toFile();
+        AuditLog log = new AuditLog( directory );
+
+        log.record( record( 1000, 7, AuditRecord.NEW ) );
+        log.record( record( 2000, 8, AuditRecord.NEW ) );
+        log.record( record( 3000, 7, AuditRecord.SAVE ) );
+        log.close();
+
+        // and again after reopening, from the block headers
+        AuditLog reopened = new AuditLog( directory );
+
+        try {
+            List<AuditRecord> person = reopened.query( 7, 0, Long.MAX_VALUE );
+
+            assertEquals( 2, person.size() );
+            assertEquals( AuditRecord.NEW, person.get( 0 ).getOperation() );
+            assertEquals( AuditRecord.SAVE, person.get( 1 ).getOperation() );
+            assertEquals( "Murphy",
+                    person.get( 1 ).getAfter().getLastName() );
+
+            assertEquals( 1, reopened.query( 1500, 2500 ).size() );
+            assertTrue( reopened.query( 9, 0, Long.MAX_VALUE ).isEmpty() );
+        }
+        finally {
+            reopened.close();
+        }
+    }
+
+    @Test( timeout = 10000 )
+    public void blocksAfterAFailedWriteSurviveReopening() throws Exception
+    {
+        File directory = Files.createTempDirectory( "audit" ).toFile();
+        AuditLog log = new AuditLog( directory );
+
+        log.record( record( 1000, 7, AuditRecord.NEW ) );
+
+        while ( log.query( 7, 0, Long.MAX_VALUE ).isEmpty() )
+            Thread.sleep( 10 );
+
+        // the bytes a write that failed part way would leave
+        RandomAccessFile segment = new RandomAccessFile(
+                new File( directory, "audit-000001.log" ), "rw" );
+        segment.seek( segment.length() );
+        segment.write( new byte[] { 0, 0, 1, 0, 0, 0 } );
+        segment.close();
+
+        log.record( record( 2000, 7, AuditRecord.SAVE ) );
+        log.close();
+
+        AuditLog reopened = new AuditLog( directory );
+
+        try {
+            assertEquals( 2, reopened.query( 7, 0, Long.MAX_VALUE ).size() );
+        }
+        finally {
+            reopened.close();
+        }
+    }
+
+    @Test( timeout = 5000 )
+    public void recordsAfterCloseAreDroppedAndCounted() throws Exception
+    {
+        AtomicLong dropped = Metrics.counter( "audit.droppedRecords" );
+        AuditLog log = new AuditLog(
+                Files.createTempDirectory( "audit" ).toFile() );
+        log.close();
+
+        long before = dropped.get();
+        log.record( record( 1000, 7, AuditRecord.NEW ) );
+        log.record( record( 2000, 7, AuditRecord.DELETE ) );
+
+        assertEquals( before + 2, dropped.get() );
+    }
+
+    private static AuditRecord record( long time, int personID,
+            int operation )
+    {
+        AddressBookEntry person = new AddressBookEntry( personID );
+        person.setFirstName( "Mary" );
+        person.setLastName( "Murphy" );
+
+        return new AuditRecord( time, "tester", operation, personID,
+                operation == AuditRecord.NEW ? null : person,
+                operation == AuditRecord.DELETE ? null : person );
+    }
+}  // end class AuditLogTest
@@ -0,0 +1,152 @@
+// BenchmarkData.java
+// Test data for the benchmarks that run against a database: entries
+// shaped like the address book's, and quick ways to empty the tables
+// and fill them with many people. The database must exist with the
+// current schema (java SchemaMigrator migrate <database>); emptying
+// and filling DELETE every row, so never point a benchmark at real
+// data.
+
+// Java core packages
+import java.sql.*;
+
+public class BenchmarkData {
+
+    private static final String[] FIRST_NAMES =
+            { "Mary", "Seán", "Aoife", "John", "Niamh" };
+    private static final String[] CITIES =
+            { "Galway", "Cork", "Dublin", "Limerick" };
+
+    // rows inserted per batch by fill
+    private static final int BATCH = 1000;
+
+    // no instances; all methods are static
+    private BenchmarkData()
+    {
+    }
+
+    // The i-th test entry (from 0): last name "Bench<i / 10>", so
+    // that ten people share each, phone number +35387<1000000 + i>
+    // and email address person<i>@example.ie. personID is not set.
+    public static AddressBookEntry entry( int i )
+    {
+        AddressBookEntry person = new AddressBookEntry();
+        person.setFirstName( FIRST_NAMES[ i % FIRST_NAMES.length ] );
+        person.setLastName( "Bench" + i / 10 );
+        person.setAddress1( ( i % 200 + 1 ) + " Main Street" );
+        person.setAddress2( i % 3 == 0 ? "Apartment " + i % 40 : "" );
+        person.setCity( CITIES[ i % CITIES.length ] );
+        person.setState( "Co. " + CITIES[ i % CITIES.length ] );
+        person.setEircode( "H91 F4E2" );
+        person.setPhoneNumber( phoneNumber( i ) );
+        person.setEmailAddress( "person" + i + "@example.ie" );
+        return person;
+    }
+
+    // phone number of the i-th test entry, in E.164 form
+    public static String phoneNumber( int i )
+    {
+        return "+35387" + ( 1000000 + i );
+    }
+
+    // remove every row, so that each run starts from the same state
+    public static void empty( String database ) throws Exception
+    {
+        Connection connection =
+                CloudscapeDataAccess.openConnection( database );
+
+        try {
+            empty( connection );
+            connection.commit();
+        }
+        finally {
+            connection.close();
+        }
+    }
+
+    // Empty the tables and insert entries 0 to count - 1 with
+    // personIDs 1 to count, in batches, with their keys and contact
+    // cards, as newPerson would store them.
+    public static void fill( String database, int count ) throws Exception
+    {
+        Connection connection = CloudscapeDataAccess.openConnection(
+                database, "&rewriteBatchedStatements=true" );
+
+        try {
+            empty( connection );
+
+            PreparedStatement names = connection.prepareStatement(
+                    "INSERT INTO names ( personID, firstName, lastName ) " +
+                            "VALUES ( ?, ?, ? )" );
+            PreparedStatement addresses = connection.prepareStatement(
+                    "INSERT INTO addresses ( personID, address1, address2, " +
+                            "city, state, eircode ) VALUES ( ?, ?, ?, ?, ?, ? )" );
+            PreparedStatement phones = connection.prepareStatement(
+                    "INSERT INTO phoneNumbers ( personID, phoneNumber, " +
+                            "phoneKey ) VALUES ( ?, ?, ? )" );
+            PreparedStatement emails = connection.prepareStatement(
+                    "INSERT INTO emailAddresses ( personID, emailAddress, " +
+                            "emailKey, emailDomain ) VALUES ( ?, ?, ?, ? )" );
+
+            for ( int i = 0; i < count; i++ ) {
+                AddressBookEntry person = entry( i );
+                int personID = i + 1;
+
+                names.setInt( 1, personID );
+                names.setString( 2, person.getFirstName() );
+                names.setString( 3, person.getLastName() );
+                names.addBatch();
+
+                addresses.setInt( 1, personID );
+                addresses.setString( 2, person.getAddress1() );
+                addresses.setString( 3, person.getAddress2() );
+                addresses.setString( 4, person.getCity() );
+                addresses.setString( 5, person.getState() );
+                addresses.setString( 6, person.getEircode() );
+                addresses.addBatch();
+
+                phones.setInt( 1, personID );
+                phones.setString( 2, person.getPhoneNumber() );
+                phones.setLong( 3,
+                        PhoneNumbers.key( person.getPhoneNumber() ) );
+                phones.addBatch();
+
+                emails.setInt( 1, personID );
+                emails.setString( 2, person.getEmailAddress() );
+                emails.setString( 3,
+                        EmailAddresses.key( person.getEmailAddress() ) );
+                emails.setString( 4,
+                        EmailAddresses.domain( person.getEmailAddress() ) );
+                emails.addBatch();
+
+                if ( personID % BATCH == 0 || personID == count ) {
+                    names.executeBatch();
+                    addresses.executeBatch();
+                    phones.executeBatch();
+                    emails.executeBatch();
+                    connection.commit();
+                }
+            }
+
+            Statement statement = connection.createStatement();
+            statement.executeUpdate( "INSERT INTO contactCards ( " +
+                    CloudscapeDataAccess.CARD_COLUMNS + " ) " +
+                    CloudscapeDataAccess.CARD_SOURCE );
+            connection.commit();
+            statement.close();
+        }
+        finally {
+            connection.close();
+        }
+    }
+
+    private static void empty( Connection connection ) throws SQLException
+    {
+        Statement statement = connection.createStatement();
+
+        for ( String table : new String[] { "contactCards", "addresses",
+                "phoneNumbers", "emailAddresses", "names" } )
+            statement.executeUpdate( "DELETE FROM " + table );
+
+        statement.close();
+    }
+}  // end class BenchmarkData
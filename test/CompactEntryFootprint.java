@@ -0,0 +1,85 @@
+// CompactEntryFootprint.java
+// Measures the retained heap of many entries held as AddressBookEntry
+// and as CompactEntry, with JOL (openjdk.org/projects/code-tools/jol,
+// jol-core on the class path). Every string of every entry is a
+// separate String, as when entries are read from a ResultSet. The
+// shared StringDictionaries are not reachable from CompactEntry
+// objects, so they are measured, and reported, on their own.
+//
+// Usage: java -cp <classes>:jol-core.jar CompactEntryFootprint [entries]
+
+// Java core packages
+import java.util.*;
+
+// JOL packages
+import org.openjdk.jol.info.ClassLayout;
+import org.openjdk.jol.info.GraphLayout;
+import org.openjdk.jol.vm.VM;
+
+public class CompactEntryFootprint {
+
+    public static void main( String args[] )
+    {
+        int count = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : 100000;
+
+        System.out.println( VM.current().details() );
+
+        List<AddressBookEntry> entries = new ArrayList<AddressBookEntry>();
+        List<CompactEntry> compacts = new ArrayList<CompactEntry>();
+
+        for ( int i = 0; i < count; i++ ) {
+            AddressBookEntry person = entry( i );
+            entries.add( person );
+            compacts.add( CompactEntry.of( entry( i ) ) );
+        }
+
+        System.out.println( ClassLayout.parseClass(
+                AddressBookEntry.class ).toPrintable() );
+        System.out.println( ClassLayout.parseClass(
+                CompactEntry.class ).toPrintable() );
+
+        long entryBytes = GraphLayout.parseInstance( entries ).totalSize();
+        long compactBytes = GraphLayout.parseInstance( compacts ).totalSize();
+        long dictionaryBytes = GraphLayout.parseInstance(
+                StringDictionary.CITIES, StringDictionary.STATES,
+                StringDictionary.EIRCODE_ROUTING_KEYS ).totalSize();
+
+        System.out.printf( "%d entries%n", count );
+        System.out.printf( "%-18s %12s %12s%n", "form", "bytes",
+                "bytes/entry" );
+        System.out.printf( "%-18s %12d %12.1f%n", "AddressBookEntry",
+                entryBytes, entryBytes / ( double ) count );
+        System.out.printf( "%-18s %12d %12.1f%n", "CompactEntry",
+                compactBytes, compactBytes / ( double ) count );
+        System.out.printf( "%-18s %12d%n", "dictionaries", dictionaryBytes );
+        System.out.printf( "saved %.1f%%%n", 100.0 *
+                ( entryBytes - compactBytes - dictionaryBytes ) / entryBytes );
+    }
+
+    // an entry with strings of their own, shaped like the address
+    // book's
+    private static AddressBookEntry entry( int i )
+    {
+        String[] first = { "Mary", "Seán", "Aoife", "John", "Niamh" };
+        String[] last = { "Murphy", "Kelly", "O'Sullivan", "Walsh",
+                "Ó Briain" };
+        String[] city = { "Galway", "Cork", "Dublin", "Limerick" };
+        String[] routingKey = { "H91", "T12", "D02", "V94" };
+
+        AddressBookEntry person = new AddressBookEntry();
+        person.setPersonID( i + 1 );
+        person.setAddressID( i + 1 );
+        person.setPhoneID( i + 1 );
+        person.setEmailID( i + 1 );
+        person.setFirstName( new String( first[ i % first.length ] ) );
+        person.setLastName( new String( last[ i % last.length ] ) );
+        person.setAddress1( ( i % 200 + 1 ) + " Main Street" );
+        person.setAddress2( i % 3 == 0 ? "Apartment " + i % 40 : "" );
+        person.setCity( new String( city[ i % city.length ] ) );
+        person.setState( "Co. " + city[ i % city.length ] );
+        person.setEircode( routingKey[ i % routingKey.length ] + " F4E2" );
+        person.setPhoneNumber( "+35387" + ( 1000000 + i ) );
+        person.setEmailAddress( "person" + i + "@example.ie" );
+        return person;
+    }
+}  // end class CompactEntryFootprint
@@ -0,0 +1,120 @@
+// CompletionIndexTest.java
+// Tests of CompletionIndex: ranking, case, limits, and that cached
+// top terms follow adds and removes.
+
+// Java core packages
+import java.util.*;
+
+// JUnit packages
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CompletionIndexTest {
+
+    @Test
+    public void mostFrequentFirstThenAlphabetical()
+    {
+        CompletionIndex index = index( "Kelly", "Kelly", "Kennedy", "Keane",
+                "Kelly", "Keane", "Murphy" );
+
+        assertEquals( Arrays.asList( "Kelly", "Keane", "Kennedy" ),
+                index.complete( "Ke", 10 ) );
+        assertEquals( Arrays.asList( "Kelly" ), index.complete( "kel", 10 ) );
+        assertEquals( Arrays.asList( "Kelly", "Keane", "Kennedy", "Murphy" ),
+                index.complete( "", 10 ) );
+    }
+
+    @Test
+    public void matchesWithoutRegardToCase()
+    {
+        CompletionIndex index = index( "O'Brien", "o'brien" );
+
+        assertEquals( 2, index.count( "O'BRIEN" ) );
+        assertEquals( Arrays.asList( "o'brien" ), index.complete( "O'B", 5 ) );
+    }
+
+    @Test
+    public void caseFoldingDoesNotDependOnTheDefaultLocale()
+    {
+        Locale original = Locale.getDefault();
+
+        try {
+            // in Turkish "I".toLowerCase() is a dotless i
+            Locale.setDefault( new Locale( "tr", "TR" ) );
+            CompletionIndex index = index( "Ivers", "Irwin" );
+
+            assertEquals( Arrays.asList( "Irwin", "Ivers" ),
+                    index.complete( "i", 5 ) );
+            assertEquals( 1, index.count( "IVERS" ) );
+        }
+        finally {
+            Locale.setDefault( original );
+        }
+    }
+
+    @Test
+    public void limitsResults()
+    {
+        CompletionIndex index = new CompletionIndex( 3 );
+
+        for ( String term : new String[] { "Ba", "Bb", "Bc", "Bd", "Be" } )
+            index.add( term );
+
+        assertEquals( 2, index.complete( "B", 2 ).size() );
+        assertEquals( 3, index.complete( "B", 10 ).size() );
+        assertTrue( index.complete( "X", 10 ).isEmpty() );
+    }
+
+    @Test
+    public void cachedTopTermsFollowChanges()
+    {
+        CompletionIndex index = index( "Walsh", "Walsh", "Ward" );
+
+        assertEquals( Arrays.asList( "Walsh", "Ward" ),
+                index.complete( "Wa", 5 ) );
+
+        index.add( "Ward" );
+        index.add( "Ward" );
+        assertEquals( Arrays.asList( "Ward", "Walsh" ),
+                index.complete( "Wa", 5 ) );
+
+        index.remove( "Ward" );
+        index.remove( "Ward" );
+        index.remove( "Ward" );
+        assertEquals( Arrays.asList( "Walsh" ), index.complete( "Wa", 5 ) );
+        assertEquals( 0, index.count( "Ward" ) );
+    }
+
+    @Test
+    public void removingUnknownTermsChangesNothing()
+    {
+        CompletionIndex index = index( "Kelly" );
+
+        index.remove( "Kelley" );
+        index.remove( "" );
+        index.remove( null );
+
+        assertEquals( Arrays.asList( "Kelly" ), index.complete( "K", 5 ) );
+        assertEquals( 1, index.count( "Kelly" ) );
+    }
+
+    @Test
+    public void clearForgetsEveryTerm()
+    {
+        CompletionIndex index = index( "Kelly", "Murphy" );
+
+        index.clear();
+
+        assertTrue( index.complete( "", 5 ).isEmpty() );
+    }
+
+    private static CompletionIndex index( String... terms )
+    {
+        CompletionIndex index = new CompletionIndex( 10 );
+
+        for ( String term : terms )
+            index.add( term );
+
+        return index;
+    }
+}  // end class CompletionIndexTest
@@ -0,0 +1,98 @@
+// DuplicateDetectorTest.java
+// Tests of DuplicateDetector's phonetic key, string similarity and
+// suggestions, against published Soundex and Jaro-Winkler values.
+
+// Java core packages
+import java.util.*;
+
+// JUnit packages
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class DuplicateDetectorTest {
+
+    @Test
+    public void soundexMatchesReferenceCodes()
+    {
+        assertEquals( "R163", DuplicateDetector.soundex( "Robert" ) );
+        assertEquals( "R163", DuplicateDetector.soundex( "Rupert" ) );
+        assertEquals( "R150", DuplicateDetector.soundex( "Rubin" ) );
+        assertEquals( "K400", DuplicateDetector.soundex( "Kelly" ) );
+        assertEquals( "T522", DuplicateDetector.soundex( "Tymczak" ) );
+        assertEquals( "P236", DuplicateDetector.soundex( "Pfister" ) );
+    }
+
+    @Test
+    public void soundexHandlesHAndWSeparators()
+    {
+        // the S and C of "Ashcraft" are coded once across the H
+        assertEquals( "A261", DuplicateDetector.soundex( "Ashcraft" ) );
+        assertEquals( "H555", DuplicateDetector.soundex( "Honeyman" ) );
+    }
+
+    @Test
+    public void soundexIgnoresCaseAndNonLetters()
+    {
+        assertEquals( DuplicateDetector.soundex( "OSullivan" ),
+                DuplicateDetector.soundex( "o'sullivan" ) );
+        assertEquals( "", DuplicateDetector.soundex( "123" ) );
+        assertEquals( "", DuplicateDetector.soundex( null ) );
+        assertEquals( "L000", DuplicateDetector.soundex( "Lee" ) );
+    }
+
+    @Test
+    public void jaroWinklerMatchesReferenceValues()
+    {
+        assertEquals( 0.9611,
+                DuplicateDetector.jaroWinkler( "martha", "marhta" ), 1e-4 );
+        assertEquals( 0.8400,
+                DuplicateDetector.jaroWinkler( "dwayne", "duane" ), 1e-4 );
+        assertEquals( 0.8133,
+                DuplicateDetector.jaroWinkler( "dixon", "dicksonx" ), 1e-4 );
+    }
+
+    @Test
+    public void jaroWinklerEdgeCases()
+    {
+        assertEquals( 1.0, DuplicateDetector.jaroWinkler( "", "" ), 0 );
+        assertEquals( 0.0, DuplicateDetector.jaroWinkler( "", "a" ), 0 );
+        assertEquals( 0.0, DuplicateDetector.jaroWinkler( "abc", "xyz" ), 0 );
+        assertEquals( 1.0,
+                DuplicateDetector.jaroWinkler( "kelly", "kelly" ), 1e-9 );
+        assertEquals( DuplicateDetector.jaroWinkler( "kelly", "kelley" ),
+                DuplicateDetector.jaroWinkler( "kelley", "kelly" ), 1e-9 );
+    }
+
+    @Test
+    public void suggestsTheSamePersonEnteredTwice()
+    {
+        List<AddressBookEntry> entries = Arrays.asList(
+                entry( 1, "Mary", "Kelly", "087 123 4567", "mary@example.ie" ),
+                entry( 2, "Marie", "Kelley", "+353 87 123 4567",
+                        "Mary@Example.ie " ),
+                entry( 3, "John", "Walsh", "086 765 4321",
+                        "john@example.ie" ) );
+
+        List<MergeSuggestion> suggestions =
+                new DuplicateDetector().findDuplicates( entries );
+
+        assertEquals( 1, suggestions.size() );
+
+        Set<Integer> pair = new HashSet<Integer>( Arrays.asList(
+                suggestions.get( 0 ).getSurvivor().getPersonID(),
+                suggestions.get( 0 ).getDuplicate().getPersonID() ) );
+        assertEquals( new HashSet<Integer>( Arrays.asList( 1, 2 ) ), pair );
+    }
+
+    private static AddressBookEntry entry( int id, String first,
+            String last, String phone, String email )
+    {
+        AddressBookEntry person = new AddressBookEntry( id );
+        person.setFirstName( first );
+        person.setLastName( last );
+        person.setPhoneNumber( phone );
+        person.setEmailAddress( email );
+        person.setEircode( "H91 F4E2" );
+        return person;
+    }
+}  // end class DuplicateDetectorTest
@@ -0,0 +1,361 @@
+// EntryCodecBenchmark.java
+// Compares AddressBookEntryCodec with Java serialization and JSON
+// for a list of entries: encoded size, and time to encode and to
+// decode the list. AddressBookEntry is not Serializable, so Java
+// serialization writes a Serializable copy of each entry with the
+// same fields; JSON is a plain array of objects, one member per
+// field, written and parsed by hand since the application has no
+// JSON library. Both include the copy to and from AddressBookEntry,
+// as the codec does.
+//
+// Usage: java EntryCodecBenchmark [entries] [iterations]
+
+// Java core packages
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class EntryCodecBenchmark {
+
+    public static void main( String args[] ) throws Exception
+    {
+        int count = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : 1000;
+        int iterations = args.length > 1 ? Integer.parseInt( args[ 1 ] ) : 2000;
+
+        List<AddressBookEntry> people = entries( count );
+
+        Format[] formats = { new Codec(), new Serialization(), new Json() };
+
+        System.out.printf( "%d entries, %d iterations%n", count, iterations );
+        System.out.printf( "%-14s %10s %10s %12s %12s%n", "format", "bytes",
+                "bytes/entry", "encode us", "decode us" );
+
+        for ( Format format : formats ) {
+            byte[] encoded = format.encode( people );
+
+            if ( !same( people, format.decode( encoded ) ) )
+                throw new IllegalStateException( format.name() +
+                        " did not round-trip" );
+
+            // warm up, then time
+            time( format, people, encoded, iterations / 4 );
+            long[] nanos = time( format, people, encoded, iterations );
+
+            System.out.printf( "%-14s %10d %10.1f %12.1f %12.1f%n",
+                    format.name(), encoded.length,
+                    encoded.length / ( double ) count,
+                    nanos[ 0 ] / 1e3 / iterations,
+                    nanos[ 1 ] / 1e3 / iterations );
+        }
+    }
+
+    // total nanoseconds spent encoding and decoding
+    private static long[] time( Format format, List<AddressBookEntry> people,
+            byte[] encoded, int iterations ) throws Exception
+    {
+        long[] nanos = new long[ 2 ];
+        int sink = 0;
+
+        for ( int i = 0; i < iterations; i++ ) {
+            long start = System.nanoTime();
+            sink += format.encode( people ).length;
+            long middle = System.nanoTime();
+            sink += format.decode( encoded ).size();
+            long end = System.nanoTime();
+
+            nanos[ 0 ] += middle - start;
+            nanos[ 1 ] += end - middle;
+        }
+
+        if ( sink == 42 )
+            System.out.println();
+
+        return nanos;
+    }
+
+    // entries shaped like the address book's
+    private static List<AddressBookEntry> entries( int count )
+    {
+        String[] first = { "Mary", "Seán", "Aoife", "John", "Niamh" };
+        String[] last = { "Murphy", "Kelly", "O'Sullivan", "Walsh",
+                "Ó Briain" };
+        String[] city = { "Galway", "Cork", "Dublin", "Limerick" };
+        List<AddressBookEntry> people = new ArrayList<AddressBookEntry>();
+
+        for ( int i = 0; i < count; i++ ) {
+            AddressBookEntry person = new AddressBookEntry();
+            person.setPersonID( i + 1 );
+            person.setAddressID( i + 1 );
+            person.setPhoneID( i + 1 );
+            person.setEmailID( i + 1 );
+            person.setFirstName( first[ i % first.length ] );
+            person.setLastName( last[ i % last.length ] );
+            person.setAddress1( ( i % 200 + 1 ) + " Main Street" );
+            person.setAddress2( i % 3 == 0 ? "Apartment " + i % 40 : "" );
+            person.setCity( city[ i % city.length ] );
+            person.setState( "Co. " + city[ i % city.length ] );
+            person.setEircode( "H91 F4E2" );
+            person.setPhoneNumber( "+35387" + ( 1000000 + i ) );
+            person.setEmailAddress( "person" + i + "@example.ie" );
+            people.add( person );
+        }
+
+        return people;
+    }
+
+    private static boolean same( List<AddressBookEntry> a,
+            List<AddressBookEntry> b )
+    {
+        if ( a.size() != b.size() )
+            return false;
+
+        for ( int i = 0; i < a.size(); i++ )
+            if ( !Arrays.equals( fields( a.get( i ) ), fields( b.get( i ) ) ) )
+                return false;
+
+        return true;
+    }
+
+    // every field of an entry, as strings, in codec order
+    private static String[] fields( AddressBookEntry person )
+    {
+        return new String[] { person.getFirstName(), person.getLastName(),
+                person.getAddress1(), person.getAddress2(), person.getCity(),
+                person.getState(), person.getEircode(),
+                person.getPhoneNumber(), person.getEmailAddress(),
+                "" + person.getPersonID(), "" + person.getAddressID(),
+                "" + person.getPhoneID(), "" + person.getEmailID() };
+    }
+
+    // an entry from fields in the order fields() returns them
+    private static AddressBookEntry entry( String[] values )
+    {
+        AddressBookEntry person = new AddressBookEntry();
+        person.setFirstName( values[ 0 ] );
+        person.setLastName( values[ 1 ] );
+        person.setAddress1( values[ 2 ] );
+        person.setAddress2( values[ 3 ] );
+        person.setCity( values[ 4 ] );
+        person.setState( values[ 5 ] );
+        person.setEircode( values[ 6 ] );
+        person.setPhoneNumber( values[ 7 ] );
+        person.setEmailAddress( values[ 8 ] );
+        person.setPersonID( Integer.parseInt( values[ 9 ] ) );
+        person.setAddressID( Integer.parseInt( values[ 10 ] ) );
+        person.setPhoneID( Integer.parseInt( values[ 11 ] ) );
+        person.setEmailID( Integer.parseInt( values[ 12 ] ) );
+        return person;
+    }
+
+    // one way of turning a list of entries into bytes and back
+    private interface Format {
+        String name();
+
+        byte[] encode( List<AddressBookEntry> people ) throws Exception;
+
+        List<AddressBookEntry> decode( byte[] bytes ) throws Exception;
+    }
+
+    private static class Codec implements Format {
+        public String name()
+        {
+            return "codec";
+        }
+
+        public byte[] encode( List<AddressBookEntry> people )
+        {
+            return AddressBookEntryCodec.encode( people );
+        }
+
+        public List<AddressBookEntry> decode( byte[] bytes )
+        {
+            return AddressBookEntryCodec.decode( ByteBuffer.wrap( bytes ) );
+        }
+    }
+
+    // Serializable copy of an entry
+    private static class SerialEntry implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        String firstName, lastName, address1, address2, city, state,
+                eircode, phoneNumber, emailAddress;
+        int personID, addressID, phoneID, emailID;
+    }
+
+    private static class Serialization implements Format {
+        public String name()
+        {
+            return "serialization";
+        }
+
+        public byte[] encode( List<AddressBookEntry> people )
+                throws IOException
+        {
+            ArrayList<SerialEntry> copies = new ArrayList<SerialEntry>();
+
+            for ( AddressBookEntry person : people ) {
+                SerialEntry copy = new SerialEntry();
+                copy.firstName = person.getFirstName();
+                copy.lastName = person.getLastName();
+                copy.address1 = person.getAddress1();
+                copy.address2 = person.getAddress2();
+                copy.city = person.getCity();
+                copy.state = person.getState();
+                copy.eircode = person.getEircode();
+                copy.phoneNumber = person.getPhoneNumber();
+                copy.emailAddress = person.getEmailAddress();
+                copy.personID = person.getPersonID();
+                copy.addressID = person.getAddressID();
+                copy.phoneID = person.getPhoneID();
+                copy.emailID = person.getEmailID();
+                copies.add( copy );
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream( bytes );
+            out.writeObject( copies );
+            out.close();
+
+            return bytes.toByteArray();
+        }
+
+        @SuppressWarnings( "unchecked" )
+        public List<AddressBookEntry> decode( byte[] bytes )
+                throws IOException, ClassNotFoundException
+        {
+            ObjectInputStream in = new ObjectInputStream(
+                    new ByteArrayInputStream( bytes ) );
+            List<SerialEntry> copies = ( List<SerialEntry> ) in.readObject();
+            List<AddressBookEntry> people = new ArrayList<AddressBookEntry>();
+
+            for ( SerialEntry copy : copies )
+                people.add( entry( new String[] { copy.firstName,
+                        copy.lastName, copy.address1, copy.address2,
+                        copy.city, copy.state, copy.eircode,
+                        copy.phoneNumber, copy.emailAddress,
+                        "" + copy.personID, "" + copy.addressID,
+                        "" + copy.phoneID, "" + copy.emailID } ) );
+
+            return people;
+        }
+    }
+
+    // [{"firstName":"...",...,"personID":1,...},...] in UTF-8
+    private static class Json implements Format {
+        private static final String[] NAMES = { "firstName", "lastName",
+                "address1", "address2", "city", "state", "eircode",
+                "phoneNumber", "emailAddress", "personID", "addressID",
+                "phoneID", "emailID" };
+
+        // the last four members are numbers
+        private static final int FIRST_NUMBER = 9;
+
+        public String name()
+        {
+            return "json";
+        }
+
+        public byte[] encode( List<AddressBookEntry> people )
+        {
+            StringBuilder json = new StringBuilder( people.size() * 256 );
+            json.append( '[' );
+
+            for ( int i = 0; i < people.size(); i++ ) {
+                String[] values = fields( people.get( i ) );
+
+                json.append( i == 0 ? "{" : ",{" );
+
+                for ( int field = 0; field < NAMES.length; field++ ) {
+                    if ( field > 0 )
+                        json.append( ',' );
+
+                    json.append( '"' ).append( NAMES[ field ] ).append( "\":" );
+
+                    if ( field >= FIRST_NUMBER )
+                        json.append( values[ field ] );
+                    else
+                        quote( json, values[ field ] );
+                }
+
+                json.append( '}' );
+            }
+
+            return json.append( ']' ).toString()
+                    .getBytes( StandardCharsets.UTF_8 );
+        }
+
+        // parses only what encode writes: members in NAMES order
+        public List<AddressBookEntry> decode( byte[] bytes )
+        {
+            String json = new String( bytes, StandardCharsets.UTF_8 );
+            List<AddressBookEntry> people = new ArrayList<AddressBookEntry>();
+            int[] at = { 1 };
+
+            while ( json.charAt( at[ 0 ] ) == '{' ) {
+                String[] values = new String[ NAMES.length ];
+                at[ 0 ]++;
+
+                for ( int field = 0; field < NAMES.length; field++ ) {
+                    at[ 0 ] = json.indexOf( ':', at[ 0 ] ) + 1;
+
+                    if ( field >= FIRST_NUMBER ) {
+                        int end = at[ 0 ];
+
+                        while ( Character.isDigit( json.charAt( end ) ) )
+                            end++;
+
+                        values[ field ] = json.substring( at[ 0 ], end );
+                        at[ 0 ] = end;
+                    }
+                    else
+                        values[ field ] = unquote( json, at );
+                }
+
+                people.add( entry( values ) );
+                at[ 0 ] += json.charAt( at[ 0 ] + 1 ) == ',' ? 2 : 1;
+            }
+
+            return people;
+        }
+
+        private static void quote( StringBuilder json, String value )
+        {
+            json.append( '"' );
+
+            for ( int i = 0; i < value.length(); i++ ) {
+                char c = value.charAt( i );
+
+                if ( c == '"' || c == '\\' )
+                    json.append( '\\' ).append( c );
+                else if ( c < 0x20 )
+                    json.append( String.format( "\\u%04x", ( int ) c ) );
+                else
+                    json.append( c );
+            }
+
+            json.append( '"' );
+        }
+
+        // read the string starting at at[ 0 ] and move past it
+        private static String unquote( String json, int[] at )
+        {
+            StringBuilder value = new StringBuilder();
+            int i = at[ 0 ] + 1;
+
+            for ( char c; ( c = json.charAt( i ) ) != '"'; i++ )
+                if ( c != '\\' )
+                    value.append( c );
+                else if ( json.charAt( ++i ) == 'u' ) {
+                    value.append( ( char ) Integer.parseInt(
+                            json.substring( i + 1, i + 5 ), 16 ) );
+                    i += 4;
+                }
+                else
+                    value.append( json.charAt( i ) );
+
+            at[ 0 ] = i + 1;
+            return value.toString();
+        }
+    }
+}  // end class EntryCodecBenchmark
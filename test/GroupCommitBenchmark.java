@@ -0,0 +1,151 @@
+// GroupCommitBenchmark.java
+// Measures insert throughput with 1, 8 and 64 concurrent writers,
+// three ways:
+//
+//   shared      every writer calls newPerson on one
+//               CloudscapeDataAccess, which commits each insert on
+//               its own over one connection (the application today)
+//   perWriter   every writer has a CloudscapeDataAccess, and so a
+//               connection, of its own; still one commit per insert,
+//               but the server may coalesce concurrent commits
+//   group       every writer calls newPerson on one
+//               GroupCommitDataAccess, which commits batches; its
+//               linger is -Dlinger=<ms> (default 0)
+//
+// The database must exist with the current schema (java
+// SchemaMigrator migrate <database>); its tables are EMPTIED before
+// every run, so never point this at real data.
+//
+// Usage: java GroupCommitBenchmark <database> [secondsPerRun]
+
+// Java core packages
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class GroupCommitBenchmark {
+
+    private static final int[] WRITERS = { 1, 8, 64 };
+
+    public static void main( String args[] ) throws Exception
+    {
+        if ( args.length < 1 ) {
+            System.err.println(
+                    "Usage: java GroupCommitBenchmark <database> " +
+                            "[secondsPerRun]" );
+            System.exit( 1 );
+        }
+
+        String database = args[ 0 ];
+        int seconds = args.length > 1 ? Integer.parseInt( args[ 1 ] ) : 5;
+
+        System.out.printf( "%-10s %8s %12s %12s%n", "mode", "writers",
+                "inserts/s", "mean ms" );
+
+        for ( int writers : WRITERS )
+            for ( String mode : new String[] { "shared", "perWriter",
+                    "group" } ) {
+                empty( database );
+                run( database, mode, writers, seconds );
+            }
+    }
+
+    // insert for the given time with the given writers, and report
+    private static void run( String database, String mode, int writers,
+            int seconds ) throws Exception
+    {
+        final List<AddressBookDataAccess> sources =
+                new ArrayList<AddressBookDataAccess>();
+
+        if ( mode.equals( "perWriter" ) )
+            for ( int i = 0; i < writers; i++ )
+                sources.add( new CloudscapeDataAccess( database ) );
+        else if ( mode.equals( "group" ) )
+            sources.add( new GroupCommitDataAccess(
+                    new CloudscapeDataAccess( database ), 64,
+                    Long.getLong( "linger", 0 ) ) );
+        else
+            sources.add( new CloudscapeDataAccess( database ) );
+
+        final AtomicLong inserts = new AtomicLong();
+        final AtomicLong nanos = new AtomicLong();
+        final long end = System.nanoTime() + seconds * 1000000000L;
+        ExecutorService pool = Executors.newFixedThreadPool( writers );
+        List<Future<?>> done = new ArrayList<Future<?>>();
+
+        for ( int i = 0; i < writers; i++ ) {
+            final AddressBookDataAccess source =
+                    sources.get( i % sources.size() );
+            final int writer = i;
+
+            done.add( pool.submit( new Callable<Void>() {
+                public Void call() throws Exception
+                {
+                    for ( int n = 0; System.nanoTime() < end; n++ ) {
+                        long start = System.nanoTime();
+
+                        if ( !source.newPerson( entry( writer, n ) ) )
+                            throw new IllegalStateException(
+                                    "insert failed" );
+
+                        nanos.addAndGet( System.nanoTime() - start );
+                        inserts.incrementAndGet();
+                    }
+
+                    return null;
+                }
+            } ) );
+        }
+
+        for ( Future<?> future : done )
+            future.get();
+
+        pool.shutdown();
+
+        for ( AddressBookDataAccess source : sources )
+            source.close();
+
+        System.out.printf( "%-10s %8d %12.0f %12.2f%n", mode, writers,
+                inserts.get() / ( double ) seconds,
+                nanos.get() / 1e6 / Math.max( 1, inserts.get() ) );
+    }
+
+    // a distinct entry for each insert
+    private static AddressBookEntry entry( int writer, int n )
+    {
+        AddressBookEntry person = new AddressBookEntry();
+        person.setFirstName( "Writer" + writer );
+        person.setLastName( "Bench" + n );
+        person.setAddress1( n + " Main Street" );
+        person.setAddress2( "" );
+        person.setCity( "Galway" );
+        person.setState( "Galway" );
+        person.setEircode( "H91 F4E2" );
+        person.setPhoneNumber( "087 123 " + ( 1000 + n % 9000 ) );
+        person.setEmailAddress( "w" + writer + "n" + n + "@example.com" );
+        return person;
+    }
+
+    // remove every row, so that each run starts from the same state
+    private static void empty( String database ) throws Exception
+    {
+        Connection connection =
+                CloudscapeDataAccess.openConnection( database );
+
+        try {
+            Statement statement = connection.createStatement();
+
+            for ( String table : new String[] { "contactCards",
+                    "addresses", "phoneNumbers", "emailAddresses",
+                    "names" } )
+                statement.executeUpdate( "DELETE FROM " + table );
+
+            connection.commit();
+            statement.close();
+        }
+        finally {
+            connection.close();
+        }
+    }
+}  // end class GroupCommitBenchmark
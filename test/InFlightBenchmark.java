@@ -0,0 +1,211 @@
+// InFlightBenchmark.java
+// Keeps 1,000 findPerson requests in flight against the same number
+// of connections, two ways:
+//
+//   blocking   a thread per request, as a blocking server would run
+//              them: 1,000 caller threads share a pool of
+//              CloudscapeDataAccess connections and each waits for
+//              its own result
+//   async      one caller thread issues findPersonAsync to an
+//              AsyncDataAccess, and a new request each time one
+//              completes
+//
+// and reports throughput, latency from issue to result (including
+// the wait for a connection) and the most threads the JVM had.
+// The tables are EMPTIED and refilled first (see BenchmarkData).
+//
+// Usage: java InFlightBenchmark <database> [connections] [requests]
+//            [inFlight]
+
+// Java core packages
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+public class InFlightBenchmark {
+
+    private static final int PEOPLE = 100000;
+
+    public static void main( String args[] ) throws Exception
+    {
+        if ( args.length < 1 ) {
+            System.err.println( "Usage: java InFlightBenchmark <database> " +
+                    "[connections] [requests] [inFlight]" );
+            System.exit( 1 );
+        }
+
+        final String database = args[ 0 ];
+        int connections = args.length > 1 ? Integer.parseInt( args[ 1 ] ) : 8;
+        int requests = args.length > 2 ? Integer.parseInt( args[ 2 ] ) : 50000;
+        int inFlight = args.length > 3 ? Integer.parseInt( args[ 3 ] ) : 1000;
+
+        BenchmarkData.fill( database, PEOPLE );
+
+        // the same random last names for both modes
+        Random random = new Random( 1 );
+        String[] lastNames = new String[ requests ];
+
+        for ( int i = 0; i < requests; i++ )
+            lastNames[ i ] = "Bench" + random.nextInt( PEOPLE / 10 );
+
+        System.out.printf( "%d connections, %d requests, %d in flight%n",
+                connections, requests, inFlight );
+        System.out.printf( "%-10s %10s %10s %10s %10s %8s%n", "mode",
+                "req/s", "mean ms", "p50 ms", "p99 ms", "threads" );
+
+        // connections for the blocking mode
+        BlockingQueue<CloudscapeDataAccess> pool =
+                new ArrayBlockingQueue<CloudscapeDataAccess>( connections );
+
+        for ( int i = 0; i < connections; i++ )
+            pool.add( new CloudscapeDataAccess( database ) );
+
+        // a request issued as another completes finds its slot free
+        AsyncDataAccess async = new AsyncDataAccess( new DataAccessFactory() {
+            public AddressBookDataAccess create() throws Exception
+            {
+                return new CloudscapeDataAccess( database );
+            }
+        }, connections, inFlight );
+
+        // warm up the JIT, the connections and the server
+        blocking( pool, lastNames, inFlight );
+        async( async, lastNames, inFlight );
+
+        report( "blocking", blocking( pool, lastNames, inFlight ) );
+        report( "async", async( async, lastNames, inFlight ) );
+
+        async.close();
+
+        for ( CloudscapeDataAccess connection : pool )
+            connection.close();
+    }
+
+    // Run every search on inFlight caller threads, each taking a
+    // connection from pool for its search. Returns the latency of
+    // each request, then the elapsed time, in nanoseconds.
+    private static long[] blocking(
+            final BlockingQueue<CloudscapeDataAccess> pool,
+            final String[] lastNames, int inFlight ) throws Exception
+    {
+        final long[] nanos = new long[ lastNames.length + 1 ];
+        final AtomicInteger next = new AtomicInteger();
+        final ConcurrentLinkedQueue<Exception> failures =
+                new ConcurrentLinkedQueue<Exception>();
+        Thread[] callers = new Thread[ inFlight ];
+
+        resetPeakThreads();
+        long start = System.nanoTime();
+
+        for ( int t = 0; t < inFlight; t++ ) {
+            callers[ t ] = new Thread( new Runnable() {
+                public void run()
+                {
+                    for ( int i = next.getAndIncrement(); i < lastNames.length;
+                            i = next.getAndIncrement() ) {
+                        long issued = System.nanoTime();
+
+                        try {
+                            CloudscapeDataAccess database = pool.take();
+
+                            try {
+                                database.findPerson( lastNames[ i ] );
+                            }
+                            finally {
+                                pool.add( database );
+                            }
+                        }
+                        catch ( Exception exception ) {
+                            failures.add( exception );
+                        }
+
+                        nanos[ i ] = System.nanoTime() - issued;
+                    }
+                }
+            } );
+            callers[ t ].start();
+        }
+
+        for ( Thread caller : callers )
+            caller.join();
+
+        nanos[ lastNames.length ] = System.nanoTime() - start;
+        check( failures );
+        return nanos;
+    }
+
+    // Issue every search from this thread as findPersonAsync,
+    // keeping inFlight outstanding. Returns as blocking does.
+    private static long[] async( AsyncDataAccess async,
+            String[] lastNames, int inFlight ) throws Exception
+    {
+        final long[] nanos = new long[ lastNames.length + 1 ];
+        final Semaphore slots = new Semaphore( inFlight );
+        final CountDownLatch done = new CountDownLatch( lastNames.length );
+        final ConcurrentLinkedQueue<Throwable> failures =
+                new ConcurrentLinkedQueue<Throwable>();
+
+        resetPeakThreads();
+        long start = System.nanoTime();
+
+        for ( int i = 0; i < lastNames.length; i++ ) {
+            slots.acquire();
+
+            final int request = i;
+            final long issued = System.nanoTime();
+
+            async.findPersonAsync( lastNames[ i ] ).whenComplete(
+                    new BiConsumer<ArrayList<AddressBookEntry>, Throwable>() {
+                        public void accept(
+                                ArrayList<AddressBookEntry> people,
+                                Throwable failure )
+                        {
+                            nanos[ request ] = System.nanoTime() - issued;
+
+                            if ( failure != null )
+                                failures.add( failure );
+
+                            slots.release();
+                            done.countDown();
+                        }
+                    } );
+        }
+
+        done.await();
+        nanos[ lastNames.length ] = System.nanoTime() - start;
+        check( failures );
+        return nanos;
+    }
+
+    private static void resetPeakThreads()
+    {
+        ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+    }
+
+    private static void check( Collection<? extends Throwable> failures )
+    {
+        if ( !failures.isEmpty() )
+            throw new IllegalStateException( failures.size() +
+                    " requests failed", failures.iterator().next() );
+    }
+
+    private static void report( String mode, long[] nanos )
+    {
+        int requests = nanos.length - 1;
+        long[] sorted = Arrays.copyOf( nanos, requests );
+        Arrays.sort( sorted );
+        long total = 0;
+
+        for ( long n : sorted )
+            total += n;
+
+        System.out.printf( "%-10s %10.0f %10.2f %10.2f %10.2f %8d%n", mode,
+                requests / ( nanos[ requests ] / 1e9 ),
+                total / 1e6 / requests,
+                sorted[ requests / 2 ] / 1e6,
+                sorted[ requests * 99 / 100 ] / 1e6,
+                ManagementFactory.getThreadMXBean().getPeakThreadCount() );
+    }
+}  // end class InFlightBenchmark
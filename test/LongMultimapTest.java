@@ -0,0 +1,147 @@
+// LongMultimapTest.java
+// Tests of LongMultimap, above all that the backward-shift delete
+// leaves every other pair findable: in clusters that wrap around the
+// end of the table, and against a reference multimap over many
+// random adds and removes.
+
+// Java core packages
+import java.util.*;
+
+// JUnit packages
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LongMultimapTest {
+
+    @Test
+    public void storesManyValuesPerKey()
+    {
+        LongMultimap map = new LongMultimap();
+        map.add( 5, 1 );
+        map.add( 5, 2 );
+        map.add( 6, 1 );
+
+        assertEquals( 3, map.size() );
+        assertArrayEquals( new long[] { 1, 2 }, sorted( map.values( 5 ) ) );
+        assertTrue( map.contains( 6, 1 ) );
+        assertFalse( map.contains( 6, 2 ) );
+        assertEquals( 0, map.values( 7 ).length );
+        assertEquals( 0, map.values( 0 ).length );
+    }
+
+    @Test
+    public void removesOnePairAndIgnoresUnknownOnes()
+    {
+        LongMultimap map = new LongMultimap();
+        map.add( 5, 1 );
+        map.add( 5, 2 );
+
+        map.remove( 5, 3 );
+        map.remove( 9, 1 );
+        assertEquals( 2, map.size() );
+
+        map.remove( 5, 1 );
+        assertEquals( 1, map.size() );
+        assertArrayEquals( new long[] { 2 }, map.values( 5 ) );
+    }
+
+    @Test
+    public void deleteInAClusterThatWrapsAroundKeepsTheRestFindable()
+    {
+        // keys whose home is the last slot of the initial 64-slot
+        // table, so that the cluster they form wraps to slot 0
+        List<Long> keys = keysWithHome( 63, 64, 4 );
+        LongMultimap map = new LongMultimap();
+
+        for ( long key : keys )
+            map.add( key, key );
+
+        // remove from the front, middle and back of the cluster
+        for ( int removed : new int[] { 0, 2, 3 } ) {
+            map.remove( keys.get( removed ), keys.get( removed ) );
+            assertFalse( map.contains( keys.get( removed ),
+                    keys.get( removed ) ) );
+        }
+
+        assertTrue( map.contains( keys.get( 1 ), keys.get( 1 ) ) );
+        assertEquals( 1, map.size() );
+    }
+
+    @Test
+    public void matchesAReferenceMultimapUnderRandomChanges()
+    {
+        Random random = new Random( 42 );
+        LongMultimap map = new LongMultimap();
+        Map<Long, List<Long>> reference = new HashMap<Long, List<Long>>();
+        int pairs = 0;
+
+        for ( int step = 0; step < 200000; step++ ) {
+            // few keys and values, so that clusters are long and
+            // removes often hit stored pairs
+            long key = 1 + random.nextInt( 500 );
+            long value = random.nextInt( 8 );
+            List<Long> values = reference.get( key );
+
+            if ( random.nextInt( 3 ) > 0 ) {
+                map.add( key, value );
+
+                if ( values == null ) {
+                    values = new ArrayList<Long>();
+                    reference.put( key, values );
+                }
+
+                values.add( value );
+                pairs++;
+            }
+            else {
+                map.remove( key, value );
+
+                if ( values != null && values.remove( value ) )
+                    pairs--;
+            }
+
+            if ( step % 1000 == 0 )
+                assertSameContents( reference, map, pairs );
+        }
+
+        assertSameContents( reference, map, pairs );
+    }
+
+    private static void assertSameContents(
+            Map<Long, List<Long>> reference, LongMultimap map, int pairs )
+    {
+        assertEquals( pairs, map.size() );
+
+        for ( Map.Entry<Long, List<Long>> entry : reference.entrySet() ) {
+            long[] expected = new long[ entry.getValue().size() ];
+
+            for ( int i = 0; i < expected.length; i++ )
+                expected[ i ] = entry.getValue().get( i );
+
+            assertArrayEquals( "key " + entry.getKey(), sorted( expected ),
+                    sorted( map.values( entry.getKey() ) ) );
+        }
+    }
+
+    // count keys whose home slot in a table of capacity slots is home,
+    // by LongMultimap's hash
+    private static List<Long> keysWithHome( int home, int capacity,
+            int count )
+    {
+        List<Long> keys = new ArrayList<Long>();
+
+        for ( long key = 1; keys.size() < count; key++ )
+            if ( ( ( int ) ( ( key * 0x9E3779B97F4A7C15L ) >>> 32 ) &
+                    ( capacity - 1 ) ) == home )
+                keys.add( key );
+
+        return keys;
+    }
+
+    private static long[] sorted( long[] values )
+    {
+        long[] copy = values.clone();
+        Arrays.sort( copy );
+        return copy;
+    }
+}  // end class LongMultimapTest
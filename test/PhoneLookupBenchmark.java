@@ -0,0 +1,118 @@
+// PhoneLookupBenchmark.java
+// Measures findByPhone latency over a database of many people:
+//
+//   database        CloudscapeDataAccess, an equality lookup on
+//                   idx_phoneNumbers_phoneKey
+//   index miss      ReverseLookupDataAccess, a number nobody has,
+//                   answered from the PhoneIndex alone
+//   index, 1st      ReverseLookupDataAccess, a number looked up for
+//                   the first time: the index, then the database
+//   index, cached   the same numbers again, from the entry cache
+//   PhoneIndex      PhoneIndex.find alone
+//
+// The tables are EMPTIED and refilled first (see BenchmarkData).
+//
+// Usage: java PhoneLookupBenchmark <database> [people] [lookups]
+
+// Java core packages
+import java.util.*;
+
+public class PhoneLookupBenchmark {
+
+    public static void main( String args[] ) throws Exception
+    {
+        if ( args.length < 1 ) {
+            System.err.println( "Usage: java PhoneLookupBenchmark " +
+                    "<database> [people] [lookups]" );
+            System.exit( 1 );
+        }
+
+        String database = args[ 0 ];
+        int people = args.length > 1 ? Integer.parseInt( args[ 1 ] ) : 100000;
+        int lookups = args.length > 2 ? Integer.parseInt( args[ 2 ] ) : 5000;
+
+        BenchmarkData.fill( database, people );
+
+        CloudscapeDataAccess cloudscape = new CloudscapeDataAccess( database );
+        ReverseLookupDataAccess lookup =
+                new ReverseLookupDataAccess( cloudscape, lookups, 600 );
+        lookup.loadInBackground( database );
+
+        while ( !lookup.isLoaded() )
+            Thread.sleep( 10 );
+
+        // the same random people for every mode
+        Random random = new Random( 1 );
+        String[] numbers = new String[ lookups ];
+        String[] unknown = new String[ lookups ];
+
+        for ( int i = 0; i < lookups; i++ ) {
+            numbers[ i ] = BenchmarkData.phoneNumber(
+                    random.nextInt( people ) );
+            unknown[ i ] = BenchmarkData.phoneNumber(
+                    people + random.nextInt( people ) );
+        }
+
+        System.out.printf( "%d people, %d lookups%n", people, lookups );
+        System.out.printf( "%-14s %10s %10s %10s%n", "mode", "mean us",
+                "p50 us", "p99 us" );
+
+        // warm up the JIT and the server's buffer pool
+        time( cloudscape, numbers );
+
+        report( "database", time( cloudscape, numbers ) );
+        report( "index miss", time( lookup, unknown ) );
+        report( "index, 1st", time( lookup, numbers ) );
+        report( "index, cached", time( lookup, numbers ) );
+
+        PhoneIndex index = new PhoneIndex();
+
+        for ( int i = 0; i < people; i++ )
+            index.add( i + 1, PhoneNumbers.key(
+                    BenchmarkData.phoneNumber( i ) ) );
+
+        long[] nanos = new long[ lookups ];
+
+        for ( int round = 0; round < 2; round++ )
+            for ( int i = 0; i < lookups; i++ ) {
+                long key = PhoneNumbers.key( numbers[ i ] );
+                long start = System.nanoTime();
+                index.find( key );
+                nanos[ i ] = System.nanoTime() - start;
+            }
+
+        report( "PhoneIndex", nanos );
+
+        lookup.close();
+    }
+
+    // nanoseconds taken by each lookup
+    private static long[] time( AddressBookDataAccess database,
+            String[] numbers ) throws DataAccessException
+    {
+        long[] nanos = new long[ numbers.length ];
+
+        for ( int i = 0; i < numbers.length; i++ ) {
+            long start = System.nanoTime();
+            database.findByPhone( numbers[ i ] );
+            nanos[ i ] = System.nanoTime() - start;
+        }
+
+        return nanos;
+    }
+
+    private static void report( String mode, long[] nanos )
+    {
+        long[] sorted = nanos.clone();
+        Arrays.sort( sorted );
+        long total = 0;
+
+        for ( long n : sorted )
+            total += n;
+
+        System.out.printf( "%-14s %10.1f %10.1f %10.1f%n", mode,
+                total / 1e3 / sorted.length,
+                sorted[ sorted.length / 2 ] / 1e3,
+                sorted[ sorted.length * 99 / 100 ] / 1e3 );
+    }
+}  // end class PhoneLookupBenchmark
@@ -0,0 +1,73 @@
+// PhoneNumbersTest.java
+// Tests of PhoneNumbers: E.164 normalization of the ways numbers are
+// typed, and the packed keys.
+
+// JUnit packages
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PhoneNumbersTest {
+
+    @Test
+    public void irishNumbersAsTypedNormalizeToTheSameForm()
+    {
+        String[] typed = { "087 123 4567", "(087) 1234567", "087-123-4567",
+                "087.123.4567", "+353 87 123 4567", "00353871234567",
+                "  +353871234567  ", "87 123 4567" };
+
+        for ( String phone : typed )
+            assertEquals( phone, "+353871234567",
+                    PhoneNumbers.toE164( phone ) );
+    }
+
+    @Test
+    public void internationalNumbersKeepTheirCountryCode()
+    {
+        assertEquals( "+442079460000",
+                PhoneNumbers.toE164( "+44 20 7946 0000" ) );
+        assertEquals( "+442079460000",
+                PhoneNumbers.toE164( "0044 20 7946 0000" ) );
+        assertEquals( "+12025550123",
+                PhoneNumbers.toE164( "+1 (202) 555-0123" ) );
+    }
+
+    @Test
+    public void rejectsWhatIsNotAPhoneNumber()
+    {
+        assertNull( PhoneNumbers.toE164( null ) );
+        assertNull( PhoneNumbers.toE164( "" ) );
+        assertNull( PhoneNumbers.toE164( "unknown" ) );
+        assertNull( PhoneNumbers.toE164( "087 123 4567 ext 12" ) );
+        assertNull( PhoneNumbers.toE164( "087 12+3 4567" ) );
+
+        // too short, too long, and a country code starting with 0
+        assertNull( PhoneNumbers.toE164( "+353 1" ) );
+        assertNull( PhoneNumbers.toE164( "+1234567890123456" ) );
+        assertNull( PhoneNumbers.toE164( "+0871234567" ) );
+    }
+
+    @Test
+    public void keysAreEqualForEqualNumbersAndReversible()
+    {
+        long key = PhoneNumbers.key( "087 123 4567" );
+
+        assertEquals( 353871234567L, key );
+        assertEquals( key, PhoneNumbers.key( "+353 (87) 123-4567" ) );
+        assertEquals( "+353871234567", PhoneNumbers.fromKey( key ) );
+        assertNotEquals( key, PhoneNumbers.key( "087 123 4568" ) );
+    }
+
+    @Test
+    public void keyOfANonNumberIsZero()
+    {
+        assertEquals( 0, PhoneNumbers.key( "n/a" ) );
+        assertEquals( 0, PhoneNumbers.key( null ) );
+    }
+
+    @Test
+    public void longestNumbersFitInAKey()
+    {
+        assertEquals( 999999999999999L,
+                PhoneNumbers.key( "+999 999 999 999 999" ) );
+    }
+}  // end class PhoneNumbersTest
@@ -0,0 +1,108 @@
+// RingBufferTest.java
+// Tests of RingBuffer: order, capacity, wrap-around, and many
+// producers with one consumer.
+
+// Java core packages
+import java.util.*;
+import java.util.concurrent.*;
+
+// JUnit packages
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class RingBufferTest {
+
+    @Test
+    public void capacityIsRoundedUpToAPowerOfTwo()
+    {
+        assertEquals( 2, new RingBuffer<String>( 1 ).capacity() );
+        assertEquals( 4, new RingBuffer<String>( 3 ).capacity() );
+        assertEquals( 4, new RingBuffer<String>( 4 ).capacity() );
+        assertEquals( 65536, new RingBuffer<String>( 65536 ).capacity() );
+    }
+
+    @Test
+    public void firstInFirstOutUntilFull()
+    {
+        RingBuffer<Integer> buffer = new RingBuffer<Integer>( 4 );
+
+        assertNull( buffer.poll() );
+
+        for ( int i = 0; i < 4; i++ )
+            assertTrue( buffer.offer( i ) );
+
+        assertFalse( buffer.offer( 4 ) );
+
+        for ( int i = 0; i < 4; i++ )
+            assertEquals( Integer.valueOf( i ), buffer.poll() );
+
+        assertNull( buffer.poll() );
+    }
+
+    @Test
+    public void slotsAreReusedLapAfterLap()
+    {
+        RingBuffer<Integer> buffer = new RingBuffer<Integer>( 4 );
+        int next = 0;
+
+        for ( int lap = 0; lap < 1000; lap++ ) {
+            assertTrue( buffer.offer( lap * 3 ) );
+            assertTrue( buffer.offer( lap * 3 + 1 ) );
+            assertTrue( buffer.offer( lap * 3 + 2 ) );
+
+            for ( int i = 0; i < 3; i++ )
+                assertEquals( Integer.valueOf( next++ ), buffer.poll() );
+        }
+
+        assertNull( buffer.poll() );
+    }
+
+    @Test( timeout = 30000 )
+    public void everyItemOfManyProducersArrivesOnceInProducerOrder()
+            throws Exception
+    {
+        final int producers = 4, items = 100000;
+        final RingBuffer<long[]> buffer = new RingBuffer<long[]>( 64 );
+        ExecutorService pool = Executors.newFixedThreadPool( producers );
+        List<Future<?>> done = new ArrayList<Future<?>>();
+
+        for ( int p = 0; p < producers; p++ ) {
+            final int producer = p;
+
+            done.add( pool.submit( new Callable<Void>() {
+                public Void call()
+                {
+                    for ( int i = 0; i < items; i++ )
+                        while ( !buffer.offer( new long[] { producer, i } ) )
+                            Thread.yield();
+
+                    return null;
+                }
+            } ) );
+        }
+
+        // the test thread is the single consumer
+        long[] nextOf = new long[ producers ];
+
+        for ( int received = 0; received < producers * items; ) {
+            long[] item = buffer.poll();
+
+            if ( item == null ) {
+                Thread.yield();
+                continue;
+            }
+
+            assertEquals( nextOf[ ( int ) item[ 0 ] ]++, item[ 1 ] );
+            received++;
+        }
+
+        for ( Future<?> future : done )
+            future.get();
+
+        pool.shutdown();
+        assertNull( buffer.poll() );
+
+        for ( long count : nextOf )
+            assertEquals( items, count );
+    }
+}  // end class RingBufferTest
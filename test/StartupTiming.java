@@ -0,0 +1,143 @@
+// StartupTiming.java
+// Times one start of the address book's critical path, in the two
+// orders it has had, and prints each step in milliseconds since the
+// JVM started:
+//
+//   connect-first   connect and prepare every statement, then build
+//                   the window, as before the window was shown at
+//                   once
+//   window-first    start StartupPreloader, connect and prepare on
+//                   a background thread, and build the window
+//                   meanwhile, as AddressBook does now
+//
+// The window is the main window's components (desktop, menu bar,
+// toolbar, search field and list, status line) without the frame,
+// so that the timing runs headless; showing the frame itself costs
+// the same in both orders. Run each order in a fresh JVM, several
+// times, and with and without an AppCDS archive, e.g. on JDK 13 or
+// later:
+//
+//     java -XX:ArchiveClassesAtExit=timing.jsa -cp <path> \
+//         StartupTiming <database> window-first
+//     java -XX:SharedArchiveFile=timing.jsa -cp <path> \
+//         StartupTiming <database> window-first
+//
+// The class path must include startup/preload.classlist from src.
+// AppCDS archives classes from jars only, so package the compiled
+// classes and the list into jars to measure it.
+//
+// Usage: java StartupTiming <database> connect-first|window-first
+
+// Java core packages
+import java.awt.BorderLayout;
+import java.lang.management.ManagementFactory;
+
+// Java extension packages
+import javax.swing.*;
+
+public class StartupTiming {
+
+    public static void main( String args[] ) throws Exception
+    {
+        long mainMillis = sinceStart();
+
+        if ( args.length < 2 || !( args[ 1 ].equals( "connect-first" ) ||
+                args[ 1 ].equals( "window-first" ) ) ) {
+            System.err.println( "Usage: java StartupTiming <database> " +
+                    "connect-first|window-first" );
+            System.exit( 1 );
+        }
+
+        final String database = args[ 0 ];
+        long windowMillis, connectedMillis;
+        final CloudscapeDataAccess[] opened = new CloudscapeDataAccess[ 1 ];
+
+        if ( args[ 1 ].equals( "connect-first" ) ) {
+            opened[ 0 ] = connect( database );
+            connectedMillis = sinceStart();
+            buildWindow();
+            windowMillis = sinceStart();
+        }
+        else {
+            final Exception[] failure = new Exception[ 1 ];
+            StartupPreloader.start();
+
+            Thread connecting = new Thread( "connect" ) {
+                public void run()
+                {
+                    try {
+                        opened[ 0 ] = connect( database );
+                    }
+                    catch ( Exception exception ) {
+                        failure[ 0 ] = exception;
+                    }
+                }
+            };
+            connecting.start();
+
+            buildWindow();
+            windowMillis = sinceStart();
+
+            connecting.join();
+            connectedMillis = sinceStart();
+
+            if ( failure[ 0 ] != null )
+                throw failure[ 0 ];
+        }
+
+        System.out.printf( "%s main %d window %d connected %d%n",
+                args[ 1 ], mainMillis, windowMillis, connectedMillis );
+
+        opened[ 0 ].close();
+    }
+
+    // open the database and prepare every statement
+    private static CloudscapeDataAccess connect( String database )
+            throws Exception
+    {
+        CloudscapeDataAccess cloudscape = new CloudscapeDataAccess( database );
+        cloudscape.prepareAll();
+        return cloudscape;
+    }
+
+    // the components of the main window, laid out in a panel
+    private static void buildWindow()
+    {
+        JMenu fileMenu = new JMenu( "File" );
+        fileMenu.add( new JMenuItem( "New" ) );
+        fileMenu.add( new JMenuItem( "Search" ) );
+        fileMenu.add( new JMenuItem( "Exit" ) );
+
+        JMenuBar menuBar = new JMenuBar();
+        menuBar.add( fileMenu );
+
+        JToolBar toolBar = new JToolBar();
+        toolBar.add( new JButton( "New" ) );
+        toolBar.add( new JButton( "Save" ) );
+        toolBar.add( new JButton( "Delete" ) );
+
+        JPanel search = new JPanel( new BorderLayout() );
+        search.add( new JTextField( 20 ), BorderLayout.NORTH );
+        search.add( new JScrollPane( new JList<String>() ),
+                BorderLayout.CENTER );
+
+        JPanel top = new JPanel( new BorderLayout() );
+        top.add( menuBar, BorderLayout.NORTH );
+        top.add( toolBar, BorderLayout.SOUTH );
+
+        JPanel window = new JPanel( new BorderLayout() );
+        window.add( top, BorderLayout.NORTH );
+        window.add( new JDesktopPane(), BorderLayout.CENTER );
+        window.add( search, BorderLayout.WEST );
+        window.add( new JLabel( "Connecting to database..." ),
+                BorderLayout.SOUTH );
+        window.setSize( 1024, 768 );
+        window.doLayout();
+    }
+
+    private static long sinceStart()
+    {
+        return System.currentTimeMillis() -
+                ManagementFactory.getRuntimeMXBean().getStartTime();
+    }
+}  // end class StartupTiming
@@ -0,0 +1,113 @@
+// StringDictionaryTest.java
+// Tests of StringDictionary: stable codes, shared values, the size
+// limit, and concurrent encoding of the same values.
+
+// Java core packages
+import java.util.*;
+import java.util.concurrent.*;
+
+// JUnit packages
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class StringDictionaryTest {
+
+    @Test
+    public void equalValuesShareOneCodeAndOneString()
+    {
+        StringDictionary dictionary = new StringDictionary( 100 );
+        String galway = new String( "Galway" );
+
+        int code = dictionary.encode( galway );
+
+        assertEquals( code, dictionary.encode( new String( "Galway" ) ) );
+        assertNotEquals( code, dictionary.encode( "Cork" ) );
+        assertSame( galway, dictionary.decode( code ) );
+        assertEquals( 2, dictionary.size() );
+    }
+
+    @Test
+    public void growsPastItsInitialTable()
+    {
+        StringDictionary dictionary = new StringDictionary( 1000 );
+
+        for ( int i = 0; i < 500; i++ )
+            assertEquals( i, dictionary.encode( "city" + i ) );
+
+        for ( int i = 0; i < 500; i++ )
+            assertEquals( "city" + i, dictionary.decode( i ) );
+    }
+
+    @Test
+    public void stopsCodingNewValuesWhenFull()
+    {
+        StringDictionary dictionary = new StringDictionary( 2 );
+
+        int a = dictionary.encode( "a" );
+        int b = dictionary.encode( "b" );
+
+        assertEquals( StringDictionary.NOT_CODED, dictionary.encode( "c" ) );
+        assertEquals( a, dictionary.encode( "a" ) );
+        assertEquals( b, dictionary.encode( "b" ) );
+        assertEquals( 2, dictionary.size() );
+    }
+
+    @Test
+    public void nullIsNeverCoded()
+    {
+        assertEquals( StringDictionary.NOT_CODED,
+                new StringDictionary( 10 ).encode( null ) );
+    }
+
+    @Test
+    public void codesFitInAShort()
+    {
+        StringDictionary dictionary = new StringDictionary( 100000 );
+
+        for ( int i = 0; i < Short.MAX_VALUE; i++ )
+            dictionary.encode( "v" + i );
+
+        assertEquals( StringDictionary.NOT_CODED,
+                dictionary.encode( "one too many" ) );
+    }
+
+    @Test( timeout = 30000 )
+    public void threadsEncodingTheSameValuesAgreeOnTheirCodes()
+            throws Exception
+    {
+        final StringDictionary dictionary = new StringDictionary( 8192 );
+        final int values = 2000;
+        ExecutorService pool = Executors.newFixedThreadPool( 8 );
+        List<Future<int[]>> results = new ArrayList<Future<int[]>>();
+
+        for ( int t = 0; t < 8; t++ ) {
+            final int offset = t * 97;
+
+            results.add( pool.submit( new Callable<int[]>() {
+                public int[] call()
+                {
+                    int[] codes = new int[ values ];
+
+                    // each thread in a different order
+                    for ( int i = 0; i < values; i++ ) {
+                        int value = ( i + offset ) % values;
+                        codes[ value ] = dictionary.encode( "value" + value );
+                    }
+
+                    return codes;
+                }
+            } ) );
+        }
+
+        int[] first = results.get( 0 ).get();
+
+        for ( Future<int[]> result : results )
+            assertArrayEquals( first, result.get() );
+
+        pool.shutdown();
+        assertEquals( values, dictionary.size() );
+
+        for ( int value = 0; value < values; value++ )
+            assertEquals( "value" + value, dictionary.decode( first[ value ] ) );
+    }
+}  // end class StringDictionaryTest
@@ -0,0 +1,71 @@
+// TokenBucketTest.java
+// Tests of TokenBucket: the burst, refilling at the rate, the cap on
+// saved tokens and the wait reported when empty. Rates are chosen so
+// that the time the test itself takes cannot earn a token.
+
+// JUnit packages
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TokenBucketTest {
+
+    @Test
+    public void startsFullAndAllowsTheBurst()
+    {
+        TokenBucket bucket = new TokenBucket( 0.001, 3 );
+
+        assertTrue( bucket.tryAcquire() );
+        assertTrue( bucket.tryAcquire() );
+        assertTrue( bucket.tryAcquire() );
+        assertFalse( bucket.tryAcquire() );
+    }
+
+    @Test
+    public void reportsTheWaitForTheNextToken()
+    {
+        TokenBucket bucket = new TokenBucket( 0.5, 1 );
+
+        assertEquals( 0, bucket.nanosUntilAvailable() );
+        assertTrue( bucket.tryAcquire() );
+
+        // a token every two seconds
+        long wait = bucket.nanosUntilAvailable();
+        assertTrue( "wait " + wait, wait > 1900000000L && wait <= 2000000000L );
+    }
+
+    @Test
+    public void refillsAtTheRate() throws InterruptedException
+    {
+        TokenBucket bucket = new TokenBucket( 20, 1 );
+
+        assertTrue( bucket.tryAcquire() );
+        assertFalse( bucket.tryAcquire() );
+
+        Thread.sleep( 60 );
+        assertTrue( bucket.tryAcquire() );
+    }
+
+    @Test
+    public void savesNoMoreThanTheBurst() throws InterruptedException
+    {
+        TokenBucket bucket = new TokenBucket( 10, 2 );
+
+        Thread.sleep( 300 );
+
+        assertTrue( bucket.tryAcquire() );
+        assertTrue( bucket.tryAcquire() );
+        assertFalse( bucket.tryAcquire() );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void rejectsAZeroRate()
+    {
+        new TokenBucket( 0, 1 );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void rejectsABurstBelowOne()
+    {
+        new TokenBucket( 1, 0.5 );
+    }
+}  // end class TokenBucketTest